@@ -6,6 +6,9 @@ import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
 
 /**
  * Class AccelerometerHardwareInterface
@@ -17,12 +20,14 @@ import android.hardware.SensorManager;
  * 
  * Dependencies: This depends upon the Android Activity class to start the accelerometer
  * and must also have the IAccelerometerInterface object to send values to. This class
- * also implements the SensorEventListener interface to read the sensor.
+ * also implements the SensorEventListener interface to read the sensor and
+ * the ISampleSource interface. The sensor events are delivered on a dedicated
+ * processing thread so the listener never runs on the user interface thread.
  * 
  * Android Dependencies: Android API Level 9 (Android 2.3.1 and above)
  * 
  * @author Peter B Norton
- * @version 0.30
+ * @version 0.40
  * 
  *          Revision History
  * 
@@ -38,13 +43,19 @@ import android.hardware.SensorManager;
  *          a LINEAR ACCELERATION type, note this means that this version is
  *          only compatible with Gingerbread or above
  * 
+ *          0.40 The sensor events are now delivered through a Handler on a
+ *          dedicated processing thread rather than the main thread, and the
+ *          listener is set before the sensor is registered
+ * 
  */
-public class AccelerometerHardwareInterface implements SensorEventListener {
+public class AccelerometerHardwareInterface implements SensorEventListener,
+		ISampleSource {
 
 	private SensorManager acc_manager;
-	private IAccelerometerListener listener;
+	private volatile IAccelerometerListener listener;
 	private Activity host;
 	private boolean active;
+	private HandlerThread processing_thread; /* Thread the events arrive on */
 
 	/**
 	 * Default Constructor for this Hardware Manager
@@ -57,14 +68,17 @@ public class AccelerometerHardwareInterface implements SensorEventListener {
 		host = host_activity;
 		active = false;
 		listener = null;
+		processing_thread = null;
 	}
 
 	/**
 	 * Start the Accelerometer Listening Capture must have the required
-	 * Accelerometer Listener passed in
+	 * Accelerometer Listener passed in, the listener is called on the
+	 * processing thread
 	 * @param acc_listener
 	 *            Listener for Accelerometer Events
 	 */
+	@Override
 	public void start(IAccelerometerListener acc_listener) {
 		try {
 			if (active) {
@@ -74,12 +88,21 @@ public class AccelerometerHardwareInterface implements SensorEventListener {
 				// Obtain the Sensors
 				acc_manager = (SensorManager) host
 						.getSystemService(Context.SENSOR_SERVICE);
+				// Store the Listener for the Manager to send data to
+				listener = acc_listener;
+				// Start the processing thread for the sensor events
+				processing_thread = new HandlerThread("SensorProcessing",
+						Process.THREAD_PRIORITY_URGENT_DISPLAY);
+				processing_thread.start();
 				// Register the Listener
 				active = acc_manager.registerListener(this, acc_manager
 						.getDefaultSensor(Sensor.TYPE_LINEAR_ACCELERATION),
-						SensorManager.SENSOR_DELAY_FASTEST);
-				// Store the Listener for the Manager to send data to
-				listener = acc_listener;
+						SensorManager.SENSOR_DELAY_FASTEST, new Handler(
+								processing_thread.getLooper()));
+				if (!active) {
+					stop_processing_thread();
+					listener = null;
+				}
 			} else {
 				throw new Exception(
 						"Host Activity is null or accelerometer not supported");
@@ -90,8 +113,10 @@ public class AccelerometerHardwareInterface implements SensorEventListener {
 	}
 
 	/**
-	 * Stop the Accelerometer Listening Capture
+	 * Stop the Accelerometer Listening Capture, waits for the processing
+	 * thread to finish any event it is handling
 	 */
+	@Override
 	public void stop() {
 		if (active) {
 			try {
@@ -99,6 +124,7 @@ public class AccelerometerHardwareInterface implements SensorEventListener {
 					acc_manager.unregisterListener(this, acc_manager
 							.getDefaultSensor(Sensor.TYPE_LINEAR_ACCELERATION));
 				}
+				stop_processing_thread();
 				listener = null;
 				active = false;
 			} catch (Exception e) {
@@ -110,11 +136,27 @@ public class AccelerometerHardwareInterface implements SensorEventListener {
 
 	}
 
+	/**
+	 * Stop the processing thread once it has handled the current event
+	 */
+	private void stop_processing_thread() {
+		if (processing_thread != null) {
+			processing_thread.quit();
+			try {
+				processing_thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			processing_thread = null;
+		}
+	}
+
 	/**
 	 * Get the current active state of the accelerometer
 	 * 
 	 * @return Active state flag
 	 */
+	@Override
 	public boolean getActive() {
 		return active;
 	}
@@ -131,8 +173,9 @@ public class AccelerometerHardwareInterface implements SensorEventListener {
 		// Obtain the values from the accelerometer and
 		// send them to the listener
 
-		if (listener != null) {
-			listener.updateAcceleration(event.values[0], event.values[1],
+		IAccelerometerListener acc_listener = listener;
+		if (acc_listener != null) {
+			acc_listener.updateAcceleration(event.values[0], event.values[1],
 					event.values[2], event.timestamp);
 		}
 
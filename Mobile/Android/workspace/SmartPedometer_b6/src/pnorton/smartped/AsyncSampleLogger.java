@@ -0,0 +1,310 @@
+package pnorton.smartped;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Class AsyncSampleLogger
+ * 
+ * Responsibilities: Moves the writing of a data log off the sensor thread. The
+ * sensor thread (the single producer) stores each record in a preallocated
+ * ring of primitive arrays and a dedicated writer thread (the single consumer)
+ * drains the ring in batches into another ISampleLogger. Nothing is allocated
+ * and no lock is taken when a record is written. When the ring is full the
+ * OverflowPolicy decides whether the oldest record is dropped, the new record
+ * is dropped or the sensor thread waits for space, each of these is counted.
+ * 
+ * The ring indexes only ever increase, the head is only moved by the producer
+ * and the tail is moved by the consumer once a batch has been copied out. With
+ * DROP_OLDEST the producer may also move the tail, the consumer only keeps a
+ * batch if the tail is unchanged when it moves it so a record overwritten while
+ * it was being copied is never written.
+ * 
+ * The writer thread stops once closed or should the target logger throw, a
+ * sensor thread waiting for space with BLOCK then drops its record rather than
+ * waiting for a writer that is gone.
+ * 
+ * Dependencies: Depends on the java.util.concurrent API and the ISampleLogger
+ * interface which it also implements.
+ * 
+ * Android Dependencies: No Android Dependencies
+ * 
+ * @author Peter B Norton
+ * @version 0.59
+ * 
+ *          Revision History
+ * 
+ *          0.34 Initial version of the asynchronous logging system
+ * 
+ *          0.59 A record waiting for space with BLOCK is dropped once the
+ *          writer thread has stopped
+ * 
+ */
+public class AsyncSampleLogger implements ISampleLogger, Runnable {
+
+	/**
+	 * Enumeration for what happens when the ring is full
+	 * 
+	 * @author Peter B Norton
+	 * @version 0.34
+	 */
+	public enum OverflowPolicy {
+		/** Drop the oldest record in the ring to make space */
+		DROP_OLDEST,
+		/** Drop the record being written */
+		DROP_NEWEST,
+		/** Wait on the sensor thread until there is space */
+		BLOCK
+	}
+
+	/** Default number of records held in the ring */
+	public static final int DEFAULT_CAPACITY = 8192;
+	private static final int BATCH_SIZE = 256; /* Records written per batch */
+	private static final long IDLE_WAIT = 10000000L; /* Writer poll in ns */
+	private static final long BLOCK_WAIT = 100000L; /* Producer wait in ns */
+
+	private ISampleLogger target; /* Logger the records are written to */
+	private OverflowPolicy policy;
+	private int mask; /* Capacity - 1 for the ring index */
+
+	/* Ring of records */
+	private float[] ring_scalar;
+	private float[] ring_filtered;
+	private float[] ring_peak;
+	private float[] ring_threshold;
+	private long[] ring_time;
+	private AtomicLong head; /* Next record to be written by the producer */
+	private AtomicLong tail; /* Next record to be read by the consumer */
+
+	/* Batch copied from the ring by the writer thread */
+	private float[] batch_scalar;
+	private float[] batch_filtered;
+	private float[] batch_peak;
+	private float[] batch_threshold;
+	private long[] batch_time;
+
+	/* Counters, each only written by one thread */
+	private volatile long dropped_oldest;
+	private volatile long dropped_newest;
+	private volatile long blocked;
+	private volatile long written;
+
+	private volatile float sample_rate;
+	private volatile boolean running;
+	private Thread writer;
+
+	/**
+	 * Default Constructor with the default capacity and DROP_NEWEST policy
+	 * 
+	 * @param log
+	 *            Logger to write the records to
+	 */
+	public AsyncSampleLogger(ISampleLogger log) {
+		this(log, DEFAULT_CAPACITY, OverflowPolicy.DROP_NEWEST);
+	}
+
+	/**
+	 * Constructor which starts the writer thread
+	 * 
+	 * @param log
+	 *            Logger to write the records to
+	 * @param capacity
+	 *            Number of records held in the ring, rounded up to a power of
+	 *            2
+	 * @param overflow
+	 *            What to do when the ring is full
+	 */
+	public AsyncSampleLogger(ISampleLogger log, int capacity,
+			OverflowPolicy overflow) {
+		int size = 1;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		target = log;
+		policy = overflow;
+		mask = size - 1;
+		ring_scalar = new float[size];
+		ring_filtered = new float[size];
+		ring_peak = new float[size];
+		ring_threshold = new float[size];
+		ring_time = new long[size];
+		head = new AtomicLong(0L);
+		tail = new AtomicLong(0L);
+		batch_scalar = new float[BATCH_SIZE];
+		batch_filtered = new float[BATCH_SIZE];
+		batch_peak = new float[BATCH_SIZE];
+		batch_threshold = new float[BATCH_SIZE];
+		batch_time = new long[BATCH_SIZE];
+		dropped_oldest = 0L;
+		dropped_newest = 0L;
+		blocked = 0L;
+		written = 0L;
+		sample_rate = 0.0f;
+		running = true;
+		writer = new Thread(this, "SampleLogWriter");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	@Override
+	public void writeRecord(float scalar, float filtered, float peak,
+			float threshold, long timestamp) {
+		final long h = head.get();
+		final long capacity = mask + 1;
+		if (h - tail.get() >= capacity) {
+			switch (policy) {
+			case DROP_NEWEST:
+				dropped_newest++;
+				return;
+			case DROP_OLDEST:
+				long t;
+				while (h - (t = tail.get()) >= capacity) {
+					if (tail.compareAndSet(t, t + 1)) {
+						dropped_oldest++;
+					}
+				}
+				break;
+			case BLOCK:
+				blocked++;
+				while (h - tail.get() >= capacity) {
+					if (!running) {
+						// Nothing is left to drain the ring
+						dropped_newest++;
+						return;
+					}
+					LockSupport.unpark(writer);
+					LockSupport.parkNanos(BLOCK_WAIT);
+				}
+				break;
+			}
+		}
+		final int i = (int) (h & mask);
+		ring_scalar[i] = scalar;
+		ring_filtered[i] = filtered;
+		ring_peak[i] = peak;
+		ring_threshold[i] = threshold;
+		ring_time[i] = timestamp;
+		// Publish the record to the writer thread
+		head.lazySet(h + 1);
+	}
+
+	/**
+	 * Writer thread loop, drains the ring until closed or the target logger
+	 * throws
+	 */
+	@Override
+	public void run() {
+		try {
+			while (true) {
+				boolean closing = !running;
+				int n = drain();
+				if (n == 0) {
+					if (closing) {
+						break;
+					}
+					LockSupport.parkNanos(this, IDLE_WAIT);
+				}
+			}
+		} finally {
+			running = false;
+		}
+	}
+
+	/**
+	 * Copy a batch out of the ring and write it to the target logger
+	 * 
+	 * @return Number of records written
+	 */
+	private int drain() {
+		while (true) {
+			final long t = tail.get();
+			final long available = head.get() - t;
+			if (available == 0) {
+				return 0;
+			}
+			final int n = (int) Math.min(available, BATCH_SIZE);
+			for (int j = 0; j < n; j++) {
+				final int i = (int) ((t + j) & mask);
+				batch_scalar[j] = ring_scalar[i];
+				batch_filtered[j] = ring_filtered[i];
+				batch_peak[j] = ring_peak[i];
+				batch_threshold[j] = ring_threshold[i];
+				batch_time[j] = ring_time[i];
+			}
+			if (!tail.compareAndSet(t, t + n)) {
+				// The producer dropped records while copying so try again
+				continue;
+			}
+			for (int j = 0; j < n; j++) {
+				target.writeRecord(batch_scalar[j], batch_filtered[j],
+						batch_peak[j], batch_threshold[j], batch_time[j]);
+			}
+			written += n;
+			return n;
+		}
+	}
+
+	@Override
+	public void setSampleRate(float sr) {
+		sample_rate = sr;
+	}
+
+	@Override
+	public String getFileName() {
+		return target.getFileName();
+	}
+
+	/**
+	 * Stop the writer thread once the ring is empty then close the target
+	 * logger
+	 */
+	@Override
+	public void close() {
+		running = false;
+		LockSupport.unpark(writer);
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		target.setSampleRate(sample_rate);
+		target.close();
+	}
+
+	/**
+	 * Get the number of records dropped to make space for newer records
+	 * 
+	 * @return Records dropped by DROP_OLDEST
+	 */
+	public long getDroppedOldest() {
+		return dropped_oldest;
+	}
+
+	/**
+	 * Get the number of new records dropped as the ring was full, or as the
+	 * writer thread had stopped while waiting with BLOCK
+	 * 
+	 * @return Records dropped by DROP_NEWEST or by BLOCK once stopped
+	 */
+	public long getDroppedNewest() {
+		return dropped_newest;
+	}
+
+	/**
+	 * Get the number of times the sensor thread had to wait for space
+	 * 
+	 * @return Number of waits by BLOCK
+	 */
+	public long getBlockedCount() {
+		return blocked;
+	}
+
+	/**
+	 * Get the number of records written to the target logger
+	 * 
+	 * @return Records written
+	 */
+	public long getWrittenCount() {
+		return written;
+	}
+}
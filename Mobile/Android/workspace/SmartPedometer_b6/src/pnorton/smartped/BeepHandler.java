@@ -21,7 +21,7 @@ import android.media.MediaPlayer.OnCompletionListener;
  * Android Dependencies: Android API Level 1 (Any Android Version)
  *
  * @author Peter B Norton
- * @version 0.30
+ * @version 0.62
  * 
  *          Revision History
  * 
@@ -37,13 +37,22 @@ import android.media.MediaPlayer.OnCompletionListener;
  *          0.21 Correction to Beep Sound
  * 
  *          0.27 Addition of getter function for the Error Message
+ * 
+ *          0.37 The play flag is volatile as the beep is now played from a
+ *          beeper thread while the completion is reported on the main thread
+ * 
+ *          0.38 Implements IStepListener so it can be registered with the
+ *          StepEventDispatcher and beep on each step event
+ * 
+ *          0.62 Addition of onReset for the IStepListener interface
  */
-public class BeepHandler implements Runnable, OnCompletionListener {
+public class BeepHandler implements Runnable, OnCompletionListener,
+		IStepListener {
 
 	private Activity host;
 	private MediaPlayer player;
 	private String errorMessage;
-	private boolean playFlag;
+	private volatile boolean playFlag;
 
 	/**
 	 * Default Constructor
@@ -74,6 +83,17 @@ public class BeepHandler implements Runnable, OnCompletionListener {
 		}
 	}
 
+	@Override
+	public void onStep(long timestamp, float peak, int count) {
+		// A single beep for the event however many steps it holds
+		run();
+	}
+
+	@Override
+	public void onReset() {
+		// Nothing to beep for a reset
+	}
+
 	/**
 	 * Close the Beep MediaPlayer and sets to null this instance should now be
 	 * discarded
@@ -0,0 +1,311 @@
+package pnorton.smartped;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import android.util.Log;
+
+/**
+ * Class BinaryDataLogger
+ * 
+ * Responsibilities: Writes the PedometerManager data log in a compact binary
+ * format, each sample is a fixed width little endian record of the scalar,
+ * filtered, peak and threshold values as 16 bit half precision floats (sign,
+ * 5 bit exponent and 10 bit fraction) followed by the 64 bit timestamp. Each
+ * value is rounded to the nearest half precision float, which keeps a relative
+ * error below 1/2048, and values beyond MAX_HALF are stored as MAX_HALF.
+ * Records are collected in a single reused ByteBuffer and written to a
+ * FileChannel when it fills so no objects are created for each sample. The
+ * file starts with a header describing the record layout, which is rewritten
+ * on close with the record count and the sample rate.
+ * 
+ * Header layout (HEADER_SIZE bytes, little endian)
+ * 
+ * 0 int magic, 4 short version, 6 short header size, 8 short record size, 10
+ * short field count, 12 byte[8] field types ('H' half precision float, 'L'
+ * long), 20 float sample rate, 24 long record count (UNKNOWN_COUNT if the log
+ * was not closed)
+ * 
+ * Version 1 logs held 24 byte records with the 4 values as floats, these are
+ * still read by the BinaryLogReader.
+ * 
+ * Dependencies: Depends on the DataLogger class for the file naming and the
+ * java.nio API to write the file. This class also implements the
+ * ISampleLogger interface.
+ * 
+ * Android Dependencies: Android API Level 1 (Any Android Version)
+ * 
+ * @author Peter B Norton
+ * @version 0.60
+ * 
+ *          Revision History
+ * 
+ *          0.33 Initial version of the binary log format
+ * 
+ *          0.35 The record count is UNKNOWN_COUNT until the log is closed so a
+ *          count of 0 always means an empty log, as needed by the preallocated
+ *          segments of the MappedSegmentLogger
+ * 
+ *          0.60 Version 2 of the format, the values are stored as half
+ *          precision floats which cuts each record from 24 to 16 bytes
+ * 
+ */
+public class BinaryDataLogger implements ISampleLogger {
+
+	/** Magic number at the start of a binary log ("SPDL") */
+	public static final int MAGIC = 0x4C445053;
+	/** Version of the binary log format */
+	public static final short VERSION = 2;
+	/** Version of the binary log format with the 24 byte records */
+	public static final short VERSION_1 = 1;
+	/** Size of the header in bytes */
+	public static final int HEADER_SIZE = 32;
+	/** Size of each record in bytes */
+	public static final int RECORD_SIZE = 16;
+	/** Number of fields in each record */
+	public static final int FIELD_COUNT = 5;
+	/** Field types of each record */
+	public static final byte[] FIELD_TYPES = { 'H', 'H', 'H', 'H', 'L', 0, 0,
+			0 };
+	/** Largest value stored in a half precision float */
+	public static final float MAX_HALF = 65504.0f;
+	/** Size of each version 1 record in bytes */
+	public static final int RECORD_SIZE_1 = 24;
+	/** Number of fields in each version 1 record */
+	public static final int FIELD_COUNT_1 = 5;
+	/** Field types of each version 1 record */
+	public static final byte[] FIELD_TYPES_1 = { 'F', 'F', 'F', 'F', 'L', 0,
+			0, 0 };
+	/** File extension of a binary log */
+	public static final String EXTENSION = ".bin";
+	/** Offset of the sample rate in the header */
+	public static final int SAMPLE_RATE_OFFSET = 20;
+	/** Offset of the record count in the header */
+	public static final int RECORD_COUNT_OFFSET = 24;
+	/** Record count of a log that was not closed */
+	public static final long UNKNOWN_COUNT = -1L;
+
+	private static final int BUFFER_SIZE = 8192; /* 512 records */
+	private static final String errorTAG = "BinaryDataLogger";
+
+	private String filename;
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private ByteBuffer buffer; /* Records waiting to be written */
+	private long record_count; /* Records written */
+	private float sample_rate; /* Sample rate for the header */
+
+	/**
+	 * Create a binary log on the external storage with the same naming as the
+	 * text DataLogger
+	 */
+	public BinaryDataLogger() {
+		buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(
+				ByteOrder.LITTLE_ENDIAN);
+		record_count = 0L;
+		sample_rate = 0.0f;
+		try {
+			File log = DataLogger.createLogFile(EXTENSION);
+			filename = log.getName();
+			file = new RandomAccessFile(log, "rw");
+			channel = file.getChannel();
+			write_header(UNKNOWN_COUNT);
+		} catch (IOException e) {
+			Log.e(errorTAG, e.getMessage());
+			channel = null;
+		}
+	}
+
+	/**
+	 * Fill a buffer with the log header
+	 * 
+	 * @param header
+	 *            Little endian buffer of at least HEADER_SIZE bytes
+	 * @param sr
+	 *            Sample rate in Hz
+	 * @param count
+	 *            Number of records
+	 */
+	public static void putHeader(ByteBuffer header, float sr, long count) {
+		header.putInt(MAGIC);
+		header.putShort(VERSION);
+		header.putShort((short) HEADER_SIZE);
+		header.putShort((short) RECORD_SIZE);
+		header.putShort((short) FIELD_COUNT);
+		header.put(FIELD_TYPES);
+		header.putFloat(sr);
+		header.putLong(count);
+	}
+
+	/**
+	 * Store a record in a buffer
+	 * 
+	 * @param buffer
+	 *            Little endian buffer with at least RECORD_SIZE bytes remaining
+	 * @param scalar
+	 *            Scalar value
+	 * @param filtered
+	 *            Filtered value
+	 * @param peak
+	 *            Peak value
+	 * @param threshold
+	 *            Threshold value
+	 * @param timestamp
+	 *            Time of the sample in ns
+	 */
+	public static void putRecord(ByteBuffer buffer, float scalar,
+			float filtered, float peak, float threshold, long timestamp) {
+		buffer.putShort(toHalf(scalar));
+		buffer.putShort(toHalf(filtered));
+		buffer.putShort(toHalf(peak));
+		buffer.putShort(toHalf(threshold));
+		buffer.putLong(timestamp);
+	}
+
+	/**
+	 * Round a float to the nearest half precision float, ties to even
+	 * 
+	 * @param value
+	 *            Value to store
+	 * @return Bits of the half precision float
+	 */
+	public static short toHalf(float value) {
+		final int bits = Float.floatToIntBits(value);
+		final int sign = (bits >>> 16) & 0x8000;
+		final int exponent = ((bits >>> 23) & 0xff) - 127 + 15;
+		int fraction = bits & 0x7fffff;
+		if (value != value) {
+			return (short) (sign | 0x7e00); // NaN
+		}
+		if (exponent >= 0x1f) {
+			return (short) (sign | 0x7bff); // MAX_HALF
+		}
+		int shift = 13;
+		int half;
+		if (exponent <= 0) {
+			// Subnormal half, the implicit leading bit is kept in the fraction
+			if (exponent < -10) {
+				return (short) sign;
+			}
+			fraction |= 0x800000;
+			shift = 14 - exponent;
+			half = fraction >> shift;
+		} else {
+			half = (exponent << 10) | (fraction >> shift);
+		}
+		final int rest = fraction & ((1 << shift) - 1);
+		final int midway = 1 << (shift - 1);
+		if (rest > midway || (rest == midway && (half & 1) != 0)) {
+			// A carry out of the fraction correctly moves up the exponent
+			half++;
+		}
+		if (half > 0x7bff) {
+			half = 0x7bff;
+		}
+		return (short) (sign | half);
+	}
+
+	/**
+	 * Convert a half precision float back to a float, which is exact
+	 * 
+	 * @param half
+	 *            Bits of the half precision float
+	 * @return Value stored
+	 */
+	public static float fromHalf(short half) {
+		final int sign = (half & 0x8000) << 16;
+		final int exponent = (half >>> 10) & 0x1f;
+		final int fraction = half & 0x3ff;
+		if (exponent == 0) {
+			// Zero or subnormal, fraction * 2^-24
+			final float value = fraction * 5.9604645e-8f;
+			return sign != 0 ? -value : value;
+		}
+		if (exponent == 0x1f) {
+			return Float.intBitsToFloat(sign | 0x7f800000 | (fraction << 13));
+		}
+		return Float.intBitsToFloat(sign | ((exponent - 15 + 127) << 23)
+				| (fraction << 13));
+	}
+
+	/**
+	 * Write the header at the start of the file
+	 * 
+	 * @param count
+	 *            Record count to store in the header
+	 * @throws IOException
+	 *             If the header could not be written
+	 */
+	private void write_header(long count) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(
+				ByteOrder.LITTLE_ENDIAN);
+		putHeader(header, sample_rate, count);
+		header.flip();
+		while (header.hasRemaining()) {
+			channel.write(header, header.position());
+		}
+		channel.position(HEADER_SIZE);
+	}
+
+	@Override
+	public void writeRecord(float scalar, float filtered, float peak,
+			float threshold, long timestamp) {
+		if (channel == null) {
+			return;
+		}
+		if (buffer.remaining() < RECORD_SIZE) {
+			flush();
+		}
+		putRecord(buffer, scalar, filtered, peak, threshold, timestamp);
+		record_count++;
+	}
+
+	/**
+	 * Write the buffered records to the file
+	 */
+	private void flush() {
+		buffer.flip();
+		try {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		} catch (IOException e) {
+			Log.e(errorTAG, e.getMessage());
+		}
+		buffer.clear();
+	}
+
+	@Override
+	public void setSampleRate(float sr) {
+		sample_rate = sr;
+	}
+
+	@Override
+	public String getFileName() {
+		return filename;
+	}
+
+	@Override
+	public void close() {
+		try {
+			if (channel != null) {
+				flush();
+				// Rewrite the header with the final count and sample rate
+				write_header(record_count);
+				channel.close();
+				file.close();
+				channel = null;
+			} else {
+				throw new NullPointerException("Attempt to close a null channel");
+			}
+		} catch (IOException e) {
+			Log.e(errorTAG, e.getMessage());
+		} catch (NullPointerException e) {
+			Log.e(errorTAG, e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,201 @@
+package pnorton.smartped;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Class BinaryLogReader
+ * 
+ * Responsibilities: Streams back the records of a binary log written by the
+ * BinaryDataLogger class. The header is checked against the expected record
+ * layout and the records are read in large blocks through a single reused
+ * buffer. A log that was not closed has an unknown record count in its
+ * header, in that case all the whole records in the file are read. Otherwise
+ * only the counted records are read, which allows the preallocated segments of
+ * the MappedSegmentLogger to be read with this class.
+ * 
+ * The values of a version 2 log are stored as half precision floats and are
+ * converted back to floats as they are read, the float values of a version 1
+ * log are read as they are.
+ * 
+ * Dependencies: Depends on the java.nio API to read the file along with the
+ * layout constants of the BinaryDataLogger class. This class also implements
+ * the ILogReader interface.
+ * 
+ * Android Dependencies: No Android Dependencies
+ * 
+ * @author Peter B Norton
+ * @version 0.60
+ * 
+ *          Revision History
+ * 
+ *          0.33 Initial version of the binary log format
+ * 
+ *          0.35 A record count of 0 now means an empty log
+ * 
+ *          0.60 Version 2 logs with the half precision values are read as well as
+ *          version 1 logs
+ * 
+ */
+public class BinaryLogReader implements ILogReader {
+
+	private static final int BUFFER_SIZE = 65520; /* Multiple of 16 and 24 */
+
+	private FileInputStream stream;
+	private FileChannel channel;
+	private ByteBuffer buffer;
+	private float sample_rate; /* Sample rate from the header */
+	private long record_count; /* Records in the log */
+	private long records_read; /* Records returned so far */
+	private int version; /* Format version from the header */
+	private int record_size; /* Size of each record from the header */
+
+	/**
+	 * Default Constructor opens the log and reads its header
+	 * 
+	 * @param file
+	 *            Log file to read
+	 * @throws IOException
+	 *             If the file cannot be opened or is not a binary log
+	 */
+	public BinaryLogReader(File file) throws IOException {
+		stream = new FileInputStream(file);
+		channel = stream.getChannel();
+		buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(
+				ByteOrder.LITTLE_ENDIAN);
+		try {
+			read_header();
+		} catch (IOException e) {
+			stream.close();
+			throw e;
+		}
+		records_read = 0L;
+		buffer.clear();
+		buffer.limit(0);
+	}
+
+	/**
+	 * Read and check the header
+	 * 
+	 * @throws IOException
+	 *             If the header does not match the expected layout
+	 */
+	private void read_header() throws IOException {
+		buffer.clear();
+		buffer.limit(BinaryDataLogger.HEADER_SIZE);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				throw new IOException("Binary log header is incomplete");
+			}
+		}
+		buffer.flip();
+		if (buffer.getInt() != BinaryDataLogger.MAGIC) {
+			throw new IOException("Not a binary log");
+		}
+		version = buffer.getShort();
+		int field_count;
+		byte[] field_types;
+		if (version == BinaryDataLogger.VERSION) {
+			record_size = BinaryDataLogger.RECORD_SIZE;
+			field_count = BinaryDataLogger.FIELD_COUNT;
+			field_types = BinaryDataLogger.FIELD_TYPES;
+		} else if (version == BinaryDataLogger.VERSION_1) {
+			record_size = BinaryDataLogger.RECORD_SIZE_1;
+			field_count = BinaryDataLogger.FIELD_COUNT_1;
+			field_types = BinaryDataLogger.FIELD_TYPES_1;
+		} else {
+			throw new IOException("Unsupported binary log version");
+		}
+		int header_size = buffer.getShort();
+		if (buffer.getShort() != record_size
+				|| buffer.getShort() != field_count) {
+			throw new IOException("Unexpected binary log record layout");
+		}
+		for (int i = 0; i < field_types.length; i++) {
+			if (buffer.get() != field_types[i]) {
+				throw new IOException("Unexpected binary log field types");
+			}
+		}
+		sample_rate = buffer.getFloat();
+		record_count = buffer.getLong();
+		long available = (channel.size() - header_size) / record_size;
+		if (record_count < 0 || record_count > available) {
+			record_count = available;
+		}
+		channel.position(header_size);
+	}
+
+	@Override
+	public boolean readRecord(LogRecord record) throws IOException {
+		if (records_read == record_count) {
+			return false;
+		}
+		if (!fill(record_size)) {
+			return false;
+		}
+		if (version == BinaryDataLogger.VERSION_1) {
+			record.set(buffer.getFloat(), buffer.getFloat(),
+					buffer.getFloat(), buffer.getFloat(), buffer.getLong());
+		} else {
+			record.set(BinaryDataLogger.fromHalf(buffer.getShort()),
+					BinaryDataLogger.fromHalf(buffer.getShort()),
+					BinaryDataLogger.fromHalf(buffer.getShort()),
+					BinaryDataLogger.fromHalf(buffer.getShort()),
+					buffer.getLong());
+		}
+		records_read++;
+		return true;
+	}
+
+	/**
+	 * Make sure a number of bytes can be read from the buffer, reading more of
+	 * the file when needed
+	 * 
+	 * @param size
+	 *            Number of bytes needed
+	 * @return true if the bytes are in the buffer, false at the end of the file
+	 * @throws IOException
+	 *             If the file could not be read
+	 */
+	private boolean fill(int size) throws IOException {
+		if (buffer.remaining() >= size) {
+			return true;
+		}
+		buffer.compact();
+		while (buffer.position() < size) {
+			if (channel.read(buffer) < 0) {
+				buffer.flip();
+				return false;
+			}
+		}
+		buffer.flip();
+		return true;
+	}
+
+	/**
+	 * Get the sample rate stored in the header
+	 * 
+	 * @return Sample rate in Hz or 0 if not known
+	 */
+	public float getSampleRate() {
+		return sample_rate;
+	}
+
+	/**
+	 * Get the number of records in the log
+	 * 
+	 * @return Number of records
+	 */
+	public long getRecordCount() {
+		return record_count;
+	}
+
+	@Override
+	public void close() throws IOException {
+		stream.close();
+	}
+}
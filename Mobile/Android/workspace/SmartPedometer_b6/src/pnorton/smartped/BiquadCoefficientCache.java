@@ -0,0 +1,220 @@
+package pnorton.smartped;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Class BiquadCoefficientCache
+ * 
+ * Responsibilities: Calculates and keeps the coefficients of Butterworth
+ * filters built from biquad sections, so retuning a BiquadFilter to a new
+ * sample rate is normally a lookup. The sample rate is quantized to
+ * RATE_STEP and the cut off frequencies to CUTOFF_STEP before the coefficients
+ * are calculated, so every filter tuned to the same quantized values gets
+ * exactly the same coefficients whether they came from the cache or not. The
+ * cache holds at most its capacity of coefficient sets and drops the least
+ * recently used set when full.
+ * 
+ * The coefficients of each section are held as b0, b1, b2, a1 and a2
+ * normalised so a0 is 1. A section has the Butterworth Q of its pole pair and
+ * is calculated by the bilinear transform with the cut off prewarped. A band
+ * pass is a high pass at the lower cut off followed by a low pass at the upper
+ * cut off, each of the given order. The arrays returned are shared and must
+ * not be changed.
+ * 
+ * Dependencies: Depends on the java.util API for the LinkedHashMap
+ * 
+ * Android Dependencies: No Android Dependencies
+ * 
+ * @author Peter B Norton
+ * @version 0.45
+ * 
+ *          Revision History
+ * 
+ *          0.45 Initial version of the biquad coefficient cache
+ * 
+ */
+public class BiquadCoefficientCache {
+
+	/** Coefficients held for each section */
+	public static final int SECTION_LENGTH = 5;
+	/** Quantization of the sample rate in Hz */
+	public static final float RATE_STEP = 0.25f;
+	/** Quantization of the cut off frequencies in Hz */
+	public static final float CUTOFF_STEP = 0.01f;
+	/** Default number of coefficient sets held */
+	public static final int DEFAULT_CAPACITY = 64;
+	private static final BiquadCoefficientCache shared = new BiquadCoefficientCache(
+			DEFAULT_CAPACITY);
+
+	private LinkedHashMap<Long, float[]> map;
+	private long hits;
+	private long misses;
+
+	/**
+	 * Default Constructor
+	 * 
+	 * @param capacity
+	 *            Most coefficient sets held
+	 */
+	public BiquadCoefficientCache(final int capacity) {
+		map = new LinkedHashMap<Long, float[]>(capacity * 2, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, float[]> eldest) {
+				return size() > capacity;
+			}
+		};
+		hits = 0L;
+		misses = 0L;
+	}
+
+	/**
+	 * Get the cache shared by all the filters
+	 * 
+	 * @return Shared cache
+	 */
+	public static BiquadCoefficientCache getShared() {
+		return shared;
+	}
+
+	/**
+	 * Get the coefficients of a filter, calculating them if not held
+	 * 
+	 * @param type
+	 *            Filter type
+	 * @param order
+	 *            Filter order, a positive even number
+	 * @param low
+	 *            Cut off of a high pass or lower cut off of a band pass in Hz
+	 * @param high
+	 *            Cut off of a low pass or upper cut off of a band pass in Hz
+	 * @param sr
+	 *            Sample rate in Hz
+	 * @return Coefficients of each section in turn
+	 */
+	public synchronized float[] get(BiquadFilter.Type type, int order,
+			float low, float high, float sr) {
+		final long q_rate = Math.max(1L, Math.round(sr / RATE_STEP));
+		final long q_low = Math.round(low / CUTOFF_STEP);
+		final long q_high = Math.round(high / CUTOFF_STEP);
+		final Long key = Long.valueOf(((long) type.ordinal() << 61)
+				| ((long) (order & 0x1F) << 56) | ((q_rate & 0xFFFF) << 40)
+				| ((q_low & 0xFFFFF) << 20) | (q_high & 0xFFFFF));
+		float[] c = map.get(key);
+		if (c != null) {
+			hits++;
+			return c;
+		}
+		misses++;
+		c = calculate(type, order, q_low * CUTOFF_STEP, q_high * CUTOFF_STEP,
+				q_rate * RATE_STEP);
+		map.put(key, c);
+		return c;
+	}
+
+	/**
+	 * Calculate the coefficients of a filter
+	 * 
+	 * @param type
+	 *            Filter type
+	 * @param order
+	 *            Filter order
+	 * @param low
+	 *            Cut off of a high pass or lower cut off of a band pass in Hz
+	 * @param high
+	 *            Cut off of a low pass or upper cut off of a band pass in Hz
+	 * @param sr
+	 *            Sample rate in Hz
+	 * @return Coefficients of each section in turn
+	 */
+	private static float[] calculate(BiquadFilter.Type type, int order,
+			double low, double high, double sr) {
+		final int sections = order / 2;
+		switch (type) {
+		case LOW_PASS: {
+			float[] c = new float[sections * SECTION_LENGTH];
+			butterworth(c, 0, false, order, high, sr);
+			return c;
+		}
+		case HIGH_PASS: {
+			float[] c = new float[sections * SECTION_LENGTH];
+			butterworth(c, 0, true, order, low, sr);
+			return c;
+		}
+		default: {
+			float[] c = new float[2 * sections * SECTION_LENGTH];
+			butterworth(c, 0, true, order, low, sr);
+			butterworth(c, sections * SECTION_LENGTH, false, order, high, sr);
+			return c;
+		}
+		}
+	}
+
+	/**
+	 * Calculate the sections of a Butterworth low or high pass filter
+	 * 
+	 * @param c
+	 *            Array to store the coefficients
+	 * @param offset
+	 *            Index of the first section in the array
+	 * @param high_pass
+	 *            true for a high pass, false for a low pass
+	 * @param order
+	 *            Filter order
+	 * @param f
+	 *            Cut off in Hz
+	 * @param sr
+	 *            Sample rate in Hz
+	 */
+	private static void butterworth(float[] c, int offset, boolean high_pass,
+			int order, double f, double sr) {
+		// Keep the cut off below the Nyquist frequency
+		final double w0 = 2.0 * Math.PI * Math.min(f, 0.49 * sr) / sr;
+		final double cos_w0 = Math.cos(w0);
+		final double sin_w0 = Math.sin(w0);
+		for (int k = 0; k < order / 2; k++) {
+			// Q of the k'th pole pair of the Butterworth polynomial
+			double q = 1.0 / (2.0 * Math.sin(Math.PI * (2 * k + 1)
+					/ (2.0 * order)));
+			double alpha = sin_w0 / (2.0 * q);
+			double a0 = 1.0 + alpha;
+			double b1 = high_pass ? -(1.0 + cos_w0) : 1.0 - cos_w0;
+			double b0 = high_pass ? -b1 / 2.0 : b1 / 2.0;
+			int i = offset + k * SECTION_LENGTH;
+			c[i] = (float) (b0 / a0);
+			c[i + 1] = (float) (b1 / a0);
+			c[i + 2] = (float) (b0 / a0);
+			c[i + 3] = (float) (-2.0 * cos_w0 / a0);
+			c[i + 4] = (float) ((1.0 - alpha) / a0);
+		}
+	}
+
+	/**
+	 * Get the number of lookups found in the cache
+	 * 
+	 * @return Number of hits
+	 */
+	public synchronized long getHitCount() {
+		return hits;
+	}
+
+	/**
+	 * Get the number of lookups which had to be calculated
+	 * 
+	 * @return Number of misses
+	 */
+	public synchronized long getMissCount() {
+		return misses;
+	}
+
+	/**
+	 * Get the number of coefficient sets held
+	 * 
+	 * @return Number of sets
+	 */
+	public synchronized int size() {
+		return map.size();
+	}
+}
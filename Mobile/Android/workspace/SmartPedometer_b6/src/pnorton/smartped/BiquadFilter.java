@@ -0,0 +1,262 @@
+package pnorton.smartped;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Class BiquadFilter
+ * 
+ * Responsibilities: Butterworth low pass, high pass and band pass filters made
+ * from a cascade of biquad (second order) sections, each run in transposed
+ * direct form II. A pair of poles per section gives a much sharper edge for
+ * the same work than cascading single pole filters, the band pass keeps the
+ * step cadence band while removing both the drift below it and the noise
+ * above it. The coefficients come from the BiquadCoefficientCache so tuning
+ * the filter to a new sample rate is normally a lookup, the filter state is
+ * kept when it is retuned. This also implements the ISignalFilter interface.
+ * 
+ * Dependencies: Depends on the BiquadCoefficientCache for the coefficients
+ * and the ISignalFilter implementation so must provide the methods specified
+ * in that interface.
+ * 
+ * Android Dependencies: No Android Dependencies
+ * 
+ * @author Peter B Norton
+ * @version 0.49
+ * 
+ *          Revision History
+ * 
+ *          0.45 Initial version of the biquad filter family
+ * 
+ *          0.49 Addition of saveState and restoreState for the section states
+ * 
+ */
+public class BiquadFilter implements ISignalFilter {
+
+	/**
+	 * Enumeration for the filter response
+	 * 
+	 * @author Peter B Norton
+	 * @version 0.45
+	 */
+	public enum Type {
+		/** Pass the frequencies below the cut off */
+		LOW_PASS,
+		/** Pass the frequencies above the cut off */
+		HIGH_PASS,
+		/** Pass the frequencies between the two cut offs */
+		BAND_PASS
+	}
+
+	/** Highest order supported */
+	public static final int MAX_ORDER = 16;
+
+	private Type type;
+	private int order; /* Order of each edge */
+	private float low; /* High pass or lower band pass cut off in Hz */
+	private float high; /* Low pass or upper band pass cut off in Hz */
+	private float sample_rate; /* Rate the filter is tuned to in Hz */
+	private BiquadCoefficientCache cache;
+	private float[] coefficients; /* b0, b1, b2, a1, a2 of each section */
+	private int sections;
+	private float[] state; /* z1 and z2 of each section */
+
+	/**
+	 * Constructor for a filter using the shared coefficient cache
+	 * 
+	 * @param t
+	 *            Filter type
+	 * @param n
+	 *            Order of each edge, an even number from 2 to MAX_ORDER
+	 * @param f_low
+	 *            Cut off of a high pass or lower cut off of a band pass in Hz,
+	 *            not used by a low pass
+	 * @param f_high
+	 *            Cut off of a low pass or upper cut off of a band pass in Hz,
+	 *            not used by a high pass
+	 * @param sr
+	 *            Sample rate in Hz
+	 */
+	public BiquadFilter(Type t, int n, float f_low, float f_high, float sr) {
+		this(t, n, f_low, f_high, sr, BiquadCoefficientCache.getShared());
+	}
+
+	/**
+	 * Constructor for a filter using a given coefficient cache
+	 * 
+	 * @param t
+	 *            Filter type
+	 * @param n
+	 *            Order of each edge, an even number from 2 to MAX_ORDER
+	 * @param f_low
+	 *            Cut off of a high pass or lower cut off of a band pass in Hz,
+	 *            not used by a low pass
+	 * @param f_high
+	 *            Cut off of a low pass or upper cut off of a band pass in Hz,
+	 *            not used by a high pass
+	 * @param sr
+	 *            Sample rate in Hz
+	 * @param c
+	 *            Coefficient cache
+	 */
+	public BiquadFilter(Type t, int n, float f_low, float f_high, float sr,
+			BiquadCoefficientCache c) {
+		if (n < 2 || n > MAX_ORDER || n % 2 != 0) {
+			throw new IllegalArgumentException("Order must be even from 2 to "
+					+ MAX_ORDER);
+		}
+		type = t;
+		order = n;
+		low = (t == Type.LOW_PASS) ? 0.0f : f_low;
+		high = (t == Type.HIGH_PASS) ? 0.0f : f_high;
+		cache = c;
+		sections = (t == Type.BAND_PASS) ? n : n / 2;
+		state = new float[2 * sections];
+		setSampleRate(sr);
+	}
+
+	/**
+	 * Create a Butterworth low pass filter
+	 * 
+	 * @param n
+	 *            Order
+	 * @param f
+	 *            Cut off in Hz
+	 * @param sr
+	 *            Sample rate in Hz
+	 * @return Filter
+	 */
+	public static BiquadFilter lowPass(int n, float f, float sr) {
+		return new BiquadFilter(Type.LOW_PASS, n, 0.0f, f, sr);
+	}
+
+	/**
+	 * Create a Butterworth high pass filter
+	 * 
+	 * @param n
+	 *            Order
+	 * @param f
+	 *            Cut off in Hz
+	 * @param sr
+	 *            Sample rate in Hz
+	 * @return Filter
+	 */
+	public static BiquadFilter highPass(int n, float f, float sr) {
+		return new BiquadFilter(Type.HIGH_PASS, n, f, 0.0f, sr);
+	}
+
+	/**
+	 * Create a Butterworth band pass filter
+	 * 
+	 * @param n
+	 *            Order of each edge
+	 * @param f_low
+	 *            Lower cut off in Hz
+	 * @param f_high
+	 *            Upper cut off in Hz
+	 * @param sr
+	 *            Sample rate in Hz
+	 * @return Filter
+	 */
+	public static BiquadFilter bandPass(int n, float f_low, float f_high,
+			float sr) {
+		return new BiquadFilter(Type.BAND_PASS, n, f_low, f_high, sr);
+	}
+
+	/**
+	 * Tune the filter to a sample rate, the filter state is kept
+	 * 
+	 * @param sr
+	 *            Sample rate in Hz
+	 */
+	public void setSampleRate(float sr) {
+		sample_rate = sr;
+		coefficients = cache.get(type, order, low, high, sr);
+	}
+
+	/**
+	 * Get the sample rate the filter is tuned to
+	 * 
+	 * @return Sample rate in Hz
+	 */
+	public float getSampleRate() {
+		return sample_rate;
+	}
+
+	/**
+	 * Get the filter type
+	 * 
+	 * @return Filter type
+	 */
+	public Type getType() {
+		return type;
+	}
+
+	@Override
+	public void reset() {
+		for (int i = 0; i < state.length; i++) {
+			state[i] = 0.0f;
+		}
+	}
+
+	@Override
+	public float processSample(float n, long t) {
+		final float[] c = coefficients;
+		float y = n;
+		for (int s = 0; s < sections; s++) {
+			final int i = s * BiquadCoefficientCache.SECTION_LENGTH;
+			final float x = y;
+			y = c[i] * x + state[2 * s];
+			state[2 * s] = c[i + 1] * x - c[i + 3] * y + state[2 * s + 1];
+			state[2 * s + 1] = c[i + 2] * x - c[i + 4] * y;
+		}
+		return y;
+	}
+
+	@Override
+	public void processBlock(float[] in, float[] out, long[] t, int offset,
+			int length) {
+		final float[] c = coefficients;
+		final int end = offset + length;
+		if (in != out) {
+			System.arraycopy(in, offset, out, offset, length);
+		}
+		// Run each section over the whole block with its state in locals
+		for (int s = 0; s < sections; s++) {
+			final int i = s * BiquadCoefficientCache.SECTION_LENGTH;
+			final float b0 = c[i];
+			final float b1 = c[i + 1];
+			final float b2 = c[i + 2];
+			final float a1 = c[i + 3];
+			final float a2 = c[i + 4];
+			float z1 = state[2 * s];
+			float z2 = state[2 * s + 1];
+			for (int j = offset; j < end; j++) {
+				final float x = out[j];
+				final float y = b0 * x + z1;
+				z1 = b1 * x - a1 * y + z2;
+				z2 = b2 * x - a2 * y;
+				out[j] = y;
+			}
+			state[2 * s] = z1;
+			state[2 * s + 1] = z2;
+		}
+	}
+
+	@Override
+	public void saveState(ByteBuffer out) {
+		out.putShort((short) state.length);
+		for (int i = 0; i < state.length; i++) {
+			out.putFloat(state[i]);
+		}
+	}
+
+	@Override
+	public void restoreState(ByteBuffer in) {
+		if (in.getShort() != state.length) {
+			throw new IllegalArgumentException("State is for another filter order");
+		}
+		for (int i = 0; i < state.length; i++) {
+			state[i] = in.getFloat();
+		}
+	}
+}
@@ -0,0 +1,173 @@
+package pnorton.smartped;
+
+/**
+ * Class CadenceHistogram
+ * 
+ * Responsibilities: Histogram of the cadence of each step in steps per minute
+ * which can have values added and removed, so it can follow the steps of a
+ * sliding window. The median (p50) and the 90th percentile (p90) are each held
+ * as a cursor on their bin along with the count of the values below that bin.
+ * Adding or removing a value only moves a cursor across the bins between the
+ * old and new percentile, which is one or two bins for a steady walk, so
+ * reading a percentile is a field read and nothing is rescanned. The bins are
+ * BIN_WIDTH wide from MIN_CADENCE to MAX_CADENCE, cadences outside this range
+ * are counted in the end bins.
+ * 
+ * Dependencies: Not dependent on any specific Java or Android features
+ * 
+ * Android Dependencies: No Android Dependencies
+ * 
+ * @author Peter B Norton
+ * @version 0.47
+ * 
+ *          Revision History
+ * 
+ *          0.47 Initial version of the cadence histogram
+ * 
+ */
+public class CadenceHistogram {
+
+	/** Lowest cadence held in steps per minute */
+	public static final float MIN_CADENCE = 30.0f;
+	/** Highest cadence held in steps per minute */
+	public static final float MAX_CADENCE = 250.0f;
+	/** Width of each bin in steps per minute */
+	public static final float BIN_WIDTH = 1.0f;
+	/** Number of bins */
+	public static final int BINS = (int) ((MAX_CADENCE - MIN_CADENCE) / BIN_WIDTH);
+
+	private int[] counts; /* Number of values in each bin */
+	private int total; /* Number of values held */
+	private int p50_bin; /* Bin holding the median */
+	private int p50_below; /* Values in the bins below the median bin */
+	private int p90_bin; /* Bin holding the 90th percentile */
+	private int p90_below; /* Values in the bins below the p90 bin */
+
+	/**
+	 * Default Constructor
+	 */
+	public CadenceHistogram() {
+		counts = new int[BINS];
+		clear();
+	}
+
+	/**
+	 * Remove all the values
+	 */
+	public void clear() {
+		for (int i = 0; i < BINS; i++) {
+			counts[i] = 0;
+		}
+		total = 0;
+		p50_bin = 0;
+		p50_below = 0;
+		p90_bin = 0;
+		p90_below = 0;
+	}
+
+	/**
+	 * Get the bin a cadence is counted in
+	 * 
+	 * @param cadence
+	 *            Cadence in steps per minute
+	 * @return Bin index
+	 */
+	public static int bin(float cadence) {
+		int b = (int) ((cadence - MIN_CADENCE) / BIN_WIDTH);
+		if (b < 0) {
+			return 0;
+		}
+		return (b >= BINS) ? BINS - 1 : b;
+	}
+
+	/**
+	 * Add a value to a bin
+	 * 
+	 * @param b
+	 *            Bin index from the bin method
+	 */
+	public void add(int b) {
+		counts[b]++;
+		total++;
+		if (b < p50_bin) {
+			p50_below++;
+		}
+		if (b < p90_bin) {
+			p90_below++;
+		}
+		move_cursors();
+	}
+
+	/**
+	 * Remove a value added to a bin earlier
+	 * 
+	 * @param b
+	 *            Bin index the value was added to
+	 */
+	public void remove(int b) {
+		counts[b]--;
+		total--;
+		if (b < p50_bin) {
+			p50_below--;
+		}
+		if (b < p90_bin) {
+			p90_below--;
+		}
+		move_cursors();
+	}
+
+	/**
+	 * Move both cursors to the bins now holding their percentiles
+	 */
+	private void move_cursors() {
+		if (total == 0) {
+			p50_bin = 0;
+			p50_below = 0;
+			p90_bin = 0;
+			p90_below = 0;
+			return;
+		}
+		// Rank of the value at each percentile counting from 1
+		final int r50 = (total + 1) / 2;
+		final int r90 = (9 * total + 9) / 10;
+		while (p50_below >= r50) {
+			p50_below -= counts[--p50_bin];
+		}
+		while (p50_below + counts[p50_bin] < r50) {
+			p50_below += counts[p50_bin++];
+		}
+		while (p90_below >= r90) {
+			p90_below -= counts[--p90_bin];
+		}
+		while (p90_below + counts[p90_bin] < r90) {
+			p90_below += counts[p90_bin++];
+		}
+	}
+
+	/**
+	 * Get the number of values held
+	 * 
+	 * @return Number of values
+	 */
+	public int getCount() {
+		return total;
+	}
+
+	/**
+	 * Get the median cadence
+	 * 
+	 * @return Centre of the median bin in steps per minute or 0 if empty
+	 */
+	public float getMedian() {
+		return (total == 0) ? 0.0f : MIN_CADENCE + (p50_bin + 0.5f) * BIN_WIDTH;
+	}
+
+	/**
+	 * Get the 90th percentile cadence
+	 * 
+	 * @return Centre of the p90 bin in steps per minute or 0 if empty
+	 */
+	public float getPercentile90() {
+		return (total == 0) ? 0.0f : MIN_CADENCE + (p90_bin + 0.5f) * BIN_WIDTH;
+	}
+}
@@ -27,7 +27,7 @@ import android.util.Log;
  * Android Dependencies: Android API Level 1 (Any Android Version)
  *
  * @author Peter B Norton
- * @version 0.30
+ * @version 0.33
  * 
  *          Revision History
  * 
@@ -40,9 +40,13 @@ import android.util.Log;
  *          parameter for each sample point, this is the current threshold value
  *          from the dynamic system.
  * 
+ *          0.33 Implementation of the ISampleLogger interface, the timestamp
+ *          is now written as a whole number of ns instead of a float which lost
+ *          precision. The file naming has been moved to createLogFile so it can
+ *          be shared with the binary log.
  * 
  */
-public class DataLogger {
+public class DataLogger implements ISampleLogger {
 
 	private File file;
 	private String filename;
@@ -55,33 +59,50 @@ public class DataLogger {
 	 * already exist for this specific minute in time
 	 */
 	public DataLogger() {
+		try {
+			file = createLogFile("");
+			filename = file.getName();
+			// Establish FileWriter
+			writer = new FileWriter(file);
+		} catch (IOException e) {
+			Log.e(errorTAG, e.getMessage());
+		}
+	}
+
+	/**
+	 * Create a new log file on the external storage with the current date and
+	 * time as its filename, this is appended with _ should the filename
+	 * already exist for this specific minute in time
+	 * 
+	 * @param extension
+	 *            Extension to add to the filename
+	 * @return File to write the log to
+	 * @throws IOException
+	 *             If there is no external storage available
+	 */
+	public static File createLogFile(String extension) throws IOException {
 		// Generate a Calendar object with the current time and date
 		GregorianCalendar gc = new GregorianCalendar();
 		// Establish Filename
-		filename = "data_" + gc.get(Calendar.YEAR) + "_"
+		String name = "data_" + gc.get(Calendar.YEAR) + "_"
 				+ gc.get(Calendar.MONTH) + "_" + gc.get(Calendar.DAY_OF_MONTH)
 				+ "_" + gc.get(Calendar.HOUR_OF_DAY) + "_"
 				+ gc.get(Calendar.MINUTE);
-		try {
-			if (Environment.MEDIA_MOUNTED.equals(Environment
-					.getExternalStorageState())) {
-				// Establish file object
-				file = new File(Environment.getExternalStorageDirectory(),
-						filename);
-				// While loop to prevent overwriting of files
-				while (file.exists()) {
-					// If it does keep adding _ character till it doesn't
-					filename += "_";
-					file = new File(Environment.getExternalStorageDirectory(),
-							filename);
-				}
-				// Establish FileWriter
-				writer = new FileWriter(file);
-			} else {
-				throw new IOException("No External Media Available!");
+		if (Environment.MEDIA_MOUNTED.equals(Environment
+				.getExternalStorageState())) {
+			// Establish file object
+			File log = new File(Environment.getExternalStorageDirectory(),
+					name + extension);
+			// While loop to prevent overwriting of files
+			while (log.exists()) {
+				// If it does keep adding _ character till it doesn't
+				name += "_";
+				log = new File(Environment.getExternalStorageDirectory(), name
+						+ extension);
 			}
-		} catch (IOException e) {
-			Log.e(errorTAG, e.getMessage());
+			return log;
+		} else {
+			throw new IOException("No External Media Available!");
 		}
 	}
 
@@ -107,6 +128,44 @@ public class DataLogger {
 		}
 	}
 
+	/**
+	 * Write a single whole number value to a line in the log is appended by a
+	 * tab at the end
+	 * 
+	 * @param value
+	 *            64 bit value to write
+	 */
+	public void writeDataValue(long value) {
+		try {
+			if (writer != null) {
+				writer.write(value + "\t");
+			} else {
+				throw new NullPointerException(
+						"Attempt to write a null writer!");
+			}
+		} catch (IOException e) {
+			Log.e(errorTAG, e.getMessage());
+		} catch (NullPointerException e) {
+			Log.e(errorTAG, e.getMessage());
+		}
+	}
+
+	@Override
+	public void writeRecord(float scalar, float filtered, float peak,
+			float threshold, long timestamp) {
+		writeDataValue(scalar);
+		writeDataValue(filtered);
+		writeDataValue(peak);
+		writeDataValue(threshold);
+		writeDataValue(timestamp);
+		writeNewLine();
+	}
+
+	@Override
+	public void setSampleRate(float sr) {
+		// The text log does not store the sample rate
+	}
+
 	/**
 	 * Write a new line in the log to indicate the end of this series of data
 	 */
@@ -125,18 +184,12 @@ public class DataLogger {
 		}
 	}
 
-	/**
-	 * Get the current filename for this log
-	 * 
-	 * @return Current Filename
-	 */
+	@Override
 	public String getFileName() {
 		return filename;
 	}
 
-	/**
-	 * Close the Log and conclude the file writing
-	 */
+	@Override
 	public void close() {
 		try {
 			if (writer != null) {
@@ -0,0 +1,262 @@
+package pnorton.smartped;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Class DecimatingFirFilter
+ * 
+ * Responsibilities: Filter to reduce the sample rate of a signal by a whole
+ * factor, so the filters after it run at a lower internal rate. A windowed
+ * sinc low pass FIR filter removes the frequencies above the new Nyquist
+ * frequency before every factor'th sample is kept. The filter is held in
+ * polyphase form, the coefficients are split into one sub filter per input
+ * phase and each input is stored in the delay line of its phase, so only the
+ * outputs which are kept are ever calculated. Each output costs TAPS_PER_PHASE
+ * multiplies for every input in its period.
+ * 
+ * The decimateBlock method returns the kept outputs at the lower rate. To keep
+ * the ISignalFilter contract processSample and processBlock return a value for
+ * every input, each output is held until the next one is calculated and
+ * isOutputReady tells whether the last input produced a new output. The
+ * filter delays the signal by getDelay input samples.
+ * 
+ * Dependencies: Not dependent on any specific Java or Android features however
+ * does depend upon the ISignalFilter implementation so must provide the methods
+ * specified in that interface.
+ * 
+ * Android Dependencies: No Android Dependencies
+ * 
+ * @author Peter B Norton
+ * @version 0.49
+ * 
+ *          Revision History
+ * 
+ *          0.44 Initial version of the polyphase decimating filter
+ * 
+ *          0.49 Addition of saveState and restoreState for the delay lines,
+ *          phase and held output, a saved position or phase out of range is
+ *          rejected
+ * 
+ */
+public class DecimatingFirFilter implements ISignalFilter {
+
+	/** Coefficients in each polyphase sub filter */
+	public static final int TAPS_PER_PHASE = 8;
+	/** Cut off as a fraction of the Nyquist frequency after decimation */
+	public static final float CUTOFF_FRACTION = 0.8f;
+
+	private int factor; /* Inputs per output */
+	private float[] coefficients; /* Sub filter p at p * TAPS_PER_PHASE */
+	private float[] history; /* Doubled delay line of phase p at p * 2 * TAPS */
+	private int position; /* Newest slot of every delay line */
+	private int phase; /* Phase of the next input, an output is made at 0 */
+	private float output; /* Last output calculated */
+	private boolean ready; /* Set when the last input made an output */
+
+	/**
+	 * Default Constructor
+	 * 
+	 * @param m
+	 *            Decimation factor, 1 passes the signal straight through
+	 */
+	public DecimatingFirFilter(int m) {
+		if (m < 1) {
+			throw new IllegalArgumentException("Decimation factor must be at least 1");
+		}
+		factor = m;
+		coefficients = new float[m * TAPS_PER_PHASE];
+		history = new float[m * 2 * TAPS_PER_PHASE];
+		compute_coefficients();
+		reset();
+	}
+
+	/**
+	 * Compute the Blackman windowed sinc coefficients and split them into the
+	 * polyphase sub filters, sub filter p holds the coefficients p, p + factor,
+	 * p + 2 * factor and so on
+	 */
+	private void compute_coefficients() {
+		if (factor == 1) {
+			// Nothing to remove so the single sub filter is a plain copy
+			coefficients[0] = 1.0f;
+			return;
+		}
+		final int length = factor * TAPS_PER_PHASE;
+		final double fc = CUTOFF_FRACTION * 0.5 / factor; /* Cycles per input */
+		final double middle = (length - 1) / 2.0;
+		final double[] h = new double[length];
+		double sum = 0.0;
+		for (int k = 0; k < length; k++) {
+			double x = k - middle;
+			double sinc = (x == 0.0) ? 2.0 * fc : Math.sin(2.0 * Math.PI
+					* fc * x) / (Math.PI * x);
+			double window = 0.42 - 0.5
+					* Math.cos(2.0 * Math.PI * k / (length - 1)) + 0.08
+					* Math.cos(4.0 * Math.PI * k / (length - 1));
+			h[k] = sinc * window;
+			sum += h[k];
+		}
+		for (int k = 0; k < length; k++) {
+			// Normalise for a gain of 1 at 0 Hz
+			coefficients[(k % factor) * TAPS_PER_PHASE + k / factor] = (float) (h[k] / sum);
+		}
+	}
+
+	@Override
+	public void reset() {
+		for (int i = 0; i < history.length; i++) {
+			history[i] = 0.0f;
+		}
+		position = 0;
+		phase = 0;
+		output = 0.0f;
+		ready = false;
+	}
+
+	/**
+	 * Store an input in the delay line of its phase and calculate the output
+	 * when the period is complete
+	 * 
+	 * @param n
+	 *            Value to store
+	 * @return true if an output was calculated
+	 */
+	private boolean push(float n) {
+		final int base = phase * 2 * TAPS_PER_PHASE + position;
+		history[base] = n;
+		history[base + TAPS_PER_PHASE] = n;
+		if (phase != 0) {
+			phase--;
+			return false;
+		}
+		// Period complete, sum every sub filter over its delay line
+		float y = 0.0f;
+		for (int p = 0; p < factor; p++) {
+			final int c = p * TAPS_PER_PHASE;
+			final int d = p * 2 * TAPS_PER_PHASE + position;
+			for (int j = 0; j < TAPS_PER_PHASE; j++) {
+				y += coefficients[c + j] * history[d + j];
+			}
+		}
+		output = y;
+		// Move the newest slot back so the delay lines run newest first
+		position = (position == 0) ? TAPS_PER_PHASE - 1 : position - 1;
+		phase = factor - 1;
+		return true;
+	}
+
+	@Override
+	public float processSample(float n, long t) {
+		ready = push(n);
+		return output;
+	}
+
+	@Override
+	public void processBlock(float[] in, float[] out, long[] t, int offset,
+			int length) {
+		final int end = offset + length;
+		for (int j = offset; j < end; j++) {
+			ready = push(in[j]);
+			out[j] = output;
+		}
+	}
+
+	/**
+	 * Process a block of samples and keep only the outputs at the lower rate,
+	 * each output has the time stamp of the input which completed it. The
+	 * output arrays may be the input arrays as long as out_offset is not after
+	 * offset, as an output is never written ahead of the input being read.
+	 * 
+	 * @param in
+	 *            Values to process
+	 * @param t
+	 *            Time stamp values for each sample
+	 * @param offset
+	 *            Index of the first sample in both input arrays
+	 * @param length
+	 *            Number of samples to process
+	 * @param out
+	 *            Array to store the outputs
+	 * @param out_t
+	 *            Array to store the time stamps of the outputs
+	 * @param out_offset
+	 *            Index of the first output in both output arrays
+	 * @return Number of outputs stored
+	 */
+	public int decimateBlock(float[] in, long[] t, int offset, int length,
+			float[] out, long[] out_t, int out_offset) {
+		int count = 0;
+		final int end = offset + length;
+		for (int j = offset; j < end; j++) {
+			ready = push(in[j]);
+			if (ready) {
+				out[out_offset + count] = output;
+				out_t[out_offset + count] = t[j];
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Check whether the last input processed completed an output
+	 * 
+	 * @return true if the last input made a new output
+	 */
+	public boolean isOutputReady() {
+		return ready;
+	}
+
+	/**
+	 * Get the decimation factor
+	 * 
+	 * @return Inputs per output
+	 */
+	public int getFactor() {
+		return factor;
+	}
+
+	/**
+	 * Get the delay of the filter
+	 * 
+	 * @return Delay in input samples
+	 */
+	public float getDelay() {
+		if (factor == 1) {
+			return 0.0f;
+		}
+		return (factor * TAPS_PER_PHASE - 1) / 2.0f;
+	}
+
+	@Override
+	public void saveState(ByteBuffer out) {
+		out.putShort((short) factor);
+		for (int i = 0; i < history.length; i++) {
+			out.putFloat(history[i]);
+		}
+		out.put((byte) position);
+		out.putShort((short) phase);
+		out.putFloat(output);
+		out.put((byte) (ready ? 1 : 0));
+	}
+
+	@Override
+	public void restoreState(ByteBuffer in) {
+		if (in.getShort() != factor) {
+			throw new IllegalArgumentException("State is for another decimation factor");
+		}
+		for (int i = 0; i < history.length; i++) {
+			history[i] = in.getFloat();
+		}
+		final int newest = in.get();
+		final int next_phase = in.getShort();
+		if (newest < 0 || newest >= TAPS_PER_PHASE || next_phase < 0
+				|| next_phase >= factor) {
+			throw new IllegalArgumentException("State has a position or phase out of range");
+		}
+		position = newest;
+		phase = next_phase;
+		output = in.getFloat();
+		ready = in.get() != 0;
+	}
+}
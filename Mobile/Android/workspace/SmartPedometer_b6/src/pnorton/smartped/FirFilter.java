@@ -0,0 +1,184 @@
+package pnorton.smartped;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Class FirFilter
+ * 
+ * Responsibilities: General finite impulse response filter with any number of
+ * taps, the first tap weights the newest value. The values are held in a
+ * circular buffer so storing a value is a single write whatever the number of
+ * taps. The buffer is doubled, each value is written to its slot and to the
+ * slot one window further on, so the window always lies in one contiguous run
+ * of the buffer and the weighted sum is a plain loop with no wrap around. The
+ * kernel method gives normalised exponential, triangular and box weights for
+ * a window of any length. This also implements the ISignalFilter interface.
+ * 
+ * Dependencies: Not dependent on any specific Java or Android features however
+ * does depend upon the ISignalFilter implementation so must provide the methods
+ * specified in that interface.
+ * 
+ * Android Dependencies: No Android Dependencies
+ * 
+ * @author Peter B Norton
+ * @version 0.49
+ * 
+ *          Revision History
+ * 
+ *          0.46 Initial version of the general FIR filter
+ * 
+ *          0.49 Addition of saveState and restoreState, the values are saved
+ *          newest first whatever the position in the buffer
+ * 
+ */
+public class FirFilter implements ISignalFilter {
+
+	/**
+	 * Enumeration for the shape of the weights of a window
+	 * 
+	 * @author Peter B Norton
+	 * @version 0.46
+	 */
+	public enum Kernel {
+		/** Weights halve every quarter of the window */
+		EXPONENTIAL,
+		/** Weights fall in a straight line to the oldest value */
+		TRIANGULAR,
+		/** Equal weights, a plain moving average */
+		BOX
+	}
+
+	private float[] taps; /* Weight of each value with the newest first */
+	private float[] history; /* Doubled circular buffer of the values */
+	private int tap_count; /* Number of taps */
+	private int position; /* Slot of the newest value */
+
+	/**
+	 * Default Constructor
+	 * 
+	 * @param weights
+	 *            Weight of each value with the newest first, the array is
+	 *            copied
+	 */
+	public FirFilter(float[] weights) {
+		if (weights.length < 1) {
+			throw new IllegalArgumentException("At least one tap is needed");
+		}
+		tap_count = weights.length;
+		taps = new float[tap_count];
+		System.arraycopy(weights, 0, taps, 0, tap_count);
+		history = new float[2 * tap_count];
+		reset();
+	}
+
+	/**
+	 * Constructor for a window of a standard shape
+	 * 
+	 * @param k
+	 *            Shape of the weights
+	 * @param n
+	 *            Number of taps
+	 */
+	public FirFilter(Kernel k, int n) {
+		this(kernel(k, n));
+	}
+
+	/**
+	 * Calculate the weights of a window which add up to 1
+	 * 
+	 * @param k
+	 *            Shape of the weights
+	 * @param n
+	 *            Number of taps
+	 * @return Weights with the newest first
+	 */
+	public static float[] kernel(Kernel k, int n) {
+		if (n < 1) {
+			throw new IllegalArgumentException("At least one tap is needed");
+		}
+		double[] w = new double[n];
+		double sum = 0.0;
+		// Ratio between taps for the weight to halve every quarter window
+		final double ratio = Math.pow(16.0, -1.0 / n);
+		for (int i = 0; i < n; i++) {
+			switch (k) {
+			case EXPONENTIAL:
+				w[i] = Math.pow(ratio, i);
+				break;
+			case TRIANGULAR:
+				w[i] = n - i;
+				break;
+			default:
+				w[i] = 1.0;
+				break;
+			}
+			sum += w[i];
+		}
+		float[] weights = new float[n];
+		for (int i = 0; i < n; i++) {
+			weights[i] = (float) (w[i] / sum);
+		}
+		return weights;
+	}
+
+	@Override
+	public void reset() {
+		for (int i = 0; i < history.length; i++) {
+			history[i] = 0.0f;
+		}
+		position = 0;
+	}
+
+	@Override
+	public float processSample(float n, long t) {
+		// Step back one slot and store the value in both halves
+		position = (position == 0) ? tap_count - 1 : position - 1;
+		history[position] = n;
+		history[position + tap_count] = n;
+		final float[] h = history;
+		final float[] w = taps;
+		final int p = position;
+		float sum = 0.0f;
+		for (int i = 0; i < tap_count; i++) {
+			sum += h[p + i] * w[i];
+		}
+		return sum;
+	}
+
+	@Override
+	public void processBlock(float[] in, float[] out, long[] t, int offset,
+			int length) {
+		final int end = offset + length;
+		for (int j = offset; j < end; j++) {
+			out[j] = processSample(in[j], 0L);
+		}
+	}
+
+	/**
+	 * Get the number of taps
+	 * 
+	 * @return Number of taps
+	 */
+	public int getLength() {
+		return tap_count;
+	}
+
+	@Override
+	public void saveState(ByteBuffer out) {
+		out.putShort((short) tap_count);
+		for (int i = 0; i < tap_count; i++) {
+			out.putFloat(history[position + i]);
+		}
+	}
+
+	@Override
+	public void restoreState(ByteBuffer in) {
+		if (in.getShort() != (short) tap_count) {
+			throw new IllegalArgumentException("State is for another number of taps");
+		}
+		position = 0;
+		for (int i = 0; i < tap_count; i++) {
+			history[i] = history[i + tap_count] = in.getFloat();
+		}
+	}
+}
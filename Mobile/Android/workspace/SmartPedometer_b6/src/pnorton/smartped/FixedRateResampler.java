@@ -0,0 +1,254 @@
+package pnorton.smartped;
+
+/**
+ * Class FixedRateResampler
+ * 
+ * Responsibilities: Resamples a stream of values delivered at irregular times,
+ * such as Android sensor events, onto a grid of exactly equal intervals at the
+ * target rate. The filters after the resampler can then use fixed coefficients
+ * for the target rate and give the same results whatever rate the sensor of a
+ * device delivers at. The grid starts at the time stamp of the first value and
+ * the time of grid point k is always calculated from the start so the grid
+ * does not drift.
+ * 
+ * LINEAR interpolation joins neighbouring values with a straight line and
+ * emits the grid points up to the newest value. CUBIC interpolation fits a
+ * Catmull-Rom spline through the last four values, with the tangents scaled
+ * for the uneven intervals, and emits the grid points up to the value before
+ * the newest so it delays the signal by one sample. A value whose time stamp
+ * does not advance is ignored and a gap of more than MAX_GAP_PERIODS grid
+ * intervals, such as the sensor being paused, starts a new grid at the value
+ * after the gap rather than filling the gap.
+ * 
+ * Dependencies: Not dependent on any specific Java or Android features
+ * 
+ * Android Dependencies: No Android Dependencies
+ * 
+ * @author Peter B Norton
+ * @version 0.43
+ * 
+ *          Revision History
+ * 
+ *          0.43 Initial version of the fixed rate resampler
+ * 
+ */
+public class FixedRateResampler {
+
+	/**
+	 * Enumeration for the interpolation between the values
+	 * 
+	 * @author Peter B Norton
+	 * @version 0.43
+	 */
+	public enum Interpolation {
+		/** Straight line between neighbouring values */
+		LINEAR,
+		/** Catmull-Rom spline through four values, one sample of delay */
+		CUBIC
+	}
+
+	/** Largest gap in grid intervals which is interpolated across */
+	public static final int MAX_GAP_PERIODS = 8;
+	/** Most grid points emitted for a single value */
+	public static final int MAX_OUTPUT = MAX_GAP_PERIODS + 1;
+	private static final int HISTORY = 4; /* Values kept for the spline */
+
+	private float rate; /* Target rate in Hz */
+	private Interpolation interpolation;
+	private double period; /* Grid interval in ns */
+	private long max_gap; /* Longest interval interpolated across in ns */
+
+	/* Last values with the newest at HISTORY - 1 */
+	private float[] value;
+	private long[] time;
+	private boolean started; /* Set once the first value has been seen */
+	private long origin; /* Time stamp of the first grid point */
+	private long index; /* Number of the next grid point */
+	private long next_time; /* Time stamp of the next grid point */
+	private long restarts; /* Grids started again after a gap */
+
+	/**
+	 * Default Constructor
+	 * 
+	 * @param target_rate
+	 *            Rate of the grid in Hz
+	 * @param mode
+	 *            Interpolation between the values
+	 */
+	public FixedRateResampler(float target_rate, Interpolation mode) {
+		if (target_rate <= 0.0f) {
+			throw new IllegalArgumentException("Target rate must be positive");
+		}
+		rate = target_rate;
+		interpolation = mode;
+		period = 1e9 / target_rate;
+		max_gap = (long) (period * MAX_GAP_PERIODS);
+		value = new float[HISTORY];
+		time = new long[HISTORY];
+		restarts = 0L;
+		reset();
+	}
+
+	/**
+	 * Forget the values seen so the next value starts a new grid
+	 */
+	public void reset() {
+		started = false;
+	}
+
+	/**
+	 * Take the next value and emit the grid points which can now be
+	 * interpolated
+	 * 
+	 * @param v
+	 *            Value
+	 * @param timestamp
+	 *            Time stamp of the value in ns
+	 * @param out_v
+	 *            Values of the emitted grid points, should hold MAX_OUTPUT
+	 * @param out_t
+	 *            Time stamps of the emitted grid points, should hold
+	 *            MAX_OUTPUT
+	 * @return Number of grid points emitted
+	 */
+	public int process(float v, long timestamp, float[] out_v, long[] out_t) {
+		return process(v, timestamp, out_v, out_t, 0);
+	}
+
+	/**
+	 * Take the next value and emit the grid points which can now be
+	 * interpolated into arrays from an offset
+	 * 
+	 * @param v
+	 *            Value
+	 * @param timestamp
+	 *            Time stamp of the value in ns
+	 * @param out_v
+	 *            Values of the emitted grid points
+	 * @param out_t
+	 *            Time stamps of the emitted grid points
+	 * @param offset
+	 *            Index of the first emitted grid point in both arrays, which
+	 *            should hold MAX_OUTPUT from there
+	 * @return Number of grid points emitted
+	 */
+	public int process(float v, long timestamp, float[] out_v, long[] out_t,
+			int offset) {
+		if (!started || timestamp - time[HISTORY - 1] > max_gap) {
+			if (started) {
+				restarts++;
+			}
+			start(v, timestamp);
+		} else if (timestamp <= time[HISTORY - 1]) {
+			// Time stamp does not advance so nothing can be interpolated
+			return 0;
+		} else {
+			for (int i = 0; i < HISTORY - 1; i++) {
+				value[i] = value[i + 1];
+				time[i] = time[i + 1];
+			}
+			value[HISTORY - 1] = v;
+			time[HISTORY - 1] = timestamp;
+		}
+		// Grid points up to the end of the segment which can be interpolated
+		final long end = (interpolation == Interpolation.LINEAR) ? time[3]
+				: time[2];
+		final int limit = Math.min(MAX_OUTPUT, out_v.length - offset);
+		int n = 0;
+		while (next_time <= end && n < limit) {
+			out_v[offset + n] = (interpolation == Interpolation.LINEAR) ? linear(next_time)
+					: cubic(next_time);
+			out_t[offset + n] = next_time;
+			n++;
+			index++;
+			next_time = origin + (long) (index * period);
+		}
+		return n;
+	}
+
+	/**
+	 * Start a new grid at a value, the history is filled with the value
+	 * 
+	 * @param v
+	 *            Value
+	 * @param timestamp
+	 *            Time stamp of the value in ns
+	 */
+	private void start(float v, long timestamp) {
+		for (int i = 0; i < HISTORY; i++) {
+			value[i] = v;
+			time[i] = timestamp;
+		}
+		origin = timestamp;
+		index = 0L;
+		next_time = timestamp;
+		started = true;
+	}
+
+	/**
+	 * Interpolate along the straight line between the two newest values
+	 * 
+	 * @param t
+	 *            Time stamp of the grid point
+	 * @return Interpolated value
+	 */
+	private float linear(long t) {
+		final long h = time[3] - time[2];
+		if (h == 0L || t >= time[3]) {
+			return value[3];
+		}
+		final float u = (float) (t - time[2]) / (float) h;
+		return value[2] + u * (value[3] - value[2]);
+	}
+
+	/**
+	 * Interpolate along the Catmull-Rom spline between the two middle values,
+	 * the tangent at each is the slope between its neighbours scaled to the
+	 * interval between the middle values
+	 * 
+	 * @param t
+	 *            Time stamp of the grid point
+	 * @return Interpolated value
+	 */
+	private float cubic(long t) {
+		final long h = time[2] - time[1];
+		if (h == 0L || t >= time[2]) {
+			return value[2];
+		}
+		final float u = (float) (t - time[1]) / (float) h;
+		final float m1 = (value[2] - value[0]) * h / (float) (time[2] - time[0]);
+		final float m2 = (value[3] - value[1]) * h / (float) (time[3] - time[1]);
+		final float u2 = u * u;
+		final float u3 = u2 * u;
+		return (2.0f * u3 - 3.0f * u2 + 1.0f) * value[1]
+				+ (u3 - 2.0f * u2 + u) * m1 + (-2.0f * u3 + 3.0f * u2)
+				* value[2] + (u3 - u2) * m2;
+	}
+
+	/**
+	 * Get the rate of the grid
+	 * 
+	 * @return Target rate in Hz
+	 */
+	public float getTargetRate() {
+		return rate;
+	}
+
+	/**
+	 * Get the interpolation between the values
+	 * 
+	 * @return Interpolation
+	 */
+	public Interpolation getInterpolation() {
+		return interpolation;
+	}
+
+	/**
+	 * Get the number of times a gap started a new grid
+	 * 
+	 * @return Number of restarts
+	 */
+	public long getRestartCount() {
+		return restarts;
+	}
+}
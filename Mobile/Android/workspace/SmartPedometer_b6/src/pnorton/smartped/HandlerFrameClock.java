@@ -0,0 +1,69 @@
+package pnorton.smartped;
+
+import android.os.Handler;
+
+/**
+ * Class HandlerFrameClock
+ * 
+ * Responsibilities: Produces the frames of a ManualFrameClock at a fixed
+ * interval from an Android Handler, standing in for the Choreographer which is
+ * only available from API level 16. Frames are only produced while a callback
+ * is waiting, so the clock costs nothing when the user interface is paused.
+ * 
+ * Dependencies: Depends on the ManualFrameClock class
+ * 
+ * Android Dependencies: Android API Level 1 (Any Android Version)
+ * 
+ * @author Peter B Norton
+ * @version 0.39
+ * 
+ *          Revision History
+ * 
+ *          0.39 Initial version of the frame clock system
+ * 
+ */
+public class HandlerFrameClock extends ManualFrameClock implements Runnable {
+
+	private Handler handler; /* Handler of the user interface thread */
+	private long interval; /* Time between frames in ms */
+	private boolean scheduled; /* A frame is waiting in the handler */
+
+	/**
+	 * Default Constructor
+	 * 
+	 * @param ui_handler
+	 *            Handler of the thread the callbacks are called on
+	 * @param frame_interval
+	 *            Time between frames in ms
+	 */
+	public HandlerFrameClock(Handler ui_handler, long frame_interval) {
+		handler = ui_handler;
+		interval = frame_interval;
+		scheduled = false;
+	}
+
+	@Override
+	protected void scheduleFrame() {
+		if (!scheduled) {
+			scheduled = true;
+			handler.postDelayed(this, interval);
+		}
+	}
+
+	@Override
+	public void run() {
+		scheduled = false;
+		tick(System.nanoTime());
+		if (hasWaitingCallbacks()) {
+			scheduleFrame();
+		}
+	}
+
+	/**
+	 * Stop producing frames, any waiting callbacks are kept
+	 */
+	public void stop() {
+		handler.removeCallbacks(this);
+		scheduled = false;
+	}
+}
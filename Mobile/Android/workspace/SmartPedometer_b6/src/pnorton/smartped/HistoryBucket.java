@@ -0,0 +1,111 @@
+package pnorton.smartped;
+
+/**
+ * Class HistoryBucket
+ * 
+ * Responsibilities: Holds the step history of one period, either a single
+ * minute as stored by the StepHistoryStore or an hour, day or week rolled up
+ * from the minutes. The values can only be read through the getters, they
+ * are filled in by the StepHistoryStore so the caller can reuse the same
+ * buckets for each query.
+ * 
+ * Dependencies: Not dependent on any specific Java or Android features
+ * 
+ * Android Dependencies: No Android Dependencies
+ * 
+ * @author Peter B Norton
+ * @version 0.48
+ * 
+ *          Revision History
+ * 
+ *          0.48 Initial version of the step history
+ * 
+ */
+public class HistoryBucket {
+
+	private long start; /* First minute of the period since the epoch */
+	private int minutes; /* Length of the period in minutes */
+	private int steps; /* Steps in the period */
+	private int active_seconds; /* Seconds with at least one step */
+	private float cadence; /* Mean cadence in steps per minute */
+	private float peak; /* Highest step peak in the period */
+
+	/**
+	 * Set all the values of this bucket
+	 * 
+	 * @param m
+	 *            First minute of the period since the epoch
+	 * @param length
+	 *            Length of the period in minutes
+	 * @param st
+	 *            Steps in the period
+	 * @param active
+	 *            Seconds with at least one step
+	 * @param c
+	 *            Mean cadence in steps per minute
+	 * @param p
+	 *            Highest step peak
+	 */
+	void set(long m, int length, int st, int active, float c, float p) {
+		start = m;
+		minutes = length;
+		steps = st;
+		active_seconds = active;
+		cadence = c;
+		peak = p;
+	}
+
+	/**
+	 * Get the first minute of the period
+	 * 
+	 * @return Minutes since the epoch (UTC)
+	 */
+	public long getStart() {
+		return start;
+	}
+
+	/**
+	 * Get the length of the period
+	 * 
+	 * @return Length in minutes
+	 */
+	public int getMinutes() {
+		return minutes;
+	}
+
+	/**
+	 * Get the number of steps in the period
+	 * 
+	 * @return Steps
+	 */
+	public int getSteps() {
+		return steps;
+	}
+
+	/**
+	 * Get the time spent walking in the period
+	 * 
+	 * @return Seconds with at least one step
+	 */
+	public int getActiveSeconds() {
+		return active_seconds;
+	}
+
+	/**
+	 * Get the mean cadence while walking, weighted by the steps of each minute
+	 * 
+	 * @return Steps per minute
+	 */
+	public float getCadence() {
+		return cadence;
+	}
+
+	/**
+	 * Get the highest step peak in the period
+	 * 
+	 * @return Peak value
+	 */
+	public float getPeak() {
+		return peak;
+	}
+}
@@ -0,0 +1,32 @@
+package pnorton.smartped;
+
+/**
+ * Interface IFrameCallback
+ * 
+ * Responsibilities: Called by an IFrameClock when the next frame of the user
+ * interface is due, in the same way as the Android Choreographer frame
+ * callback which is not available at this API level.
+ * 
+ * Dependencies: Not dependent on any specific Java or Android features
+ * 
+ * Android Dependencies: No Android Dependencies
+ * 
+ * @author Peter B Norton
+ * @version 0.39
+ * 
+ *          Revision History
+ * 
+ *          0.39 Initial version of the frame clock system
+ * 
+ */
+public interface IFrameCallback {
+
+	/**
+	 * Called when a frame is due, the callback is only called once and must
+	 * be posted again for the next frame
+	 * 
+	 * @param frame_time
+	 *            Time of the frame in ns
+	 */
+	public void doFrame(long frame_time);
+}
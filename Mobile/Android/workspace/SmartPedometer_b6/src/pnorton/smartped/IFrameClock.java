@@ -0,0 +1,41 @@
+package pnorton.smartped;
+
+/**
+ * Interface IFrameClock
+ * 
+ * Responsibilities: Paces the user interface updates, callbacks posted to the
+ * clock are called once on the next frame. This keeps the user interface to
+ * its own frame rate rather than the rate of the sensor, and allows the frame
+ * pacing to be driven by hand on a Java VM.
+ * 
+ * Dependencies: Depends on the IFrameCallback interface
+ * 
+ * Android Dependencies: No Android Dependencies
+ * 
+ * @author Peter B Norton
+ * @version 0.39
+ * 
+ *          Revision History
+ * 
+ *          0.39 Initial version of the frame clock system
+ * 
+ */
+public interface IFrameClock {
+
+	/**
+	 * Call a callback on the next frame, posting a callback which is already
+	 * waiting has no effect
+	 * 
+	 * @param callback
+	 *            Callback to call
+	 */
+	public void postFrameCallback(IFrameCallback callback);
+
+	/**
+	 * Remove a waiting callback
+	 * 
+	 * @param callback
+	 *            Callback to remove
+	 */
+	public void removeFrameCallback(IFrameCallback callback);
+}
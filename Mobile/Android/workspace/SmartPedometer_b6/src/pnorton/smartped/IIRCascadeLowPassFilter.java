@@ -1,5 +1,7 @@
 package pnorton.smartped;
 
+import java.nio.ByteBuffer;
+
 /**
  * Class IIRCascadeLowPassFilter
  * 
@@ -15,7 +17,7 @@ package pnorton.smartped;
  * Android Dependencies: No Android Dependencies
  * 
  * @author Peter B Norton
- * @version 0.30
+ * @version 0.49
  * 
  *          Revision History
  * 
@@ -27,6 +29,12 @@ package pnorton.smartped;
  *          0.21 Modification for new ISignalFilter interface which takes in
  *          timing parameter
  * 
+ *          0.31 Addition of processBlock method, the filter state is held in
+ *          local variables for the duration of the block with an unrolled
+ *          path for the default 4 cascades
+ * 
+ *          0.49 Addition of saveState and restoreState for the cascade states
+ * 
  */
 public class IIRCascadeLowPassFilter implements ISignalFilter {
 
@@ -90,4 +98,58 @@ public class IIRCascadeLowPassFilter implements ISignalFilter {
 		return y;
 	}
 
+	@Override
+	public void processBlock(float[] in, float[] out, long[] t, int offset,
+			int length) {
+		final float a = a_weight;
+		final float b = b_weight;
+		final float[] state = previous_value;
+		final int end = offset + length;
+		if (number_of_cascades == 4) {
+			// Keep the 4 cascade states in locals for the whole block
+			float s0 = state[0];
+			float s1 = state[1];
+			float s2 = state[2];
+			float s3 = state[3];
+			for (int j = offset; j < end; j++) {
+				s0 = (a * in[j]) + (s0 * b);
+				s1 = (a * s0) + (s1 * b);
+				s2 = (a * s1) + (s2 * b);
+				s3 = (a * s2) + (s3 * b);
+				out[j] = s3;
+			}
+			state[0] = s0;
+			state[1] = s1;
+			state[2] = s2;
+			state[3] = s3;
+		} else {
+			final int cascades = number_of_cascades;
+			for (int j = offset; j < end; j++) {
+				float y = in[j];
+				for (int i = 0; i < cascades; i++) {
+					y = (a * y) + (state[i] * b);
+					state[i] = y;
+				}
+				out[j] = y;
+			}
+		}
+	}
+
+	@Override
+	public void saveState(ByteBuffer out) {
+		out.putShort((short) number_of_cascades);
+		for (int i = 0; i < number_of_cascades; i++) {
+			out.putFloat(previous_value[i]);
+		}
+	}
+
+	@Override
+	public void restoreState(ByteBuffer in) {
+		if (in.getShort() != number_of_cascades) {
+			throw new IllegalArgumentException("State is for another number of cascades");
+		}
+		for (int i = 0; i < number_of_cascades; i++) {
+			previous_value[i] = in.getFloat();
+		}
+	}
 }
@@ -0,0 +1,44 @@
+package pnorton.smartped;
+
+import java.io.IOException;
+
+/**
+ * Interface ILogReader
+ * 
+ * Responsibilities: Common interface for reading back the data logs written
+ * by the PedometerManager one row at a time, this allows a log to be streamed
+ * through the filters again without holding the whole log in memory.
+ * 
+ * Dependencies: Depends on the LogRecord class to return the values of a row
+ * 
+ * Android Dependencies: No Android Dependencies
+ * 
+ * @author Peter B Norton
+ * @version 0.32
+ * 
+ *          Revision History
+ * 
+ *          0.32 Initial version for the log replay system
+ * 
+ */
+public interface ILogReader {
+
+	/**
+	 * Read the next row of the log into a record
+	 * 
+	 * @param record
+	 *            Record to store the values in
+	 * @return true - record has been read false - end of the log
+	 * @throws IOException
+	 *             If the log could not be read
+	 */
+	public boolean readRecord(LogRecord record) throws IOException;
+
+	/**
+	 * Close the log
+	 * 
+	 * @throws IOException
+	 *             If the log could not be closed
+	 */
+	public void close() throws IOException;
+}
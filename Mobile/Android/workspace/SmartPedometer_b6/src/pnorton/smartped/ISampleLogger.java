@@ -0,0 +1,63 @@
+package pnorton.smartped;
+
+/**
+ * Interface ISampleLogger
+ * 
+ * Responsibilities: Common interface for the data logs written by the
+ * PedometerManager, each processed sample is written as a single record of the
+ * scalar, filtered, peak and threshold values along with its timestamp. This
+ * allows the format of the log to be chosen without changing the
+ * PedometerManager.
+ * 
+ * Dependencies: Not dependent on any specific Java or Android features
+ * 
+ * Android Dependencies: No Android Dependencies
+ * 
+ * @author Peter B Norton
+ * @version 0.33
+ * 
+ *          Revision History
+ * 
+ *          0.33 Initial version to allow the binary log format
+ * 
+ */
+public interface ISampleLogger {
+
+	/**
+	 * Write a single sample record to the log
+	 * 
+	 * @param scalar
+	 *            Scalar (-G) value
+	 * @param filtered
+	 *            Filtered value
+	 * @param peak
+	 *            Peak value
+	 * @param threshold
+	 *            Dynamic threshold value
+	 * @param timestamp
+	 *            Time stamp of the sample in ns
+	 */
+	public void writeRecord(float scalar, float filtered, float peak,
+			float threshold, long timestamp);
+
+	/**
+	 * Set the sample rate to be stored with the log, logs which do not hold
+	 * the sample rate may ignore this
+	 * 
+	 * @param sr
+	 *            Sample rate in Hz
+	 */
+	public void setSampleRate(float sr);
+
+	/**
+	 * Get the current filename for this log
+	 * 
+	 * @return Current Filename
+	 */
+	public String getFileName();
+
+	/**
+	 * Close the Log and conclude the file writing
+	 */
+	public void close();
+}
@@ -0,0 +1,48 @@
+package pnorton.smartped;
+
+/**
+ * Interface ISampleSource
+ * 
+ * Responsibilities: A source of accelerometer samples which delivers them to
+ * an IAccelerometerListener on a thread of its own, so the processing of the
+ * samples never runs on the user interface thread. This allows the hardware
+ * accelerometer to be replaced by a synthetic source when running on a Java
+ * VM.
+ * 
+ * Dependencies: Depends on the IAccelerometerListener interface
+ * 
+ * Android Dependencies: No Android Dependencies
+ * 
+ * @author Peter B Norton
+ * @version 0.40
+ * 
+ *          Revision History
+ * 
+ *          0.40 Initial version of the sample source system
+ * 
+ */
+public interface ISampleSource {
+
+	/**
+	 * Start delivering samples, the listener is called on the thread of the
+	 * source
+	 * 
+	 * @param acc_listener
+	 *            Listener for the samples
+	 */
+	public void start(IAccelerometerListener acc_listener);
+
+	/**
+	 * Stop delivering samples, once this returns the listener is not called
+	 * again and everything it did on the thread of the source is visible to
+	 * the caller
+	 */
+	public void stop();
+
+	/**
+	 * Get the current active state of the source
+	 * 
+	 * @return Active state flag
+	 */
+	public boolean getActive();
+}
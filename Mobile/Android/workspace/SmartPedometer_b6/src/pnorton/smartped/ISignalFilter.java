@@ -1,5 +1,7 @@
 package pnorton.smartped;
 
+import java.nio.ByteBuffer;
+
 /**
  * Interface ISignalFilter
  * 
@@ -8,14 +10,15 @@ package pnorton.smartped;
  * Pedometer allowed the chaining of filters in array for processing. This
  * is now largely redundant but has been retained to allow the export of 
  * some of the signal filters and to retain a common interface by how
- * they are managed.
+ * they are managed. The filters can again be chained as the stages of a
+ * SignalPipeline.
  * 
- * Dependencies: Not dependent on any specific Java or Android features 
+ * Dependencies: Depends on the java.nio API for the saved state
  * 
  * Android Dependencies: No Android Dependencies
  * 
  * @author Peter B Norton
- * @version 0.30
+ * @version 0.55
  * 
  *          Revision History
  * 
@@ -26,6 +29,16 @@ package pnorton.smartped;
  *          0.21 New Version with additional timing parameter added to the
  *          processSample method
  * 
+ *          0.31 Addition of the processBlock method so a whole block of
+ *          samples can be run through a filter with a single call, this
+ *          must produce exactly the same values as the equivalent series of
+ *          processSample calls
+ * 
+ *          0.49 Addition of the saveState and restoreState methods so a
+ *          filter can carry on from a checkpoint of its state
+ * 
+ *          0.55 Filters chained again as the stages of a SignalPipeline
+ * 
  */
 public interface ISignalFilter {
 
@@ -45,4 +58,46 @@ public interface ISignalFilter {
 	 */
 	public float processSample(float n, long t);
 
+	/**
+	 * Process a block of samples through the filter, the result for each
+	 * sample must be identical to calling processSample for each value in
+	 * turn. The input and output arrays may be the same array in which case
+	 * the values are filtered in place.
+	 * 
+	 * @param in
+	 *            Values to process
+	 * @param out
+	 *            Array to store the modified values
+	 * @param t
+	 *            Time stamp values for each sample
+	 * @param offset
+	 *            Index of the first sample in all three arrays
+	 * @param length
+	 *            Number of samples to process
+	 */
+	public void processBlock(float[] in, float[] out, long[] t, int offset,
+			int length);
+
+	/**
+	 * Write the state the filter holds from the samples already processed,
+	 * but not its settings, so a filter with the same settings can carry on
+	 * from the same point with restoreState
+	 * 
+	 * @param out
+	 *            Buffer to write the state to
+	 */
+	public void saveState(ByteBuffer out);
+
+	/**
+	 * Carry on from a state written by saveState of a filter with the same
+	 * settings, the next sample is processed as if it followed the samples
+	 * processed before the state was saved
+	 * 
+	 * @param in
+	 *            Buffer to read the state from
+	 * @throws IllegalArgumentException
+	 *             If the state does not fit the settings of this filter
+	 */
+	public void restoreState(ByteBuffer in);
+
 }
@@ -0,0 +1,46 @@
+package pnorton.smartped;
+
+/**
+ * Interface IStepListener
+ * 
+ * Responsibilities: Notification of the steps detected by the PedometerManager
+ * so that the beeper and any other outputs can react to a step without being
+ * polled. A single call may report several steps when they have been
+ * coalesced, in that case the time stamp and peak are those of the last step.
+ * A reset of the step count is reported in order with the steps, after the
+ * steps counted before it and before any step counted after it.
+ * 
+ * Dependencies: Not dependent on any specific Java or Android features
+ * 
+ * Android Dependencies: No Android Dependencies
+ * 
+ * @author Peter B Norton
+ * @version 0.62
+ * 
+ *          Revision History
+ * 
+ *          0.38 Initial version of the step event system
+ * 
+ *          0.62 Addition of onReset so a reset of the step count reaches the
+ *          listeners in order with the steps
+ * 
+ */
+public interface IStepListener {
+
+	/**
+	 * Called when one or more steps have been detected
+	 * 
+	 * @param timestamp
+	 *            Time stamp of the last step in ns
+	 * @param peak
+	 *            Peak value of the last step
+	 * @param count
+	 *            Number of steps reported by this call
+	 */
+	public void onStep(long timestamp, float peak, int count);
+
+	/**
+	 * Called when the step count has been reset to 0
+	 */
+	public void onReset();
+}
@@ -0,0 +1,107 @@
+package pnorton.smartped;
+
+/**
+ * Class LogRecord
+ * 
+ * Responsibilities: Holds a single row of a data log as written by the
+ * PedometerManager, the scalar, filtered, peak and threshold values along with
+ * the timestamp of the sample. A single record is reused by the log readers so
+ * reading a log does not create an object for every row.
+ * 
+ * Dependencies: Not dependent on any specific Java or Android features
+ * 
+ * Android Dependencies: No Android Dependencies
+ * 
+ * @author Peter B Norton
+ * @version 0.32
+ * 
+ *          Revision History
+ * 
+ *          0.32 Initial version for the log replay system
+ * 
+ */
+public class LogRecord {
+
+	private float scalar; /* Scalar (-G) value */
+	private float filtered; /* Filtered value */
+	private float peak; /* Peak value */
+	private float threshold; /* Dynamic threshold value */
+	private long timestamp; /* Time stamp of the sample in ns */
+
+	/**
+	 * Set all the values of this record
+	 * 
+	 * @param s
+	 *            Scalar value
+	 * @param f
+	 *            Filtered value
+	 * @param p
+	 *            Peak value
+	 * @param th
+	 *            Threshold value
+	 * @param t
+	 *            Time stamp value
+	 */
+	public void set(float s, float f, float p, float th, long t) {
+		scalar = s;
+		filtered = f;
+		peak = p;
+		threshold = th;
+		timestamp = t;
+	}
+
+	/**
+	 * Get the Scalar value
+	 * 
+	 * @return Scalar value
+	 */
+	public float getScalar() {
+		return scalar;
+	}
+
+	/**
+	 * Get the Filtered value
+	 * 
+	 * @return Filtered value
+	 */
+	public float getFiltered() {
+		return filtered;
+	}
+
+	/**
+	 * Get the Peak value
+	 * 
+	 * @return Peak value
+	 */
+	public float getPeak() {
+		return peak;
+	}
+
+	/**
+	 * Get the Threshold value
+	 * 
+	 * @return Threshold value
+	 */
+	public float getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * Get the Time stamp value
+	 * 
+	 * @return Time stamp in ns
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * Set the Time stamp value
+	 * 
+	 * @param t
+	 *            Time stamp in ns
+	 */
+	public void setTimestamp(long t) {
+		timestamp = t;
+	}
+}
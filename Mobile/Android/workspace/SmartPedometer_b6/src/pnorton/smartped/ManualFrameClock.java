@@ -0,0 +1,117 @@
+package pnorton.smartped;
+
+/**
+ * Class ManualFrameClock
+ * 
+ * Responsibilities: An IFrameClock whose frames are produced by calling tick,
+ * so code paced by a frame clock can be driven on a Java VM. It also holds the
+ * waiting callbacks for the HandlerFrameClock which ticks it from an Android
+ * Handler. The clock is used from a single thread.
+ * 
+ * Dependencies: Depends on the IFrameClock interface which it implements
+ * 
+ * Android Dependencies: No Android Dependencies
+ * 
+ * @author Peter B Norton
+ * @version 0.39
+ * 
+ *          Revision History
+ * 
+ *          0.39 Initial version of the frame clock system
+ * 
+ */
+public class ManualFrameClock implements IFrameClock {
+
+	private IFrameCallback[] waiting; /* Callbacks for the next frame */
+	private IFrameCallback[] running; /* Callbacks of the current frame */
+	private int waiting_count;
+	private long frames; /* Frames ticked */
+
+	/**
+	 * Default Constructor
+	 */
+	public ManualFrameClock() {
+		waiting = new IFrameCallback[4];
+		running = new IFrameCallback[4];
+		waiting_count = 0;
+		frames = 0L;
+	}
+
+	@Override
+	public void postFrameCallback(IFrameCallback callback) {
+		for (int i = 0; i < waiting_count; i++) {
+			if (waiting[i] == callback) {
+				return;
+			}
+		}
+		if (waiting_count == waiting.length) {
+			IFrameCallback[] larger = new IFrameCallback[waiting.length * 2];
+			System.arraycopy(waiting, 0, larger, 0, waiting_count);
+			waiting = larger;
+			running = new IFrameCallback[larger.length];
+		}
+		waiting[waiting_count++] = callback;
+		if (waiting_count == 1) {
+			scheduleFrame();
+		}
+	}
+
+	@Override
+	public void removeFrameCallback(IFrameCallback callback) {
+		for (int i = 0; i < waiting_count; i++) {
+			if (waiting[i] == callback) {
+				System.arraycopy(waiting, i + 1, waiting, i, waiting_count - i
+						- 1);
+				waiting[--waiting_count] = null;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Produce a frame, each waiting callback is called once. Callbacks posted
+	 * during the frame wait for the next frame.
+	 * 
+	 * @param frame_time
+	 *            Time of the frame in ns
+	 */
+	public void tick(long frame_time) {
+		frames++;
+		// Swap the lists so callbacks can post themselves again
+		IFrameCallback[] current = waiting;
+		int count = waiting_count;
+		waiting = running;
+		running = current;
+		waiting_count = 0;
+		for (int i = 0; i < count; i++) {
+			IFrameCallback callback = current[i];
+			current[i] = null;
+			callback.doFrame(frame_time);
+		}
+	}
+
+	/**
+	 * Called when a callback is posted and no other callback was waiting, so
+	 * a frame needs to be produced
+	 */
+	protected void scheduleFrame() {
+	}
+
+	/**
+	 * Check if any callbacks are waiting for a frame
+	 * 
+	 * @return true if a frame is needed
+	 */
+	public boolean hasWaitingCallbacks() {
+		return waiting_count > 0;
+	}
+
+	/**
+	 * Get the number of frames produced
+	 * 
+	 * @return Number of frames
+	 */
+	public long getFrameCount() {
+		return frames;
+	}
+}
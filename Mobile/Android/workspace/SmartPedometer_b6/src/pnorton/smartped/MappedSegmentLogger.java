@@ -0,0 +1,403 @@
+package pnorton.smartped;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import android.util.Log;
+
+/**
+ * Class MappedSegmentLogger
+ * 
+ * Responsibilities: Writes the PedometerManager data log into a series of
+ * preallocated memory mapped segment files, so writing a record is a few
+ * stores into memory with no system call. Each segment has the same header and
+ * record layout as the BinaryDataLogger, the record count in the header is
+ * updated after every record so it always holds the number of committed
+ * records. Should the application crash the records up to that count survive
+ * in the segment, only a power loss can lose the part of the current segment
+ * not yet flushed by the operating system.
+ * 
+ * The segments are created, preallocated and mapped on a roller thread, the
+ * next segment is made ready as soon as the current one is in use. When a
+ * segment fills the sensor thread only swaps in the ready segment, the full
+ * segment is forced to storage and closed on the roller thread. The sensor
+ * thread only waits should the next segment not yet be ready. A segment made
+ * ready but never used is deleted when the log is closed. There is no public
+ * API to unmap a buffer so each mapping is released by the garbage collector
+ * once its segment is closed and no longer referenced.
+ * 
+ * Writing takes no lock. The log may be closed from another thread while a
+ * record is written, the writer marks itself as writing before it checks the
+ * closing flag and close sets the flag then waits for any record being
+ * written to finish, so the segments are only retired by one thread.
+ * 
+ * Segments are named data_date_NNN.seg using the DataLogger naming, with NNN
+ * the segment number starting from 000.
+ * 
+ * Dependencies: Depends on the DataLogger class for the file naming, the
+ * BinaryDataLogger for the header layout, the java.nio API to map the files
+ * and the java.util.concurrent API for the roller thread. This class also
+ * implements the ISampleLogger interface.
+ * 
+ * Android Dependencies: Android API Level 1 (Any Android Version)
+ * 
+ * @author Peter B Norton
+ * @version 0.60
+ * 
+ *          Revision History
+ * 
+ *          0.35 Initial version of the memory mapped segment log
+ * 
+ *          0.40 Writing, setting the sample rate and closing are synchronized
+ *          as the log may be closed from another thread while it is written
+ * 
+ *          0.56 The next segment is made ready and the full segment is
+ *          closed and unmapped on a roller thread rather than on the sensor
+ *          thread
+ * 
+ *          0.58 Writing is no longer synchronized, close hands over through
+ *          the volatile closing and writing flags. The mappings are left to
+ *          the garbage collector rather than unmapped through the hidden
+ *          runtime methods
+ * 
+ *          0.60 Records are written in version 2 of the binary log format
+ * 
+ */
+public class MappedSegmentLogger implements ISampleLogger {
+
+	/** Default size of each segment in bytes (4 MB) */
+	public static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+	/** File extension of a segment */
+	public static final String EXTENSION = ".seg";
+	private static final String errorTAG = "MappedSegmentLogger";
+
+	/**
+	 * Open segment file with its mapping
+	 * 
+	 * @author Peter B Norton
+	 * @version 0.56
+	 */
+	private static class Segment {
+		File path;
+		RandomAccessFile file;
+		FileChannel channel;
+		MappedByteBuffer map;
+	}
+
+	private File directory; /* Directory of the segments */
+	private String base_name; /* Name of the log without the segment suffix */
+	private int segment_size;
+	private long segment_records; /* Records that fit in a segment */
+	private int segment; /* Number of the current segment */
+	private Segment current; /* Segment being written */
+	private MappedByteBuffer map; /* Mapping of the current segment */
+	private long committed; /* Records in the current segment */
+	private volatile float sample_rate;
+	private ExecutorService roller; /* Opens and closes the segments */
+	private Future<Segment> next; /* Next segment being made ready */
+	private volatile boolean closing; /* Set once close has been called */
+	private volatile boolean writing; /* Set while a record is written */
+
+	/**
+	 * Default Constructor creates the first segment with the default size
+	 */
+	public MappedSegmentLogger() {
+		this(DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * Constructor to create the first segment on the external storage
+	 * 
+	 * @param size
+	 *            Size of each segment in bytes
+	 */
+	public MappedSegmentLogger(int size) {
+		segment_size = size;
+		segment_records = (size - BinaryDataLogger.HEADER_SIZE)
+				/ BinaryDataLogger.RECORD_SIZE;
+		sample_rate = 0.0f;
+		segment = 0;
+		map = null;
+		closing = false;
+		writing = false;
+		roller = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "SegmentRoller");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		try {
+			File first = DataLogger.createLogFile(segmentSuffix(0));
+			directory = first.getParentFile();
+			base_name = first.getName().substring(0,
+					first.getName().length() - segmentSuffix(0).length());
+			use_segment(open_segment(first));
+			next = prepare_segment(segment + 1);
+		} catch (IOException e) {
+			Log.e(errorTAG, e.getMessage());
+		}
+	}
+
+	/**
+	 * Get the suffix added to the log name for a segment
+	 * 
+	 * @param n
+	 *            Segment number
+	 * @return Segment suffix
+	 */
+	public static String segmentSuffix(int n) {
+		String number = Integer.toString(n);
+		while (number.length() < 3) {
+			number = "0" + number;
+		}
+		return "_" + number + EXTENSION;
+	}
+
+	/**
+	 * Create, preallocate and map a segment file with an empty header
+	 * 
+	 * @param segment_file
+	 *            File of the segment
+	 * @return Open segment
+	 * @throws IOException
+	 *             If the segment could not be created
+	 */
+	private Segment open_segment(File segment_file) throws IOException {
+		Segment s = new Segment();
+		s.path = segment_file;
+		s.file = new RandomAccessFile(segment_file, "rw");
+		try {
+			s.file.setLength(segment_size);
+			s.channel = s.file.getChannel();
+			s.map = s.channel.map(FileChannel.MapMode.READ_WRITE, 0,
+					segment_size);
+		} catch (IOException e) {
+			s.file.close();
+			throw e;
+		}
+		s.map.order(ByteOrder.LITTLE_ENDIAN);
+		BinaryDataLogger.putHeader(s.map, 0.0f, 0L);
+		return s;
+	}
+
+	/**
+	 * Start writing a segment
+	 * 
+	 * @param s
+	 *            Open segment
+	 */
+	private void use_segment(Segment s) {
+		current = s;
+		map = s.map;
+		committed = 0L;
+		map.putFloat(BinaryDataLogger.SAMPLE_RATE_OFFSET, sample_rate);
+	}
+
+	/**
+	 * Make a segment ready on the roller thread
+	 * 
+	 * @param n
+	 *            Segment number
+	 * @return Segment once it is ready
+	 */
+	private Future<Segment> prepare_segment(int n) {
+		final File segment_file = new File(directory, base_name
+				+ segmentSuffix(n));
+		return roller.submit(new Callable<Segment>() {
+			@Override
+			public Segment call() throws IOException {
+				return open_segment(segment_file);
+			}
+		});
+	}
+
+	/**
+	 * Store the final header values of the current segment and hand it to the
+	 * roller thread to be forced to storage and closed
+	 */
+	private void retire_segment() {
+		final Segment s = current;
+		map.putFloat(BinaryDataLogger.SAMPLE_RATE_OFFSET, sample_rate);
+		map.putLong(BinaryDataLogger.RECORD_COUNT_OFFSET, committed);
+		current = null;
+		map = null;
+		roller.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					close_segment(s, false);
+				} catch (IOException e) {
+					Log.e(errorTAG, e.getMessage());
+				}
+			}
+		});
+	}
+
+	/**
+	 * Force a segment to storage and close its file, the mapping is released
+	 * once the buffer is collected
+	 * 
+	 * @param s
+	 *            Segment no longer written
+	 * @param delete
+	 *            true to delete the file once closed
+	 * @throws IOException
+	 *             If the segment could not be closed
+	 */
+	private static void close_segment(Segment s, boolean delete)
+			throws IOException {
+		try {
+			if (!delete) {
+				s.map.force();
+			}
+			s.map = null;
+			s.channel.close();
+		} finally {
+			s.file.close();
+		}
+		if (delete && !s.path.delete()) {
+			throw new IOException("Unable to delete " + s.path.getName());
+		}
+	}
+
+	/**
+	 * Swap in the next segment once ready and start making the one after it
+	 * ready
+	 * 
+	 * @return true if the next segment is in use
+	 */
+	private boolean roll_segment() {
+		retire_segment();
+		try {
+			Segment s;
+			boolean interrupted = false;
+			while (true) {
+				try {
+					s = next.get();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+			segment++;
+			use_segment(s);
+			next = prepare_segment(segment + 1);
+			return true;
+		} catch (ExecutionException e) {
+			Log.e(errorTAG, e.getCause().getMessage());
+			next = null;
+			return false;
+		}
+	}
+
+	@Override
+	public void writeRecord(float scalar, float filtered, float peak,
+			float threshold, long timestamp) {
+		writing = true;
+		if (!closing) {
+			write_record(scalar, filtered, peak, threshold, timestamp);
+		}
+		writing = false;
+	}
+
+	/**
+	 * Store a record in the current segment, rolling to the next segment when
+	 * it is full
+	 * 
+	 * @param scalar
+	 *            Scalar acceleration
+	 * @param filtered
+	 *            Filtered acceleration
+	 * @param peak
+	 *            Peak value
+	 * @param threshold
+	 *            Dynamic threshold
+	 * @param timestamp
+	 *            Time of the sample
+	 */
+	private void write_record(float scalar, float filtered, float peak,
+			float threshold, long timestamp) {
+		if (map == null) {
+			return;
+		}
+		if (committed == segment_records && !roll_segment()) {
+			return;
+		}
+		BinaryDataLogger.putRecord(map, scalar, filtered, peak, threshold,
+				timestamp);
+		// Commit the record
+		map.putLong(BinaryDataLogger.RECORD_COUNT_OFFSET, ++committed);
+	}
+
+	@Override
+	public void setSampleRate(float sr) {
+		sample_rate = sr;
+	}
+
+	@Override
+	public String getFileName() {
+		return base_name + segmentSuffix(0);
+	}
+
+	/**
+	 * Close the current segment, delete the segment made ready but not used
+	 * and wait for the roller thread to finish, a record being written on
+	 * another thread is finished first
+	 */
+	@Override
+	public void close() {
+		if (closing) {
+			return;
+		}
+		closing = true;
+		// Wait for a record written as the flag was set
+		while (writing) {
+			Thread.yield();
+		}
+		try {
+			if (map != null) {
+				retire_segment();
+			} else {
+				throw new NullPointerException("Attempt to close a null segment");
+			}
+		} catch (NullPointerException e) {
+			Log.e(errorTAG, e.getMessage());
+		}
+		if (next != null) {
+			final Future<Segment> unused = next;
+			next = null;
+			roller.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						close_segment(unused.get(), true);
+					} catch (Exception e) {
+						Log.e(errorTAG, e.getMessage());
+					}
+				}
+			});
+		}
+		roller.shutdown();
+		try {
+			roller.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
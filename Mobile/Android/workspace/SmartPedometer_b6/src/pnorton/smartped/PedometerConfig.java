@@ -0,0 +1,476 @@
+package pnorton.smartped;
+
+/**
+ * Class PedometerConfig
+ * 
+ * Responsibilities: Holds the settings of the PedometerManager which may be
+ * changed while it is running. A configuration never changes once created, a
+ * changed setting is made by creating a copy with the with methods. This
+ * allows the user interface thread to hand a whole new configuration to the
+ * processing thread in a single atomic swap, so the processing thread always
+ * sees a consistent set of settings without taking a lock.
+ * 
+ * A resample rate of 0 turns the resampling off, otherwise the samples are
+ * resampled onto a fixed grid at that rate before the filters. A decimation
+ * factor above 1 runs the filters and step detection at the sample rate
+ * divided by the factor. The FilterMode chooses the Low Pass filter, the
+ * Butterworth filters use the number of cascades as their order and the band
+ * pass uses the band low cut off as its lower edge. The dynamic threshold is
+ * the weighted average of the last peaks over a window of the given kernel
+ * and number of taps. The step rate and cadence are taken over a sliding
+ * window of the given number of seconds.
+ * 
+ * Dependencies: Not dependent on any specific Java or Android features
+ * 
+ * Android Dependencies: No Android Dependencies
+ * 
+ * @author Peter B Norton
+ * @version 0.47
+ * 
+ *          Revision History
+ * 
+ *          0.41 Initial version of the runtime configuration system
+ * 
+ *          0.43 Addition of the optional fixed rate resampling
+ * 
+ *          0.44 Addition of the decimation to a lower internal rate
+ * 
+ *          0.45 Addition of the FilterMode to choose the Butterworth biquad
+ *          filters in place of the cascaded single pole Low Pass
+ * 
+ *          0.46 Addition of the window of the dynamic threshold
+ * 
+ *          0.47 Addition of the window of the step rate
+ * 
+ */
+public final class PedometerConfig {
+
+	/**
+	 * Enumeration for the filter used as the Low Pass stage
+	 * 
+	 * @author Peter B Norton
+	 * @version 0.45
+	 */
+	public enum FilterMode {
+		/** Cascade of single pole Low Pass filters */
+		IIR_CASCADE,
+		/** Butterworth Low Pass made of biquad sections */
+		BUTTERWORTH_LOW_PASS,
+		/** Butterworth Band Pass made of biquad sections */
+		BUTTERWORTH_BAND_PASS
+	}
+
+	/** Default step trigger threshold in percent */
+	public static final int DEFAULT_THRESHOLD = 70;
+	/** Default Low Pass filter cut off in Hz */
+	public static final float DEFAULT_CUTOFF = 4.0f;
+	/** Default number of Low Pass filter cascades */
+	public static final int DEFAULT_CASCADES = 4;
+	/** Default bias value for negative G readings */
+	public static final float DEFAULT_BIAS = 9.8f;
+	/** Default bias margin to prevent excess step events */
+	public static final float DEFAULT_BIAS_MARGIN = 0.2f;
+	/** Default resample rate in Hz, 0 for no resampling */
+	public static final float DEFAULT_RESAMPLE_RATE = 0.0f;
+	/** Default interpolation used by the resampling */
+	public static final FixedRateResampler.Interpolation DEFAULT_INTERPOLATION = FixedRateResampler.Interpolation.LINEAR;
+	/** Default decimation factor, 1 for no decimation */
+	public static final int DEFAULT_DECIMATION = 1;
+	/** Default filter used as the Low Pass stage */
+	public static final FilterMode DEFAULT_FILTER_MODE = FilterMode.IIR_CASCADE;
+	/** Default lower cut off of the Band Pass in Hz */
+	public static final float DEFAULT_BAND_LOW = 0.5f;
+	/** Default shape of the dynamic threshold window */
+	public static final FirFilter.Kernel DEFAULT_THRESHOLD_KERNEL = FirFilter.Kernel.EXPONENTIAL;
+	/** Default number of peaks in the dynamic threshold window */
+	public static final int DEFAULT_THRESHOLD_TAPS = 4;
+	/** Default length of the step rate window in seconds */
+	public static final float DEFAULT_STEP_RATE_WINDOW = 10.0f;
+	/** Configuration with all the default settings */
+	public static final PedometerConfig DEFAULT = new PedometerConfig(
+			DEFAULT_THRESHOLD, false, DEFAULT_CUTOFF, DEFAULT_CASCADES,
+			DEFAULT_BIAS, DEFAULT_BIAS_MARGIN);
+
+	private final int threshold; /* Threshold value to trigger a step */
+	private final boolean low_pass; /* Low Pass Enable flag */
+	private final float cutoff; /* Low Pass cut off in Hz */
+	private final int cascades; /* Number of Low Pass cascades */
+	private final float bias; /* Bias Value for negative G readings */
+	private final float bias_margin; /* Bias Margin for excess step events */
+	private final float resample_rate; /* Resample rate in Hz or 0 for none */
+	private final FixedRateResampler.Interpolation interpolation;
+	private final int decimation; /* Inputs per internal sample */
+	private final FilterMode filter_mode; /* Filter used as the Low Pass */
+	private final float band_low; /* Lower Band Pass cut off in Hz */
+	private final FirFilter.Kernel threshold_kernel; /* Threshold window shape */
+	private final int threshold_taps; /* Peaks in the threshold window */
+	private final float step_rate_window; /* Step rate window in seconds */
+
+	/**
+	 * Default Constructor without resampling
+	 * 
+	 * @param thres
+	 *            Threshold in percent of the dynamic threshold
+	 * @param lp
+	 *            Low Pass Enable flag
+	 * @param f
+	 *            Low Pass cut off in Hz
+	 * @param n
+	 *            Number of Low Pass cascades
+	 * @param b
+	 *            Bias value
+	 * @param margin
+	 *            Bias margin
+	 */
+	public PedometerConfig(int thres, boolean lp, float f, int n, float b,
+			float margin) {
+		this(thres, lp, f, n, b, margin, DEFAULT_RESAMPLE_RATE,
+				DEFAULT_INTERPOLATION, DEFAULT_DECIMATION, DEFAULT_FILTER_MODE,
+				DEFAULT_BAND_LOW, DEFAULT_THRESHOLD_KERNEL, DEFAULT_THRESHOLD_TAPS,
+				DEFAULT_STEP_RATE_WINDOW);
+	}
+
+	/**
+	 * Constructor with every setting
+	 * 
+	 * @param thres
+	 *            Threshold in percent of the dynamic threshold
+	 * @param lp
+	 *            Low Pass Enable flag
+	 * @param f
+	 *            Low Pass cut off in Hz
+	 * @param n
+	 *            Number of Low Pass cascades
+	 * @param b
+	 *            Bias value
+	 * @param margin
+	 *            Bias margin
+	 * @param sr
+	 *            Resample rate in Hz or 0 for no resampling
+	 * @param mode
+	 *            Interpolation used by the resampling
+	 * @param m
+	 *            Decimation factor or 1 for no decimation
+	 * @param fm
+	 *            Filter used as the Low Pass stage
+	 * @param f_low
+	 *            Lower Band Pass cut off in Hz
+	 * @param tk
+	 *            Shape of the dynamic threshold window
+	 * @param taps
+	 *            Number of peaks in the dynamic threshold window
+	 * @param window
+	 *            Length of the step rate window in seconds
+	 */
+	public PedometerConfig(int thres, boolean lp, float f, int n, float b,
+			float margin, float sr, FixedRateResampler.Interpolation mode,
+			int m, FilterMode fm, float f_low, FirFilter.Kernel tk, int taps,
+			float window) {
+		if (n < 1) {
+			throw new IllegalArgumentException("At least one cascade is needed");
+		}
+		if (fm != FilterMode.IIR_CASCADE
+				&& (n % 2 != 0 || n > BiquadFilter.MAX_ORDER)) {
+			throw new IllegalArgumentException(
+					"Butterworth filters need an even number of cascades up to "
+							+ BiquadFilter.MAX_ORDER);
+		}
+		if (taps < 1) {
+			throw new IllegalArgumentException("At least one threshold tap is needed");
+		}
+		if (m < 1) {
+			throw new IllegalArgumentException("Decimation factor must be at least 1");
+		}
+		if (!(window > 0.0f)) {
+			throw new IllegalArgumentException("The step rate window must be longer than 0 s");
+		}
+		threshold = thres;
+		low_pass = lp;
+		cutoff = f;
+		cascades = n;
+		bias = b;
+		bias_margin = margin;
+		resample_rate = Math.max(0.0f, sr);
+		interpolation = mode;
+		decimation = m;
+		filter_mode = fm;
+		band_low = f_low;
+		threshold_kernel = tk;
+		threshold_taps = taps;
+		step_rate_window = window;
+	}
+
+	/**
+	 * Copy with a new threshold
+	 * 
+	 * @param thres
+	 *            Threshold in percent
+	 * @return New configuration
+	 */
+	public PedometerConfig withThreshold(int thres) {
+		return new PedometerConfig(thres, low_pass, cutoff, cascades, bias,
+				bias_margin, resample_rate, interpolation, decimation,
+				filter_mode, band_low, threshold_kernel, threshold_taps,
+				step_rate_window);
+	}
+
+	/**
+	 * Copy with a new Low Pass Enable flag
+	 * 
+	 * @param lp
+	 *            Low Pass Enable flag
+	 * @return New configuration
+	 */
+	public PedometerConfig withLowPass(boolean lp) {
+		return new PedometerConfig(threshold, lp, cutoff, cascades, bias,
+				bias_margin, resample_rate, interpolation, decimation,
+				filter_mode, band_low, threshold_kernel, threshold_taps,
+				step_rate_window);
+	}
+
+	/**
+	 * Copy with a new Low Pass cut off
+	 * 
+	 * @param f
+	 *            Cut off in Hz
+	 * @return New configuration
+	 */
+	public PedometerConfig withCutoff(float f) {
+		return new PedometerConfig(threshold, low_pass, f, cascades, bias,
+				bias_margin, resample_rate, interpolation, decimation,
+				filter_mode, band_low, threshold_kernel, threshold_taps,
+				step_rate_window);
+	}
+
+	/**
+	 * Copy with a new number of Low Pass cascades
+	 * 
+	 * @param n
+	 *            Number of cascades
+	 * @return New configuration
+	 */
+	public PedometerConfig withCascades(int n) {
+		return new PedometerConfig(threshold, low_pass, cutoff, n, bias,
+				bias_margin, resample_rate, interpolation, decimation,
+				filter_mode, band_low, threshold_kernel, threshold_taps,
+				step_rate_window);
+	}
+
+	/**
+	 * Copy with a new bias and bias margin
+	 * 
+	 * @param b
+	 *            Bias value
+	 * @param margin
+	 *            Bias margin
+	 * @return New configuration
+	 */
+	public PedometerConfig withBias(float b, float margin) {
+		return new PedometerConfig(threshold, low_pass, cutoff, cascades, b,
+				margin, resample_rate, interpolation, decimation,
+				filter_mode, band_low, threshold_kernel, threshold_taps,
+				step_rate_window);
+	}
+
+	/**
+	 * Copy with new resampling settings
+	 * 
+	 * @param sr
+	 *            Resample rate in Hz or 0 for no resampling
+	 * @param mode
+	 *            Interpolation used by the resampling
+	 * @return New configuration
+	 */
+	public PedometerConfig withResampling(float sr,
+			FixedRateResampler.Interpolation mode) {
+		return new PedometerConfig(threshold, low_pass, cutoff, cascades, bias,
+				bias_margin, sr, mode, decimation, filter_mode, band_low,
+				threshold_kernel, threshold_taps,
+				step_rate_window);
+	}
+
+	/**
+	 * Copy with a new decimation factor
+	 * 
+	 * @param m
+	 *            Decimation factor or 1 for no decimation
+	 * @return New configuration
+	 */
+	public PedometerConfig withDecimation(int m) {
+		return new PedometerConfig(threshold, low_pass, cutoff, cascades, bias,
+				bias_margin, resample_rate, interpolation, m, filter_mode,
+				band_low, threshold_kernel, threshold_taps,
+				step_rate_window);
+	}
+
+	/**
+	 * Copy with a new filter for the Low Pass stage
+	 * 
+	 * @param fm
+	 *            Filter used as the Low Pass stage
+	 * @param f_low
+	 *            Lower Band Pass cut off in Hz
+	 * @return New configuration
+	 */
+	public PedometerConfig withFilter(FilterMode fm, float f_low) {
+		return new PedometerConfig(threshold, low_pass, cutoff, cascades, bias,
+				bias_margin, resample_rate, interpolation, decimation, fm,
+				f_low, threshold_kernel, threshold_taps,
+				step_rate_window);
+	}
+
+	/**
+	 * Copy with a new dynamic threshold window
+	 * 
+	 * @param tk
+	 *            Shape of the window
+	 * @param taps
+	 *            Number of peaks in the window
+	 * @return New configuration
+	 */
+	public PedometerConfig withThresholdWindow(FirFilter.Kernel tk, int taps) {
+		return new PedometerConfig(threshold, low_pass, cutoff, cascades, bias,
+				bias_margin, resample_rate, interpolation, decimation,
+				filter_mode, band_low, tk, taps, step_rate_window);
+	}
+
+	/**
+	 * Get the Threshold value
+	 * 
+	 * @return Threshold in percent
+	 */
+	public int getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * Get the Low Pass Enable flag
+	 * 
+	 * @return Low Pass Enable flag
+	 */
+	public boolean getLowPassEnable() {
+		return low_pass;
+	}
+
+	/**
+	 * Get the Low Pass cut off
+	 * 
+	 * @return Cut off in Hz
+	 */
+	public float getCutoff() {
+		return cutoff;
+	}
+
+	/**
+	 * Get the number of Low Pass cascades
+	 * 
+	 * @return Number of cascades
+	 */
+	public int getCascades() {
+		return cascades;
+	}
+
+	/**
+	 * Get the bias value
+	 * 
+	 * @return Bias value
+	 */
+	public float getBias() {
+		return bias;
+	}
+
+	/**
+	 * Get the bias margin
+	 * 
+	 * @return Bias margin
+	 */
+	public float getBiasMargin() {
+		return bias_margin;
+	}
+
+	/**
+	 * Get the resample rate
+	 * 
+	 * @return Resample rate in Hz or 0 for no resampling
+	 */
+	public float getResampleRate() {
+		return resample_rate;
+	}
+
+	/**
+	 * Get the interpolation used by the resampling
+	 * 
+	 * @return Interpolation
+	 */
+	public FixedRateResampler.Interpolation getInterpolation() {
+		return interpolation;
+	}
+
+	/**
+	 * Get the decimation factor
+	 * 
+	 * @return Inputs per internal sample
+	 */
+	public int getDecimation() {
+		return decimation;
+	}
+
+	/**
+	 * Get the filter used as the Low Pass stage
+	 * 
+	 * @return Filter mode
+	 */
+	public FilterMode getFilterMode() {
+		return filter_mode;
+	}
+
+	/**
+	 * Get the lower Band Pass cut off
+	 * 
+	 * @return Cut off in Hz
+	 */
+	public float getBandLow() {
+		return band_low;
+	}
+
+	/**
+	 * Get the shape of the dynamic threshold window
+	 * 
+	 * @return Kernel of the window
+	 */
+	public FirFilter.Kernel getThresholdKernel() {
+		return threshold_kernel;
+	}
+
+	/**
+	 * Get the number of peaks in the dynamic threshold window
+	 * 
+	 * @return Number of taps
+	 */
+	public int getThresholdTaps() {
+		return threshold_taps;
+	}
+
+	/**
+	 * Copy with a new step rate window
+	 * 
+	 * @param window
+	 *            Length of the window in seconds
+	 * @return New configuration
+	 */
+	public PedometerConfig withStepRateWindow(float window) {
+		return new PedometerConfig(threshold, low_pass, cutoff, cascades, bias,
+				bias_margin, resample_rate, interpolation, decimation,
+				filter_mode, band_low, threshold_kernel, threshold_taps,
+				window);
+	}
+
+	/**
+	 * Get the length of the step rate window
+	 * 
+	 * @return Window length in seconds
+	 */
+	public float getStepRateWindow() {
+		return step_rate_window;
+	}
+}
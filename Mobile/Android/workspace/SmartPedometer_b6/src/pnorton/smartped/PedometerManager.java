@@ -1,5 +1,12 @@
 package pnorton.smartped;
 
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
 /**
  * Class PedometerManager
  * 
@@ -16,7 +23,7 @@ package pnorton.smartped;
  * Android Dependencies: Android OS (Level 1 API via DataLogger)
  * 
  * @author Peter B Norton
- * @version 0.30
+ * @version 0.62
  * 
  *          Revision History
  * 
@@ -34,6 +41,83 @@ package pnorton.smartped;
  *          0.30 Removal of BeepHandler from this class there is now no Android
  *          specific code in this class or the DataLogger system
  * 
+ *          0.31 Addition of updateBlock method to process a whole block of
+ *          samples through each filter stage in turn, the step detection and
+ *          logging after the filters is shared with update so both give
+ *          identical results
+ * 
+ *          0.32 Addition of updateScalar and updateScalarBlock methods so a
+ *          recorded scalar value can be replayed through the filters without
+ *          the 3 axes values, as used by the replay tools
+ * 
+ *          0.33 The logger is now any ISampleLogger with one record written
+ *          for each sample, addition of openBinaryLog for the binary log
+ *          format. The log is no longer written to after it has been closed.
+ * 
+ *          0.34 openLog and openBinaryLog now write through an
+ *          AsyncSampleLogger so the file writing happens on its own thread
+ * 
+ *          0.35 Addition of openSegmentLog for the memory mapped segment log
+ * 
+ *          0.38 Addition of setStepListener so each step is reported as it is
+ *          detected, normally to a StepEventDispatcher
+ * 
+ *          0.39 A PedometerSnapshot is published after each update for the
+ *          user interface to read at its own frame rate with readSnapshot. The
+ *          Low Pass filter is retuned to the sample rate at the end of each
+ *          sample block here rather than by getSampleRate, updateBlock splits
+ *          its blocks at the same points so the results stay identical.
+ * 
+ *          0.40 The update methods may now run on a processing thread while
+ *          the user interface thread changes the settings and the log, so
+ *          these are handed over through volatile fields
+ * 
+ *          0.41 The threshold, Low Pass enable, cut off, cascades and bias are
+ *          now held in an immutable PedometerConfig which is swapped
+ *          atomically and taken up by the update methods at the start of the
+ *          next sample or block. A reset is now a request carried out at the
+ *          same point.
+ * 
+ *          0.42 The sample rate now comes from a SampleRateEstimator which
+ *          smooths the time between samples and rejects gaps and outliers,
+ *          the Low Pass filter is only retuned when the estimate moves more
+ *          than RETUNE_BAND from the rate it was last tuned to
+ * 
+ *          0.43 Optional FixedRateResampler ahead of the filters, with
+ *          resampling on the Low Pass filter is tuned once to the resample
+ *          rate rather than to the estimated sample rate
+ * 
+ *          0.44 Optional DecimatingFirFilter after the resampling so the
+ *          filters and step detection run at a lower internal rate
+ * 
+ *          0.45 The Low Pass stage may be a Butterworth BiquadFilter chosen by
+ *          the FilterMode of the configuration
+ * 
+ *          0.46 The dynamic threshold is a FirFilter with the window set by
+ *          the configuration
+ * 
+ *          0.47 The step rate comes from a StepRateTracker over a sliding
+ *          window and is updated with every sample rather than every
+ *          BLOCK_NUMBER UI blocks, the median and 90th percentile cadence
+ *          are published with it
+ * 
+ *          0.49 Addition of saveState and restoreState so the filters, the
+ *          dynamic threshold, the zero crossing and the sample rate estimate
+ *          carry on after a resume rather than starting again cold
+ * 
+ *          0.54 Addition of setShadowLanes so a set of ShadowDetectorLanes
+ *          counts the steps of other thresholds from the same peaks
+ * 
+ *          0.55 The Low Pass filter and the zero crossing are run as the
+ *          stages of a SignalPipeline, tapped for the filtered and peak
+ *          values, rather than by separate calls in each update path
+ * 
+ *          0.57 The step listener is volatile as it is set from the UI
+ *          thread and read on the sensor thread
+ * 
+ *          0.62 A reset is reported to the step listener when it is carried
+ *          out, so it reaches the listeners in order with the steps
+ * 
  */
 public class PedometerManager {
 
@@ -58,15 +142,21 @@ public class PedometerManager {
 	private static final int DATA_FILTER = 4; /* Index for filtered values */
 	private static final int DATA_PEAK = 5; /* Index for peak values */
 	private static final int DATA_THRESHOLD = 6;
-	private static final float BIAS = 9.8f; /*
-											 * Bias Value for negative G
-											 * readings
-											 */
-	private static final float BIAS_MARGIN = 0.2f; /*
-													 * Bias Margin value to
-													 * introduce small error to
-													 * prevent excess step
-													 * events
+	private static final int LOW_PASS_STAGE = 0; /* Pipeline Low Pass stage */
+	private static final int ZERO_CROSSING_STAGE = 1; /* Zero crossing stage */
+	private static final float INITIAL_SAMPLE_RATE = 64.0f; /*
+															 * Sample rate
+															 * assumed until
+															 * it is measured
+															 */
+	/** Magic number at the start of a saved state ("SPCK") */
+	public static final int STATE_MAGIC = 0x4B435053;
+	/** Version of the saved state format */
+	public static final short STATE_VERSION = 1;
+	private static final float RETUNE_BAND = 0.05f; /*
+													 * Fraction the sample rate
+													 * must move before the Low
+													 * Pass filter is retuned
 													 */
 	private boolean low_pass; /* Low Pass Enable flag */
 	private int sample_count; /* Number of Samples Run */
@@ -74,59 +164,72 @@ public class PedometerManager {
 	private float last_peak; /* Last Peak value recorded */
 	private long run_time; /* Total Run Time of the Application in ns */
 	private int threshold; /* Threshold value to trigger a step */
+	private float bias; /* Bias Value for negative G readings */
+	private float z_bias; /* Bias plus the margin added to the Z axis */
+	private float cutoff; /* Low Pass cut off in Hz */
+	private SampleRateEstimator rate_estimator; /* Estimates the sample rate */
+	private float tuned_rate; /* Sample rate the Low Pass is tuned to */
 	private float step_rate; /* Rate per minute for steps */
+	private StepRateTracker step_rate_tracker; /* Steps in the rate window */
 	private float offset; /* Offset for the reset system */
 	private float instant_threshold; /* Current dynamic threshold value */
 
-	/* Variables for the Step per Minute Value */
-	private int block_steps;
-	private long block_start;
-	private long block_end;
-	private int block_count;
-	private static final int BLOCK_NUMBER = 16;
-
-	private WeightedAverageFilter moving_average_filter; /*
-														 * Moving Average Filter
-														 * Object
-														 */
-	private IIRCascadeLowPassFilter low_pass_filter; /* Low Pass Filter Object */
+	private FirFilter moving_average_filter; /* Moving Average Filter Object */
+	private ISignalFilter low_pass_filter; /* Low Pass Filter Object */
 	private ZeroCrossingFilter zero_crossing_filter; /*
 													 * Zero Crossing Filter
 													 * Object
 													 */
-	private DataLogger logger;
+	private SignalPipeline pipeline; /* Low Pass then zero crossing stages */
+	private volatile ISampleLogger logger; /* Log written to or null */
+	private volatile IStepListener step_listener; /* Step listener or null */
+	private volatile ShadowDetectorLanes shadow_lanes; /* Lanes or null */
+	private FixedRateResampler resampler; /* Resampling stage or null */
+	private DecimatingFirFilter decimator; /* Decimation stage or null */
+	private SnapshotBuffer snapshot; /* Values published for the UI */
+
+	/* Configuration and reset handed over from other threads */
+	private AtomicReference<PedometerConfig> config; /* Latest configuration */
+	private PedometerConfig active_config; /* Configuration in use */
+	private AtomicBoolean reset_request; /* Reset waiting to be done */
+	private AtomicInteger changes; /* Count of changes and reset requests */
+	private int applied_changes; /* Changes taken up by the update methods */
+
+	/* Scratch buffers for updateBlock, grown as required */
+	private float[] block_scalar;
+	private long[] block_time;
+
+	/* Grid points emitted by the resampler for a sample */
+	private float[] resample_value;
+	private long[] resample_time;
 
 	/**
 	 * Default Constructor called from Activity
 	 */
 	public PedometerManager() {
-		// Create a buffer for the values
-		value_buffer = new float[DATA_LENGTH];
-		// Create a buffer to store the time value
-		time_buffer = 0L;
-		// Position Flag for the buffer
-		sample_count = 0;
-		last_peak = 0.0f;
-		step_rate = 0.0f;
-		offset = 0.0f;
-		run_time = 0L;
-		steps = 0;
-		low_pass = false;
-		logger = null;
-		block_steps = 0;
-		block_start = 0;
-		block_end = 0;
-		block_count = 0;
-		threshold = 70;
-		instant_threshold = 0.0f;
-		this.low_pass_filter = new IIRCascadeLowPassFilter(0.0625f, 4);
-		this.moving_average_filter = new WeightedAverageFilter();
-		this.zero_crossing_filter = new ZeroCrossingFilter();
-		flush_buffers();
+		this(0L, 0.0f, 0, PedometerConfig.DEFAULT);
 	}
 
 	public PedometerManager(long time, float calibrator, int thres,
 			int st, boolean lp) {
+		this(time, calibrator, st, PedometerConfig.DEFAULT.withThreshold(thres)
+				.withLowPass(lp));
+	}
+
+	/**
+	 * Constructor with a configuration
+	 * 
+	 * @param time
+	 *            Run time in ns
+	 * @param calibrator
+	 *            Offset value
+	 * @param st
+	 *            Steps recorded
+	 * @param c
+	 *            Configuration
+	 */
+	public PedometerManager(long time, float calibrator, int st,
+			PedometerConfig c) {
 		// Create a buffer for the values
 		value_buffer = new float[DATA_LENGTH];
 		// Create a buffer to store the time value
@@ -138,18 +241,28 @@ public class PedometerManager {
 		offset = calibrator;
 		run_time = time;
 		steps = st;
-		low_pass = lp;
 		logger = null;
-		block_steps = 0;
-		block_start = 0;
-		block_end = 0;
-		block_count = 0;
-		threshold = thres;
+		step_listener = null;
+		shadow_lanes = null;
+		snapshot = new SnapshotBuffer();
 		instant_threshold = 0.0f;
-		this.low_pass_filter = new IIRCascadeLowPassFilter(0.0625f, 4);
-		this.moving_average_filter = new WeightedAverageFilter();
 		this.zero_crossing_filter = new ZeroCrossingFilter();
+		block_scalar = new float[0];
+		block_time = new long[0];
+		pipeline = null;
+		resample_value = new float[FixedRateResampler.MAX_OUTPUT];
+		resample_time = new long[FixedRateResampler.MAX_OUTPUT];
+		resampler = null;
+		decimator = null;
 		flush_buffers();
+		rate_estimator = new SampleRateEstimator();
+		tuned_rate = INITIAL_SAMPLE_RATE;
+		config = new AtomicReference<PedometerConfig>(c);
+		reset_request = new AtomicBoolean(false);
+		changes = new AtomicInteger(0);
+		applied_changes = 0;
+		active_config = null;
+		apply_config(c);
 	}
 
 	/**
@@ -177,36 +290,490 @@ public class PedometerManager {
 	 *         UI Update to be made
 	 */
 	public boolean update(float x, float y, float z, long timestamp) {
+		check_changes();
 		// Apply the Bias to a single axis along with Bias Margin
-		z += (BIAS + BIAS_MARGIN);
+		z += z_bias;
 		value_buffer[DATA_X] = x;
 		value_buffer[DATA_Y] = y;
 		value_buffer[DATA_Z] = z;
 		// Do the scalar combination and deduct the bias from the result without
 		// the Margin
-		value_buffer[DATA_SCALAR] = (((float) (Math.pow(
-				Math.pow(x, 2.0) + Math.pow(y, 2.0) + Math.pow(z, 2.0), 0.5))) - BIAS);
-		if (this.low_pass) {
-			// Low Pass enabled process the value in filter buffer and store
-			// back to this location
-			value_buffer[DATA_FILTER] = this.low_pass_filter.processSample(
-					value_buffer[DATA_SCALAR], timestamp);
+		return resample_scalar(scalar(x, y, z, bias), timestamp);
+	}
+
+	/**
+	 * Update the Pedometer System with a scalar value which already has the
+	 * bias deducted, such as the scalar column of a data log
+	 * 
+	 * @param s
+	 *            Scalar value
+	 * @param timestamp
+	 *            Time of this update
+	 * @return false - data processed but no UI update true - data processed and
+	 *         UI Update to be made
+	 */
+	public boolean updateScalar(float s, long timestamp) {
+		check_changes();
+		return resample_scalar(s, timestamp);
+	}
+
+	/**
+	 * Pass a scalar value through the resampler should resampling be on, then
+	 * run each grid point emitted through the filters and the step detection
+	 * 
+	 * @param s
+	 *            Scalar value
+	 * @param timestamp
+	 *            Time of this update
+	 * @return false - data processed but no UI update true - data processed and
+	 *         at least one UI Update to be made
+	 */
+	private boolean resample_scalar(float s, long timestamp) {
+		if (resampler == null) {
+			return decimate_scalar(s, timestamp);
+		}
+		int n = resampler.process(s, timestamp, resample_value, resample_time);
+		boolean ui_update = false;
+		for (int i = 0; i < n; i++) {
+			if (decimate_scalar(resample_value[i], resample_time[i])) {
+				ui_update = true;
+			}
+		}
+		return ui_update;
+	}
+
+	/**
+	 * Pass a scalar value through the decimation should it be on, then run
+	 * the value through the filters and the step detection should it complete
+	 * an internal sample
+	 * 
+	 * @param s
+	 *            Scalar value
+	 * @param timestamp
+	 *            Time of this update
+	 * @return false - data processed but no UI update true - data processed and
+	 *         UI Update to be made
+	 */
+	private boolean decimate_scalar(float s, long timestamp) {
+		if (decimator == null) {
+			return update_scalar(s, timestamp);
+		}
+		float d = decimator.processSample(s, timestamp);
+		if (decimator.isOutputReady()) {
+			return update_scalar(d, timestamp);
+		}
+		return false;
+	}
+
+	/**
+	 * Run a scalar value through the filters and the step detection
+	 * 
+	 * @param s
+	 *            Scalar value
+	 * @param timestamp
+	 *            Time of this update
+	 * @return false - data processed but no UI update true - data processed and
+	 *         UI Update to be made
+	 */
+	private boolean update_scalar(float s, long timestamp) {
+		value_buffer[DATA_SCALAR] = s;
+		// The Low Pass stage always runs but passes the value on unchanged
+		// when not enabled, the zero crossing then checks for a peak
+		value_buffer[DATA_PEAK] = pipeline.processSample(s, timestamp);
+		value_buffer[DATA_FILTER] = pipeline.getSampleTap(LOW_PASS_STAGE);
+		boolean ui_update = detect_step(timestamp);
+		publish_snapshot(timestamp);
+		return ui_update;
+	}
+
+	/**
+	 * Update the Pedometer System with a block of accelerometer values, each
+	 * filter processes the whole block in turn before the step detection is
+	 * run over the block. The result is identical to calling update for each
+	 * sample.
+	 * 
+	 * @param x
+	 *            X axis values
+	 * @param y
+	 *            Y axis values
+	 * @param z
+	 *            Z axis values
+	 * @param timestamp
+	 *            Time of each update
+	 * @param offset
+	 *            Index of the first sample in all four arrays
+	 * @param length
+	 *            Number of samples to process
+	 * @return false - data processed but no UI update true - data processed and
+	 *         at least one UI Update to be made
+	 */
+	public boolean updateBlock(float[] x, float[] y, float[] z,
+			long[] timestamp, int offset, int length) {
+		check_changes();
+		if (resampler != null || decimator != null) {
+			return rate_change_block(x, y, z, null, timestamp, offset, length);
+		}
+		ensure_block_capacity(length);
+		for (int i = 0; i < length; i++) {
+			block_scalar[i] = scalar(x[offset + i], y[offset + i],
+					z[offset + i] + z_bias, bias);
+		}
+		System.arraycopy(timestamp, offset, block_time, 0, length);
+		return process_block(x, y, z, offset, length);
+	}
+
+	/**
+	 * Update the Pedometer System with a block of scalar values, the result is
+	 * identical to calling updateScalar for each sample.
+	 * 
+	 * @param s
+	 *            Scalar values
+	 * @param timestamp
+	 *            Time of each update
+	 * @param offset
+	 *            Index of the first sample in both arrays
+	 * @param length
+	 *            Number of samples to process
+	 * @return false - data processed but no UI update true - data processed and
+	 *         at least one UI Update to be made
+	 */
+	public boolean updateScalarBlock(float[] s, long[] timestamp, int offset,
+			int length) {
+		check_changes();
+		if (resampler != null || decimator != null) {
+			return rate_change_block(null, null, null, s, timestamp, offset,
+					length);
+		}
+		ensure_block_capacity(length);
+		System.arraycopy(s, offset, block_scalar, 0, length);
+		System.arraycopy(timestamp, offset, block_time, 0, length);
+		return process_block(null, null, null, 0, length);
+	}
+
+	/**
+	 * Resample and decimate a block into the block buffers and run the
+	 * internal samples through the filters and the step detection, the axes
+	 * shown are those of the last sample of the block
+	 * 
+	 * @param x
+	 *            X axis values or null for scalar values
+	 * @param y
+	 *            Y axis values or null for scalar values
+	 * @param z
+	 *            Z axis values or null for scalar values
+	 * @param s
+	 *            Scalar values or null for axes values
+	 * @param timestamp
+	 *            Time of each update
+	 * @param offset
+	 *            Index of the first sample in the arrays
+	 * @param length
+	 *            Number of samples to process
+	 * @return false - no UI update true - at least one UI Update to be made
+	 */
+	private boolean rate_change_block(float[] x, float[] y, float[] z,
+			float[] s, long[] timestamp, int offset, int length) {
+		int count = 0;
+		if (resampler == null) {
+			ensure_block_capacity(length);
+		}
+		for (int i = offset; i < offset + length; i++) {
+			float value;
+			if (s != null) {
+				value = s[i];
+			} else {
+				value = scalar(x[i], y[i], z[i] + z_bias, bias);
+			}
+			if (resampler != null) {
+				ensure_block_capacity(count + FixedRateResampler.MAX_OUTPUT);
+				count += resampler.process(value, timestamp[i], block_scalar,
+						block_time, count);
+			} else {
+				block_scalar[count] = value;
+				block_time[count] = timestamp[i];
+				count++;
+			}
+		}
+		if (decimator != null) {
+			// Decimate in place as the outputs never overtake the inputs
+			count = decimator.decimateBlock(block_scalar, block_time, 0, count,
+					block_scalar, block_time, 0);
+		}
+		if (x != null && length > 0) {
+			value_buffer[DATA_X] = x[offset + length - 1];
+			value_buffer[DATA_Y] = y[offset + length - 1];
+			value_buffer[DATA_Z] = z[offset + length - 1] + z_bias;
+		}
+		return process_block(null, null, null, 0, count);
+	}
+
+	/**
+	 * Run the scalar values held in the block buffers through the filters and
+	 * the step detection
+	 * 
+	 * @param x
+	 *            X axis values or null if only the scalar is known
+	 * @param y
+	 *            Y axis values or null if only the scalar is known
+	 * @param z
+	 *            Z axis values or null if only the scalar is known
+	 * @param offset
+	 *            Index of the first sample in the axes arrays
+	 * @param length
+	 *            Number of samples to process
+	 * @return false - no UI update true - at least one UI Update to be made
+	 */
+	private boolean process_block(float[] x, float[] y, float[] z,
+			int offset, int length) {
+		final float[] scalar = block_scalar;
+		final float[] filter = pipeline.getTap(LOW_PASS_STAGE);
+		final float[] peak = pipeline.getTap(ZERO_CROSSING_STAGE);
+		final long[] time = block_time;
+		boolean ui_update = false;
+		int start = 0;
+		while (start < length) {
+			// Split the block where a sample block ends as the Low Pass
+			// filter may be retuned there
+			int end = Math.min(length, start + SAMPLE_COUNT + 1 - sample_count);
+			// The Low Pass stage always runs so its state is kept current
+			pipeline.processBlock(scalar, time, start, end - start);
+			for (int i = start; i < end; i++) {
+				if (x != null) {
+					value_buffer[DATA_X] = x[offset + i];
+					value_buffer[DATA_Y] = y[offset + i];
+					value_buffer[DATA_Z] = z[offset + i] + z_bias;
+				}
+				value_buffer[DATA_SCALAR] = scalar[i];
+				value_buffer[DATA_FILTER] = filter[i];
+				value_buffer[DATA_PEAK] = peak[i];
+				if (detect_step(time[i])) {
+					ui_update = true;
+				}
+			}
+			start = end;
+		}
+		if (length > 0) {
+			publish_snapshot(time[length - 1]);
+		}
+		return ui_update;
+	}
+
+	/**
+	 * Calculate the scalar value of the 3 axes with the bias deducted
+	 * 
+	 * @param x
+	 *            X axis value
+	 * @param y
+	 *            Y axis value
+	 * @param z
+	 *            Z axis value with the bias applied
+	 * @param b
+	 *            Bias to deduct
+	 * @return Scalar value
+	 */
+	private static float scalar(float x, float y, float z, float b) {
+		return (((float) (Math.pow(
+				Math.pow(x, 2.0) + Math.pow(y, 2.0) + Math.pow(z, 2.0), 0.5))) - b);
+	}
+
+	/**
+	 * Take up any configuration change or reset request made since the last
+	 * update
+	 */
+	private void check_changes() {
+		if (changes.get() != applied_changes) {
+			apply_changes();
+		}
+	}
+
+	/**
+	 * Take up the latest configuration and carry out a waiting reset
+	 */
+	private void apply_changes() {
+		// Read the count first so a later change is seen by the next check
+		applied_changes = changes.get();
+		PedometerConfig c = config.get();
+		if (c != active_config) {
+			apply_config(c);
+		}
+		if (reset_request.compareAndSet(true, false)) {
+			apply_reset();
+		}
+	}
+
+	/**
+	 * Make a configuration the one in use
+	 * 
+	 * @param c
+	 *            Configuration
+	 */
+	private void apply_config(PedometerConfig c) {
+		if (c.getResampleRate() > 0.0f) {
+			if (resampler == null
+					|| resampler.getTargetRate() != c.getResampleRate()
+					|| resampler.getInterpolation() != c.getInterpolation()) {
+				resampler = new FixedRateResampler(c.getResampleRate(),
+						c.getInterpolation());
+			}
+			// The grid has a fixed rate so the Low Pass is tuned to it once
+			tuned_rate = c.getResampleRate() / c.getDecimation();
 		} else {
-			// Low Pass not enabled process the value do not modify any buffers
-			this.low_pass_filter.processSample(value_buffer[DATA_SCALAR],
-					timestamp);
-			value_buffer[DATA_FILTER] = value_buffer[DATA_SCALAR];
-		}
-		// Process the filter buffer through the zero crossing filter to check
-		// for a peak crossing
-		value_buffer[DATA_PEAK] = this.zero_crossing_filter.processSample(
-				value_buffer[DATA_FILTER], timestamp);
+			resampler = null;
+			if (active_config == null) {
+				tuned_rate = INITIAL_SAMPLE_RATE / c.getDecimation();
+			} else if (c.getDecimation() != active_config.getDecimation()) {
+				tuned_rate = tuned_rate * active_config.getDecimation()
+						/ c.getDecimation();
+			}
+		}
+		if (active_config != null
+				&& c.getDecimation() != active_config.getDecimation()) {
+			// The internal rate changes so the estimate starts again
+			rate_estimator.reset();
+		}
+		if (c.getDecimation() > 1) {
+			if (decimator == null
+					|| decimator.getFactor() != c.getDecimation()) {
+				decimator = new DecimatingFirFilter(c.getDecimation());
+			}
+		} else {
+			decimator = null;
+		}
+		if (active_config == null
+				|| c.getCascades() != active_config.getCascades()
+				|| c.getFilterMode() != active_config.getFilterMode()
+				|| c.getBandLow() != active_config.getBandLow()
+				|| (c.getFilterMode() != PedometerConfig.FilterMode.IIR_CASCADE && c
+						.getCutoff() != active_config.getCutoff())) {
+			// A new filter type, order or biquad cut off needs a new filter
+			this.low_pass_filter = create_low_pass(c);
+			if (pipeline == null) {
+				pipeline = new SignalPipeline.Builder()
+						.stage(this.low_pass_filter, true)
+						.stage(this.zero_crossing_filter, true)
+						.build(block_scalar.length);
+			} else {
+				pipeline.setFilter(LOW_PASS_STAGE, this.low_pass_filter);
+			}
+		} else if (c.getCutoff() != active_config.getCutoff()
+				|| c.getResampleRate() != active_config.getResampleRate()
+				|| c.getDecimation() != active_config.getDecimation()) {
+			tune_low_pass(c.getCutoff(), tuned_rate);
+		}
+		if (active_config == null
+				|| c.getThresholdKernel() != active_config.getThresholdKernel()
+				|| c.getThresholdTaps() != active_config.getThresholdTaps()) {
+			// A new window starts the dynamic threshold again
+			this.moving_average_filter = new FirFilter(c.getThresholdKernel(),
+					c.getThresholdTaps());
+			this.instant_threshold = 0.0f;
+		}
+		if (active_config == null
+				|| c.getStepRateWindow() != active_config.getStepRateWindow()) {
+			// A new window starts counting the step rate again
+			this.step_rate_tracker = new StepRateTracker(c.getStepRateWindow());
+			this.step_rate = 0.0f;
+		}
+		threshold = c.getThreshold();
+		low_pass = c.getLowPassEnable();
+		pipeline.setEnabled(LOW_PASS_STAGE, low_pass);
+		cutoff = c.getCutoff();
+		bias = c.getBias();
+		z_bias = c.getBias() + c.getBiasMargin();
+		active_config = c;
+	}
+
+	/**
+	 * Create the Low Pass filter of a configuration tuned to the current rate
+	 * 
+	 * @param c
+	 *            Configuration
+	 * @return Low Pass filter
+	 */
+	private ISignalFilter create_low_pass(PedometerConfig c) {
+		switch (c.getFilterMode()) {
+		case BUTTERWORTH_LOW_PASS:
+			return BiquadFilter.lowPass(c.getCascades(), c.getCutoff(),
+					tuned_rate);
+		case BUTTERWORTH_BAND_PASS:
+			return BiquadFilter.bandPass(c.getCascades(), c.getBandLow(),
+					c.getCutoff(), tuned_rate);
+		default:
+			return new IIRCascadeLowPassFilter(c.getCutoff() / tuned_rate,
+					c.getCascades());
+		}
+	}
+
+	/**
+	 * Tune the Low Pass filter to a sample rate, a BiquadFilter takes its
+	 * coefficients from the cache while the cascade recalculates its weights
+	 * 
+	 * @param f
+	 *            Cut off in Hz
+	 * @param sr
+	 *            Sample rate in Hz
+	 */
+	private void tune_low_pass(float f, float sr) {
+		if (this.low_pass_filter instanceof BiquadFilter) {
+			((BiquadFilter) this.low_pass_filter).setSampleRate(sr);
+		} else {
+			((IIRCascadeLowPassFilter) this.low_pass_filter)
+					.setCentreFrequency(f / sr);
+		}
+	}
+
+	/**
+	 * Retune the Low Pass filter should the estimated sample rate have moved
+	 * outside the band around the rate it is tuned to
+	 */
+	private void retune_low_pass() {
+		if (resampler != null) {
+			return;
+		}
+		final float sr = rate_estimator.getSampleRate();
+		if (sr > 0.0f && Math.abs(sr - tuned_rate) > tuned_rate * RETUNE_BAND) {
+			tuned_rate = sr;
+			tune_low_pass(cutoff, sr);
+		}
+	}
+
+	/**
+	 * Make sure the updateBlock scratch buffers can hold a block, the scalar
+	 * and time values already held are kept
+	 * 
+	 * @param length
+	 *            Length of the block
+	 */
+	private void ensure_block_capacity(int length) {
+		if (block_scalar.length < length) {
+			int size = Math.max(length, 2 * block_scalar.length);
+			block_scalar = Arrays.copyOf(block_scalar, size);
+			block_time = Arrays.copyOf(block_time, size);
+			pipeline.ensureCapacity(size);
+		}
+	}
+
+	/**
+	 * Run the dynamic threshold and step detection on the current peak value
+	 * in the buffer, then log the data and manage the UI update count
+	 * 
+	 * @param timestamp
+	 *            Time of this update
+	 * @return false - no UI update true - UI Update to be made
+	 */
+	private boolean detect_step(long timestamp) {
+		rate_estimator.update(timestamp);
 		if (value_buffer[DATA_PEAK] != 0) {
 			value_buffer[DATA_THRESHOLD] = instant_threshold = this.moving_average_filter
 					.processSample(value_buffer[DATA_PEAK], timestamp);
 		} else {
 			value_buffer[DATA_THRESHOLD] = instant_threshold;
 		}
+		// Run the peak through the shadow lanes should they be set
+		final ShadowDetectorLanes lanes = shadow_lanes;
+		if (lanes != null && value_buffer[DATA_PEAK] != 0) {
+			lanes.processPeak(value_buffer[DATA_PEAK]);
+		}
 		// Check if the filter returns a peak
 		if (value_buffer[DATA_PEAK] > (((float) threshold / 100.0f) * instant_threshold)) {
 			// Make a beep
@@ -214,9 +781,15 @@ public class PedometerManager {
 			last_peak = value_buffer[DATA_PEAK];
 			// and advance the step count by 1
 			steps++;
-			// Block Step count also up by 1
-			this.block_steps++;
+			// Add the step to the step rate window
+			step_rate_tracker.onStep(timestamp);
+			// Report the step should a listener be set
+			final IStepListener listener = step_listener;
+			if (listener != null) {
+				listener.onStep(timestamp, last_peak, 1);
+			}
 		}
+		step_rate = step_rate_tracker.getStepsPerMinute(timestamp);
 		// Write data to the logger should the logger be active
 		this.writeLogData(timestamp);
 		// Check if the Sample Count has been reached for a UI update
@@ -236,23 +809,8 @@ public class PedometerManager {
 			}
 			// Add the block length to the run time
 			this.run_time += block_length;
-			// Check the Blocks for Steps per minute
-			if (this.block_count == BLOCK_NUMBER) {
-				// Correct Number of Blocks has been passed
-				// Set End of Block Count
-				block_end = timestamp;
-				if (block_start != 0) {
-					step_rate = ((float) block_steps / ((float) (block_end - block_start) / (float) (1e9 * 60)));
-				} else {
-					step_rate = 0.0f;
-				}
-				block_start = timestamp;
-				block_steps = 0;
-				block_count = 0;
-			} else {
-				// Increment the block count
-				block_count++;
-			}
+			// Update the Low Pass Filter should the sample rate have moved
+			retune_low_pass();
 			return true;
 		} else {
 			// No UI Update required
@@ -263,14 +821,34 @@ public class PedometerManager {
 	}
 
 	/**
-	 * Reset the Pedometer System with 0 steps and new offset value
+	 * Reset the Pedometer System with 0 steps and new offset value, the reset
+	 * is carried out by the next update or applyPendingChanges call
 	 */
 	public void reset() {
+		reset_request.set(true);
+		changes.incrementAndGet();
+	}
+
+	/**
+	 * Carry out the reset on the thread running the updates
+	 */
+	private void apply_reset() {
 		steps = 0;
 		run_time = 0;
 		offset += -(value_buffer[DATA_SCALAR]);
 		this.moving_average_filter.reset();
 		this.instant_threshold = 0.0f;
+		this.step_rate_tracker.reset();
+		this.step_rate = 0.0f;
+		final ShadowDetectorLanes lanes = shadow_lanes;
+		if (lanes != null) {
+			lanes.reset();
+		}
+		// Report the reset in order with the steps should a listener be set
+		final IStepListener listener = step_listener;
+		if (listener != null) {
+			listener.onReset();
+		}
 	}
 
 	/**
@@ -280,13 +858,11 @@ public class PedometerManager {
 	 *            Current Timestamp from update()
 	 */
 	private void writeLogData(long timestamp) {
-		if (logger != null) {
-			logger.writeDataValue(value_buffer[DATA_SCALAR]);
-			logger.writeDataValue(value_buffer[DATA_FILTER]);
-			logger.writeDataValue(value_buffer[DATA_PEAK]);
-			logger.writeDataValue(value_buffer[DATA_THRESHOLD]);
-			logger.writeDataValue(timestamp);
-			logger.writeNewLine();
+		final ISampleLogger log = logger;
+		if (log != null) {
+			log.writeRecord(value_buffer[DATA_SCALAR],
+					value_buffer[DATA_FILTER], value_buffer[DATA_PEAK],
+					value_buffer[DATA_THRESHOLD], timestamp);
 		}
 	}
 
@@ -296,19 +872,113 @@ public class PedometerManager {
 	 * @return the filename of the new log file
 	 */
 	public String openLog() {
-		if (logger != null) {
-			logger.close();
-		}
-		logger = new DataLogger();
+		return openLog(new AsyncSampleLogger(new DataLogger()));
+	}
+
+	/**
+	 * Open a new binary log but close an existing one if open
+	 * 
+	 * @return the filename of the new log file
+	 */
+	public String openBinaryLog() {
+		return openLog(new AsyncSampleLogger(new BinaryDataLogger()));
+	}
+
+	/**
+	 * Open a new memory mapped segment log but close an existing one if open,
+	 * the records are written directly into the mapped segments
+	 * 
+	 * @return the filename of the first segment
+	 */
+	public String openSegmentLog() {
+		return openLog(new MappedSegmentLogger());
+	}
+
+	/**
+	 * Start writing to a log but close an existing one if open
+	 * 
+	 * @param log
+	 *            Log to write to
+	 * @return the filename of the log
+	 */
+	public String openLog(ISampleLogger log) {
+		closeLog();
+		logger = log;
 		return logger.getFileName();
 	}
 
 	/**
-	 * Close a log should it be open
+	 * Publish the current values for the user interface
+	 * 
+	 * @param timestamp
+	 *            Time of the last update
+	 */
+	private void publish_snapshot(long timestamp) {
+		snapshot.publish(timestamp, value_buffer[DATA_X],
+				value_buffer[DATA_Y], value_buffer[DATA_Z] - z_bias,
+				value_buffer[DATA_SCALAR],
+				sample_rate(), last_peak, step_rate,
+				step_rate_tracker.getMedianCadence(),
+				step_rate_tracker.getPercentile90Cadence(), steps, run_time);
+	}
+
+	/**
+	 * Copy the latest values published by the update methods, this may be
+	 * called from one other thread such as the user interface thread
+	 * 
+	 * @param dst
+	 *            Snapshot to copy the values into
+	 * @return true if the values are newer than the last ones read, false if
+	 *         nothing has been published since
+	 */
+	public boolean readSnapshot(PedometerSnapshot dst) {
+		return snapshot.read(dst);
+	}
+
+	/**
+	 * Set the listener told of each step as it is detected, this may be called
+	 * from another thread and the listener is called on the thread calling
+	 * update so should hand the step on quickly
+	 * 
+	 * @param listener
+	 *            Step listener or null for none
+	 */
+	public void setStepListener(IStepListener listener) {
+		step_listener = listener;
+	}
+
+	/**
+	 * Set the shadow lanes run over the peaks of the step detection, this may
+	 * be called from another thread and the lanes are given the peaks from
+	 * the next sample on
+	 * 
+	 * @param lanes
+	 *            Lanes or null for none
+	 */
+	public void setShadowLanes(ShadowDetectorLanes lanes) {
+		shadow_lanes = lanes;
+	}
+
+	/**
+	 * Get the shadow lanes run over the peaks of the step detection
+	 * 
+	 * @return Lanes or null for none
+	 */
+	public ShadowDetectorLanes getShadowLanes() {
+		return shadow_lanes;
+	}
+
+	/**
+	 * Close a log should it be open, when called while another thread is
+	 * updating the last record may be written as the log is closed so the
+	 * log must allow this
 	 */
 	public void closeLog() {
-		if (logger != null) {
-			logger.close();
+		final ISampleLogger log = logger;
+		if (log != null) {
+			logger = null;
+			log.setSampleRate(sample_rate());
+			log.close();
 		}
 	}
 
@@ -336,17 +1006,26 @@ public class PedometerManager {
 	 * @return current run time in seconds
 	 */
 	public float getSampleRate() {
-		// Determine the time elapsed since the last block
-		if (block_length != 0) {
-			// Calculate the sample rate
-			float sr = (float) (SAMPLE_COUNT * 1e9) / (float) (block_length);
-			// Update the Low Pass Filter
-			this.low_pass_filter.setCentreFrequency(4.0f / sr);
-			// return the value to the Activity
-			return sr;
-		} else {
-			return 0.0f;
-		}
+		return sample_rate();
+	}
+
+	/**
+	 * Get the estimated sample rate
+	 * 
+	 * @return Sample Rate or 0 if not yet known
+	 */
+	private float sample_rate() {
+		return rate_estimator.getSampleRate();
+	}
+
+	/**
+	 * Get the number of gaps seen in the samples, such as when the sensor was
+	 * paused
+	 * 
+	 * @return Number of gaps
+	 */
+	public long getSampleGapCount() {
+		return rate_estimator.getGapCount();
 	}
 
 	/**
@@ -393,7 +1072,7 @@ public class PedometerManager {
 	 * @return Threshold value
 	 */
 	public int getThreshold() {
-		return threshold;
+		return config.get().getThreshold();
 	}
 
 	/**
@@ -403,7 +1082,11 @@ public class PedometerManager {
 	 *            Threshold to set
 	 */
 	public void setThreshold(int t) {
-		threshold = t;
+		PedometerConfig c;
+		do {
+			c = config.get();
+		} while (!config.compareAndSet(c, c.withThreshold(t)));
+		changes.incrementAndGet();
 	}
 
 	/**
@@ -431,7 +1114,7 @@ public class PedometerManager {
 	 * @return Low Pass Enable flag
 	 */
 	public boolean getLowPassEnable() {
-		return this.low_pass;
+		return config.get().getLowPassEnable();
 	}
 
 	/**
@@ -441,15 +1124,198 @@ public class PedometerManager {
 	 *            Boolean Value to set
 	 */
 	public void setLowPassEnable(boolean b) {
-		this.low_pass = b;
+		PedometerConfig c;
+		do {
+			c = config.get();
+		} while (!config.compareAndSet(c, c.withLowPass(b)));
+		changes.incrementAndGet();
 	}
 
 	/**
-	 * Get the Average Step Rate
+	 * Get the latest configuration
 	 * 
-	 * @return Average Step Rate
+	 * @return Configuration
+	 */
+	public PedometerConfig getConfig() {
+		return config.get();
+	}
+
+	/**
+	 * Set a new configuration, it is taken up by the next update or
+	 * applyPendingChanges call
+	 * 
+	 * @param c
+	 *            Configuration
+	 */
+	public void setConfig(PedometerConfig c) {
+		config.set(c);
+		changes.incrementAndGet();
+	}
+
+	/**
+	 * Take up any configuration change and carry out any reset request now,
+	 * only to be called when no other thread is running the updates
+	 */
+	public void applyPendingChanges() {
+		check_changes();
+	}
+
+	/**
+	 * Save the state of the processing so a PedometerManager with the same
+	 * configuration can carry on from it with restoreState. The state holds
+	 * the sample rate estimate, the buffered values and the state of each
+	 * filter but not the steps, run time or offset which are saved with the
+	 * settings. Any waiting change is taken up first, only to be called when
+	 * no other thread is running the updates.
+	 * 
+	 * State layout (big endian)
+	 * 
+	 * 0 int magic, 4 short version, 6 byte filter mode, 7 byte cascades, 8
+	 * short threshold taps, 10 short decimation, 12 float tuned rate, 16 float
+	 * dynamic threshold, 20 float last peak, 24 int samples since the last UI
+	 * update, 28 float[DATA_LENGTH] buffered values, then the states of the
+	 * rate estimator, Low Pass filter, threshold filter, zero crossing filter
+	 * and decimator if used
+	 * 
+	 * @return Saved state
+	 */
+	public byte[] saveState() {
+		check_changes();
+		final PedometerConfig c = active_config;
+		ByteBuffer out = ByteBuffer.allocate(state_capacity(c));
+		out.putInt(STATE_MAGIC);
+		out.putShort(STATE_VERSION);
+		out.put((byte) c.getFilterMode().ordinal());
+		out.put((byte) c.getCascades());
+		out.putShort((short) c.getThresholdTaps());
+		out.putShort((short) c.getDecimation());
+		out.putFloat(tuned_rate);
+		out.putFloat(instant_threshold);
+		out.putFloat(last_peak);
+		out.putInt(sample_count);
+		for (int j = 0; j < DATA_LENGTH; j++) {
+			out.putFloat(value_buffer[j]);
+		}
+		rate_estimator.saveState(out);
+		low_pass_filter.saveState(out);
+		moving_average_filter.saveState(out);
+		zero_crossing_filter.saveState(out);
+		if (decimator != null) {
+			decimator.saveState(out);
+		}
+		return Arrays.copyOf(out.array(), out.position());
+	}
+
+	/**
+	 * Get the most bytes the state of a configuration can take
+	 * 
+	 * @param c
+	 *            Configuration
+	 * @return Capacity in bytes
+	 */
+	private static int state_capacity(PedometerConfig c) {
+		// Header and values, then each filter has a short and its floats
+		return 64 + 4 * DATA_LENGTH + 16
+				+ (2 + 4 * 2 * c.getCascades())
+				+ (2 + 4 * c.getThresholdTaps())
+				+ 12
+				+ (10 + 4 * 2 * DecimatingFirFilter.TAPS_PER_PHASE
+						* c.getDecimation());
+	}
+
+	/**
+	 * Carry on from a state saved by saveState, the state is only used if it
+	 * was saved with the same filter mode, cascades, threshold window and
+	 * decimation as the configuration now in use. Any waiting change is taken
+	 * up first, only to be called when no other thread is running the
+	 * updates.
+	 * 
+	 * @param state
+	 *            Saved state
+	 * @return true if the state was restored, false if it did not fit and the
+	 *         processing starts cold
+	 */
+	public boolean restoreState(byte[] state) {
+		check_changes();
+		final PedometerConfig c = active_config;
+		ByteBuffer in = ByteBuffer.wrap(state);
+		try {
+			if (in.getInt() != STATE_MAGIC || in.getShort() != STATE_VERSION
+					|| in.get() != c.getFilterMode().ordinal()
+					|| in.get() != (byte) c.getCascades()
+					|| in.getShort() != (short) c.getThresholdTaps()
+					|| in.getShort() != (short) c.getDecimation()) {
+				return false;
+			}
+			final float rate = in.getFloat();
+			instant_threshold = in.getFloat();
+			last_peak = in.getFloat();
+			// Keeps the retuning on the same samples as before the pause
+			sample_count = in.getInt();
+			for (int j = 0; j < DATA_LENGTH; j++) {
+				value_buffer[j] = in.getFloat();
+			}
+			rate_estimator.restoreState(in);
+			low_pass_filter.restoreState(in);
+			moving_average_filter.restoreState(in);
+			zero_crossing_filter.restoreState(in);
+			if (decimator != null) {
+				decimator.restoreState(in);
+			}
+			if (resampler == null && rate > 0.0f) {
+				// Tune to the rate the filter state was built at
+				tuned_rate = rate;
+				tune_low_pass(cutoff, rate);
+			}
+			return true;
+		} catch (BufferUnderflowException e) {
+			start_cold();
+		} catch (IllegalArgumentException e) {
+			start_cold();
+		}
+		return false;
+	}
+
+	/**
+	 * Clear the state of the processing after a failed restore
+	 */
+	private void start_cold() {
+		flush_buffers();
+		sample_count = 0;
+		instant_threshold = 0.0f;
+		rate_estimator.reset();
+		low_pass_filter.reset();
+		moving_average_filter.reset();
+		zero_crossing_filter.reset();
+		if (decimator != null) {
+			decimator.reset();
+		}
+	}
+
+	/**
+	 * Get the Step Rate over the sliding window
+	 * 
+	 * @return Steps per minute
 	 */
 	public float getStepRate() {
 		return this.step_rate;
 	}
+
+	/**
+	 * Get the median cadence of the steps in the sliding window
+	 * 
+	 * @return Steps per minute or 0 if none
+	 */
+	public float getMedianCadence() {
+		return step_rate_tracker.getMedianCadence();
+	}
+
+	/**
+	 * Get the 90th percentile cadence of the steps in the sliding window
+	 * 
+	 * @return Steps per minute or 0 if none
+	 */
+	public float getPercentile90Cadence() {
+		return step_rate_tracker.getPercentile90Cadence();
+	}
 }
@@ -0,0 +1,221 @@
+package pnorton.smartped;
+
+/**
+ * Class PedometerSnapshot
+ * 
+ * Responsibilities: Holds a consistent set of the values the PedometerManager
+ * publishes for the user interface, all taken after the same sample. The
+ * values can only be read through the getters, they are filled in by the
+ * SnapshotBuffer when a snapshot is published or read so the user interface
+ * reuses a single snapshot and never sees the values of two different samples
+ * mixed together.
+ * 
+ * Dependencies: Not dependent on any specific Java or Android features
+ * 
+ * Android Dependencies: No Android Dependencies
+ * 
+ * @author Peter B Norton
+ * @version 0.47
+ * 
+ *          Revision History
+ * 
+ *          0.39 Initial version of the snapshot publication system
+ * 
+ *          0.47 Addition of the median and 90th percentile cadence, the step
+ *          rate is now taken over a sliding window
+ * 
+ */
+public class PedometerSnapshot {
+
+	private long sequence; /* Number of the publication, 0 if none yet */
+	private long timestamp; /* Time stamp of the sample in ns */
+	private float x; /* X axis value */
+	private float y; /* Y axis value */
+	private float z; /* Z axis value without the bias */
+	private float scalar; /* Scalar (-G) value */
+	private float sample_rate; /* Sample rate in Hz or 0 if not known */
+	private float last_peak; /* Last Peak value recorded */
+	private float step_rate; /* Steps per minute */
+	private float cadence_p50; /* Median cadence in steps per minute */
+	private float cadence_p90; /* 90th percentile cadence */
+	private int steps; /* Steps recorded */
+	private long run_time; /* Total Run Time in ns */
+
+	/**
+	 * Set all the values of this snapshot
+	 * 
+	 * @param seq
+	 *            Number of the publication
+	 * @param t
+	 *            Time stamp of the sample
+	 * @param ax
+	 *            X axis value
+	 * @param ay
+	 *            Y axis value
+	 * @param az
+	 *            Z axis value without the bias
+	 * @param s
+	 *            Scalar value
+	 * @param sr
+	 *            Sample rate
+	 * @param peak
+	 *            Last Peak value
+	 * @param rate
+	 *            Step rate
+	 * @param p50
+	 *            Median cadence
+	 * @param p90
+	 *            90th percentile cadence
+	 * @param st
+	 *            Steps recorded
+	 * @param rt
+	 *            Run time
+	 */
+	void set(long seq, long t, float ax, float ay, float az, float s,
+			float sr, float peak, float rate, float p50, float p90, int st,
+			long rt) {
+		sequence = seq;
+		timestamp = t;
+		x = ax;
+		y = ay;
+		z = az;
+		scalar = s;
+		sample_rate = sr;
+		last_peak = peak;
+		step_rate = rate;
+		cadence_p50 = p50;
+		cadence_p90 = p90;
+		steps = st;
+		run_time = rt;
+	}
+
+	/**
+	 * Copy all the values of another snapshot
+	 * 
+	 * @param src
+	 *            Snapshot to copy
+	 */
+	void copy(PedometerSnapshot src) {
+		set(src.sequence, src.timestamp, src.x, src.y, src.z, src.scalar,
+				src.sample_rate, src.last_peak, src.step_rate, src.cadence_p50,
+				src.cadence_p90, src.steps, src.run_time);
+	}
+
+	/**
+	 * Get the number of the publication, each published snapshot has a higher
+	 * number than the last
+	 * 
+	 * @return Publication number or 0 if nothing has been published
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Get the time stamp of the sample
+	 * 
+	 * @return Time stamp in ns
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * Get the X axis value
+	 * 
+	 * @return X axis acceleration
+	 */
+	public float getX() {
+		return x;
+	}
+
+	/**
+	 * Get the Y axis value
+	 * 
+	 * @return Y axis acceleration
+	 */
+	public float getY() {
+		return y;
+	}
+
+	/**
+	 * Get the Z axis value without the bias
+	 * 
+	 * @return Z axis acceleration
+	 */
+	public float getZ() {
+		return z;
+	}
+
+	/**
+	 * Get the Scalar value
+	 * 
+	 * @return Scalar value
+	 */
+	public float getScalarAcceleration() {
+		return scalar;
+	}
+
+	/**
+	 * Get the Sample Rate
+	 * 
+	 * @return Sample Rate in Hz or 0 if not known
+	 */
+	public float getSampleRate() {
+		return sample_rate;
+	}
+
+	/**
+	 * Get the Last Peak value
+	 * 
+	 * @return Last Peak value
+	 */
+	public float getLastPeak() {
+		return last_peak;
+	}
+
+	/**
+	 * Get the Step Rate over the sliding window
+	 * 
+	 * @return Steps per minute
+	 */
+	public float getStepRate() {
+		return step_rate;
+	}
+
+	/**
+	 * Get the median cadence of the steps in the sliding window
+	 * 
+	 * @return Steps per minute or 0 if none
+	 */
+	public float getMedianCadence() {
+		return cadence_p50;
+	}
+
+	/**
+	 * Get the 90th percentile cadence of the steps in the sliding window
+	 * 
+	 * @return Steps per minute or 0 if none
+	 */
+	public float getPercentile90Cadence() {
+		return cadence_p90;
+	}
+
+	/**
+	 * Get the number of steps that have been recorded
+	 * 
+	 * @return steps that have been recorded
+	 */
+	public int getSteps() {
+		return steps;
+	}
+
+	/**
+	 * Get the run time
+	 * 
+	 * @return run time in ns
+	 */
+	public long getRunTime() {
+		return run_time;
+	}
+}
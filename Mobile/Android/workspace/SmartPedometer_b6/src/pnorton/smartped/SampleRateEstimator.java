@@ -0,0 +1,185 @@
+package pnorton.smartped;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Class SampleRateEstimator
+ * 
+ * Responsibilities: Estimates the sample rate of the sensor from the time
+ * stamps of the samples. The time between samples is smoothed with an
+ * exponentially weighted moving average, started from the plain average of the
+ * first few intervals. An interval far from the current estimate is not used:
+ * an interval more than GAP_FACTOR times the estimate is counted as a gap in
+ * the samples, such as the sensor being paused, and any other interval
+ * outside the OUTLIER_FACTOR band is counted as an outlier, such as a late
+ * event followed by an early one. Should the intervals stay outside the band
+ * for RESTART_COUNT samples in a row the sensor rate is taken to have changed
+ * and the estimate is started again.
+ * 
+ * Dependencies: Not dependent on any specific Java or Android features
+ * 
+ * Android Dependencies: No Android Dependencies
+ * 
+ * @author Peter B Norton
+ * @version 0.49
+ * 
+ *          Revision History
+ * 
+ *          0.42 Initial version of the sample rate estimator
+ * 
+ *          0.49 Addition of saveState and restoreState so the estimate
+ *          carries on after a resume without warming up again
+ * 
+ */
+public class SampleRateEstimator {
+
+	/** Interval as a multiple of the estimate counted as a gap */
+	public static final float GAP_FACTOR = 5.0f;
+	/** Factor either side of the estimate beyond which is an outlier */
+	public static final float OUTLIER_FACTOR = 2.0f;
+	private static final int WARMUP_COUNT = 8; /* Intervals averaged at start */
+	private static final int RESTART_COUNT = 32; /* Rejects before a restart */
+	private static final float ALPHA = 1.0f / 32.0f; /* Smoothing weight */
+
+	private long last_time; /* Time stamp of the last sample or 0 */
+	private float period; /* Estimated interval in ns or 0 if not known */
+	private float warmup_sum; /* Sum of the intervals while warming up */
+	private int warmup_count; /* Intervals summed while warming up */
+	private int rejected_run; /* Intervals rejected in a row */
+	private long gaps; /* Gaps seen */
+	private long outliers; /* Outliers seen */
+
+	/**
+	 * Default Constructor
+	 */
+	public SampleRateEstimator() {
+		gaps = 0L;
+		outliers = 0L;
+		reset();
+	}
+
+	/**
+	 * Forget the estimate, the gap and outlier counts are kept
+	 */
+	public void reset() {
+		last_time = 0L;
+		period = 0.0f;
+		warmup_sum = 0.0f;
+		warmup_count = 0;
+		rejected_run = 0;
+	}
+
+	/**
+	 * Update the estimate with the time stamp of the next sample
+	 * 
+	 * @param timestamp
+	 *            Time stamp in ns
+	 */
+	public void update(long timestamp) {
+		final long previous = last_time;
+		last_time = timestamp;
+		if (previous == 0L) {
+			return;
+		}
+		final float delta = (float) (timestamp - previous);
+		if (delta <= 0.0f) {
+			// Repeated or backwards time stamp
+			outliers++;
+			return;
+		}
+		if (period == 0.0f) {
+			// Still warming up
+			warmup_sum += delta;
+			if (++warmup_count == WARMUP_COUNT) {
+				period = warmup_sum / WARMUP_COUNT;
+			}
+			return;
+		}
+		if (delta > period * GAP_FACTOR) {
+			gaps++;
+			rejected();
+		} else if (delta > period * OUTLIER_FACTOR
+				|| delta < period / OUTLIER_FACTOR) {
+			outliers++;
+			rejected();
+		} else {
+			rejected_run = 0;
+			period += ALPHA * (delta - period);
+		}
+	}
+
+	/**
+	 * Count a rejected interval and start again should too many be rejected
+	 * in a row
+	 */
+	private void rejected() {
+		if (++rejected_run == RESTART_COUNT) {
+			long t = last_time;
+			reset();
+			last_time = t;
+		}
+	}
+
+	/**
+	 * Get the estimated sample rate
+	 * 
+	 * @return Sample rate in Hz or 0 if not yet known
+	 */
+	public float getSampleRate() {
+		if (period > 0.0f) {
+			return 1e9f / period;
+		} else {
+			return 0.0f;
+		}
+	}
+
+	/**
+	 * Get the estimated time between samples
+	 * 
+	 * @return Interval in ns or 0 if not yet known
+	 */
+	public float getPeriod() {
+		return period;
+	}
+
+	/**
+	 * Get the number of gaps seen in the samples
+	 * 
+	 * @return Number of gaps
+	 */
+	public long getGapCount() {
+		return gaps;
+	}
+
+	/**
+	 * Get the number of intervals rejected as outliers
+	 * 
+	 * @return Number of outliers
+	 */
+	public long getOutlierCount() {
+		return outliers;
+	}
+
+	/**
+	 * Write the estimate so it can be carried on with restoreState
+	 * 
+	 * @param out
+	 *            Buffer to write the state to
+	 */
+	public void saveState(ByteBuffer out) {
+		out.putFloat(period);
+	}
+
+	/**
+	 * Carry on from an estimate written by saveState, the interval to the
+	 * next time stamp is not used as the samples will have stopped since
+	 * 
+	 * @param in
+	 *            Buffer to read the state from
+	 */
+	public void restoreState(ByteBuffer in) {
+		reset();
+		final float p = in.getFloat();
+		period = (p > 0.0f) ? p : 0.0f;
+	}
+}
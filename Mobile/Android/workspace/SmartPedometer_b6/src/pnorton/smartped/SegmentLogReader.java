@@ -0,0 +1,104 @@
+package pnorton.smartped;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Class SegmentLogReader
+ * 
+ * Responsibilities: Streams back the records of a log written by the
+ * MappedSegmentLogger as if it were a single log, each segment is read in turn
+ * with a BinaryLogReader up to its committed record count until there are no
+ * more segments.
+ * 
+ * Dependencies: Depends on the BinaryLogReader to read each segment and the
+ * naming of the MappedSegmentLogger. This class also implements the
+ * ILogReader interface.
+ * 
+ * Android Dependencies: No Android Dependencies
+ * 
+ * @author Peter B Norton
+ * @version 0.35
+ * 
+ *          Revision History
+ * 
+ *          0.35 Initial version of the memory mapped segment log
+ * 
+ */
+public class SegmentLogReader implements ILogReader {
+
+	private File directory; /* Directory of the segments */
+	private String base_name; /* Name of the log without the segment suffix */
+	private int segment; /* Number of the current segment */
+	private int opened; /* Number of segments opened */
+	private BinaryLogReader reader; /* Reader of the current segment */
+
+	/**
+	 * Default Constructor opens the first segment of the log
+	 * 
+	 * @param first
+	 *            First segment of the log
+	 * @throws IOException
+	 *             If the segment is not named as a first segment or cannot be
+	 *             read
+	 */
+	public SegmentLogReader(File first) throws IOException {
+		String suffix = MappedSegmentLogger.segmentSuffix(0);
+		if (!isFirstSegment(first)) {
+			throw new IOException("Not the first segment of a log");
+		}
+		directory = first.getAbsoluteFile().getParentFile();
+		base_name = first.getName().substring(0,
+				first.getName().length() - suffix.length());
+		segment = 0;
+		reader = new BinaryLogReader(first);
+		opened = 1;
+	}
+
+	/**
+	 * Check if a file is named as the first segment of a log
+	 * 
+	 * @param file
+	 *            File to check
+	 * @return true - first segment of a log
+	 */
+	public static boolean isFirstSegment(File file) {
+		return file.getName().endsWith(MappedSegmentLogger.segmentSuffix(0));
+	}
+
+	@Override
+	public boolean readRecord(LogRecord record) throws IOException {
+		while (reader != null) {
+			if (reader.readRecord(record)) {
+				return true;
+			}
+			// Move on to the next segment should it exist
+			reader.close();
+			reader = null;
+			File next = new File(directory, base_name
+					+ MappedSegmentLogger.segmentSuffix(++segment));
+			if (next.exists()) {
+				reader = new BinaryLogReader(next);
+				opened++;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Get the number of segments opened so far
+	 * 
+	 * @return Number of segments
+	 */
+	public int getSegmentCount() {
+		return opened;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (reader != null) {
+			reader.close();
+			reader = null;
+		}
+	}
+}
@@ -0,0 +1,256 @@
+package pnorton.smartped;
+
+/**
+ * Class ShadowDetectorLanes
+ * 
+ * Responsibilities: Runs a number of shadow step detectors, called lanes, over
+ * the peaks of the PedometerManager so the steps a range of thresholds would
+ * give are counted from a single walk. Each lane has its own threshold
+ * percentage, its own dynamic threshold window and its own count of steps,
+ * and finds a step exactly as the PedometerManager does, a peak above the
+ * threshold percentage of the weighted average of the last peaks. A lane with
+ * the threshold and window of the PedometerManager counts the same steps.
+ * 
+ * The lanes are held as arrays with one entry for each lane rather than an
+ * object for each lane. Every lane sees the same peaks so the peaks are held
+ * once in a doubled circular buffer as in the FirFilter, the window of every
+ * lane lies in one contiguous run of it. Lanes with the same window always
+ * have the same dynamic threshold, so it is worked out once for each window
+ * length and the weights of the windows are held in one array with a stride
+ * of the longest window. A peak then costs one weighted sum for each window
+ * and one compare for each lane. Only a peak has any work to do, a sample
+ * without a peak is never above a threshold so the lanes cost nothing between
+ * the peaks.
+ * 
+ * The peaks are given on the processing thread while the steps may be read on
+ * another thread, the peaks and reads are synchronized which costs one lock
+ * for each peak. The lanes start with no peaks and no steps.
+ * 
+ * Dependencies: Depends on the FirFilter class for the window weights
+ * 
+ * Android Dependencies: No Android Dependencies
+ * 
+ * @author Peter B Norton
+ * @version 0.54
+ * 
+ *          Revision History
+ * 
+ *          0.54 Initial version of the shadow detector lanes
+ * 
+ */
+public class ShadowDetectorLanes {
+
+	private int lane_count; /* Number of lanes */
+	private int[] lane_threshold; /* Threshold of each lane in percent */
+	private float[] lane_fraction; /* Threshold of each lane as a fraction */
+	private int[] lane_window; /* Window of each lane */
+	private int[] lane_steps; /* Steps counted by each lane */
+
+	/* Windows of the lanes, one for each window length */
+	private int window_count; /* Number of windows */
+	private int stride; /* Longest window, the stride of the weights */
+	private int[] window_taps; /* Length of each window */
+	private float[] window_weights; /* Weights of each window newest first */
+	private float[] window_level; /* Dynamic threshold of each window */
+	private float[] history; /* Doubled circular buffer of the peaks */
+	private int position; /* Slot of the newest peak */
+
+	/**
+	 * Default Constructor
+	 * 
+	 * @param thresholds
+	 *            Threshold of each lane in percent
+	 * @param taps
+	 *            Number of peaks in the dynamic threshold window of each lane
+	 * @param k
+	 *            Shape of the weights of the windows
+	 */
+	public ShadowDetectorLanes(int[] thresholds, int[] taps, FirFilter.Kernel k) {
+		if (thresholds.length != taps.length || thresholds.length < 1) {
+			throw new IllegalArgumentException(
+					"A threshold and window is needed for each lane");
+		}
+		lane_count = thresholds.length;
+		stride = 1;
+		for (int i = 0; i < lane_count; i++) {
+			if (taps[i] < 1) {
+				throw new IllegalArgumentException(
+						"At least one threshold tap is needed");
+			}
+			stride = Math.max(stride, taps[i]);
+		}
+		lane_threshold = new int[lane_count];
+		lane_fraction = new float[lane_count];
+		lane_window = new int[lane_count];
+		lane_steps = new int[lane_count];
+		window_count = 0;
+		window_taps = new int[lane_count];
+		window_weights = new float[lane_count * stride];
+		for (int i = 0; i < lane_count; i++) {
+			lane_threshold[i] = thresholds[i];
+			// The same arithmetic as the PedometerManager step detection
+			lane_fraction[i] = (float) thresholds[i] / 100.0f;
+			int w = 0;
+			while (w < window_count && window_taps[w] != taps[i]) {
+				w++;
+			}
+			if (w == window_count) {
+				window_taps[w] = taps[i];
+				System.arraycopy(FirFilter.kernel(k, taps[i]), 0,
+						window_weights, w * stride, taps[i]);
+				window_count++;
+			}
+			lane_window[i] = w;
+		}
+		window_level = new float[window_count];
+		history = new float[2 * stride];
+		position = 0;
+	}
+
+	/**
+	 * Create lanes for a range of thresholds with the same window
+	 * 
+	 * @param first
+	 *            Threshold of the first lane in percent
+	 * @param step
+	 *            Difference in the threshold between lanes in percent
+	 * @param count
+	 *            Number of lanes
+	 * @param k
+	 *            Shape of the weights of the window
+	 * @param taps
+	 *            Number of peaks in the window
+	 * @return Lanes
+	 */
+	public static ShadowDetectorLanes thresholdRange(int first, int step,
+			int count, FirFilter.Kernel k, int taps) {
+		int[] thresholds = new int[count];
+		int[] windows = new int[count];
+		for (int i = 0; i < count; i++) {
+			thresholds[i] = first + i * step;
+			windows[i] = taps;
+		}
+		return new ShadowDetectorLanes(thresholds, windows, k);
+	}
+
+	/**
+	 * Run a peak through every lane
+	 * 
+	 * @param peak
+	 *            Peak value, 0 for a sample without a peak
+	 */
+	public synchronized void processPeak(float peak) {
+		if (peak == 0.0f) {
+			return;
+		}
+		// Step back one slot and store the peak in both halves
+		position = (position == 0) ? stride - 1 : position - 1;
+		history[position] = peak;
+		history[position + stride] = peak;
+		final float[] h = history;
+		final float[] w = window_weights;
+		final int p = position;
+		for (int window = 0; window < window_count; window++) {
+			final int base = window * stride;
+			final int n = window_taps[window];
+			float sum = 0.0f;
+			for (int i = 0; i < n; i++) {
+				sum += h[p + i] * w[base + i];
+			}
+			window_level[window] = sum;
+		}
+		final float[] level = window_level;
+		for (int lane = 0; lane < lane_count; lane++) {
+			if (peak > lane_fraction[lane] * level[lane_window[lane]]) {
+				lane_steps[lane]++;
+			}
+		}
+	}
+
+	/**
+	 * Run a block of peak values through every lane
+	 * 
+	 * @param peak
+	 *            Peak values, 0 for a sample without a peak
+	 * @param offset
+	 *            Index of the first value
+	 * @param length
+	 *            Number of values
+	 */
+	public void processBlock(float[] peak, int offset, int length) {
+		final int end = offset + length;
+		for (int i = offset; i < end; i++) {
+			if (peak[i] != 0.0f) {
+				processPeak(peak[i]);
+			}
+		}
+	}
+
+	/**
+	 * Clear the peaks and steps of every lane
+	 */
+	public synchronized void reset() {
+		for (int i = 0; i < history.length; i++) {
+			history[i] = 0.0f;
+		}
+		position = 0;
+		for (int i = 0; i < window_count; i++) {
+			window_level[i] = 0.0f;
+		}
+		for (int i = 0; i < lane_count; i++) {
+			lane_steps[i] = 0;
+		}
+	}
+
+	/**
+	 * Get the number of lanes
+	 * 
+	 * @return Number of lanes
+	 */
+	public int getLaneCount() {
+		return lane_count;
+	}
+
+	/**
+	 * Get the threshold of a lane
+	 * 
+	 * @param lane
+	 *            Index of the lane
+	 * @return Threshold in percent
+	 */
+	public int getThreshold(int lane) {
+		return lane_threshold[lane];
+	}
+
+	/**
+	 * Get the dynamic threshold window length of a lane
+	 * 
+	 * @param lane
+	 *            Index of the lane
+	 * @return Number of taps
+	 */
+	public int getThresholdTaps(int lane) {
+		return window_taps[lane_window[lane]];
+	}
+
+	/**
+	 * Get the steps counted by a lane
+	 * 
+	 * @param lane
+	 *            Index of the lane
+	 * @return Steps
+	 */
+	public synchronized int getSteps(int lane) {
+		return lane_steps[lane];
+	}
+
+	/**
+	 * Copy the steps counted by every lane at the same point
+	 * 
+	 * @param dst
+	 *            Array of at least the number of lanes
+	 */
+	public synchronized void copySteps(int[] dst) {
+		System.arraycopy(lane_steps, 0, dst, 0, lane_count);
+	}
+}
@@ -0,0 +1,302 @@
+package pnorton.smartped;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class SignalPipeline
+ * 
+ * Responsibilities: Runs a chain of ISignalFilter stages over a block of
+ * samples, the stages being given in order to a Builder. Any stage may be
+ * tapped so its output for the block is kept for logging or the step
+ * detection, the output of the last stage is always kept. Each stage has an
+ * enable flag, a stage which is turned off is still run so its state is
+ * current when turned on again but its input is passed on unchanged.
+ * 
+ * A block is run a tile at a time, each stage running over the whole tile
+ * with its processBlock method before the next stage. The values passed
+ * between the stages stay in the cache and each stage runs its own loop over
+ * the tile, so the filters are called through the interface once for each
+ * stage and tile rather than once for each stage and sample. A stage which is
+ * not tapped filters in place in a shared work buffer, so only the tapped
+ * stages need a buffer of their own.
+ * 
+ * Dependencies: Depends on the ISignalFilter interface
+ * 
+ * Android Dependencies: No Android Dependencies
+ * 
+ * @author Peter B Norton
+ * @version 0.55
+ * 
+ *          Revision History
+ * 
+ *          0.55 Initial version of the signal pipeline
+ * 
+ */
+public class SignalPipeline {
+
+	/** Samples run through every stage before the next tile */
+	public static final int TILE_SIZE = 64;
+
+	/**
+	 * Builder which collects the stages of a pipeline in order
+	 * 
+	 * @author Peter B Norton
+	 * @version 0.55
+	 */
+	public static class Builder {
+		private List<ISignalFilter> filters = new ArrayList<ISignalFilter>();
+		private List<Boolean> taps = new ArrayList<Boolean>();
+
+		/**
+		 * Add a stage after the stages already added
+		 * 
+		 * @param f
+		 *            Filter of the stage
+		 * @param tapped
+		 *            true to keep the output of the stage
+		 * @return This builder
+		 */
+		public Builder stage(ISignalFilter f, boolean tapped) {
+			if (f == null) {
+				throw new IllegalArgumentException("A stage needs a filter");
+			}
+			filters.add(f);
+			taps.add(Boolean.valueOf(tapped));
+			return this;
+		}
+
+		/**
+		 * Create the pipeline with every stage turned on
+		 * 
+		 * @param capacity
+		 *            Longest block to be run
+		 * @return Pipeline
+		 */
+		public SignalPipeline build(int capacity) {
+			if (filters.isEmpty()) {
+				throw new IllegalArgumentException("At least one stage is needed");
+			}
+			return new SignalPipeline(filters, taps, capacity);
+		}
+	}
+
+	private int stage_count; /* Number of stages */
+	private ISignalFilter[] filters; /* Filter of each stage */
+	private boolean[] enabled; /* Enable flag of each stage */
+	private boolean[] tapped; /* Output of each stage kept */
+	private float[][] outputs; /* Tap of each stage or null if in place */
+	private float[] sample_taps; /* Output of each stage for a sample */
+	private float[] work; /* Work buffer shared by the untapped stages */
+	private float[] discard; /* Output of a stage which is turned off */
+	private int capacity; /* Longest block the buffers hold */
+
+	/**
+	 * Constructor used by the Builder
+	 * 
+	 * @param f
+	 *            Filter of each stage
+	 * @param t
+	 *            Tap flag of each stage
+	 * @param c
+	 *            Longest block to be run
+	 */
+	private SignalPipeline(List<ISignalFilter> f, List<Boolean> t, int c) {
+		stage_count = f.size();
+		filters = f.toArray(new ISignalFilter[stage_count]);
+		enabled = new boolean[stage_count];
+		tapped = new boolean[stage_count];
+		for (int i = 0; i < stage_count; i++) {
+			enabled[i] = true;
+			// The last stage is always kept as the output
+			tapped[i] = t.get(i).booleanValue() || i == stage_count - 1;
+		}
+		outputs = new float[stage_count][];
+		sample_taps = new float[stage_count];
+		capacity = -1;
+		ensureCapacity(c);
+	}
+
+	/**
+	 * Make sure the buffers can hold a block, the values they hold are lost
+	 * when they grow
+	 * 
+	 * @param length
+	 *            Highest index of a block plus one
+	 */
+	public void ensureCapacity(int length) {
+		if (length <= capacity) {
+			return;
+		}
+		capacity = Math.max(length, 2 * Math.max(capacity, 0));
+		for (int i = 0; i < stage_count; i++) {
+			outputs[i] = tapped[i] ? new float[capacity] : null;
+		}
+		work = new float[capacity];
+		discard = new float[capacity];
+	}
+
+	/**
+	 * Run a block of samples through every stage, the outputs are left in the
+	 * taps at the same indices as the input
+	 * 
+	 * @param in
+	 *            Values to process, these are not changed
+	 * @param t
+	 *            Time stamp values for each sample
+	 * @param offset
+	 *            Index of the first sample
+	 * @param length
+	 *            Number of samples to process
+	 */
+	public void processBlock(float[] in, long[] t, int offset, int length) {
+		final int end = offset + length;
+		if (end > capacity) {
+			throw new IllegalArgumentException("Block of " + end
+					+ " beyond the capacity of " + capacity);
+		}
+		final ISignalFilter[] f = filters;
+		final float[][] out = outputs;
+		for (int start = offset; start < end; start += TILE_SIZE) {
+			final int n = Math.min(TILE_SIZE, end - start);
+			float[] src = in;
+			for (int i = 0; i < stage_count; i++) {
+				final float[] dst = (out[i] != null) ? out[i] : work;
+				if (enabled[i]) {
+					f[i].processBlock(src, dst, t, start, n);
+				} else {
+					// Keep the state current but pass the input on
+					f[i].processBlock(src, discard, t, start, n);
+					if (dst != src) {
+						System.arraycopy(src, start, dst, start, n);
+					}
+				}
+				src = dst;
+			}
+		}
+	}
+
+	/**
+	 * Run one sample through every stage, the output of each stage is kept
+	 * for getSampleTap
+	 * 
+	 * @param n
+	 *            Value to process
+	 * @param t
+	 *            Time stamp of the sample
+	 * @return Output of the last stage
+	 */
+	public float processSample(float n, long t) {
+		float value = n;
+		for (int i = 0; i < stage_count; i++) {
+			final float v = filters[i].processSample(value, t);
+			if (enabled[i]) {
+				value = v;
+			}
+			sample_taps[i] = value;
+		}
+		return value;
+	}
+
+	/**
+	 * Get the number of stages
+	 * 
+	 * @return Number of stages
+	 */
+	public int getStageCount() {
+		return stage_count;
+	}
+
+	/**
+	 * Get the filter of a stage
+	 * 
+	 * @param stage
+	 *            Index of the stage
+	 * @return Filter
+	 */
+	public ISignalFilter getFilter(int stage) {
+		return filters[stage];
+	}
+
+	/**
+	 * Replace the filter of a stage, such as a filter of a new order
+	 * 
+	 * @param stage
+	 *            Index of the stage
+	 * @param f
+	 *            New filter
+	 */
+	public void setFilter(int stage, ISignalFilter f) {
+		if (f == null) {
+			throw new IllegalArgumentException("A stage needs a filter");
+		}
+		filters[stage] = f;
+	}
+
+	/**
+	 * Check if a stage is turned on
+	 * 
+	 * @param stage
+	 *            Index of the stage
+	 * @return true - output passed on false - input passed on
+	 */
+	public boolean isEnabled(int stage) {
+		return enabled[stage];
+	}
+
+	/**
+	 * Turn a stage on or off
+	 * 
+	 * @param stage
+	 *            Index of the stage
+	 * @param b
+	 *            true to pass the output of the stage on, false to pass its
+	 *            input on
+	 */
+	public void setEnabled(int stage, boolean b) {
+		enabled[stage] = b;
+	}
+
+	/**
+	 * Get the outputs of a tapped stage for the last block, the array is
+	 * replaced should the capacity grow
+	 * 
+	 * @param stage
+	 *            Index of the stage
+	 * @return Outputs at the indices of the input or null if the stage is not
+	 *         tapped
+	 */
+	public float[] getTap(int stage) {
+		return outputs[stage];
+	}
+
+	/**
+	 * Get the outputs of the last stage for the last block, the array is
+	 * replaced should the capacity grow
+	 * 
+	 * @return Outputs at the indices of the input
+	 */
+	public float[] getOutput() {
+		return outputs[stage_count - 1];
+	}
+
+	/**
+	 * Get the output of a stage for the last sample given to processSample
+	 * 
+	 * @param stage
+	 *            Index of the stage
+	 * @return Output passed on by the stage
+	 */
+	public float getSampleTap(int stage) {
+		return sample_taps[stage];
+	}
+
+	/**
+	 * Reset the filter of every stage
+	 */
+	public void reset() {
+		for (int i = 0; i < stage_count; i++) {
+			filters[i].reset();
+		}
+	}
+}
@@ -1,13 +1,21 @@
 package pnorton.smartped;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
+import java.util.Arrays;
+import java.util.TimeZone;
 
 import android.app.Activity;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.PowerManager;
+import android.util.Log;
 import android.view.View;
 import android.view.View.OnClickListener;
 import android.widget.Button;
@@ -32,7 +40,7 @@ import android.widget.SeekBar.OnSeekBarChangeListener;
  * 
  * Android Dependencies: Android API Level 9 (Android 2.3.1 and above)
  * @author Peter B Norton
- * @version 0.30
+ * @version 0.62
  * 
  *          Revision History
  * 
@@ -106,14 +114,67 @@ import android.widget.SeekBar.OnSeekBarChangeListener;
  *          0.30 Decoupling of the BeepHandler to this class from Pedometer
  *          Manager to avoid any specialised Android code in that class 
  *          (PREF_VERSION 28)
+ *          
+ *          0.33 The Record button now writes the compact binary log format
+ *          (PREF_VERSION 28)
+ *          
+ *          0.37 The number formats are created once and the beep is posted to
+ *          a single beeper thread instead of starting a new thread for each
+ *          step, so a UI update no longer creates them (PREF_VERSION 28)
+ *          
+ *          0.38 The beeper is registered with a StepEventDispatcher which the
+ *          PedometerManager reports each step to, instead of the UI update
+ *          checking the step count (PREF_VERSION 28)
+ *          
+ *          0.39 The display is updated from a PedometerSnapshot read on each
+ *          frame of a HandlerFrameClock, ten times a second, rather than every
+ *          eighth sensor event (PREF_VERSION 28)
+ *          
+ *          0.40 The samples come from an ISampleSource which calls
+ *          updateAcceleration on its own processing thread, so the sensor
+ *          processing no longer runs on the main thread (PREF_VERSION 28)
+ *          
+ *          0.41 Any setting change or reset still waiting when the sample
+ *          source stops is taken up before the preferences are saved
+ *          (PREF_VERSION 28)
+ *          
+ *          0.47 The step rate display also shows the median and 90th
+ *          percentile cadence of the sliding window (PREF_VERSION 28)
+ *          
+ *          0.48 Each minute with steps is recorded in the StepHistoryStore
+ *          in the application files, written when the activity is paused
+ *          (PREF_VERSION 28)
+ *          
+ *          0.49 The processing state of the PedometerManager is saved to the
+ *          application files when paused and restored with the preferences
+ *          so the step detection carries on warm (PREF_VERSION 28)
+ *          
+ *          0.50 Steps are written to the StepJournal as they are detected
+ *          and the journal is replayed when created, so a killed process
+ *          only loses the steps of the last few seconds (PREF_VERSION 28)
+ *          
+ *          0.54 While a data log is recorded a set of ShadowDetectorLanes
+ *          counts the steps of a range of thresholds from the same walk, the
+ *          steps of each lane are logged when the recording is stopped
+ *          (PREF_VERSION 28)
+ *          
+ *          0.61 The StepHistoryStore is closed when the activity is destroyed
+ *          and any minutes which could not be written are logged
+ *          (PREF_VERSION 28)
+ *          
+ *          0.62 A reset reaches the StepJournal through the step listeners in
+ *          order with the steps, so the journal is started again from 0 on the
+ *          dispatch thread rather than on the main thread. The StepJournal is
+ *          closed when the activity is destroyed and any failed commits are
+ *          logged (PREF_VERSION 28)
  */
 public class SmartPedometer_b6Activity extends Activity implements
 		IAccelerometerListener {
 	private PedometerManager pManager; /* Pedometer Data Manager */
-	private AccelerometerHardwareInterface accelerometer; /*
-														 * Accelerometer
-														 * Hardware Interface
-														 */
+	private ISampleSource accelerometer; /*
+										 * Accelerometer Hardware Interface
+										 * or other source of samples
+										 */
 	/* List of Controls */
 	private TextView textViewX;
 	private TextView textViewY;
@@ -136,13 +197,31 @@ public class SmartPedometer_b6Activity extends Activity implements
 	/* Constants */
 	private static final int MAX_TRIG_BAR = 100;
 	private static final int MAX_VOL_BAR = 10;
+	private static final long FRAME_INTERVAL = 100; /* Display update in ms */
+	private static final int SHADOW_FIRST = 38; /* Lowest lane threshold */
+	private static final int SHADOW_STEP = 2; /* Threshold between lanes */
+	private static final int SHADOW_LANES = 32; /* Lanes while recording */
 	
 	private BeepHandler beeper;
+	private StepEventDispatcher step_dispatcher; /* Delivers the steps */
+	private StepHistoryStore history; /* Step history or null if not open */
+	private StepHistoryRecorder history_recorder; /* Records the minutes */
+	private StepJournal journal; /* Step journal or null if not open */
+	private StepJournalRecorder journal_recorder; /* Journals the steps */
+	private HandlerFrameClock frame_clock; /* Paces the display updates */
+	private PedometerSnapshot snapshot; /* Values shown on the display */
+	private NumberFormat format_2dp; /* Format for the acceleration values */
+	private NumberFormat format_1dp; /* Format for the step rate */
 	private int volume;
 	private int steps;
+	private int shadow_start; /* Steps when the shadow lanes were set */
 
 	private SharedPreferences pref;
 	private static final int PREFERENCES_VERSION = 28;
+	private static final String HISTORY_FILE = "step_history.dat";
+	private static final String STATE_FILE = "pedometer_state.bin";
+	private static final String JOURNAL_FILE = "step_journal.dat";
+	private static final String errorTAG = "SmartPedometer_b6Activity";
 	private PowerManager.WakeLock wakeLock;
 
 	/*
@@ -165,41 +244,89 @@ public class SmartPedometer_b6Activity extends Activity implements
 	public void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
 		setContentView(R.layout.main);
+		format_2dp = new DecimalFormat("0.00");
+		format_1dp = new DecimalFormat("0.0");
+		frame_clock = new HandlerFrameClock(new Handler(), FRAME_INTERVAL);
+		snapshot = new PedometerSnapshot();
 		wakeLock = ((PowerManager) getSystemService(Context.POWER_SERVICE))
 				.newWakeLock(PowerManager.FULL_WAKE_LOCK,
 						"SmartPedometer_b5Activity");
 		pManager = new PedometerManager();
 		pref = this.getPreferences(MODE_PRIVATE);
 		accelerometer = new AccelerometerHardwareInterface(this);
+		try {
+			journal = new StepJournal(new File(getFilesDir(), JOURNAL_FILE));
+		} catch (IOException e) {
+			Log.e(errorTAG, e.getMessage());
+			journal = null;
+		}
 		if (pref.getInt(PREF_VERSION, 0) == PREFERENCES_VERSION) {
+			steps = pref.getInt(PREF_STEPS_SCALAR, 0);
+			// The journal holds any steps made after the preferences were
+			// saved should the process have been killed
+			if (journal != null && journal.isRecovered()
+					&& journal.getSteps() != steps) {
+				Log.i(errorTAG, "Journal recovered " + journal.getSteps()
+						+ " steps, saved " + steps);
+				steps = journal.getSteps();
+			}
 			// Load the Preferences from the file and send
 			// to the PedometerManager
 			pManager = new PedometerManager(pref.getLong(PREF_TOTAL_TIME, 0),
 					 pref.getFloat(
 							PREF_CALIBRATOR, 0.0f), pref.getInt(PREF_THRESHOLD,
-							70), pref.getInt(PREF_STEPS_SCALAR, 0),
+							70), steps,
 					pref.getBoolean(PREF_LOW_PASS_ENABLE, false));
 			volume = pref.getInt(PREF_VOLUME, 10);
-			steps = pref.getInt(PREF_STEPS_SCALAR, 0);
+			restore_state();
 		} else {
 			// Else allow the default values
 			pManager = new PedometerManager();
 			volume = 10;
 			steps = 0;
 		}
+		checkpoint_journal(steps);
+		try {
+			history = new StepHistoryStore(new File(getFilesDir(),
+					HISTORY_FILE), TimeZone.getDefault().getOffset(
+					System.currentTimeMillis()) / 60000);
+		} catch (IOException e) {
+			Log.e(errorTAG, e.getMessage());
+			history = null;
+		}
 		setupControls();
 	}
 
 	public void onResume() {
 		super.onResume();
 		beeper = new BeepHandler(this);
+		step_dispatcher = new StepEventDispatcher();
+		step_dispatcher.addListener(beeper);
+		if (history != null) {
+			history_recorder = new StepHistoryRecorder(history);
+			step_dispatcher.addListener(history_recorder);
+		}
+		if (journal != null) {
+			journal_recorder = new StepJournalRecorder(journal);
+			step_dispatcher.addListener(journal_recorder);
+		}
+		pManager.setStepListener(step_dispatcher);
 		accelerometer.start(this);
+		frame_clock.postFrameCallback(frameUpdate);
 		wakeLock.acquire();
 	}
 
 	public void onPause() {
 		super.onPause();
 		accelerometer.stop();
+		pManager.applyPendingChanges();
+		frame_clock.removeFrameCallback(frameUpdate);
+		frame_clock.stop();
+		pManager.setStepListener(null);
+		step_dispatcher.close();
+		step_dispatcher = null;
+		stop_history_recorder();
+		stop_journal_recorder();
 		beeper.close();
 		beeper = null;
 		wakeLock.release();
@@ -212,6 +339,165 @@ public class SmartPedometer_b6Activity extends Activity implements
 		ed.putInt(PREF_STEPS_SCALAR, pManager.getSteps());
 		ed.putBoolean(PREF_LOW_PASS_ENABLE, pManager.getLowPassEnable());
 		ed.commit();
+		// The preferences now hold the steps so the journal starts again
+		checkpoint_journal(pManager.getSteps());
+		save_state();
+	}
+
+	public void onDestroy() {
+		super.onDestroy();
+		stop_history_recorder();
+		if (history != null) {
+			try {
+				history.close();
+			} catch (IOException e) {
+				Log.e(errorTAG, e.getMessage());
+			}
+			history = null;
+		}
+		// The last group of steps is committed before the journal is closed
+		stop_journal_recorder();
+		if (journal != null) {
+			try {
+				journal.close();
+			} catch (IOException e) {
+				Log.e(errorTAG, e.getMessage());
+			}
+			journal = null;
+		}
+	}
+
+	/**
+	 * Store the minute in progress and stop recording the step history, the
+	 * steps must no longer be arriving
+	 */
+	private void stop_history_recorder() {
+		if (history_recorder == null) {
+			return;
+		}
+		history_recorder.flush();
+		if (history_recorder.getErrorCount() > 0) {
+			Log.e(errorTAG, history_recorder.getErrorCount()
+					+ " minutes not written to the step history");
+		}
+		history_recorder = null;
+		try {
+			history.flush();
+		} catch (IOException e) {
+			Log.e(errorTAG, e.getMessage());
+		}
+	}
+
+	/**
+	 * Commit the waiting steps and stop journalling the steps, the steps must
+	 * no longer be arriving
+	 */
+	private void stop_journal_recorder() {
+		if (journal_recorder == null) {
+			return;
+		}
+		journal_recorder.close();
+		if (journal_recorder.getErrorCount() > 0) {
+			Log.e(errorTAG, journal_recorder.getErrorCount()
+					+ " step journal commits or checkpoints failed");
+		}
+		journal_recorder = null;
+	}
+
+	/**
+	 * Log the steps of each shadow lane against the steps counted then stop
+	 * the lanes
+	 */
+	private void log_shadow_lanes() {
+		final ShadowDetectorLanes lanes = pManager.getShadowLanes();
+		if (lanes == null) {
+			return;
+		}
+		pManager.setShadowLanes(null);
+		int[] counts = new int[lanes.getLaneCount()];
+		lanes.copySteps(counts);
+		Log.i(errorTAG, "Threshold " + pManager.getThreshold() + "%: "
+				+ (pManager.getSteps() - shadow_start) + " steps");
+		for (int i = 0; i < counts.length; i++) {
+			Log.i(errorTAG, "Lane " + lanes.getThreshold(i) + "% "
+					+ lanes.getThresholdTaps(i) + " taps: " + counts[i]
+					+ " steps");
+		}
+	}
+
+	/**
+	 * Start the step journal again from the given steps
+	 * 
+	 * @param total
+	 *            Steps counted
+	 */
+	private void checkpoint_journal(int total) {
+		if (journal == null) {
+			return;
+		}
+		try {
+			journal.checkpoint(total);
+		} catch (IOException e) {
+			Log.e(errorTAG, e.getMessage());
+		}
+	}
+
+	/**
+	 * Write the processing state of the PedometerManager to the application
+	 * files, only called while the sample source is stopped
+	 */
+	private void save_state() {
+		byte[] state = pManager.saveState();
+		FileOutputStream out = null;
+		try {
+			out = new FileOutputStream(new File(getFilesDir(), STATE_FILE));
+			out.write(state);
+		} catch (IOException e) {
+			Log.e(errorTAG, e.getMessage());
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					Log.e(errorTAG, e.getMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Restore the processing state of the PedometerManager should one have
+	 * been saved, the processing starts cold if it does not fit
+	 */
+	private void restore_state() {
+		File f = new File(getFilesDir(), STATE_FILE);
+		if (!f.exists()) {
+			return;
+		}
+		FileInputStream in = null;
+		try {
+			in = new FileInputStream(f);
+			byte[] state = new byte[(int) f.length()];
+			int n = 0;
+			while (n < state.length) {
+				int r = in.read(state, n, state.length - n);
+				if (r < 0) {
+					break;
+				}
+				n += r;
+			}
+			pManager.restoreState(Arrays.copyOf(state, n));
+		} catch (IOException e) {
+			Log.e(errorTAG, e.getMessage());
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					Log.e(errorTAG, e.getMessage());
+				}
+			}
+		}
 	}
 
 	public void setupControls() {
@@ -318,7 +604,11 @@ public class SmartPedometer_b6Activity extends Activity implements
 	 */
 	private OnClickListener resetPress = new OnClickListener() {
 		public void onClick(View v) {
+			// The journal is started again from 0 when the reset is carried
+			// out, after the steps detected before it
 			pManager.reset();
+			// The reset also clears the steps of any shadow lanes
+			shadow_start = 0;
 		}
 	};
 
@@ -327,7 +617,13 @@ public class SmartPedometer_b6Activity extends Activity implements
 	 */
 	private OnClickListener recordPress = new OnClickListener() {
 		public void onClick(View v) {
-			textViewDataFile.setText(pManager.openLog() + " file opened");
+			textViewDataFile.setText(pManager.openBinaryLog() + " file opened");
+			// Count the steps of other thresholds over the same walk
+			PedometerConfig c = pManager.getConfig();
+			shadow_start = pManager.getSteps();
+			pManager.setShadowLanes(ShadowDetectorLanes.thresholdRange(
+					SHADOW_FIRST, SHADOW_STEP, SHADOW_LANES,
+					c.getThresholdKernel(), c.getThresholdTaps()));
 		}
 	};
 
@@ -337,38 +633,50 @@ public class SmartPedometer_b6Activity extends Activity implements
 	private OnClickListener stopPress = new OnClickListener() {
 		public void onClick(View v) {
 			pManager.closeLog();
+			log_shadow_lanes();
 			textViewDataFile.setText("Data File not open");
 		}
 	};
 
-	@Override
-	public void updateAcceleration(float x, float y, float z, long timestamp) {
-		// TODO Auto-generated method stub
-		// Poll the PedometerManager for a UIupdate and pass the acceleration
-		// values
-		if (pManager.update(x, y, z, timestamp)) {
-			// Update the UI from the PedometerManager
-			NumberFormat fmat = new DecimalFormat("0.00");
-			NumberFormat fmat2 = new DecimalFormat("0.0");
-			textViewX.setText("X = " + fmat.format(x));
-			textViewY.setText("Y = " + fmat.format(y));
-			textViewZ.setText("Z = " + fmat.format(z));
-			textViewScalar.setText("S = "
-					+ fmat.format(pManager.getScalarAcceleration()));
-			textViewSampleRate.setText("Sample Rate = "
-					+ fmat.format(pManager.getSampleRate()) + " Hz");
-			if(steps != pManager.getSteps())
-			{
-				Thread t = new Thread(beeper);
-				t.start();
+	/**
+	 * Frame callback to update the display from the latest snapshot
+	 */
+	private IFrameCallback frameUpdate = new IFrameCallback() {
+		public void doFrame(long frame_time) {
+			if (pManager.readSnapshot(snapshot)) {
+				// Update the UI from the PedometerManager snapshot
+				textViewX.setText("X = " + format_2dp.format(snapshot.getX()));
+				textViewY.setText("Y = " + format_2dp.format(snapshot.getY()));
+				textViewZ.setText("Z = " + format_2dp.format(snapshot.getZ()));
+				textViewScalar.setText("S = "
+						+ format_2dp.format(snapshot.getScalarAcceleration()));
+				textViewSampleRate.setText("Sample Rate = "
+						+ format_2dp.format(snapshot.getSampleRate()) + " Hz");
+				textViewSteps.setText("Steps = "
+						+ (steps = snapshot.getSteps()));
+				textViewRunTime.setText("RunTime = "
+						+ (int) (snapshot.getRunTime() / 1e9) + " s");
+				textViewPeak.setText("P = "
+						+ format_2dp.format(snapshot.getLastPeak()));
+				textViewStepRate.setText("Step Rate = "
+						+ format_1dp.format(snapshot.getStepRate())
+						+ " s/min (p50 "
+						+ format_1dp.format(snapshot.getMedianCadence())
+						+ ", p90 "
+						+ format_1dp.format(snapshot.getPercentile90Cadence())
+						+ ")");
 			}
-			textViewSteps.setText("Steps = " + (steps = pManager.getSteps()));
-			textViewRunTime.setText("RunTime = "
-					+ (int) (pManager.getRunTime() / 1e9) + " s");
-			textViewPeak.setText("P = " + fmat.format(pManager.getLastPeak()));
-			textViewStepRate.setText("Step Rate = "
-					+ fmat2.format(pManager.getStepRate()) + " s/min");
-
+			frame_clock.postFrameCallback(this);
 		}
+	};
+
+	/**
+	 * Called on the processing thread of the sample source
+	 */
+	@Override
+	public void updateAcceleration(float x, float y, float z, long timestamp) {
+		// Pass the acceleration values to the PedometerManager, the display
+		// is updated from the published snapshot on the next frame
+		pManager.update(x, y, z, timestamp);
 	}
 }
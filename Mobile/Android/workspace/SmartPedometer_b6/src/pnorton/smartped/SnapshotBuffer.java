@@ -0,0 +1,106 @@
+package pnorton.smartped;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class SnapshotBuffer
+ * 
+ * Responsibilities: Hands the PedometerSnapshot from the thread running the
+ * PedometerManager (the single writer) to the user interface thread (the
+ * single reader) without a lock and without creating objects. Three snapshots
+ * are used, the writer fills its back snapshot and swaps it with the middle
+ * one, the reader swaps its front snapshot with the middle one when it holds
+ * a newer snapshot. Each swap is a single atomic operation so the writer and
+ * the reader never use the same snapshot at the same time, the reader always
+ * gets the latest complete snapshot and the writer never waits.
+ * 
+ * Dependencies: Depends on the java.util.concurrent API
+ * 
+ * Android Dependencies: No Android Dependencies
+ * 
+ * @author Peter B Norton
+ * @version 0.47
+ * 
+ *          Revision History
+ * 
+ *          0.39 Initial version of the snapshot publication system
+ * 
+ *          0.47 The median and 90th percentile cadence are published
+ * 
+ */
+public class SnapshotBuffer {
+
+	private static final int INDEX = 3; /* Mask for the middle index */
+	private static final int FRESH = 4; /* Middle snapshot not yet read */
+
+	private PedometerSnapshot[] snapshots;
+	private AtomicInteger middle; /* Index of the middle snapshot and FRESH */
+	private int back; /* Index owned by the writer */
+	private int front; /* Index owned by the reader */
+	private long sequence; /* Publications so far, used by the writer */
+
+	/**
+	 * Default Constructor
+	 */
+	public SnapshotBuffer() {
+		snapshots = new PedometerSnapshot[] { new PedometerSnapshot(),
+				new PedometerSnapshot(), new PedometerSnapshot() };
+		front = 0;
+		middle = new AtomicInteger(1);
+		back = 2;
+		sequence = 0L;
+	}
+
+	/**
+	 * Publish a new snapshot, only to be called by the writer
+	 * 
+	 * @param t
+	 *            Time stamp of the sample
+	 * @param x
+	 *            X axis value
+	 * @param y
+	 *            Y axis value
+	 * @param z
+	 *            Z axis value without the bias
+	 * @param s
+	 *            Scalar value
+	 * @param sr
+	 *            Sample rate
+	 * @param peak
+	 *            Last Peak value
+	 * @param rate
+	 *            Step rate
+	 * @param p50
+	 *            Median cadence
+	 * @param p90
+	 *            90th percentile cadence
+	 * @param steps
+	 *            Steps recorded
+	 * @param run_time
+	 *            Run time
+	 */
+	public void publish(long t, float x, float y, float z, float s, float sr,
+			float peak, float rate, float p50, float p90, int steps,
+			long run_time) {
+		snapshots[back].set(++sequence, t, x, y, z, s, sr, peak, rate, p50,
+				p90, steps, run_time);
+		back = middle.getAndSet(back | FRESH) & INDEX;
+	}
+
+	/**
+	 * Copy the latest published snapshot, only to be called by the reader
+	 * 
+	 * @param dst
+	 *            Snapshot to copy into
+	 * @return true if a snapshot newer than the last read was copied, false if
+	 *         the last snapshot read was copied again
+	 */
+	public boolean read(PedometerSnapshot dst) {
+		boolean fresh = (middle.get() & FRESH) != 0;
+		if (fresh) {
+			front = middle.getAndSet(front) & INDEX;
+		}
+		dst.copy(snapshots[front]);
+		return fresh;
+	}
+}
@@ -0,0 +1,327 @@
+package pnorton.smartped;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Class StepEventDispatcher
+ * 
+ * Responsibilities: Passes the step events from the sensor thread to the
+ * registered IStepListener objects on a single long lived dispatch thread, so
+ * no thread is created for a step and a slow listener never holds up the
+ * sensor thread. The sensor thread (the single producer) stores each step in a
+ * bounded preallocated ring and wakes the dispatch thread (the single
+ * consumer), which takes every step waiting in the ring and delivers them to
+ * each listener as one event carrying the number of steps. Should the ring
+ * fill the step is still counted and added to the next event, so no steps are
+ * lost when the listeners fall behind.
+ * 
+ * A reset is stored in the ring as well so it is delivered after the steps
+ * before it and before the steps after it, the steps of an event never cross
+ * a reset. The sensor thread waits for space should the ring be full when a
+ * reset arrives. The overflowed steps carry the number of resets queued before
+ * them, a reset takes the steps which overflowed before it and the dispatch
+ * thread only takes those after the last reset it has delivered.
+ * 
+ * Listeners may be added and removed from any thread, the listener array is
+ * replaced rather than changed so the dispatch thread never needs a lock.
+ * 
+ * Dependencies: Depends on the java.util.concurrent API and the IStepListener
+ * interface which it also implements.
+ * 
+ * Android Dependencies: No Android Dependencies
+ * 
+ * @author Peter B Norton
+ * @version 0.62
+ * 
+ *          Revision History
+ * 
+ *          0.38 Initial version of the step event system
+ * 
+ *          0.62 Resets are queued in the ring with the steps and delivered in
+ *          order by onReset
+ * 
+ */
+public class StepEventDispatcher implements IStepListener, Runnable {
+
+	/** Default number of steps held in the ring */
+	public static final int DEFAULT_CAPACITY = 64;
+	private static final IStepListener[] NO_LISTENERS = new IStepListener[0];
+	private static final long RESET_WAIT = 100000L; /* Reset wait in ns */
+	private static final long COUNT_MASK = 0xFFFFFFFFL; /* Overflow steps */
+
+	private int mask; /* Capacity - 1 for the ring index */
+	private long[] ring_time;
+	private float[] ring_peak;
+	private int[] ring_count;
+	private boolean[] ring_reset; /* Reset after the counted steps */
+	private AtomicLong head; /* Next step to be written by the producer */
+	private AtomicLong tail; /* Next step to be read by the consumer */
+	private AtomicLong overflow; /*
+								 * Resets queued in the high 32 bits and the
+								 * steps not stored as the ring was full since
+								 * the last of them in the low 32 bits
+								 */
+	private int resets_queued; /* Resets stored, used by the producer */
+	private int resets_delivered; /* Resets delivered, used by the consumer */
+	private long last_time; /* Last step delivered, used by the consumer */
+	private float last_peak;
+
+	private volatile IStepListener[] listeners;
+	private volatile long events; /* Events delivered */
+	private volatile long coalesced; /* Steps merged into another event */
+	private volatile long overflowed; /* Steps that found the ring full */
+	private volatile boolean running;
+	private Thread dispatcher;
+
+	/**
+	 * Default Constructor with the default capacity
+	 */
+	public StepEventDispatcher() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Constructor which starts the dispatch thread
+	 * 
+	 * @param capacity
+	 *            Number of steps held in the ring, rounded up to a power of 2
+	 */
+	public StepEventDispatcher(int capacity) {
+		int size = 1;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		mask = size - 1;
+		ring_time = new long[size];
+		ring_peak = new float[size];
+		ring_count = new int[size];
+		ring_reset = new boolean[size];
+		head = new AtomicLong(0L);
+		tail = new AtomicLong(0L);
+		overflow = new AtomicLong(0L);
+		resets_queued = 0;
+		resets_delivered = 0;
+		last_time = 0L;
+		last_peak = 0.0f;
+		listeners = NO_LISTENERS;
+		events = 0L;
+		coalesced = 0L;
+		overflowed = 0L;
+		running = true;
+		dispatcher = new Thread(this, "StepDispatcher");
+		dispatcher.setDaemon(true);
+		dispatcher.start();
+	}
+
+	/**
+	 * Register a listener for the step events
+	 * 
+	 * @param listener
+	 *            Listener to add
+	 */
+	public synchronized void addListener(IStepListener listener) {
+		IStepListener[] current = listeners;
+		IStepListener[] added = new IStepListener[current.length + 1];
+		System.arraycopy(current, 0, added, 0, current.length);
+		added[current.length] = listener;
+		listeners = added;
+	}
+
+	/**
+	 * Remove a listener, it may still receive an event being delivered
+	 * 
+	 * @param listener
+	 *            Listener to remove
+	 */
+	public synchronized void removeListener(IStepListener listener) {
+		IStepListener[] current = listeners;
+		for (int i = 0; i < current.length; i++) {
+			if (current[i] == listener) {
+				IStepListener[] removed = new IStepListener[current.length - 1];
+				System.arraycopy(current, 0, removed, 0, i);
+				System.arraycopy(current, i + 1, removed, i, current.length
+						- i - 1);
+				listeners = removed;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Queue steps for the dispatch thread, called on the sensor thread
+	 */
+	@Override
+	public void onStep(long timestamp, float peak, int count) {
+		final long h = head.get();
+		if (h - tail.get() > mask) {
+			// Ring full so only count the steps
+			overflow.addAndGet(count);
+			overflowed += count;
+		} else {
+			final int i = (int) (h & mask);
+			ring_time[i] = timestamp;
+			ring_peak[i] = peak;
+			ring_count[i] = count;
+			ring_reset[i] = false;
+			// Publish the step to the dispatch thread
+			head.lazySet(h + 1);
+		}
+		LockSupport.unpark(dispatcher);
+	}
+
+	/**
+	 * Queue a reset for the dispatch thread after the steps already queued,
+	 * called on the sensor thread
+	 */
+	@Override
+	public void onReset() {
+		final long h = head.get();
+		while (h - tail.get() > mask) {
+			if (!running) {
+				// Nothing is left to deliver the reset
+				return;
+			}
+			LockSupport.unpark(dispatcher);
+			LockSupport.parkNanos(RESET_WAIT);
+		}
+		resets_queued++;
+		// Take the steps which overflowed before the reset
+		final long before = overflow.getAndSet((long) resets_queued << 32);
+		final int i = (int) (h & mask);
+		ring_count[i] = (int) (before & COUNT_MASK);
+		ring_reset[i] = true;
+		// Publish the reset to the dispatch thread
+		head.lazySet(h + 1);
+		LockSupport.unpark(dispatcher);
+	}
+
+	/**
+	 * Dispatch thread loop, delivers the steps until closed
+	 */
+	@Override
+	public void run() {
+		while (true) {
+			boolean closing = !running;
+			while (dispatch()) {
+				// Deliver up to each reset in turn
+			}
+			if (closing) {
+				break;
+			}
+			if (running) {
+				LockSupport.park(this);
+			}
+		}
+	}
+
+	/**
+	 * Deliver the waiting steps up to the next reset as one event, followed by
+	 * the reset should there be one
+	 * 
+	 * @return true if an event or a reset was delivered
+	 */
+	private boolean dispatch() {
+		final long t = tail.get();
+		final long h = head.get();
+		int count = 0;
+		long n = t;
+		boolean reset = false;
+		for (; n < h; n++) {
+			final int i = (int) (n & mask);
+			count += ring_count[i];
+			if (ring_reset[i]) {
+				reset = true;
+				n++;
+				break;
+			}
+			last_time = ring_time[i];
+			last_peak = ring_peak[i];
+		}
+		if (!reset) {
+			count += take_overflow();
+		}
+		if (n == t && count == 0) {
+			return false;
+		}
+		// Steps which only overflowed are reported with the last step seen
+		final long timestamp = last_time;
+		final float peak = last_peak;
+		// Free the ring before delivery so the sensor thread can continue
+		tail.lazySet(n);
+		final IStepListener[] current = listeners;
+		if (count > 0) {
+			for (int j = 0; j < current.length; j++) {
+				current[j].onStep(timestamp, peak, count);
+			}
+			events++;
+			coalesced += count - 1;
+		}
+		if (reset) {
+			resets_delivered++;
+			for (int j = 0; j < current.length; j++) {
+				current[j].onReset();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Take the steps which overflowed since the last reset delivered, steps
+	 * which overflowed after a reset not yet delivered are left for later
+	 * 
+	 * @return Number of steps taken
+	 */
+	private int take_overflow() {
+		while (true) {
+			final long v = overflow.get();
+			if ((int) (v >>> 32) != resets_delivered || (v & COUNT_MASK) == 0) {
+				return 0;
+			}
+			if (overflow.compareAndSet(v, v & ~COUNT_MASK)) {
+				return (int) (v & COUNT_MASK);
+			}
+		}
+	}
+
+	/**
+	 * Deliver any waiting steps then stop the dispatch thread
+	 */
+	public void close() {
+		running = false;
+		LockSupport.unpark(dispatcher);
+		try {
+			dispatcher.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Get the number of events delivered to the listeners
+	 * 
+	 * @return Events delivered
+	 */
+	public long getEventCount() {
+		return events;
+	}
+
+	/**
+	 * Get the number of steps which were merged into the event of a later step
+	 * 
+	 * @return Steps coalesced
+	 */
+	public long getCoalescedCount() {
+		return coalesced;
+	}
+
+	/**
+	 * Get the number of steps which found the ring full, these are still
+	 * counted in the next event
+	 * 
+	 * @return Steps that overflowed the ring
+	 */
+	public long getOverflowCount() {
+		return overflowed;
+	}
+}
@@ -0,0 +1,116 @@
+package pnorton.smartped;
+
+import java.io.IOException;
+
+/**
+ * Class StepHistoryRecorder
+ * 
+ * Responsibilities: Step listener which collects the steps of each minute and
+ * appends the minute to a StepHistoryStore once a step of a later minute
+ * arrives. The step time stamps come from the sensor clock, so the wall clock
+ * time is taken when the first step arrives and the same offset is used for
+ * the later steps. Each second of the minute with a step counts as an active
+ * second, the cadence of the minute is the steps over the active seconds and
+ * the peak is the highest step peak. The steps of the minute in progress are
+ * stored by flush, a later step in the same minute is merged by the store.
+ * 
+ * Dependencies: Depends on the StepHistoryStore class, this also implements
+ * the IStepListener interface.
+ * 
+ * Android Dependencies: No Android Dependencies
+ * 
+ * @author Peter B Norton
+ * @version 0.62
+ * 
+ *          Revision History
+ * 
+ *          0.48 Initial version of the step history
+ * 
+ *          0.62 Addition of onReset for the IStepListener interface, the
+ *          history is kept across a reset
+ * 
+ */
+public class StepHistoryRecorder implements IStepListener {
+
+	private static final long NS_PER_MS = 1000000L;
+
+	private StepHistoryStore store;
+	private boolean clock_set; /* Clock offset taken */
+	private long clock_offset; /* Wall clock less sensor time in ns */
+	private long minute; /* Minute being collected */
+	private int steps; /* Steps of the minute */
+	private long seconds; /* Bit set for each second with a step */
+	private float peak; /* Highest peak of the minute */
+	private int errors; /* Failed writes to the store */
+
+	/**
+	 * Default Constructor
+	 * 
+	 * @param s
+	 *            Store to append the minutes to
+	 */
+	public StepHistoryRecorder(StepHistoryStore s) {
+		store = s;
+		clock_set = false;
+		steps = 0;
+		seconds = 0L;
+		peak = 0.0f;
+		errors = 0;
+	}
+
+	@Override
+	public synchronized void onStep(long timestamp, float p, int count) {
+		if (!clock_set) {
+			clock_offset = System.currentTimeMillis() * NS_PER_MS - timestamp;
+			clock_set = true;
+		}
+		final long ms = (timestamp + clock_offset) / NS_PER_MS;
+		// Never go back before the minutes already stored
+		final long m = Math.max(ms / 60000L, store.getLastMinute());
+		if (m != minute && steps > 0) {
+			store_minute();
+		}
+		minute = m;
+		steps += count;
+		seconds |= 1L << (int) ((ms / 1000L) % 60L);
+		peak = Math.max(peak, p);
+	}
+
+	@Override
+	public void onReset() {
+		// The minutes walked are kept when the step count is reset
+	}
+
+	/**
+	 * Store the steps of the minute in progress
+	 */
+	public synchronized void flush() {
+		if (steps > 0) {
+			store_minute();
+		}
+	}
+
+	/**
+	 * Append the minute collected to the store and start a new minute
+	 */
+	private void store_minute() {
+		final int active = Long.bitCount(seconds);
+		try {
+			store.append(minute, steps, active, steps * 60.0f / active, peak);
+		} catch (IOException e) {
+			errors++;
+		}
+		steps = 0;
+		seconds = 0L;
+		peak = 0.0f;
+	}
+
+	/**
+	 * Get the number of minutes which could not be written to the store
+	 * 
+	 * @return Number of failed writes
+	 */
+	public synchronized int getErrorCount() {
+		return errors;
+	}
+}
@@ -0,0 +1,734 @@
+package pnorton.smartped;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+/**
+ * Class StepHistoryStore
+ * 
+ * Responsibilities: Append only store of the step history as one bucket for
+ * each minute with steps, holding the steps, active seconds, mean cadence and
+ * peak intensity of the minute. Minutes without steps are not stored. The
+ * minutes are encoded into fixed size blocks, each field of a minute is held
+ * as a variable length integer (7 bits a byte) and the minute, cadence and
+ * peak are held as the change from the minute before, so a minute of steady
+ * walking takes about 5 bytes. Each block starts again from its first minute
+ * so any block can be decoded on its own, and the first minute of every block
+ * is kept in a sparse index in memory so a range of minutes is found by a
+ * binary search and only the blocks covering the range are read.
+ * 
+ * Hour, day and week summaries are kept as precomputed tiers which are
+ * updated as each minute is appended, so a rollup query is a binary search of
+ * the tier and never reads the minutes. The tiers are built from the blocks
+ * when the store is opened. The days and weeks follow the local time offset
+ * given to the store, the weeks start on a Monday.
+ * 
+ * File layout (little endian)
+ * 
+ * Header (HEADER_SIZE bytes): 0 int magic, 4 short version, 6 short header
+ * size, 8 int block size, 12 int reserved
+ * 
+ * Block (BLOCK_SIZE bytes): 0 long first minute, 8 short minute count, 10
+ * short bytes used, then for each minute varint minute change, varint steps,
+ * varint active seconds, zigzag varint cadence change (steps per minute),
+ * zigzag varint peak change (tenths), with the unused end of the block zero
+ * 
+ * The last block is held in memory and written when it fills or when the
+ * store is flushed, a minute appended again is merged with the one stored so
+ * a partly recorded minute may be stored and completed later.
+ * 
+ * Dependencies: Depends on the HistoryBucket class and the java.io API to
+ * read and write the file
+ * 
+ * Android Dependencies: No Android Dependencies
+ * 
+ * @author Peter B Norton
+ * @version 0.48
+ * 
+ *          Revision History
+ * 
+ *          0.48 Initial version of the step history store
+ * 
+ */
+public class StepHistoryStore {
+
+	/**
+	 * Enumeration for the length of the periods of a query
+	 * 
+	 * @author Peter B Norton
+	 * @version 0.48
+	 */
+	public enum Resolution {
+		/** The stored minutes */
+		MINUTE,
+		/** Hours rolled up from the minutes */
+		HOUR,
+		/** Days rolled up from the minutes */
+		DAY,
+		/** Weeks from Monday rolled up from the minutes */
+		WEEK
+	}
+
+	/** Magic number at the start of a history file ("SPDH") */
+	public static final int MAGIC = 0x48445053;
+	/** Version of the history file format */
+	public static final short VERSION = 1;
+	/** Size of the file header in bytes */
+	public static final int HEADER_SIZE = 16;
+	/** Size of each block in bytes */
+	public static final int BLOCK_SIZE = 512;
+	/** Size of the header of each block in bytes */
+	public static final int BLOCK_HEADER_SIZE = 12;
+	/** Minutes in an hour */
+	public static final int MINUTES_PER_HOUR = 60;
+	/** Minutes in a day */
+	public static final int MINUTES_PER_DAY = 1440;
+	/** Minutes in a week */
+	public static final int MINUTES_PER_WEEK = 7 * MINUTES_PER_DAY;
+	private static final int MAX_RECORD = 32; /* Longest encoded minute */
+	private static final int MONDAY = 3; /* Days from a Monday to the epoch */
+	private static final int INITIAL_BLOCKS = 16;
+
+	private RandomAccessFile file;
+	private int local_offset; /* Minutes added to UTC for the local time */
+	private long[] index; /* First minute of each block */
+	private int blocks; /* Number of blocks */
+
+	/* Last block and its encoding state */
+	private byte[] block;
+	private int block_used; /* Bytes used including the header */
+	private int block_count; /* Minutes in the block */
+	private boolean dirty; /* Changed since it was written */
+	private int last_offset; /* Position of the last minute in the block */
+	private long last_minute; /* Last minute stored */
+	private int last_steps;
+	private int last_active;
+	private int last_cadence;
+	private int last_peak;
+	private long base_minute; /* Minute the last minute is encoded from */
+	private int base_cadence; /* Cadence the last minute is encoded from */
+	private int base_peak; /* Peak the last minute is encoded from */
+
+	private byte[] record; /* Scratch for encoding a minute */
+	private byte[] read_buffer; /* Scratch for reading a block */
+	private BlockReader reader;
+	private Tier hours;
+	private Tier days;
+	private Tier weeks;
+
+	/**
+	 * Open a history file, creating it if it does not exist
+	 * 
+	 * @param f
+	 *            History file
+	 * @param offset
+	 *            Minutes added to UTC for the local time of the days and weeks
+	 * @throws IOException
+	 *             If the file could not be opened or is not a history file
+	 */
+	public StepHistoryStore(File f, int offset) throws IOException {
+		local_offset = offset;
+		index = new long[INITIAL_BLOCKS];
+		blocks = 0;
+		block = new byte[BLOCK_SIZE];
+		record = new byte[MAX_RECORD];
+		read_buffer = new byte[BLOCK_SIZE];
+		reader = new BlockReader();
+		hours = new Tier();
+		days = new Tier();
+		weeks = new Tier();
+		last_minute = Long.MIN_VALUE;
+		dirty = false;
+		file = new RandomAccessFile(f, "rw");
+		try {
+			if (file.length() == 0L) {
+				write_header();
+			} else {
+				load();
+			}
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Write the file header
+	 * 
+	 * @throws IOException
+	 *             If the header could not be written
+	 */
+	private void write_header() throws IOException {
+		byte[] header = new byte[HEADER_SIZE];
+		put_int(header, 0, MAGIC);
+		put_short(header, 4, VERSION);
+		put_short(header, 6, HEADER_SIZE);
+		put_int(header, 8, BLOCK_SIZE);
+		file.seek(0L);
+		file.write(header);
+	}
+
+	/**
+	 * Check the header, build the index and tiers from the blocks and load
+	 * the last block to carry on appending
+	 * 
+	 * @throws IOException
+	 *             If the file could not be read or is not a history file
+	 */
+	private void load() throws IOException {
+		byte[] header = new byte[HEADER_SIZE];
+		file.seek(0L);
+		file.readFully(header);
+		if (get_int(header, 0) != MAGIC || get_short(header, 4) != VERSION
+				|| get_int(header, 8) != BLOCK_SIZE) {
+			throw new IOException("Not a step history file");
+		}
+		// A block cut short by a crash is dropped
+		final long n = (file.length() - HEADER_SIZE) / BLOCK_SIZE;
+		for (int i = 0; i < n; i++) {
+			file.seek(block_position(i));
+			file.readFully(read_buffer);
+			reader.start(read_buffer);
+			if (reader.count == 0) {
+				break;
+			}
+			// Keep the block read as the last block
+			final byte[] b = block;
+			block = read_buffer;
+			read_buffer = b;
+			add_index(reader.first);
+			block_count = 0;
+			while (reader.next()) {
+				last_offset = reader.offset;
+				base_minute = (block_count == 0) ? reader.minute : last_minute;
+				base_cadence = (block_count == 0) ? 0 : last_cadence;
+				base_peak = (block_count == 0) ? 0 : last_peak;
+				last_minute = reader.minute;
+				last_steps = reader.steps;
+				last_active = reader.active;
+				last_cadence = reader.cadence;
+				last_peak = reader.peak;
+				block_count++;
+				add_tiers(last_minute, last_steps, last_active,
+						(long) last_cadence * last_steps, last_peak);
+			}
+			block_used = reader.position;
+		}
+	}
+
+	/**
+	 * Append the history of a minute, a minute equal to the last one stored
+	 * is merged with it
+	 * 
+	 * @param minute
+	 *            Minutes since the epoch (UTC)
+	 * @param steps
+	 *            Steps in the minute
+	 * @param active
+	 *            Seconds of the minute with at least one step
+	 * @param cadence
+	 *            Mean cadence in steps per minute
+	 * @param peak
+	 *            Highest step peak in the minute
+	 * @throws IOException
+	 *             If a full block could not be written
+	 */
+	public synchronized void append(long minute, int steps, int active,
+			float cadence, float peak) throws IOException {
+		if (minute < last_minute) {
+			throw new IllegalArgumentException("Minute " + minute
+					+ " is before the last minute " + last_minute);
+		}
+		if (steps < 0 || active < 0) {
+			throw new IllegalArgumentException("Steps and active seconds must not be negative");
+		}
+		int c = Math.max(0, Math.round(cadence));
+		int p = Math.max(0, Math.round(peak * 10.0f));
+		int a = Math.min(active, 60);
+		if (minute == last_minute) {
+			// Take the stored minute out and store the merged one
+			final int total = last_steps + steps;
+			if (total > 0) {
+				c = (int) (((long) last_cadence * last_steps + (long) c
+						* steps) / total);
+			}
+			add_tiers(minute, steps, Math.min(60, last_active + a) - last_active,
+					(long) c * total - (long) last_cadence * last_steps, p);
+			p = Math.max(p, last_peak);
+			a = Math.min(60, last_active + a);
+			block_used = last_offset;
+			block_count--;
+			Arrays.fill(block, block_used, BLOCK_SIZE, (byte) 0);
+			write_minute(minute, total, a, c, p, base_minute, base_cadence,
+					base_peak);
+		} else {
+			add_tiers(minute, steps, a, (long) c * steps, p);
+			write_minute(minute, steps, a, c, p, last_minute, last_cadence,
+					last_peak);
+		}
+	}
+
+	/**
+	 * Encode a minute into the last block, starting a new block if it does
+	 * not fit
+	 * 
+	 * @param minute
+	 *            Minutes since the epoch
+	 * @param steps
+	 *            Steps
+	 * @param active
+	 *            Active seconds
+	 * @param cadence
+	 *            Cadence in steps per minute
+	 * @param peak
+	 *            Peak in tenths
+	 * @param prev_minute
+	 *            Minute encoded before it
+	 * @param prev_cadence
+	 *            Cadence encoded before it
+	 * @param prev_peak
+	 *            Peak encoded before it
+	 * @throws IOException
+	 *             If a full block could not be written
+	 */
+	private void write_minute(long minute, int steps, int active, int cadence,
+			int peak, long prev_minute, int prev_cadence, int prev_peak)
+			throws IOException {
+		if (blocks == 0 || block_count == 0) {
+			prev_minute = minute;
+			prev_cadence = 0;
+			prev_peak = 0;
+		}
+		int length = encode(minute - prev_minute, steps, active, cadence
+				- prev_cadence, peak - prev_peak);
+		if (blocks == 0 || block_used + length > BLOCK_SIZE) {
+			if (blocks > 0) {
+				write_block();
+			}
+			Arrays.fill(block, (byte) 0);
+			add_index(minute);
+			block_used = BLOCK_HEADER_SIZE;
+			block_count = 0;
+			prev_minute = minute;
+			prev_cadence = 0;
+			prev_peak = 0;
+			length = encode(0L, steps, active, cadence, peak);
+		}
+		System.arraycopy(record, 0, block, block_used, length);
+		last_offset = block_used;
+		block_used += length;
+		block_count++;
+		// Keep the block header current so the block can be read in memory
+		put_block_header();
+		base_minute = prev_minute;
+		base_cadence = prev_cadence;
+		base_peak = prev_peak;
+		last_minute = minute;
+		last_steps = steps;
+		last_active = active;
+		last_cadence = cadence;
+		last_peak = peak;
+		dirty = true;
+	}
+
+	/**
+	 * Encode the fields of a minute into the record scratch buffer
+	 * 
+	 * @param minute_change
+	 *            Minutes since the minute before
+	 * @param steps
+	 *            Steps
+	 * @param active
+	 *            Active seconds
+	 * @param cadence_change
+	 *            Change of the cadence from the minute before
+	 * @param peak_change
+	 *            Change of the peak from the minute before
+	 * @return Length of the encoded minute in bytes
+	 */
+	private int encode(long minute_change, int steps, int active,
+			int cadence_change, int peak_change) {
+		int pos = put_varint(record, 0, minute_change);
+		pos = put_varint(record, pos, steps);
+		pos = put_varint(record, pos, active);
+		pos = put_varint(record, pos, zigzag(cadence_change));
+		return put_varint(record, pos, zigzag(peak_change));
+	}
+
+	/**
+	 * Write the last block to the file
+	 * 
+	 * @throws IOException
+	 *             If the block could not be written
+	 */
+	private void write_block() throws IOException {
+		put_block_header();
+		file.seek(block_position(blocks - 1));
+		file.write(block, 0, BLOCK_SIZE);
+		dirty = false;
+	}
+
+	/**
+	 * Store the first minute, minute count and bytes used in the header of
+	 * the last block
+	 */
+	private void put_block_header() {
+		put_long(block, 0, index[blocks - 1]);
+		put_short(block, 8, block_count);
+		put_short(block, 10, block_used);
+	}
+
+	/**
+	 * Write the last block should it have changed
+	 * 
+	 * @throws IOException
+	 *             If the block could not be written
+	 */
+	public synchronized void flush() throws IOException {
+		if (dirty) {
+			write_block();
+		}
+	}
+
+	/**
+	 * Flush and close the file
+	 * 
+	 * @throws IOException
+	 *             If the last block could not be written
+	 */
+	public synchronized void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Get the history of the periods which start in a range of minutes, the
+	 * minutes are decoded from the blocks covering the range and the longer
+	 * periods are read from their tier
+	 * 
+	 * @param r
+	 *            Length of the periods
+	 * @param from
+	 *            First minute of the range since the epoch (UTC)
+	 * @param to
+	 *            Minute after the end of the range
+	 * @param out
+	 *            Buckets to fill in order, a null entry is given a new bucket
+	 * @return Number of buckets filled, at most the length of out
+	 * @throws IOException
+	 *             If a block could not be read
+	 */
+	public synchronized int query(Resolution r, long from, long to,
+			HistoryBucket[] out) throws IOException {
+		switch (r) {
+		case HOUR:
+			return hours.query(from, to, out, MINUTES_PER_HOUR);
+		case DAY:
+			return days.query(from, to, out, MINUTES_PER_DAY);
+		case WEEK:
+			return weeks.query(from, to, out, MINUTES_PER_WEEK);
+		default:
+			return query_minutes(from, to, out);
+		}
+	}
+
+	/**
+	 * Decode the stored minutes in a range
+	 * 
+	 * @param from
+	 *            First minute of the range
+	 * @param to
+	 *            Minute after the end of the range
+	 * @param out
+	 *            Buckets to fill
+	 * @return Number of buckets filled
+	 * @throws IOException
+	 *             If a block could not be read
+	 */
+	private int query_minutes(long from, long to, HistoryBucket[] out)
+			throws IOException {
+		int n = 0;
+		// Last block starting at or before the range
+		int i = Arrays.binarySearch(index, 0, blocks, from);
+		i = (i < 0) ? Math.max(0, -i - 2) : i;
+		for (; i < blocks && index[i] < to; i++) {
+			if (i == blocks - 1) {
+				reader.start(block);
+			} else {
+				file.seek(block_position(i));
+				file.readFully(read_buffer);
+				reader.start(read_buffer);
+			}
+			while (reader.next()) {
+				if (reader.minute >= to || n == out.length) {
+					return n;
+				}
+				if (reader.minute >= from) {
+					if (out[n] == null) {
+						out[n] = new HistoryBucket();
+					}
+					out[n++].set(reader.minute, 1, reader.steps,
+							reader.active, reader.cadence,
+							reader.peak / 10.0f);
+				}
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Add a minute to the summary tiers
+	 * 
+	 * @param minute
+	 *            Minutes since the epoch
+	 * @param steps
+	 *            Steps to add
+	 * @param active
+	 *            Active seconds to add
+	 * @param cadence_sum
+	 *            Cadence times steps to add
+	 * @param peak
+	 *            Peak in tenths
+	 */
+	private void add_tiers(long minute, int steps, int active,
+			long cadence_sum, int peak) {
+		final long local = minute + local_offset;
+		final long hour = floor_div(local, MINUTES_PER_HOUR);
+		final long day = floor_div(local, MINUTES_PER_DAY);
+		final long week = floor_div(day + MONDAY, 7);
+		hours.add(hour * MINUTES_PER_HOUR - local_offset, steps, active,
+				cadence_sum, peak);
+		days.add(day * MINUTES_PER_DAY - local_offset, steps, active,
+				cadence_sum, peak);
+		weeks.add((week * 7 - MONDAY) * MINUTES_PER_DAY - local_offset,
+				steps, active, cadence_sum, peak);
+	}
+
+	/**
+	 * Add a block to the index
+	 * 
+	 * @param minute
+	 *            First minute of the block
+	 */
+	private void add_index(long minute) {
+		if (blocks == index.length) {
+			index = Arrays.copyOf(index, 2 * blocks);
+		}
+		index[blocks++] = minute;
+	}
+
+	/**
+	 * Get the position of a block in the file
+	 * 
+	 * @param i
+	 *            Block number
+	 * @return Byte position
+	 */
+	private static long block_position(int i) {
+		return HEADER_SIZE + (long) i * BLOCK_SIZE;
+	}
+
+	/**
+	 * Get the last minute stored
+	 * 
+	 * @return Minutes since the epoch or Long.MIN_VALUE if none
+	 */
+	public synchronized long getLastMinute() {
+		return last_minute;
+	}
+
+	/**
+	 * Get the number of blocks in the file
+	 * 
+	 * @return Number of blocks
+	 */
+	public synchronized int getBlockCount() {
+		return blocks;
+	}
+
+	/**
+	 * Get the size of the file once flushed
+	 * 
+	 * @return Size in bytes
+	 */
+	public synchronized long getFileSize() {
+		return block_position(blocks);
+	}
+
+	private static long floor_div(long a, long b) {
+		final long q = a / b;
+		return (a % b < 0) ? q - 1 : q;
+	}
+
+	private static long zigzag(int v) {
+		return ((v << 1) ^ (v >> 31)) & 0xFFFFFFFFL;
+	}
+
+	private static int unzigzag(long v) {
+		return (int) (v >>> 1) ^ -(int) (v & 1);
+	}
+
+	private static int put_varint(byte[] b, int pos, long v) {
+		while ((v & ~0x7FL) != 0L) {
+			b[pos++] = (byte) ((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		b[pos++] = (byte) v;
+		return pos;
+	}
+
+	private static void put_short(byte[] b, int pos, int v) {
+		b[pos] = (byte) v;
+		b[pos + 1] = (byte) (v >> 8);
+	}
+
+	private static void put_int(byte[] b, int pos, int v) {
+		put_short(b, pos, v);
+		put_short(b, pos + 2, v >> 16);
+	}
+
+	private static void put_long(byte[] b, int pos, long v) {
+		put_int(b, pos, (int) v);
+		put_int(b, pos + 4, (int) (v >> 32));
+	}
+
+	private static int get_short(byte[] b, int pos) {
+		return (b[pos] & 0xFF) | ((b[pos + 1] & 0xFF) << 8);
+	}
+
+	private static int get_int(byte[] b, int pos) {
+		return get_short(b, pos) | (get_short(b, pos + 2) << 16);
+	}
+
+	private static long get_long(byte[] b, int pos) {
+		return (get_int(b, pos) & 0xFFFFFFFFL) | ((long) get_int(b, pos + 4) << 32);
+	}
+
+	/**
+	 * Decodes the minutes of a block in turn
+	 */
+	private static class BlockReader {
+		private byte[] b;
+		int position; /* Position of the next minute */
+		int offset; /* Position of the current minute */
+		int count; /* Minutes in the block */
+		int remaining; /* Minutes not yet decoded */
+		long first; /* First minute of the block */
+		long minute;
+		int steps;
+		int active;
+		int cadence;
+		int peak;
+
+		/**
+		 * Start decoding a block
+		 * 
+		 * @param buffer
+		 *            Block
+		 */
+		void start(byte[] buffer) {
+			b = buffer;
+			first = get_long(b, 0);
+			count = get_short(b, 8);
+			remaining = count;
+			position = BLOCK_HEADER_SIZE;
+			minute = first;
+			cadence = 0;
+			peak = 0;
+		}
+
+		/**
+		 * Decode the next minute
+		 * 
+		 * @return true if a minute was decoded, false at the end of the block
+		 */
+		boolean next() {
+			if (remaining == 0) {
+				return false;
+			}
+			remaining--;
+			offset = position;
+			minute += varint();
+			steps = (int) varint();
+			active = (int) varint();
+			cadence += unzigzag(varint());
+			peak += unzigzag(varint());
+			return true;
+		}
+
+		private long varint() {
+			long v = 0L;
+			int shift = 0;
+			int x;
+			do {
+				x = b[position++];
+				v |= (long) (x & 0x7F) << shift;
+				shift += 7;
+			} while ((x & 0x80) != 0);
+			return v;
+		}
+	}
+
+	/**
+	 * Summary of each period of one length, in time order
+	 */
+	private static class Tier {
+		private long[] start = new long[INITIAL_BLOCKS];
+		private int[] steps = new int[INITIAL_BLOCKS];
+		private int[] active = new int[INITIAL_BLOCKS];
+		private long[] cadence_sum = new long[INITIAL_BLOCKS];
+		private int[] peak = new int[INITIAL_BLOCKS];
+		private int size = 0;
+
+		/**
+		 * Add a minute to the period starting at a minute, the periods are
+		 * added in time order
+		 */
+		void add(long s, int st, int a, long c, int p) {
+			if (size == 0 || start[size - 1] != s) {
+				if (size == start.length) {
+					final int n = 2 * size;
+					start = Arrays.copyOf(start, n);
+					steps = Arrays.copyOf(steps, n);
+					active = Arrays.copyOf(active, n);
+					cadence_sum = Arrays.copyOf(cadence_sum, n);
+					peak = Arrays.copyOf(peak, n);
+				}
+				start[size] = s;
+				steps[size] = 0;
+				active[size] = 0;
+				cadence_sum[size] = 0L;
+				peak[size] = 0;
+				size++;
+			}
+			final int i = size - 1;
+			steps[i] += st;
+			active[i] += a;
+			cadence_sum[i] += c;
+			peak[i] = Math.max(peak[i], p);
+		}
+
+		/**
+		 * Copy the periods starting in a range
+		 */
+		int query(long from, long to, HistoryBucket[] out, int length) {
+			int i = Arrays.binarySearch(start, 0, size, from);
+			i = (i < 0) ? -i - 1 : i;
+			int n = 0;
+			for (; i < size && start[i] < to && n < out.length; i++) {
+				if (out[n] == null) {
+					out[n] = new HistoryBucket();
+				}
+				out[n++].set(start[i], length, steps[i], active[i],
+						(steps[i] > 0) ? (float) cadence_sum[i] / steps[i]
+								: 0.0f, peak[i] / 10.0f);
+			}
+			return n;
+		}
+	}
+}
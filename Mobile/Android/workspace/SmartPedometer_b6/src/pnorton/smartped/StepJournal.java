@@ -0,0 +1,595 @@
+package pnorton.smartped;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Class StepJournal
+ * 
+ * Responsibilities: Append only journal of the steps so the steps counted
+ * since the last checkpoint survive the process being killed. Each record
+ * holds a number of steps and the time of the first and last of them and is
+ * protected by a CRC32. The records are collected in memory and committed as
+ * a group, one write and one fsync for the group. A group is committed once
+ * its first record has waited the commit interval or once the group holds the
+ * commit record count, but never sooner than the minimum gap after the last
+ * commit, so there is at most one fsync in each minimum gap whatever the
+ * cadence. A step arriving while the group is full is merged into the last
+ * record of the group.
+ * 
+ * The header holds the steps at the last checkpoint and a generation which is
+ * included in the CRC of every record. A checkpoint writes a new header then
+ * cuts the file back to the header, the records of an older generation no
+ * longer pass their check so a checkpoint interrupted at any point never
+ * counts a step twice. When opened the records are replayed up to the first
+ * one which is incomplete or fails its check, the file is cut back to the end
+ * of the last good record and the steps recovered are the checkpoint steps
+ * plus the steps of the good records.
+ * 
+ * File layout (little endian)
+ * 
+ * Header (HEADER_SIZE bytes): 0 int magic, 4 short version, 6 short record
+ * size, 8 int generation, 12 int steps at the checkpoint, 16 int CRC32 of the
+ * bytes before it
+ * 
+ * Record (RECORD_SIZE bytes): 0 long first step time, 8 long last step time
+ * (ms since the epoch), 16 int steps, 20 int CRC32 of the generation then the
+ * bytes before it
+ * 
+ * The journal may be used from several threads, the steps are appended
+ * without waiting for a commit in progress.
+ * 
+ * Dependencies: Depends on the java.io and java.nio API to read and write the
+ * file and java.util.zip for the CRC32
+ * 
+ * Android Dependencies: No Android Dependencies
+ * 
+ * @author Peter B Norton
+ * @version 0.50
+ * 
+ *          Revision History
+ * 
+ *          0.50 Initial version of the step journal
+ * 
+ */
+public class StepJournal {
+
+	/** Magic number at the start of a journal file ("SPDJ") */
+	public static final int MAGIC = 0x4A445053;
+	/** Version of the journal file format */
+	public static final short VERSION = 1;
+	/** Size of the file header in bytes */
+	public static final int HEADER_SIZE = 20;
+	/** Size of each record in bytes */
+	public static final int RECORD_SIZE = 24;
+	/** Default longest wait for the first record of a group in ms */
+	public static final long DEFAULT_INTERVAL = 5000L;
+	/** Default number of records which commits a group early */
+	public static final int DEFAULT_RECORDS = 16;
+	/** Default shortest time between commits in ms */
+	public static final long DEFAULT_MIN_GAP = 1000L;
+	private static final long NS_PER_MS = 1000000L;
+	private static final int READ_RECORDS = 64; /* Records read at a time */
+
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private long interval; /* Longest wait for a group in ns */
+	private int max_records; /* Records which commit a group early */
+	private long min_gap; /* Shortest time between commits in ns */
+	private Object io_lock; /* Held while the file is written */
+	private CRC32 crc;
+	private ByteBuffer header;
+	private ByteBuffer read_buffer;
+
+	/* Group being filled and group being written, swapped by a commit */
+	private ByteBuffer group;
+	private ByteBuffer writing;
+	private int waiting; /* Records in the group being filled */
+	private int pending; /* Steps in the group being filled */
+	private int writing_steps; /* Steps in the group being written */
+	private long first_waiting; /* Time the first record was added in ns */
+	private long last_commit; /* Time of the last commit in ns */
+	private boolean committed_once;
+
+	private int generation; /* Generation of the records */
+	private int base; /* Steps at the last checkpoint */
+	private int committed; /* Steps committed since the checkpoint */
+	private long end; /* End of the last good record in the file */
+	private long last_step; /* Time of the last step in ms */
+
+	/* Recovery results and counters */
+	private boolean recovered;
+	private int recovered_records;
+	private long discarded_bytes;
+	private long commits;
+	private long merged;
+
+	/**
+	 * Open a journal with the default commit settings, creating it if it does
+	 * not exist
+	 * 
+	 * @param f
+	 *            Journal file
+	 * @throws IOException
+	 *             If the file could not be opened
+	 */
+	public StepJournal(File f) throws IOException {
+		this(f, DEFAULT_INTERVAL, DEFAULT_RECORDS, DEFAULT_MIN_GAP);
+	}
+
+	/**
+	 * Open a journal and replay the records found, creating it if it does not
+	 * exist
+	 * 
+	 * @param f
+	 *            Journal file
+	 * @param interval_ms
+	 *            Longest wait for the first record of a group in ms
+	 * @param records
+	 *            Number of records which commits a group early
+	 * @param min_gap_ms
+	 *            Shortest time between commits in ms
+	 * @throws IOException
+	 *             If the file could not be opened
+	 */
+	public StepJournal(File f, long interval_ms, int records, long min_gap_ms)
+			throws IOException {
+		if (records < 1) {
+			throw new IllegalArgumentException("Group of " + records
+					+ " records");
+		}
+		interval = interval_ms * NS_PER_MS;
+		max_records = records;
+		min_gap = min_gap_ms * NS_PER_MS;
+		io_lock = new Object();
+		crc = new CRC32();
+		header = ByteBuffer.allocate(HEADER_SIZE).order(
+				ByteOrder.LITTLE_ENDIAN);
+		read_buffer = ByteBuffer.allocate(READ_RECORDS * RECORD_SIZE).order(
+				ByteOrder.LITTLE_ENDIAN);
+		group = ByteBuffer.allocate(records * RECORD_SIZE).order(
+				ByteOrder.LITTLE_ENDIAN);
+		writing = ByteBuffer.allocate(records * RECORD_SIZE).order(
+				ByteOrder.LITTLE_ENDIAN);
+		waiting = 0;
+		pending = 0;
+		writing_steps = 0;
+		committed_once = false;
+		commits = 0L;
+		merged = 0L;
+		file = new RandomAccessFile(f, "rw");
+		channel = file.getChannel();
+		try {
+			recover();
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Read the header and replay the good records, a journal without a good
+	 * header is started again with no steps
+	 * 
+	 * @throws IOException
+	 *             If the file could not be read or written
+	 */
+	private void recover() throws IOException {
+		final long length = channel.size();
+		recovered = length >= HEADER_SIZE && read_header();
+		recovered_records = 0;
+		committed = 0;
+		last_step = 0L;
+		if (!recovered) {
+			// Nothing can be trusted so start again from an empty file
+			discarded_bytes = length;
+			channel.truncate(0L);
+			generation = 1;
+			base = 0;
+			write_header();
+			end = HEADER_SIZE;
+			return;
+		}
+		end = HEADER_SIZE;
+		boolean good = true;
+		while (good && end < length) {
+			read_buffer.clear();
+			read_buffer.limit((int) Math.min(read_buffer.capacity(), length
+					- end));
+			read_fully(read_buffer, end);
+			final int n = read_buffer.limit() / RECORD_SIZE;
+			for (int i = 0; i < n; i++) {
+				final int p = i * RECORD_SIZE;
+				final int steps = read_buffer.getInt(p + 16);
+				if (steps < 0
+						|| read_buffer.getInt(p + 20) != record_crc(
+								read_buffer.array(), p)) {
+					good = false;
+					break;
+				}
+				committed += steps;
+				last_step = read_buffer.getLong(p + 8);
+				recovered_records++;
+				end += RECORD_SIZE;
+			}
+			if (n * RECORD_SIZE < read_buffer.limit()) {
+				// Part of a record at the end of the file
+				good = false;
+			}
+		}
+		discarded_bytes = length - end;
+		if (discarded_bytes > 0) {
+			channel.truncate(end);
+			channel.force(false);
+		}
+	}
+
+	/**
+	 * Read and check the header
+	 * 
+	 * @return true if the header is good
+	 * @throws IOException
+	 *             If the file could not be read
+	 */
+	private boolean read_header() throws IOException {
+		header.clear();
+		read_fully(header, 0L);
+		crc.reset();
+		crc.update(header.array(), 0, HEADER_SIZE - 4);
+		if (header.getInt(0) != MAGIC || header.getShort(4) != VERSION
+				|| header.getShort(6) != RECORD_SIZE
+				|| header.getInt(HEADER_SIZE - 4) != (int) crc.getValue()) {
+			return false;
+		}
+		generation = header.getInt(8);
+		base = header.getInt(12);
+		return true;
+	}
+
+	/**
+	 * Write the header with the current generation and checkpoint steps and
+	 * force it to the device
+	 * 
+	 * @throws IOException
+	 *             If the file could not be written
+	 */
+	private void write_header() throws IOException {
+		header.clear();
+		header.putInt(0, MAGIC);
+		header.putShort(4, VERSION);
+		header.putShort(6, (short) RECORD_SIZE);
+		header.putInt(8, generation);
+		header.putInt(12, base);
+		crc.reset();
+		crc.update(header.array(), 0, HEADER_SIZE - 4);
+		header.putInt(HEADER_SIZE - 4, (int) crc.getValue());
+		write_fully(header, 0L);
+		channel.force(false);
+	}
+
+	/**
+	 * Fill a buffer from the file
+	 * 
+	 * @param b
+	 *            Buffer to fill up to its limit
+	 * @param position
+	 *            Position in the file
+	 * @throws IOException
+	 *             If the file ends first or could not be read
+	 */
+	private void read_fully(ByteBuffer b, long position) throws IOException {
+		while (b.hasRemaining()) {
+			if (channel.read(b, position + b.position()) < 0) {
+				throw new IOException("Journal ended early");
+			}
+		}
+	}
+
+	/**
+	 * Write a buffer to the file
+	 * 
+	 * @param b
+	 *            Buffer to write up to its limit
+	 * @param position
+	 *            Position in the file
+	 * @throws IOException
+	 *             If the file could not be written
+	 */
+	private void write_fully(ByteBuffer b, long position) throws IOException {
+		while (b.hasRemaining()) {
+			channel.write(b, position + b.position());
+		}
+	}
+
+	/**
+	 * Work out the CRC32 of a record, only called by one thread at a time
+	 * 
+	 * @param b
+	 *            Bytes holding the record
+	 * @param p
+	 *            Position of the record
+	 * @return CRC32 of the generation and the record before its CRC
+	 */
+	private int record_crc(byte[] b, int p) {
+		crc.reset();
+		crc.update(generation);
+		crc.update(generation >>> 8);
+		crc.update(generation >>> 16);
+		crc.update(generation >>> 24);
+		crc.update(b, p, RECORD_SIZE - 4);
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Add steps to the group waiting to be committed
+	 * 
+	 * @param first
+	 *            Time of the first step in ms since the epoch
+	 * @param last
+	 *            Time of the last step in ms since the epoch
+	 * @param steps
+	 *            Number of steps
+	 * @param now
+	 *            Current time in ns, from System.nanoTime or another clock
+	 *            used for every call
+	 */
+	public synchronized void append(long first, long last, int steps, long now) {
+		if (waiting == max_records) {
+			// Merge into the last record rather than commit again
+			final int p = (waiting - 1) * RECORD_SIZE;
+			group.putLong(p + 8, last);
+			group.putInt(p + 16, group.getInt(p + 16) + steps);
+			merged++;
+		} else {
+			if (waiting == 0) {
+				first_waiting = now;
+			}
+			final int p = waiting * RECORD_SIZE;
+			group.putLong(p, first);
+			group.putLong(p + 8, last);
+			group.putInt(p + 16, steps);
+			waiting++;
+		}
+		pending += steps;
+		last_step = last;
+	}
+
+	/**
+	 * Get the time until the waiting group is due to be committed
+	 * 
+	 * @param now
+	 *            Current time in ns
+	 * @return Time in ns, 0 if due now or Long.MAX_VALUE if nothing is
+	 *         waiting
+	 */
+	public synchronized long getCommitDelay(long now) {
+		if (waiting == 0) {
+			return Long.MAX_VALUE;
+		}
+		long due = waiting >= max_records ? first_waiting : first_waiting
+				+ interval;
+		if (committed_once) {
+			due = Math.max(due, last_commit + min_gap);
+		}
+		return Math.max(0L, due - now);
+	}
+
+	/**
+	 * Commit the waiting group should it be due
+	 * 
+	 * @param now
+	 *            Current time in ns
+	 * @return true if a group was committed
+	 * @throws IOException
+	 *             If the group could not be written, its steps are kept for
+	 *             the next commit
+	 */
+	public boolean commitIfDue(long now) throws IOException {
+		if (getCommitDelay(now) != 0L) {
+			return false;
+		}
+		return commit(now);
+	}
+
+	/**
+	 * Write the waiting group to the journal and force it to the device now,
+	 * steps appended while it is written go into the next group
+	 * 
+	 * @param now
+	 *            Current time in ns
+	 * @return true if a group was committed, false if nothing was waiting
+	 * @throws IOException
+	 *             If the group could not be written, its steps are kept for
+	 *             the next commit
+	 */
+	public boolean commit(long now) throws IOException {
+		synchronized (io_lock) {
+			final int n;
+			final int steps;
+			synchronized (this) {
+				if (waiting == 0) {
+					return false;
+				}
+				final ByteBuffer b = group;
+				group = writing;
+				writing = b;
+				n = waiting;
+				steps = pending;
+				writing_steps = steps;
+				waiting = 0;
+				pending = 0;
+				last_commit = now;
+				committed_once = true;
+			}
+			final byte[] bytes = writing.array();
+			for (int i = 0; i < n; i++) {
+				final int p = i * RECORD_SIZE;
+				writing.putInt(p + 20, record_crc(bytes, p));
+			}
+			writing.clear();
+			writing.limit(n * RECORD_SIZE);
+			try {
+				write_fully(writing, end);
+				channel.force(false);
+			} catch (IOException e) {
+				synchronized (this) {
+					writing_steps = 0;
+					requeue(writing.getLong(0), writing.getLong((n - 1)
+							* RECORD_SIZE + 8), steps, now);
+				}
+				throw e;
+			}
+			synchronized (this) {
+				end += n * RECORD_SIZE;
+				committed += steps;
+				writing_steps = 0;
+				commits++;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Put the steps of a group which failed to be written back into the
+	 * waiting group as one record
+	 * 
+	 * @param first
+	 *            Time of the first step in ms
+	 * @param last
+	 *            Time of the last step in ms
+	 * @param steps
+	 *            Number of steps
+	 * @param now
+	 *            Current time in ns
+	 */
+	private void requeue(long first, long last, int steps, long now) {
+		final long latest = last_step;
+		append(first, last, steps, now);
+		last_step = latest;
+	}
+
+	/**
+	 * Start a new generation with the given steps and drop all the records,
+	 * the steps waiting are taken as counted in the given steps
+	 * 
+	 * @param steps
+	 *            Steps counted at the checkpoint
+	 * @throws IOException
+	 *             If the header could not be written
+	 */
+	public void checkpoint(int steps) throws IOException {
+		synchronized (io_lock) {
+			synchronized (this) {
+				generation++;
+				base = steps;
+				committed = 0;
+				waiting = 0;
+				pending = 0;
+				end = HEADER_SIZE;
+			}
+			write_header();
+			channel.truncate(HEADER_SIZE);
+		}
+	}
+
+	/**
+	 * Commit the waiting steps and close the file
+	 * 
+	 * @throws IOException
+	 *             If the steps could not be written or the file closed
+	 */
+	public void close() throws IOException {
+		try {
+			commit(System.nanoTime());
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Get the steps counted by the journal including those not yet committed
+	 * 
+	 * @return Steps at the checkpoint plus all the steps appended since
+	 */
+	public synchronized int getSteps() {
+		return base + committed + writing_steps + pending;
+	}
+
+	/**
+	 * Get the steps which would be recovered should the process end now
+	 * 
+	 * @return Steps at the checkpoint plus the steps committed since
+	 */
+	public synchronized int getCommittedSteps() {
+		return base + committed;
+	}
+
+	/**
+	 * Check if a good journal was found when opened
+	 * 
+	 * @return true if the steps were recovered from the file, false if the
+	 *         journal is new or its header was damaged
+	 */
+	public boolean isRecovered() {
+		return recovered;
+	}
+
+	/**
+	 * Get the number of good records replayed when opened
+	 * 
+	 * @return Records replayed
+	 */
+	public int getRecoveredRecords() {
+		return recovered_records;
+	}
+
+	/**
+	 * Get the number of bytes cut from the end of the file when opened
+	 * 
+	 * @return Bytes after the last good record
+	 */
+	public long getDiscardedBytes() {
+		return discarded_bytes;
+	}
+
+	/**
+	 * Get the time of the last step in the journal
+	 * 
+	 * @return Time in ms since the epoch, 0 if there are no steps
+	 */
+	public synchronized long getLastStepTime() {
+		return last_step;
+	}
+
+	/**
+	 * Get the number of groups committed, each taking one fsync
+	 * 
+	 * @return Commits
+	 */
+	public synchronized long getCommitCount() {
+		return commits;
+	}
+
+	/**
+	 * Get the number of appends merged into the last record of a full group
+	 * 
+	 * @return Merged appends
+	 */
+	public synchronized long getMergedCount() {
+		return merged;
+	}
+
+	/**
+	 * Get the length of the good part of the journal
+	 * 
+	 * @return Bytes including the header
+	 */
+	public synchronized long getFileSize() {
+		return end;
+	}
+}
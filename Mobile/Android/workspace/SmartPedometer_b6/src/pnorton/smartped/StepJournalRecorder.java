@@ -0,0 +1,132 @@
+package pnorton.smartped;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Class StepJournalRecorder
+ * 
+ * Responsibilities: Step listener which appends each step event to a
+ * StepJournal and commits the journal on its own thread, so the fsync of a
+ * commit never holds up the step dispatch. The commit thread sleeps until the
+ * waiting group is due as decided by the StepJournal and is woken by each
+ * step so a group filled early is committed without waiting. The step time
+ * stamps come from the sensor clock, so the wall clock time is taken when the
+ * first step arrives and the same offset is used for the later steps. A reset
+ * of the step count starts the journal again from 0 on the thread delivering
+ * the steps, so the steps before the reset are never counted after it.
+ * 
+ * Dependencies: Depends on the StepJournal class and the java.util.concurrent
+ * API, this also implements the IStepListener interface.
+ * 
+ * Android Dependencies: No Android Dependencies
+ * 
+ * @author Peter B Norton
+ * @version 0.62
+ * 
+ *          Revision History
+ * 
+ *          0.50 Initial version of the step journal
+ * 
+ *          0.62 A reset of the step count is journalled as a checkpoint of 0
+ *          steps in order with the steps
+ * 
+ */
+public class StepJournalRecorder implements IStepListener, Runnable {
+
+	private static final long NS_PER_MS = 1000000L;
+	private static final long IDLE_WAIT = 1000000000L; /* Idle poll in ns */
+
+	private StepJournal journal;
+	private boolean clock_set; /* Clock offset taken */
+	private long clock_offset; /* Wall clock less sensor time in ns */
+	private AtomicInteger errors; /* Failed commits and checkpoints */
+	private volatile boolean running;
+	private Thread committer;
+
+	/**
+	 * Constructor which starts the commit thread
+	 * 
+	 * @param j
+	 *            Journal to append the steps to
+	 */
+	public StepJournalRecorder(StepJournal j) {
+		journal = j;
+		clock_set = false;
+		errors = new AtomicInteger(0);
+		running = true;
+		committer = new Thread(this, "StepJournal");
+		committer.setDaemon(true);
+		committer.start();
+	}
+
+	@Override
+	public void onStep(long timestamp, float peak, int count) {
+		if (!clock_set) {
+			clock_offset = System.currentTimeMillis() * NS_PER_MS - timestamp;
+			clock_set = true;
+		}
+		final long ms = (timestamp + clock_offset) / NS_PER_MS;
+		journal.append(ms, ms, count, System.nanoTime());
+		LockSupport.unpark(committer);
+	}
+
+	@Override
+	public void onReset() {
+		try {
+			journal.checkpoint(0);
+		} catch (IOException e) {
+			errors.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Commit thread loop, commits each group when due until closed
+	 */
+	@Override
+	public void run() {
+		while (running) {
+			final long delay = journal.getCommitDelay(System.nanoTime());
+			if (delay == 0L) {
+				try {
+					journal.commitIfDue(System.nanoTime());
+				} catch (IOException e) {
+					errors.incrementAndGet();
+					// Wait before trying the steps again
+					LockSupport.parkNanos(this, IDLE_WAIT);
+				}
+			} else {
+				LockSupport.parkNanos(this, Math.min(delay, IDLE_WAIT));
+			}
+		}
+	}
+
+	/**
+	 * Stop the commit thread then commit the waiting steps now, only called
+	 * once the steps have stopped arriving
+	 */
+	public void close() {
+		running = false;
+		LockSupport.unpark(committer);
+		try {
+			committer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			journal.commit(System.nanoTime());
+		} catch (IOException e) {
+			errors.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Get the number of commits and checkpoints which failed
+	 * 
+	 * @return Failed commits and checkpoints
+	 */
+	public int getErrorCount() {
+		return errors.get();
+	}
+}
@@ -0,0 +1,202 @@
+package pnorton.smartped;
+
+/**
+ * Class StepRateTracker
+ * 
+ * Responsibilities: Keeps the time stamps of the steps in a sliding window in
+ * a ring buffer and gives the step rate over that window in steps per minute.
+ * Each step is one write to the ring and steps older than the window are
+ * dropped from the oldest end as time moves on, so each step is added and
+ * removed once and an update is O(1) amortised. The rate is the number of
+ * step intervals in the window over the time they cover. Once the walk stops
+ * the time since the oldest step less one average interval is used instead,
+ * so the rate falls away smoothly until the steps leave the window. The
+ * cadence of each step, from the interval to the step before it, is also
+ * counted in a CadenceHistogram for the same window so the median and 90th
+ * percentile cadence can be read at any time. Intervals longer than the
+ * slowest cadence of the histogram start a new walk and are not counted.
+ * 
+ * Dependencies: Depends on the CadenceHistogram class
+ * 
+ * Android Dependencies: No Android Dependencies
+ * 
+ * @author Peter B Norton
+ * @version 0.47
+ * 
+ *          Revision History
+ * 
+ *          0.47 Initial version of the sliding window step rate
+ * 
+ */
+public class StepRateTracker {
+
+	/** Longest interval between two steps of the same walk in ns */
+	public static final long MAX_INTERVAL = (long) (60e9 / CadenceHistogram.MIN_CADENCE);
+	private static final int NO_BIN = -1; /* Step with no cadence */
+
+	private long window; /* Length of the window in ns */
+	private long[] times; /* Time stamps of the steps in the window */
+	private int[] bins; /* Cadence bin of each step or NO_BIN */
+	private int head; /* Slot for the next step */
+	private int count; /* Steps in the window */
+	private CadenceHistogram histogram;
+
+	/**
+	 * Default Constructor
+	 * 
+	 * @param seconds
+	 *            Length of the window in seconds
+	 */
+	public StepRateTracker(float seconds) {
+		if (seconds <= 0.0f) {
+			throw new IllegalArgumentException("The window must be longer than 0 s");
+		}
+		window = (long) (seconds * 1e9);
+		// Enough slots for the fastest cadence over the whole window
+		int capacity = (int) Math.ceil(seconds
+				* CadenceHistogram.MAX_CADENCE / 60.0f) + 2;
+		times = new long[capacity];
+		bins = new int[capacity];
+		histogram = new CadenceHistogram();
+		reset();
+	}
+
+	/**
+	 * Remove all the steps
+	 */
+	public void reset() {
+		head = 0;
+		count = 0;
+		histogram.clear();
+	}
+
+	/**
+	 * Add a step
+	 * 
+	 * @param t
+	 *            Time stamp of the step in ns
+	 */
+	public void onStep(long t) {
+		expire(t);
+		if (count == times.length) {
+			// Faster than the histogram allows so drop the oldest step
+			drop_oldest();
+		}
+		int bin = NO_BIN;
+		if (count > 0) {
+			final long interval = t - times[newest()];
+			if (interval > 0 && interval <= MAX_INTERVAL) {
+				bin = CadenceHistogram.bin((float) (60e9 / interval));
+				histogram.add(bin);
+			}
+		}
+		times[head] = t;
+		bins[head] = bin;
+		head = (head + 1 == times.length) ? 0 : head + 1;
+		count++;
+	}
+
+	/**
+	 * Drop the steps which have left the window
+	 * 
+	 * @param now
+	 *            Current time stamp in ns
+	 */
+	public void expire(long now) {
+		while (count > 0 && now - times[oldest()] > window) {
+			drop_oldest();
+		}
+	}
+
+	/**
+	 * Remove the oldest step and its cadence
+	 */
+	private void drop_oldest() {
+		final int i = oldest();
+		count--;
+		// The next step no longer has the step before it in the window
+		if (count > 0) {
+			final int next = (i + 1 == times.length) ? 0 : i + 1;
+			if (bins[next] != NO_BIN) {
+				histogram.remove(bins[next]);
+				bins[next] = NO_BIN;
+			}
+		}
+	}
+
+	/**
+	 * Get the slot of the oldest step
+	 * 
+	 * @return Slot index
+	 */
+	private int oldest() {
+		final int i = head - count;
+		return (i < 0) ? i + times.length : i;
+	}
+
+	/**
+	 * Get the slot of the newest step
+	 * 
+	 * @return Slot index
+	 */
+	private int newest() {
+		return (head == 0) ? times.length - 1 : head - 1;
+	}
+
+	/**
+	 * Get the step rate over the window, the steps which have left the window
+	 * are dropped first
+	 * 
+	 * @param now
+	 *            Current time stamp in ns
+	 * @return Steps per minute or 0 if fewer than two steps are in the window
+	 */
+	public float getStepsPerMinute(long now) {
+		expire(now);
+		if (count < 2) {
+			return 0.0f;
+		}
+		final long first = times[oldest()];
+		final long span = times[newest()] - first;
+		final int intervals = count - 1;
+		// Once overdue for a step the time to now is used so the rate falls
+		final long time = Math.max(span, now - first - span / intervals);
+		return (time > 0L) ? (float) (intervals * 60e9 / time) : 0.0f;
+	}
+
+	/**
+	 * Get the number of steps in the window
+	 * 
+	 * @return Number of steps
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Get the median cadence of the steps in the window
+	 * 
+	 * @return Steps per minute or 0 if none
+	 */
+	public float getMedianCadence() {
+		return histogram.getMedian();
+	}
+
+	/**
+	 * Get the 90th percentile cadence of the steps in the window
+	 * 
+	 * @return Steps per minute or 0 if none
+	 */
+	public float getPercentile90Cadence() {
+		return histogram.getPercentile90();
+	}
+
+	/**
+	 * Get the length of the window
+	 * 
+	 * @return Window length in ns
+	 */
+	public long getWindow() {
+		return window;
+	}
+}
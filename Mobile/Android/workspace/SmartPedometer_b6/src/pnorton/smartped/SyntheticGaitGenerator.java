@@ -0,0 +1,201 @@
+package pnorton.smartped;
+
+import java.util.Random;
+
+/**
+ * Class SyntheticGaitGenerator
+ * 
+ * Responsibilities: Generates a repeatable linear acceleration signal which
+ * resembles walking or running, for use in benchmarks and checks of the step
+ * detection without a device. The vertical (Z) axis carries the step impact at
+ * the cadence with a second harmonic for the heel strike, the X and Y axes
+ * carry the sideways sway at half the cadence. Gaussian noise is added to all
+ * axes and the time between samples can be given a random jitter to mimic the
+ * irregular delivery of Android sensor events. The same seed always produces
+ * the same signal and generating samples does not allocate.
+ * 
+ * Dependencies: Depends on java.util.Random for the noise
+ * 
+ * Android Dependencies: No Android Dependencies
+ * 
+ * @author Peter B Norton
+ * @version 0.36
+ * 
+ *          Revision History
+ * 
+ *          0.36 Initial version for the benchmark suite
+ * 
+ */
+public class SyntheticGaitGenerator {
+
+	private static final double TWO_PI = 2.0 * Math.PI;
+	private float sample_rate; /* Nominal sample rate in Hz */
+	private float cadence; /* Steps per second */
+	private float amplitude; /* Peak vertical acceleration in m/s^2 */
+	private float noise; /* Standard deviation of the noise in m/s^2 */
+	private float jitter; /* Fraction of the sample period to jitter by */
+	private Random random;
+	private long timestamp; /* Time stamp of the current sample in ns */
+	private double phase; /* Step phase in cycles */
+	private float x;
+	private float y;
+	private float z;
+
+	/**
+	 * Default Constructor
+	 * 
+	 * @param sr
+	 *            Nominal sample rate in Hz
+	 * @param steps_per_second
+	 *            Cadence of the steps
+	 * @param peak
+	 *            Peak vertical acceleration in m/s^2
+	 * @param noise_level
+	 *            Standard deviation of the noise in m/s^2
+	 * @param jitter_fraction
+	 *            Fraction of the sample period the time between samples may
+	 *            vary by (0 for a fixed rate)
+	 * @param seed
+	 *            Seed for the random noise
+	 */
+	public SyntheticGaitGenerator(float sr, float steps_per_second,
+			float peak, float noise_level, float jitter_fraction, long seed) {
+		sample_rate = sr;
+		cadence = steps_per_second;
+		amplitude = peak;
+		noise = noise_level;
+		jitter = jitter_fraction;
+		random = new Random(seed);
+		timestamp = 0L;
+		phase = 0.0;
+	}
+
+	/**
+	 * Create a generator for a walking signal (1.8 steps per second)
+	 * 
+	 * @param sr
+	 *            Nominal sample rate in Hz
+	 * @param seed
+	 *            Seed for the random noise
+	 * @return Walking generator
+	 */
+	public static SyntheticGaitGenerator walking(float sr, long seed) {
+		return new SyntheticGaitGenerator(sr, 1.8f, 2.5f, 0.4f, 0.2f, seed);
+	}
+
+	/**
+	 * Create a generator for a running signal (2.8 steps per second)
+	 * 
+	 * @param sr
+	 *            Nominal sample rate in Hz
+	 * @param seed
+	 *            Seed for the random noise
+	 * @return Running generator
+	 */
+	public static SyntheticGaitGenerator running(float sr, long seed) {
+		return new SyntheticGaitGenerator(sr, 2.8f, 8.0f, 1.0f, 0.2f, seed);
+	}
+
+	/**
+	 * Advance the generator to the next sample
+	 */
+	public void next() {
+		double period = 1e9 / sample_rate;
+		long dt = (long) (period * (1.0 + jitter
+				* (2.0 * random.nextDouble() - 1.0)));
+		timestamp += dt;
+		phase += cadence * (dt / 1e9);
+		if (phase >= 1.0) {
+			phase -= 1.0;
+		}
+		double angle = TWO_PI * phase;
+		z = (float) (amplitude
+				* (Math.sin(angle) + 0.3 * Math.sin(2.0 * angle + 0.5)) + noise
+				* random.nextGaussian());
+		x = (float) (0.2 * amplitude * Math.sin(0.5 * angle) + noise
+				* random.nextGaussian());
+		y = (float) (0.1 * amplitude * Math.cos(0.5 * angle) + noise
+				* random.nextGaussian());
+	}
+
+	/**
+	 * Fill arrays with the next block of samples
+	 * 
+	 * @param xs
+	 *            X axis values
+	 * @param ys
+	 *            Y axis values
+	 * @param zs
+	 *            Z axis values
+	 * @param ts
+	 *            Time stamp values
+	 * @param offset
+	 *            Index of the first sample in all four arrays
+	 * @param length
+	 *            Number of samples to generate
+	 */
+	public void fill(float[] xs, float[] ys, float[] zs, long[] ts,
+			int offset, int length) {
+		for (int i = offset; i < offset + length; i++) {
+			next();
+			xs[i] = x;
+			ys[i] = y;
+			zs[i] = z;
+			ts[i] = timestamp;
+		}
+	}
+
+	/**
+	 * Get the X axis value of the current sample
+	 * 
+	 * @return X axis acceleration
+	 */
+	public float getX() {
+		return x;
+	}
+
+	/**
+	 * Get the Y axis value of the current sample
+	 * 
+	 * @return Y axis acceleration
+	 */
+	public float getY() {
+		return y;
+	}
+
+	/**
+	 * Get the Z axis value of the current sample
+	 * 
+	 * @return Z axis acceleration
+	 */
+	public float getZ() {
+		return z;
+	}
+
+	/**
+	 * Get the time stamp of the current sample
+	 * 
+	 * @return Time stamp in ns
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * Get the cadence of the signal
+	 * 
+	 * @return Steps per second
+	 */
+	public float getCadence() {
+		return cadence;
+	}
+
+	/**
+	 * Get the nominal sample rate of the signal
+	 * 
+	 * @return Sample rate in Hz
+	 */
+	public float getSampleRate() {
+		return sample_rate;
+	}
+}
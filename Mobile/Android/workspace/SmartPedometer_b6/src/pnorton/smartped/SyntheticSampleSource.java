@@ -0,0 +1,133 @@
+package pnorton.smartped;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Class SyntheticSampleSource
+ * 
+ * Responsibilities: An ISampleSource which delivers the samples of a
+ * SyntheticGaitGenerator on its own thread, either paced to the time stamps
+ * of the samples as the hardware would deliver them or as fast as they can be
+ * processed. This allows the processing thread arrangement of the application
+ * to be run and checked on a Java VM without an accelerometer.
+ * 
+ * Dependencies: Depends on the SyntheticGaitGenerator class and the
+ * ISampleSource interface which it implements
+ * 
+ * Android Dependencies: No Android Dependencies
+ * 
+ * @author Peter B Norton
+ * @version 0.40
+ * 
+ *          Revision History
+ * 
+ *          0.40 Initial version of the sample source system
+ * 
+ */
+public class SyntheticSampleSource implements ISampleSource, Runnable {
+
+	private SyntheticGaitGenerator generator;
+	private long sample_limit; /* Samples to deliver */
+	private boolean real_time; /* Pace the samples to their time stamps */
+	private volatile IAccelerometerListener listener;
+	private volatile boolean running;
+	private volatile long delivered; /* Samples delivered */
+	private Thread source;
+
+	/**
+	 * Default Constructor
+	 * 
+	 * @param gait
+	 *            Generator of the samples
+	 * @param samples
+	 *            Number of samples to deliver before the source ends
+	 * @param paced
+	 *            true to deliver the samples at their time stamps, false to
+	 *            deliver them as fast as possible
+	 */
+	public SyntheticSampleSource(SyntheticGaitGenerator gait, long samples,
+			boolean paced) {
+		generator = gait;
+		sample_limit = samples;
+		real_time = paced;
+		listener = null;
+		running = false;
+		delivered = 0L;
+		source = null;
+	}
+
+	@Override
+	public void start(IAccelerometerListener acc_listener) {
+		if (running) {
+			return;
+		}
+		listener = acc_listener;
+		running = true;
+		source = new Thread(this, "SyntheticSource");
+		source.start();
+	}
+
+	/**
+	 * Source thread loop, delivers the samples until stopped or the limit is
+	 * reached, the source is no longer active once the loop ends
+	 */
+	@Override
+	public void run() {
+		final long start = System.nanoTime() - generator.getTimestamp();
+		long count = delivered;
+		try {
+			while (running && count < sample_limit) {
+				generator.next();
+				if (real_time) {
+					long wait;
+					while (running
+							&& (wait = start + generator.getTimestamp()
+									- System.nanoTime()) > 0) {
+						LockSupport.parkNanos(wait);
+					}
+				}
+				listener.updateAcceleration(generator.getX(),
+						generator.getY(), generator.getZ(),
+						generator.getTimestamp());
+				delivered = ++count;
+			}
+		} finally {
+			running = false;
+		}
+	}
+
+	@Override
+	public void stop() {
+		running = false;
+		waitForEnd();
+		listener = null;
+	}
+
+	/**
+	 * Wait until the source thread has ended, either as the sample limit has
+	 * been reached or the source has been stopped
+	 */
+	public void waitForEnd() {
+		if (source != null) {
+			try {
+				source.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	@Override
+	public boolean getActive() {
+		return running;
+	}
+
+	/**
+	 * Get the number of samples delivered
+	 * 
+	 * @return Samples delivered
+	 */
+	public long getDeliveredCount() {
+		return delivered;
+	}
+}
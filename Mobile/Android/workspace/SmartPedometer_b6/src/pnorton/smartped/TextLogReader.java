@@ -0,0 +1,225 @@
+package pnorton.smartped;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * Class TextLogReader
+ * 
+ * Responsibilities: Reads back the tab separated data logs written by the
+ * DataLogger class, each row holds the scalar, filtered, peak and threshold
+ * values followed by the timestamp. Older logs wrote the timestamp as a 32 bit
+ * float so consecutive rows can share the same timestamp, when timestamp repair
+ * is enabled (the default) a run of equal timestamps is spread evenly up to the
+ * next different timestamp so the filters never see a zero time step.
+ * 
+ * Dependencies: Depends on the Java API to read the log file and the LogRecord
+ * class to return the values of each row. This also implements the ILogReader
+ * interface.
+ * 
+ * Android Dependencies: No Android Dependencies
+ * 
+ * @author Peter B Norton
+ * @version 0.32
+ * 
+ *          Revision History
+ * 
+ *          0.32 Initial version for the log replay system
+ * 
+ */
+public class TextLogReader implements ILogReader {
+
+	private static final int BUFFER_SIZE = 65536; /* Read buffer size */
+	private static final int FIELD_COUNT = 5; /* Values on each row */
+	private static final int MAX_RUN = 64; /*
+											 * Longest run of equal timestamps
+											 * that will be repaired
+											 */
+	private BufferedReader reader;
+	private boolean repair; /* Timestamp repair enable flag */
+	private long skipped_lines; /* Rows that could not be read */
+	private float[] fields; /* Values of the row being parsed */
+
+	/* Rows held back while a run of equal timestamps is repaired */
+	private float[][] pending;
+	private long[] pending_time;
+	private int pending_count; /* Rows ready to be returned */
+	private int pending_index; /* Next row to be returned */
+	private boolean carry; /* Row after the run is held in slot pending_count */
+	private long last_delta; /* Last time step seen */
+
+	/**
+	 * Default Constructor opens the log file with timestamp repair enabled
+	 * 
+	 * @param file
+	 *            Log file to read
+	 * @throws IOException
+	 *             If the file cannot be opened
+	 */
+	public TextLogReader(File file) throws IOException {
+		this(file, true);
+	}
+
+	/**
+	 * Constructor to open the log file
+	 * 
+	 * @param file
+	 *            Log file to read
+	 * @param repair_timestamps
+	 *            Spread runs of equal timestamps
+	 * @throws IOException
+	 *             If the file cannot be opened
+	 */
+	public TextLogReader(File file, boolean repair_timestamps)
+			throws IOException {
+		reader = new BufferedReader(new FileReader(file), BUFFER_SIZE);
+		repair = repair_timestamps;
+		skipped_lines = 0;
+		fields = new float[FIELD_COUNT - 1];
+		pending = new float[MAX_RUN + 1][FIELD_COUNT - 1];
+		pending_time = new long[MAX_RUN + 1];
+		pending_count = 0;
+		pending_index = 0;
+		carry = false;
+		last_delta = 0L;
+	}
+
+	@Override
+	public boolean readRecord(LogRecord record) throws IOException {
+		if (!repair) {
+			if (!read_row(0)) {
+				return false;
+			}
+		} else if (pending_index == pending_count && !fill_run()) {
+			return false;
+		}
+		int i = repair ? pending_index++ : 0;
+		float[] row = pending[i];
+		record.set(row[0], row[1], row[2], row[3], pending_time[i]);
+		return true;
+	}
+
+	/**
+	 * Read the next run of rows with an equal timestamp into the pending
+	 * buffer and spread the timestamps across the run
+	 * 
+	 * @return false - no more rows in the log
+	 * @throws IOException
+	 *             If the log could not be read
+	 */
+	private boolean fill_run() throws IOException {
+		if (carry) {
+			// Move the row after the last run to the start
+			float[] row = pending[0];
+			pending[0] = pending[pending_count];
+			pending[pending_count] = row;
+			pending_time[0] = pending_time[pending_count];
+			carry = false;
+		} else if (!read_row(0)) {
+			return false;
+		}
+		int count = 1;
+		while (true) {
+			if (!read_row(count)) {
+				// End of the log so use the last time step seen
+				for (int i = 1; i < count; i++) {
+					pending_time[i] = pending_time[0] + (last_delta * i);
+				}
+				break;
+			}
+			if (pending_time[count] == pending_time[0] && count < MAX_RUN) {
+				count++;
+				continue;
+			}
+			long delta = pending_time[count] - pending_time[0];
+			if (delta > 0) {
+				for (int i = 1; i < count; i++) {
+					pending_time[i] = pending_time[0] + ((delta * i) / count);
+				}
+				last_delta = delta / count;
+			}
+			carry = true;
+			break;
+		}
+		pending_count = count;
+		pending_index = 0;
+		return true;
+	}
+
+	/**
+	 * Read and parse the next valid row of the log
+	 * 
+	 * @param slot
+	 *            Pending slot to store the row in
+	 * @return false - no more rows in the log
+	 * @throws IOException
+	 *             If the log could not be read
+	 */
+	private boolean read_row(int slot) throws IOException {
+		String line;
+		while ((line = reader.readLine()) != null) {
+			if (parse_line(line, pending[slot], slot)) {
+				return true;
+			}
+			skipped_lines++;
+		}
+		return false;
+	}
+
+	/**
+	 * Parse a single tab separated row
+	 * 
+	 * @param line
+	 *            Row to parse
+	 * @param row
+	 *            Array to store the float values
+	 * @param slot
+	 *            Pending slot for the timestamp
+	 * @return false - the row is not a valid data row
+	 */
+	private boolean parse_line(String line, float[] row, int slot) {
+		int start = 0;
+		try {
+			for (int field = 0; field < FIELD_COUNT; field++) {
+				int end = line.indexOf('\t', start);
+				if (end < 0) {
+					end = line.length();
+				}
+				if (end <= start) {
+					return false;
+				}
+				String token = line.substring(start, end).trim();
+				if (field < FIELD_COUNT - 1) {
+					fields[field] = Float.parseFloat(token);
+				} else if (token.indexOf('.') >= 0 || token.indexOf('E') >= 0
+						|| token.indexOf('e') >= 0) {
+					// Timestamp written as a float
+					pending_time[slot] = (long) Double.parseDouble(token);
+				} else {
+					pending_time[slot] = Long.parseLong(token);
+				}
+				start = end + 1;
+			}
+		} catch (NumberFormatException e) {
+			return false;
+		}
+		System.arraycopy(fields, 0, row, 0, FIELD_COUNT - 1);
+		return true;
+	}
+
+	/**
+	 * Get the number of rows that could not be read
+	 * 
+	 * @return Number of skipped rows
+	 */
+	public long getSkippedLines() {
+		return skipped_lines;
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+}
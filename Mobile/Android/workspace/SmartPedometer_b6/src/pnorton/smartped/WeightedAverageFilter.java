@@ -9,54 +9,34 @@ package pnorton.smartped;
  * reasonable response to changes in step intensity.
  * 
  * Dependencies: Not dependent on any specific Java or Android features however
- * does depend upon the ISignalFilter implementation so must provide the methods
- * specified in that interface.
+ * is a FirFilter with fixed weights so provides the methods specified in the
+ * ISignalFilter interface.
  * 
  * Android Dependencies: No Android Dependencies
  * 
  * @author Peter B Norton
- * @version 0.30
+ * @version 0.46
  * 
  *          Revision History
  * 
  *          0.28 Initial version for dynamic threshold system
  * 
+ *          0.31 Addition of processBlock method
+ * 
+ *          0.46 Now a FirFilter with the same weights, the old shunt of the
+ *          values ran upwards and so copied the previous value into every older
+ *          slot, which made the average use only the last two values
+ * 
  */
-public class WeightedAverageFilter implements ISignalFilter {
+public class WeightedAverageFilter extends FirFilter {
 
-	private float values[];
 	private static final float weights[] = { 0.533f, 0.267f, 0.133f, 0.067f };
 
 	/**
-	 * Default Constructor simply calls the reset
+	 * Default Constructor simply sets the weights
 	 */
 	public WeightedAverageFilter() {
-		reset();
-	}
-
-	@Override
-	public void reset() {
-		// TODO Auto-generated method stub
-		values = new float[weights.length];
-		for (int iterator = 0; iterator < weights.length; iterator++) {
-			values[iterator] = 0.0f;
-		}
-	}
-
-	@Override
-	public float processSample(float n, long t) {
-		// TODO Auto-generated method stub
-		// Shunt Values in Mov Average Stack up by 1
-		for (int iterator = 0; iterator < (weights.length - 1); iterator++) {
-			values[iterator + 1] = values[iterator];
-		}
-		// Store this value in the first slot
-		values[0] = n;
-		float sum = 0.0f;
-		for (int iterator = 0; iterator < weights.length; iterator++) {
-			sum += values[iterator] * weights[iterator];
-		}
-		return sum;
+		super(weights);
 	}
 
 }
@@ -1,5 +1,7 @@
 package pnorton.smartped;
 
+import java.nio.ByteBuffer;
+
 /**
  * Class ZeroCrossingFilter
  * 
@@ -15,7 +17,7 @@ package pnorton.smartped;
  * Android Dependencies: No Android Dependencies
  *  
  * @author Peter B Norton
- * @version 0.30
+ * @version 0.49
  * 
  *          Revision History
  * 
@@ -27,6 +29,13 @@ package pnorton.smartped;
  *          triggers a record on a positive crossing rather than a negative
  *          crossing therefore produces a positive output.
  * 
+ *          0.31 Addition of processBlock method, this uses direct comparisons
+ *          in place of the SIGN enumeration which give the same result for
+ *          every value (NaN is treated as negative in both)
+ * 
+ *          0.49 Addition of saveState and restoreState for the previous value
+ *          and time stamp
+ * 
  */
 public class ZeroCrossingFilter implements ISignalFilter {
 
@@ -71,6 +80,29 @@ public class ZeroCrossingFilter implements ISignalFilter {
 		return returnValue;
 	}
 
+	@Override
+	public void processBlock(float[] in, float[] out, long[] t, int offset,
+			int length) {
+		float previous = previous_value;
+		long previous_time = previous_time_stamp;
+		final int end = offset + length;
+		for (int j = offset; j < end; j++) {
+			final float n = in[j];
+			final long time = t[j];
+			float returnValue = 0.0f;
+			// Previous value NEGATIVE and this value ZERO or POSITIVE
+			if (!(previous >= 0.0f) && (n >= 0.0f)) {
+				returnValue = Math.abs((n - previous)
+						/ ((time - previous_time) / (float) 1e9));
+			}
+			previous = n;
+			previous_time = time;
+			out[j] = returnValue;
+		}
+		previous_value = previous;
+		previous_time_stamp = previous_time;
+	}
+
 	/**
 	 * Get the Signum value for this number
 	 * 
@@ -88,4 +120,15 @@ public class ZeroCrossingFilter implements ISignalFilter {
 		}
 	}
 
+	@Override
+	public void saveState(ByteBuffer out) {
+		out.putFloat(previous_value);
+		out.putLong(previous_time_stamp);
+	}
+
+	@Override
+	public void restoreState(ByteBuffer in) {
+		previous_value = in.getFloat();
+		previous_time_stamp = in.getLong();
+	}
 }
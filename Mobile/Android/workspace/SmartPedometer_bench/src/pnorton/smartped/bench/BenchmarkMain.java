@@ -0,0 +1,54 @@
+package pnorton.smartped.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Class BenchmarkMain
+ * 
+ * Responsibilities: Runs the SmartPedometer benchmarks with the GC profiler so
+ * the allocation rate is reported next to the time per sample. Any JMH command
+ * line options are passed on, for example a benchmark name pattern to run a
+ * single benchmark or -p lowPass=true to fix a parameter.
+ * 
+ * Dependencies: Depends on JMH
+ * 
+ * Android Dependencies: No Android Dependencies
+ * 
+ * @author Peter B Norton
+ * @version 0.36
+ * 
+ *          Revision History
+ * 
+ *          0.36 Initial version for the benchmark suite
+ * 
+ */
+public class BenchmarkMain {
+
+	/**
+	 * Run the benchmarks
+	 * 
+	 * @param args
+	 *            JMH command line options
+	 * @throws RunnerException
+	 *             If a benchmark fails
+	 * @throws CommandLineOptionException
+	 *             If the options are not valid
+	 */
+	public static void main(String[] args) throws RunnerException,
+			CommandLineOptionException {
+		CommandLineOptions command_line = new CommandLineOptions(args);
+		OptionsBuilder builder = new OptionsBuilder();
+		builder.parent(command_line);
+		if (command_line.getIncludes().isEmpty()) {
+			builder.include(BenchmarkMain.class.getPackage().getName() + ".");
+		}
+		Options options = builder.addProfiler(GCProfiler.class).build();
+		new Runner(options).run();
+	}
+}
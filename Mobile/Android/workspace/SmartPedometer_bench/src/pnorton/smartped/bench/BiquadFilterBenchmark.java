@@ -0,0 +1,114 @@
+package pnorton.smartped.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pnorton.smartped.BiquadFilter;
+import pnorton.smartped.IIRCascadeLowPassFilter;
+
+/**
+ * Class BiquadFilterBenchmark
+ * 
+ * Responsibilities: Measures the Butterworth BiquadFilter low pass and band
+ * pass of order 2 and 4, one sample at a time and with the block method, to
+ * compare with the LowPassFilterBenchmark results. Retuning to a new sample
+ * rate is also measured for the biquad, which looks the coefficients up in
+ * the cache, and for the IIRCascadeLowPassFilter, which recalculates its
+ * weights.
+ * 
+ * Dependencies: Depends on JMH, the GaitSignal class and the filter classes
+ * 
+ * Android Dependencies: No Android Dependencies
+ * 
+ * @author Peter B Norton
+ * @version 0.45
+ * 
+ *          Revision History
+ * 
+ *          0.45 Initial version of the biquad benchmark
+ * 
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BiquadFilterBenchmark {
+
+	/** Samples filtered by each invocation */
+	public static final int SAMPLES = 4096;
+	/** Sample rates the retune benchmarks alternate between */
+	private static final float[] RATES = { 98.0f, 102.0f };
+
+	@Param({ "lowPass", "bandPass" })
+	public String type;
+
+	@Param({ "2", "4" })
+	public int order;
+
+	private GaitSignal signal;
+	private float[] output;
+	private BiquadFilter filter;
+	private IIRCascadeLowPassFilter cascade;
+	private int rate;
+
+	@Setup
+	public void setup() {
+		signal = new GaitSignal("walking", SAMPLES);
+		output = new float[SAMPLES];
+		// Same cut off as the PedometerManager uses
+		if (type.equals("lowPass")) {
+			filter = BiquadFilter.lowPass(order, 4.0f, GaitSignal.SAMPLE_RATE);
+		} else {
+			filter = BiquadFilter.bandPass(order, 0.5f, 4.0f,
+					GaitSignal.SAMPLE_RATE);
+		}
+		cascade = new IIRCascadeLowPassFilter(4.0f / GaitSignal.SAMPLE_RATE,
+				4);
+		rate = 0;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SAMPLES)
+	public float processSample() {
+		float sum = 0.0f;
+		for (int i = 0; i < SAMPLES; i++) {
+			sum += filter.processSample(signal.scalar[i], signal.time[i]);
+		}
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SAMPLES)
+	public float[] processBlock() {
+		filter.processBlock(signal.scalar, output, signal.time, 0, SAMPLES);
+		return output;
+	}
+
+	@Benchmark
+	public BiquadFilter retuneBiquad() {
+		rate ^= 1;
+		filter.setSampleRate(RATES[rate]);
+		return filter;
+	}
+
+	@Benchmark
+	public IIRCascadeLowPassFilter retuneCascade() {
+		rate ^= 1;
+		cascade.setCentreFrequency(4.0f / RATES[rate]);
+		return cascade;
+	}
+}
@@ -0,0 +1,105 @@
+package pnorton.smartped.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pnorton.smartped.WeightedAverageFilter;
+import pnorton.smartped.ZeroCrossingFilter;
+
+/**
+ * Class FilterBenchmark
+ * 
+ * Responsibilities: Measures the WeightedAverageFilter and ZeroCrossingFilter
+ * one sample at a time and with the block methods. The filters are fed the
+ * scalar values of the synthetic signal, the zero crossing filter sees a sign
+ * change at each step as it does on a device.
+ * 
+ * Dependencies: Depends on JMH, the GaitSignal class and the filter classes
+ * 
+ * Android Dependencies: No Android Dependencies
+ * 
+ * @author Peter B Norton
+ * @version 0.36
+ * 
+ *          Revision History
+ * 
+ *          0.36 Initial version for the benchmark suite
+ * 
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FilterBenchmark {
+
+	/** Samples filtered by each invocation */
+	public static final int SAMPLES = 4096;
+
+	@Param({ "walking", "running" })
+	public String gait;
+
+	private GaitSignal signal;
+	private float[] output;
+	private WeightedAverageFilter average_filter;
+	private ZeroCrossingFilter zero_crossing_filter;
+
+	@Setup
+	public void setup() {
+		signal = new GaitSignal(gait, SAMPLES);
+		output = new float[SAMPLES];
+		average_filter = new WeightedAverageFilter();
+		zero_crossing_filter = new ZeroCrossingFilter();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SAMPLES)
+	public float weightedAverageSample() {
+		float sum = 0.0f;
+		for (int i = 0; i < SAMPLES; i++) {
+			sum += average_filter.processSample(signal.scalar[i],
+					signal.time[i]);
+		}
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SAMPLES)
+	public float[] weightedAverageBlock() {
+		average_filter.processBlock(signal.scalar, output, signal.time, 0,
+				SAMPLES);
+		return output;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SAMPLES)
+	public float zeroCrossingSample() {
+		float sum = 0.0f;
+		for (int i = 0; i < SAMPLES; i++) {
+			sum += zero_crossing_filter.processSample(signal.scalar[i],
+					signal.time[i]);
+		}
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SAMPLES)
+	public float[] zeroCrossingBlock() {
+		zero_crossing_filter.processBlock(signal.scalar, output, signal.time,
+				0, SAMPLES);
+		return output;
+	}
+}
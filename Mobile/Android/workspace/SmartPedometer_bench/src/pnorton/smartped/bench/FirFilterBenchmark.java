@@ -0,0 +1,74 @@
+package pnorton.smartped.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pnorton.smartped.FirFilter;
+
+/**
+ * Class FirFilterBenchmark
+ * 
+ * Responsibilities: Measures the FirFilter with 4 to 64 taps of each kernel so
+ * the cost of a longer dynamic threshold window can be seen. The filter is fed
+ * the scalar values of the synthetic signal one sample at a time.
+ * 
+ * Dependencies: Depends on JMH, the GaitSignal class and the FirFilter class
+ * 
+ * Android Dependencies: No Android Dependencies
+ * 
+ * @author Peter B Norton
+ * @version 0.46
+ * 
+ *          Revision History
+ * 
+ *          0.46 Initial version of the FIR benchmark
+ * 
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FirFilterBenchmark {
+
+	/** Samples filtered by each invocation */
+	public static final int SAMPLES = 4096;
+
+	@Param({ "EXPONENTIAL", "TRIANGULAR", "BOX" })
+	public String kernel;
+
+	@Param({ "4", "16", "64" })
+	public int taps;
+
+	private GaitSignal signal;
+	private FirFilter filter;
+
+	@Setup
+	public void setup() {
+		signal = new GaitSignal("walking", SAMPLES);
+		filter = new FirFilter(FirFilter.Kernel.valueOf(kernel), taps);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SAMPLES)
+	public float processSample() {
+		float sum = 0.0f;
+		for (int i = 0; i < SAMPLES; i++) {
+			sum += filter.processSample(signal.scalar[i], signal.time[i]);
+		}
+		return sum;
+	}
+}
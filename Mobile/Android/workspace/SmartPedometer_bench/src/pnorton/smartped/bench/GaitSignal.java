@@ -0,0 +1,94 @@
+package pnorton.smartped.bench;
+
+import pnorton.smartped.SyntheticGaitGenerator;
+
+/**
+ * Class GaitSignal
+ * 
+ * Responsibilities: Holds a precomputed block of synthetic walking or running
+ * samples for the benchmarks, so the cost of generating the signal is never
+ * part of a measurement. The scalar values are worked out in the same way as
+ * the PedometerManager so the filter benchmarks see the values the filters see
+ * on a device. The timestamps can be shifted forward each time the block is
+ * replayed so they keep increasing as they would from the sensor.
+ * 
+ * Dependencies: Depends on the SyntheticGaitGenerator class
+ * 
+ * Android Dependencies: No Android Dependencies
+ * 
+ * @author Peter B Norton
+ * @version 0.36
+ * 
+ *          Revision History
+ * 
+ *          0.36 Initial version for the benchmark suite
+ * 
+ */
+public class GaitSignal {
+
+	/** Nominal sample rate of the signal in Hz (SENSOR_DELAY_FASTEST) */
+	public static final float SAMPLE_RATE = 100.0f;
+	private static final long SEED = 20111107L;
+	private static final float BIAS = 9.8f;
+	private static final float BIAS_MARGIN = 0.2f;
+
+	/** X axis values */
+	public final float[] x;
+	/** Y axis values */
+	public final float[] y;
+	/** Z axis values */
+	public final float[] z;
+	/** Scalar acceleration as calculated by the PedometerManager */
+	public final float[] scalar;
+	/** Time stamps in ns */
+	public final long[] time;
+	/** Time covered by the block in ns */
+	public final long span;
+
+	/**
+	 * Default Constructor generates the signal
+	 * 
+	 * @param gait
+	 *            "walking" or "running"
+	 * @param length
+	 *            Number of samples
+	 */
+	public GaitSignal(String gait, int length) {
+		SyntheticGaitGenerator generator;
+		if ("running".equals(gait)) {
+			generator = SyntheticGaitGenerator.running(SAMPLE_RATE, SEED);
+		} else if ("walking".equals(gait)) {
+			generator = SyntheticGaitGenerator.walking(SAMPLE_RATE, SEED);
+		} else {
+			throw new IllegalArgumentException("Unknown gait " + gait);
+		}
+		x = new float[length];
+		y = new float[length];
+		z = new float[length];
+		scalar = new float[length];
+		time = new long[length];
+		generator.fill(x, y, z, time, 0, length);
+		for (int i = 0; i < length; i++) {
+			float zb = z[i] + (BIAS + BIAS_MARGIN);
+			scalar[i] = ((float) Math.pow(Math.pow(x[i], 2.0)
+					+ Math.pow(y[i], 2.0) + Math.pow(zb, 2.0), 0.5)) - BIAS;
+		}
+		// One extra sample period so the next replay follows on smoothly
+		span = time[length - 1] + (long) (1e9 / SAMPLE_RATE);
+	}
+
+	/**
+	 * Copy the time stamps shifted forward for a replay of the block
+	 * 
+	 * @param dst
+	 *            Array to copy into, at least as long as the block
+	 * @param pass
+	 *            Number of the replay
+	 */
+	public void shiftedTime(long[] dst, long pass) {
+		long shift = pass * span;
+		for (int i = 0; i < time.length; i++) {
+			dst[i] = time[i] + shift;
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package pnorton.smartped.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pnorton.smartped.IIRCascadeLowPassFilter;
+
+/**
+ * Class LowPassFilterBenchmark
+ * 
+ * Responsibilities: Measures the IIRCascadeLowPassFilter with 1 to 8 cascades,
+ * both one sample at a time and with the block method. Each invocation filters
+ * a whole block of the synthetic signal so the results are per sample.
+ * 
+ * Dependencies: Depends on JMH, the GaitSignal class and the
+ * IIRCascadeLowPassFilter class
+ * 
+ * Android Dependencies: No Android Dependencies
+ * 
+ * @author Peter B Norton
+ * @version 0.36
+ * 
+ *          Revision History
+ * 
+ *          0.36 Initial version for the benchmark suite
+ * 
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LowPassFilterBenchmark {
+
+	/** Samples filtered by each invocation */
+	public static final int SAMPLES = 4096;
+
+	@Param({ "walking", "running" })
+	public String gait;
+
+	@Param({ "1", "2", "4", "8" })
+	public int cascades;
+
+	private GaitSignal signal;
+	private float[] output;
+	private IIRCascadeLowPassFilter filter;
+
+	@Setup
+	public void setup() {
+		signal = new GaitSignal(gait, SAMPLES);
+		output = new float[SAMPLES];
+		// Same cut off as the PedometerManager uses at 100 Hz
+		filter = new IIRCascadeLowPassFilter(4.0f / GaitSignal.SAMPLE_RATE,
+				cascades);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SAMPLES)
+	public float processSample() {
+		float sum = 0.0f;
+		for (int i = 0; i < SAMPLES; i++) {
+			sum += filter.processSample(signal.scalar[i], signal.time[i]);
+		}
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SAMPLES)
+	public float[] processBlock() {
+		filter.processBlock(signal.scalar, output, signal.time, 0, SAMPLES);
+		return output;
+	}
+}
@@ -0,0 +1,93 @@
+package pnorton.smartped.bench;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import pnorton.smartped.BinaryDataLogger;
+import pnorton.smartped.ISampleLogger;
+
+/**
+ * Class MemorySampleLogger
+ * 
+ * Responsibilities: Encodes the data log records in the BinaryDataLogger
+ * record layout into a reused direct buffer which wraps around when full,
+ * instead of writing them to a file. This gives the benchmarks the cost of
+ * logging on the sensor thread without the storage speed of the machine
+ * running them.
+ * 
+ * Dependencies: Depends on the BinaryDataLogger record layout and the
+ * ISampleLogger interface which it implements.
+ * 
+ * Android Dependencies: No Android Dependencies
+ * 
+ * @author Peter B Norton
+ * @version 0.60
+ * 
+ *          Revision History
+ * 
+ *          0.36 Initial version for the benchmark suite
+ * 
+ *          0.60 Records are encoded in version 2 of the binary log format
+ * 
+ */
+public class MemorySampleLogger implements ISampleLogger {
+
+	private static final int BUFFER_SIZE = BinaryDataLogger.RECORD_SIZE * 4096;
+	private ByteBuffer buffer;
+	private long record_count;
+	private float sample_rate;
+
+	/**
+	 * Default Constructor
+	 */
+	public MemorySampleLogger() {
+		buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(
+				ByteOrder.LITTLE_ENDIAN);
+		record_count = 0L;
+		sample_rate = 0.0f;
+	}
+
+	@Override
+	public void writeRecord(float scalar, float filtered, float peak,
+			float threshold, long timestamp) {
+		if (buffer.remaining() < BinaryDataLogger.RECORD_SIZE) {
+			buffer.clear();
+		}
+		BinaryDataLogger.putRecord(buffer, scalar, filtered, peak, threshold,
+				timestamp);
+		record_count++;
+	}
+
+	@Override
+	public void setSampleRate(float sr) {
+		sample_rate = sr;
+	}
+
+	@Override
+	public String getFileName() {
+		return "memory";
+	}
+
+	@Override
+	public void close() {
+		buffer.clear();
+	}
+
+	/**
+	 * Get the number of records written
+	 * 
+	 * @return Number of records
+	 */
+	public long getRecordCount() {
+		return record_count;
+	}
+
+	/**
+	 * Get the sample rate given when the log was closed
+	 * 
+	 * @return Sample rate in Hz
+	 */
+	public float getSampleRate() {
+		return sample_rate;
+	}
+}
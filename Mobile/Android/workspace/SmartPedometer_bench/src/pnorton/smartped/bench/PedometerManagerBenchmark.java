@@ -0,0 +1,110 @@
+package pnorton.smartped.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pnorton.smartped.AsyncSampleLogger;
+import pnorton.smartped.PedometerManager;
+
+/**
+ * Class PedometerManagerBenchmark
+ * 
+ * Responsibilities: Measures the whole of the PedometerManager update path
+ * with the low pass filter on and off and with logging off, logging directly
+ * on the sensor thread or logging through the AsyncSampleLogger. Both the
+ * update method called once per sensor event and the updateBlock method are
+ * measured. The time stamps move forward on every replay of the signal so the
+ * step rate and sample rate blocks behave as they would on a device.
+ * 
+ * Dependencies: Depends on JMH, the GaitSignal and MemorySampleLogger classes
+ * and the PedometerManager and AsyncSampleLogger classes
+ * 
+ * Android Dependencies: No Android Dependencies
+ * 
+ * @author Peter B Norton
+ * @version 0.36
+ * 
+ *          Revision History
+ * 
+ *          0.36 Initial version for the benchmark suite
+ * 
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PedometerManagerBenchmark {
+
+	/** Samples passed to the manager by each invocation */
+	public static final int SAMPLES = 4096;
+
+	@Param({ "walking", "running" })
+	public String gait;
+
+	@Param({ "false", "true" })
+	public boolean lowPass;
+
+	@Param({ "none", "direct", "async" })
+	public String logging;
+
+	private GaitSignal signal;
+	private long[] time; /* Shifted time stamps for updateBlock */
+	private long pass; /* Number of replays of the signal */
+	private PedometerManager manager;
+
+	@Setup
+	public void setup() {
+		signal = new GaitSignal(gait, SAMPLES);
+		time = new long[SAMPLES];
+		pass = 0L;
+		manager = new PedometerManager(0L, 0.0f, 70, 0, lowPass);
+		if ("direct".equals(logging)) {
+			manager.openLog(new MemorySampleLogger());
+		} else if ("async".equals(logging)) {
+			manager.openLog(new AsyncSampleLogger(new MemorySampleLogger()));
+		} else if (!"none".equals(logging)) {
+			throw new IllegalArgumentException("Unknown logging " + logging);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		if (!"none".equals(logging)) {
+			manager.closeLog();
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SAMPLES)
+	public int update() {
+		long shift = pass++ * signal.span;
+		for (int i = 0; i < SAMPLES; i++) {
+			manager.update(signal.x[i], signal.y[i], signal.z[i],
+					signal.time[i] + shift);
+		}
+		return manager.getSteps();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SAMPLES)
+	public int updateBlock() {
+		signal.shiftedTime(time, pass++);
+		manager.updateBlock(signal.x, signal.y, signal.z, time, 0, SAMPLES);
+		return manager.getSteps();
+	}
+}
@@ -0,0 +1,85 @@
+package pnorton.smartped.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pnorton.smartped.PedometerConfig;
+import pnorton.smartped.PedometerManager;
+import pnorton.smartped.ShadowDetectorLanes;
+
+/**
+ * Class ShadowDetectorLanesBenchmark
+ * 
+ * Responsibilities: Measures the updateBlock path of the PedometerManager with
+ * no shadow lanes and with 1 to 32 ShadowDetectorLanes, so the cost of the
+ * lanes can be compared with the cost of the manager alone. The lanes cover a
+ * range of thresholds with the window of the manager.
+ * 
+ * Dependencies: Depends on JMH, the GaitSignal class and the PedometerManager
+ * and ShadowDetectorLanes classes
+ * 
+ * Android Dependencies: No Android Dependencies
+ * 
+ * @author Peter B Norton
+ * @version 0.54
+ * 
+ *          Revision History
+ * 
+ *          0.54 Initial version of the shadow lanes benchmark
+ * 
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ShadowDetectorLanesBenchmark {
+
+	/** Samples passed to the manager by each invocation */
+	public static final int SAMPLES = 4096;
+
+	@Param({ "walking", "running" })
+	public String gait;
+
+	@Param({ "0", "1", "8", "32" })
+	public int lanes;
+
+	private GaitSignal signal;
+	private long[] time; /* Shifted time stamps for updateBlock */
+	private long pass; /* Number of replays of the signal */
+	private PedometerManager manager;
+
+	@Setup
+	public void setup() {
+		signal = new GaitSignal(gait, SAMPLES);
+		time = new long[SAMPLES];
+		pass = 0L;
+		manager = new PedometerManager(0L, 0.0f, 70, 0, true);
+		if (lanes > 0) {
+			manager.setShadowLanes(ShadowDetectorLanes.thresholdRange(38, 2,
+					lanes, PedometerConfig.DEFAULT_THRESHOLD_KERNEL,
+					PedometerConfig.DEFAULT_THRESHOLD_TAPS));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SAMPLES)
+	public int updateBlock() {
+		signal.shiftedTime(time, pass++);
+		manager.updateBlock(signal.x, signal.y, signal.z, time, 0, SAMPLES);
+		return manager.getSteps();
+	}
+}
@@ -0,0 +1,117 @@
+package pnorton.smartped.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pnorton.smartped.BiquadFilter;
+import pnorton.smartped.FirFilter;
+import pnorton.smartped.IIRCascadeLowPassFilter;
+import pnorton.smartped.ISignalFilter;
+import pnorton.smartped.SignalPipeline;
+import pnorton.smartped.ZeroCrossingFilter;
+
+/**
+ * Class SignalPipelineBenchmark
+ * 
+ * Responsibilities: Measures a chain of filters of different classes run as a
+ * SignalPipeline over blocks against the same chain run a sample at a time
+ * through an array of ISignalFilter, where every call goes through the
+ * interface at a call site seeing all the filter classes. The chain is a
+ * Butterworth band pass, a cascade Low Pass, a short FIR and the zero
+ * crossing, the first stages are left out for the shorter chains.
+ * 
+ * Dependencies: Depends on JMH, the GaitSignal class and the SignalPipeline
+ * and filter classes
+ * 
+ * Android Dependencies: No Android Dependencies
+ * 
+ * @author Peter B Norton
+ * @version 0.55
+ * 
+ *          Revision History
+ * 
+ *          0.55 Initial version of the signal pipeline benchmark
+ * 
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SignalPipelineBenchmark {
+
+	/** Samples passed through the chain by each invocation */
+	public static final int SAMPLES = 4096;
+
+	@Param({ "2", "4" })
+	public int stages;
+
+	private GaitSignal signal;
+	private ISignalFilter[] chain;
+	private SignalPipeline pipeline;
+
+	@Setup
+	public void setup() {
+		signal = new GaitSignal("walking", SAMPLES);
+		chain = create_chain(stages);
+		SignalPipeline.Builder builder = new SignalPipeline.Builder();
+		ISignalFilter[] filters = create_chain(stages);
+		for (int i = 0; i < filters.length; i++) {
+			builder.stage(filters[i], false);
+		}
+		pipeline = builder.build(SAMPLES);
+	}
+
+	/**
+	 * Create the filters of a chain
+	 * 
+	 * @param n
+	 *            Number of stages, 2 to 4
+	 * @return Filters in order
+	 */
+	private static ISignalFilter[] create_chain(int n) {
+		ISignalFilter[] all = {
+				BiquadFilter.bandPass(2, 0.5f, 4.0f, GaitSignal.SAMPLE_RATE),
+				new IIRCascadeLowPassFilter(4.0f / GaitSignal.SAMPLE_RATE, 4),
+				new FirFilter(FirFilter.Kernel.BOX, 3),
+				new ZeroCrossingFilter() };
+		ISignalFilter[] chain = new ISignalFilter[n];
+		System.arraycopy(all, all.length - n, chain, 0, n);
+		return chain;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SAMPLES)
+	public float perSample() {
+		final ISignalFilter[] c = chain;
+		float sum = 0.0f;
+		for (int i = 0; i < SAMPLES; i++) {
+			float value = signal.scalar[i];
+			for (int j = 0; j < c.length; j++) {
+				value = c[j].processSample(value, signal.time[i]);
+			}
+			sum += value;
+		}
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SAMPLES)
+	public float pipeline() {
+		pipeline.processBlock(signal.scalar, signal.time, 0, SAMPLES);
+		return pipeline.getOutput()[SAMPLES - 1];
+	}
+}
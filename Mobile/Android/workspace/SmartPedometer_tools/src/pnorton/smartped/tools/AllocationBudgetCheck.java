@@ -0,0 +1,416 @@
+package pnorton.smartped.tools;
+
+import java.lang.management.ManagementFactory;
+
+import pnorton.smartped.AsyncSampleLogger;
+import pnorton.smartped.FixedRateResampler;
+import pnorton.smartped.IIRCascadeLowPassFilter;
+import pnorton.smartped.ISampleLogger;
+import pnorton.smartped.IStepListener;
+import pnorton.smartped.PedometerConfig;
+import pnorton.smartped.PedometerManager;
+import pnorton.smartped.PedometerSnapshot;
+import pnorton.smartped.StepEventDispatcher;
+import pnorton.smartped.SyntheticGaitGenerator;
+import pnorton.smartped.WeightedAverageFilter;
+import pnorton.smartped.ZeroCrossingFilter;
+
+/**
+ * Class AllocationBudgetCheck
+ * 
+ * Responsibilities: Checks that the sensor to step path allocates nothing for
+ * each sample. A million synthetic walking samples are passed through the
+ * filters and the PedometerManager in each of its configurations, reading the
+ * values the user interface reads on each UI update, and the bytes allocated
+ * by the calling thread are measured with the ThreadMXBean. One tab separated
+ * line is printed per path and the check exits with status 1 if any path
+ * allocated, so it can be run as part of a build.
+ * 
+ * Usage: AllocationBudgetCheck [samples]
+ * 
+ * Dependencies: Depends on the SmartPedometer classes and the HotSpot
+ * com.sun.management.ThreadMXBean extension, no Android classes are required
+ * on the classpath.
+ * 
+ * Android Dependencies: No Android Dependencies
+ * 
+ * @author Peter B Norton
+ * @version 0.62
+ * 
+ *          Revision History
+ * 
+ *          0.37 Initial version of the allocation budget check
+ * 
+ *          0.38 Addition of a path reporting the steps to a
+ *          StepEventDispatcher
+ * 
+ *          0.39 The user interface values are read through a snapshot as the
+ *          display now does
+ * 
+ *          0.42 The warm up is split into many short runs so the measured run
+ *          loop is already compiled and is not replaced while it is measured,
+ *          the fewest bytes of three measured runs is reported
+ * 
+ *          0.43 Addition of paths resampling to a fixed rate
+ * 
+ *          0.62 Addition of onReset to the step listener for the IStepListener
+ *          interface
+ * 
+ */
+public class AllocationBudgetCheck {
+
+	private static final int DEFAULT_SAMPLES = 1000000;
+	private static final int WARMUP_RUNS = 50; /* Runs for the JIT */
+	private static final int WARMUP_SAMPLES = 8192; /* Samples per warm up run */
+	private static final int MEASURED_RUNS = 3; /* Runs measured per path */
+	private static final int SIGNAL_LENGTH = 65536; /* Replayed signal length */
+	private static final int BLOCK_SIZE = 64; /* Samples per updateBlock */
+	private static final float SAMPLE_RATE = 100.0f;
+	private static final float RESAMPLE_RATE = 50.0f;
+
+	private static float[] x;
+	private static float[] y;
+	private static float[] z;
+	private static long[] time;
+	private static long span; /* Time covered by the signal in ns */
+	private static PedometerSnapshot snapshot = new PedometerSnapshot();
+
+	/**
+	 * A sample path to be measured
+	 */
+	private abstract static class SamplePath {
+		private String name;
+
+		SamplePath(String path_name) {
+			name = path_name;
+		}
+
+		/**
+		 * Pass samples through the path
+		 * 
+		 * @param first
+		 *            Number of the first sample
+		 * @param count
+		 *            Number of samples
+		 */
+		abstract void run(long first, int count);
+
+		/**
+		 * Release anything held by the path
+		 */
+		void close() {
+		}
+	}
+
+	/**
+	 * Logger which discards the records, so only the cost of handing them over
+	 * on the sensor thread is measured
+	 */
+	private static class NullSampleLogger implements ISampleLogger {
+		@Override
+		public void writeRecord(float scalar, float filtered, float peak,
+				float threshold, long timestamp) {
+		}
+
+		@Override
+		public void setSampleRate(float sr) {
+		}
+
+		@Override
+		public String getFileName() {
+			return "null";
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	/**
+	 * Listener which ignores the steps
+	 */
+	private static class NullStepListener implements IStepListener {
+		@Override
+		public void onStep(long timestamp, float peak, int count) {
+		}
+
+		@Override
+		public void onReset() {
+		}
+	}
+
+	/**
+	 * Entry point for the allocation check
+	 * 
+	 * @param args
+	 *            Optional number of samples to measure
+	 */
+	public static void main(String[] args) {
+		int samples = DEFAULT_SAMPLES;
+		if (args.length > 0) {
+			samples = Integer.parseInt(args[0]);
+		}
+		java.lang.management.ThreadMXBean bean = ManagementFactory
+				.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+			System.err.println("Thread allocation counting is not supported");
+			System.exit(2);
+		}
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+		threads.setThreadAllocatedMemoryEnabled(true);
+		generate_signal();
+
+		SamplePath[] paths = { filter_path(),
+				update_path("update", false, false, false, 0.0f),
+				update_path("update lowpass", true, false, false, 0.0f),
+				update_path("update lowpass async log", true, true, false, 0.0f),
+				update_path("update lowpass step dispatcher", true, false, true,
+						0.0f),
+				update_path("update lowpass resampled", true, false, false,
+						RESAMPLE_RATE),
+				block_path("updateBlock lowpass", true, false, 0.0f),
+				block_path("updateBlock lowpass async log", true, true, 0.0f),
+				block_path("updateBlock lowpass resampled", true, false,
+						RESAMPLE_RATE) };
+
+		long thread = Thread.currentThread().getId();
+		long overhead = measure_overhead(threads, thread);
+		boolean pass = true;
+		System.out.println("path\tsamples\tbytes\tbytes/sample");
+		for (int i = 0; i < paths.length; i++) {
+			// Many short warm up runs so the run loop itself is compiled
+			// before it is measured rather than replaced on the stack
+			long first = 0L;
+			for (int j = 0; j < WARMUP_RUNS; j++) {
+				paths[i].run(first, WARMUP_SAMPLES);
+				first += WARMUP_SAMPLES;
+			}
+			// The fewest bytes of several runs is taken, an allocation on the
+			// path shows in every run while a one off allocation made by the
+			// JIT recompiling the path shows in only one of them
+			long bytes = Long.MAX_VALUE;
+			for (int j = 0; j < MEASURED_RUNS; j++) {
+				long before = threads.getThreadAllocatedBytes(thread);
+				paths[i].run(first, samples);
+				long after = threads.getThreadAllocatedBytes(thread);
+				first += samples;
+				bytes = Math.min(bytes, Math.max(0L, after - before - overhead));
+			}
+			paths[i].close();
+			if (bytes > 0) {
+				pass = false;
+			}
+			System.out.println(paths[i].name + "\t" + samples + "\t" + bytes
+					+ "\t" + ((double) bytes / samples));
+		}
+		System.out.println(pass ? "PASS" : "FAIL");
+		System.exit(pass ? 0 : 1);
+	}
+
+	/**
+	 * Generate the walking signal which is replayed with shifted time stamps
+	 */
+	private static void generate_signal() {
+		SyntheticGaitGenerator generator = SyntheticGaitGenerator.walking(
+				SAMPLE_RATE, 1L);
+		x = new float[SIGNAL_LENGTH];
+		y = new float[SIGNAL_LENGTH];
+		z = new float[SIGNAL_LENGTH];
+		time = new long[SIGNAL_LENGTH];
+		generator.fill(x, y, z, time, 0, SIGNAL_LENGTH);
+		span = time[SIGNAL_LENGTH - 1] + (long) (1e9 / SAMPLE_RATE);
+	}
+
+	/**
+	 * Time stamp of a sample of the replayed signal
+	 * 
+	 * @param n
+	 *            Number of the sample
+	 * @return Time stamp in ns
+	 */
+	private static long timestamp(long n) {
+		return time[(int) (n % SIGNAL_LENGTH)] + (n / SIGNAL_LENGTH) * span;
+	}
+
+	/**
+	 * Measure the bytes reported between two reads of the allocation counter
+	 * with nothing in between
+	 * 
+	 * @param threads
+	 *            Thread bean
+	 * @param thread
+	 *            Id of this thread
+	 * @return Smallest difference seen
+	 */
+	private static long measure_overhead(
+			com.sun.management.ThreadMXBean threads, long thread) {
+		long overhead = Long.MAX_VALUE;
+		for (int i = 0; i < 1000; i++) {
+			long before = threads.getThreadAllocatedBytes(thread);
+			long after = threads.getThreadAllocatedBytes(thread);
+			overhead = Math.min(overhead, after - before);
+		}
+		return overhead;
+	}
+
+	/**
+	 * Read the values the user interface reads on a display update
+	 * 
+	 * @param manager
+	 *            Manager to read
+	 * @return Sum of the values so the reads are not optimised away
+	 */
+	private static float read_ui_values(PedometerManager manager) {
+		manager.readSnapshot(snapshot);
+		return snapshot.getScalarAcceleration() + snapshot.getSampleRate()
+				+ snapshot.getSteps() + snapshot.getRunTime()
+				+ snapshot.getLastPeak() + snapshot.getStepRate();
+	}
+
+	/**
+	 * Create a PedometerManager for a path
+	 * 
+	 * @param low_pass
+	 *            Low pass filter enable
+	 * @param log
+	 *            Log through an AsyncSampleLogger
+	 * @param dispatcher
+	 *            Step dispatcher to report the steps to or null
+	 * @param resample
+	 *            Resample rate in Hz or 0 for no resampling
+	 * @return Manager
+	 */
+	private static PedometerManager create_manager(boolean low_pass,
+			boolean log, StepEventDispatcher dispatcher, float resample) {
+		PedometerManager manager = new PedometerManager(0L, 0.0f, 0,
+				PedometerConfig.DEFAULT.withLowPass(low_pass).withResampling(
+						resample, FixedRateResampler.Interpolation.CUBIC));
+		if (log) {
+			manager.openLog(new AsyncSampleLogger(new NullSampleLogger()));
+		}
+		manager.setStepListener(dispatcher);
+		return manager;
+	}
+
+	/**
+	 * Path through the three filters of the step detection one sample at a
+	 * time
+	 * 
+	 * @return Path
+	 */
+	private static SamplePath filter_path() {
+		return new SamplePath("filters") {
+			private IIRCascadeLowPassFilter low_pass = new IIRCascadeLowPassFilter(
+					0.04f, 4);
+			private ZeroCrossingFilter zero_crossing = new ZeroCrossingFilter();
+			private WeightedAverageFilter average = new WeightedAverageFilter();
+			private float sum;
+
+			@Override
+			void run(long first, int count) {
+				for (long n = first; n < first + count; n++) {
+					int i = (int) (n % SIGNAL_LENGTH);
+					long t = timestamp(n);
+					float peak = zero_crossing.processSample(
+							low_pass.processSample(z[i], t), t);
+					if (peak != 0.0f) {
+						sum += average.processSample(peak, t);
+					}
+				}
+			}
+		};
+	}
+
+	/**
+	 * Path through PedometerManager.update one sample at a time
+	 * 
+	 * @param name
+	 *            Name of the path
+	 * @param low_pass
+	 *            Low pass filter enable
+	 * @param log
+	 *            Log through an AsyncSampleLogger
+	 * @param dispatch
+	 *            Report the steps to a StepEventDispatcher
+	 * @param resample
+	 *            Resample rate in Hz or 0 for no resampling
+	 * @return Path
+	 */
+	private static SamplePath update_path(String name, boolean low_pass,
+			boolean log, boolean dispatch, float resample) {
+		final StepEventDispatcher dispatcher;
+		if (dispatch) {
+			dispatcher = new StepEventDispatcher();
+			dispatcher.addListener(new NullStepListener());
+		} else {
+			dispatcher = null;
+		}
+		final PedometerManager manager = create_manager(low_pass, log,
+				dispatcher, resample);
+		return new SamplePath(name) {
+			private float sum;
+
+			@Override
+			void run(long first, int count) {
+				for (long n = first; n < first + count; n++) {
+					int i = (int) (n % SIGNAL_LENGTH);
+					if (manager.update(x[i], y[i], z[i], timestamp(n))) {
+						sum += read_ui_values(manager);
+					}
+				}
+			}
+
+			@Override
+			void close() {
+				manager.closeLog();
+				if (dispatcher != null) {
+					dispatcher.close();
+				}
+			}
+		};
+	}
+
+	/**
+	 * Path through PedometerManager.updateBlock in small blocks
+	 * 
+	 * @param name
+	 *            Name of the path
+	 * @param low_pass
+	 *            Low pass filter enable
+	 * @param log
+	 *            Log through an AsyncSampleLogger
+	 * @param resample
+	 *            Resample rate in Hz or 0 for no resampling
+	 * @return Path
+	 */
+	private static SamplePath block_path(String name, boolean low_pass,
+			boolean log, float resample) {
+		final PedometerManager manager = create_manager(low_pass, log, null,
+				resample);
+		return new SamplePath(name) {
+			private long[] block_time = new long[SIGNAL_LENGTH];
+			private float sum;
+
+			@Override
+			void run(long first, int count) {
+				// Blocks never straddle the end of the signal as the signal
+				// length is a multiple of the block size
+				for (long n = first; n < first + count; n += BLOCK_SIZE) {
+					int i = (int) (n % SIGNAL_LENGTH);
+					int length = (int) Math.min(BLOCK_SIZE, first + count - n);
+					for (int j = 0; j < length; j++) {
+						block_time[i + j] = timestamp(n + j);
+					}
+					if (manager.updateBlock(x, y, z, block_time, i, length)) {
+						sum += read_ui_values(manager);
+					}
+				}
+			}
+
+			@Override
+			void close() {
+				manager.closeLog();
+			}
+		};
+	}
+}
@@ -0,0 +1,481 @@
+package pnorton.smartped.tools;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.regex.Pattern;
+
+import pnorton.smartped.CadenceHistogram;
+import pnorton.smartped.ILogReader;
+import pnorton.smartped.IStepListener;
+import pnorton.smartped.LogRecord;
+import pnorton.smartped.MappedSegmentLogger;
+import pnorton.smartped.PedometerManager;
+import pnorton.smartped.SampleRateEstimator;
+import pnorton.smartped.SegmentLogReader;
+import pnorton.smartped.StepRateTracker;
+
+/**
+ * Class BatchAnalytics
+ * 
+ * Responsibilities: Command line tool which replays every session log in a
+ * directory tree through a new PedometerManager and writes one tab separated
+ * summary line per session with the samples, steps, duration, time without
+ * gaps, median and 90th percentile cadence, mean sample rate and number of
+ * gaps in the samples. The sessions are replayed in parallel on a fork join
+ * pool with one task per session, an idle worker steals the waiting sessions
+ * of a busy one so a few long sessions do not hold up the batch. Each worker
+ * keeps one SessionAnalyzer with fixed size blocks and is handed a session at
+ * a time, so the memory used does not depend on the size of the sessions or
+ * of the archive, only the summaries are kept until the table is written.
+ * 
+ * The later segments of a segment log are read with the first segment, so
+ * only the first segment is taken as a session. The cadence of each step is
+ * taken from the time since the step before, a step slower than the slowest
+ * cadence of the CadenceHistogram starts a new walk and is not counted. A gap
+ * is an interval the SampleRateEstimator counts as a gap, the mean sample rate
+ * is taken over the time without the gaps.
+ * 
+ * Usage: BatchAnalytics [-threads n] [-lowpass] [-threshold percent]
+ * [-scaling] directory [summary file]
+ * 
+ * With -scaling the whole batch is timed with 1, 2, 4 and so on up to the
+ * given number of threads and the speed up is printed instead of the table.
+ * 
+ * Dependencies: Depends on the LogFiles class and the SmartPedometer classes,
+ * no Android classes are required on the classpath. The fork join pool needs
+ * Java 7.
+ * 
+ * Android Dependencies: No Android Dependencies
+ * 
+ * @author Peter B Norton
+ * @version 0.62
+ * 
+ *          Revision History
+ * 
+ *          0.51 Initial version of the batch analytics
+ * 
+ *          0.62 Addition of onReset to the step listener for the IStepListener
+ *          interface
+ * 
+ */
+public class BatchAnalytics {
+
+	private static final int BLOCK_SIZE = 512; /* Samples per block */
+	private static final String HEADER = "session\tsamples\tsteps\tduration s"
+			+ "\tactive s\tcadence p50\tcadence p90\tsample rate\tgaps";
+
+	/**
+	 * Summary of one session, filled in by the worker which replayed it
+	 */
+	private static class SessionSummary {
+		private File file;
+		private long samples;
+		private int steps;
+		private double duration; /* First to last sample in s */
+		private double active; /* Duration less the gaps in s */
+		private float cadence_p50;
+		private float cadence_p90;
+		private double sample_rate; /* Mean rate without the gaps in Hz */
+		private long gaps;
+		private String error; /* Why the session failed or null */
+	}
+
+	/**
+	 * Replays sessions and works out their summaries, one is kept by each
+	 * worker thread and reused for each session it replays
+	 */
+	private static class SessionAnalyzer implements IStepListener {
+		private float[] value_block;
+		private long[] time_block;
+		private LogRecord record;
+		private CadenceHistogram cadence;
+		private SampleRateEstimator rate;
+		private long last_step; /* Time of the last step or 0 */
+
+		/**
+		 * Default Constructor
+		 */
+		private SessionAnalyzer() {
+			value_block = new float[BLOCK_SIZE];
+			time_block = new long[BLOCK_SIZE];
+			record = new LogRecord();
+			cadence = new CadenceHistogram();
+			rate = new SampleRateEstimator();
+		}
+
+		@Override
+		public void onStep(long timestamp, float peak, int count) {
+			final long interval = timestamp - last_step;
+			if (last_step != 0L && interval > 0L
+					&& interval <= StepRateTracker.MAX_INTERVAL) {
+				cadence.add(CadenceHistogram.bin((float) (60e9 / interval)));
+			}
+			last_step = timestamp;
+		}
+
+		@Override
+		public void onReset() {
+			// A replay never resets the step count
+		}
+
+		/**
+		 * Replay a session through a new PedometerManager
+		 * 
+		 * @param s
+		 *            Summary naming the session, filled in with the results
+		 * @param lowpass
+		 *            Low pass filter enable
+		 * @param threshold
+		 *            Threshold percentage
+		 * @throws IOException
+		 *             If the session could not be read
+		 */
+		private void analyze(SessionSummary s, boolean lowpass, int threshold)
+				throws IOException {
+			PedometerManager manager = new PedometerManager();
+			manager.setLowPassEnable(lowpass);
+			manager.setThreshold(threshold);
+			manager.setStepListener(this);
+			cadence.clear();
+			rate.reset();
+			// The gap count is not cleared by a reset
+			final long gaps_before = rate.getGapCount();
+			last_step = 0L;
+			long first = 0L;
+			long previous = 0L;
+			long gap_time = 0L;
+			long samples = 0L;
+			int n = 0;
+			ILogReader reader = LogFiles.open(s.file);
+			try {
+				while (reader.readRecord(record)) {
+					final long t = record.getTimestamp();
+					if (samples == 0L) {
+						first = t;
+					}
+					final long gaps = rate.getGapCount();
+					rate.update(t);
+					if (rate.getGapCount() != gaps) {
+						gap_time += t - previous;
+					}
+					previous = t;
+					samples++;
+					value_block[n] = record.getScalar();
+					time_block[n] = t;
+					if (++n == BLOCK_SIZE) {
+						manager.updateScalarBlock(value_block, time_block, 0,
+								n);
+						n = 0;
+					}
+				}
+				if (n > 0) {
+					manager.updateScalarBlock(value_block, time_block, 0, n);
+				}
+			} finally {
+				reader.close();
+			}
+			s.samples = samples;
+			s.steps = manager.getSteps();
+			s.duration = (previous - first) / 1e9;
+			s.active = (previous - first - gap_time) / 1e9;
+			s.cadence_p50 = cadence.getMedian();
+			s.cadence_p90 = cadence.getPercentile90();
+			s.gaps = rate.getGapCount() - gaps_before;
+			s.sample_rate = (s.active > 0.0) ? (samples - 1 - s.gaps)
+					/ s.active : 0.0;
+		}
+	}
+
+	/**
+	 * Task replaying one session on a worker of the pool
+	 */
+	private static class SessionTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private static final ThreadLocal<SessionAnalyzer> ANALYZER = new ThreadLocal<SessionAnalyzer>() {
+			@Override
+			protected SessionAnalyzer initialValue() {
+				return new SessionAnalyzer();
+			}
+		};
+		private SessionSummary summary;
+		private boolean lowpass;
+		private int threshold;
+
+		/**
+		 * Constructor
+		 * 
+		 * @param s
+		 *            Summary naming the session to replay
+		 * @param lp
+		 *            Low pass filter enable
+		 * @param t
+		 *            Threshold percentage
+		 */
+		private SessionTask(SessionSummary s, boolean lp, int t) {
+			summary = s;
+			lowpass = lp;
+			threshold = t;
+		}
+
+		@Override
+		protected void compute() {
+			try {
+				ANALYZER.get().analyze(summary, lowpass, threshold);
+			} catch (IOException e) {
+				summary.error = e.getMessage();
+			} catch (RuntimeException e) {
+				// A damaged session must not stop the batch
+				summary.error = e.toString();
+			}
+		}
+	}
+
+	/**
+	 * Entry point for the batch analytics
+	 * 
+	 * @param args
+	 *            Command line options followed by the directory and an
+	 *            optional summary file, the default is the standard output
+	 */
+	public static void main(String[] args) {
+		int threads = Runtime.getRuntime().availableProcessors();
+		boolean lowpass = false;
+		boolean scaling = false;
+		int threshold = 70;
+		int first = 0;
+		while (first < args.length && args[first].startsWith("-")) {
+			if (args[first].equals("-lowpass")) {
+				lowpass = true;
+			} else if (args[first].equals("-scaling")) {
+				scaling = true;
+			} else if (args[first].equals("-threads")
+					&& first + 1 < args.length) {
+				threads = Integer.parseInt(args[++first]);
+			} else if (args[first].equals("-threshold")
+					&& first + 1 < args.length) {
+				threshold = Integer.parseInt(args[++first]);
+			} else {
+				usage();
+				return;
+			}
+			first++;
+		}
+		if (first == args.length || args.length - first > 2) {
+			usage();
+			return;
+		}
+		File directory = new File(args[first]);
+		if (!directory.isDirectory()) {
+			System.err.println(args[first] + ": not a directory");
+			return;
+		}
+		File output = (args.length - first == 2) ? new File(args[first + 1])
+				: null;
+		List<File> sessions = new ArrayList<File>();
+		scan(directory, output, sessions);
+
+		if (scaling) {
+			scale(sessions, threads, lowpass, threshold);
+			return;
+		}
+		long start = System.nanoTime();
+		SessionSummary[] summaries = run(sessions, threads, lowpass, threshold);
+		long elapsed = System.nanoTime() - start;
+		try {
+			write(summaries, output);
+		} catch (IOException e) {
+			System.err.println(output + ": " + e.getMessage());
+		}
+		long samples = 0L;
+		int failed = 0;
+		for (int i = 0; i < summaries.length; i++) {
+			samples += summaries[i].samples;
+			if (summaries[i].error != null) {
+				failed++;
+			}
+		}
+		System.err.println(summaries.length + " sessions, " + failed
+				+ " failed, " + samples + " samples in "
+				+ String.format("%.1f", elapsed / 1e9) + " s on " + threads
+				+ " threads, " + (long) (samples * 1e9 / elapsed)
+				+ " samples/s");
+	}
+
+	/**
+	 * Find the sessions in a directory tree in name order
+	 * 
+	 * @param directory
+	 *            Directory to scan
+	 * @param output
+	 *            Summary file to leave out or null
+	 * @param sessions
+	 *            List the sessions are added to
+	 */
+	private static void scan(File directory, File output, List<File> sessions) {
+		File[] files = directory.listFiles();
+		if (files == null) {
+			return;
+		}
+		Arrays.sort(files);
+		for (int i = 0; i < files.length; i++) {
+			File f = files[i];
+			if (f.getName().startsWith(".")
+					|| (output != null && f.getAbsoluteFile().equals(
+							output.getAbsoluteFile()))) {
+				continue;
+			}
+			if (f.isDirectory()) {
+				scan(f, output, sessions);
+			} else if (!is_later_segment(f)) {
+				sessions.add(f);
+			}
+		}
+	}
+
+	/**
+	 * Check if a file is a segment of a log other than the first
+	 * 
+	 * @param f
+	 *            File to check
+	 * @return true - read with the first segment of its log
+	 */
+	private static boolean is_later_segment(File f) {
+		return f.getName().matches(".*_[0-9]{3,}"
+				+ Pattern.quote(MappedSegmentLogger.EXTENSION))
+				&& !SegmentLogReader.isFirstSegment(f);
+	}
+
+	/**
+	 * Replay the sessions on a fork join pool
+	 * 
+	 * @param sessions
+	 *            Sessions to replay
+	 * @param threads
+	 *            Number of workers
+	 * @param lowpass
+	 *            Low pass filter enable
+	 * @param threshold
+	 *            Threshold percentage
+	 * @return Summary of each session in the order given
+	 */
+	private static SessionSummary[] run(List<File> sessions, int threads,
+			final boolean lowpass, final int threshold) {
+		final SessionSummary[] summaries = new SessionSummary[sessions.size()];
+		for (int i = 0; i < summaries.length; i++) {
+			summaries[i] = new SessionSummary();
+			summaries[i].file = sessions.get(i);
+		}
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			pool.invoke(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected void compute() {
+					List<SessionTask> tasks = new ArrayList<SessionTask>(
+							summaries.length);
+					for (int i = 0; i < summaries.length; i++) {
+						tasks.add(new SessionTask(summaries[i], lowpass,
+								threshold));
+					}
+					ForkJoinTask.invokeAll(tasks);
+				}
+			});
+		} finally {
+			pool.shutdown();
+		}
+		return summaries;
+	}
+
+	/**
+	 * Write the summary table
+	 * 
+	 * @param summaries
+	 *            Summary of each session
+	 * @param output
+	 *            File to write or null for the standard output
+	 * @throws IOException
+	 *             If the file could not be written
+	 */
+	private static void write(SessionSummary[] summaries, File output)
+			throws IOException {
+		PrintWriter out = (output != null) ? new PrintWriter(new FileWriter(
+				output)) : new PrintWriter(System.out);
+		try {
+			out.println(HEADER);
+			for (int i = 0; i < summaries.length; i++) {
+				SessionSummary s = summaries[i];
+				if (s.error != null) {
+					System.err.println(s.file + ": " + s.error);
+					continue;
+				}
+				out.println(s.file.getPath() + "\t" + s.samples + "\t"
+						+ s.steps + "\t" + String.format("%.1f", s.duration)
+						+ "\t" + String.format("%.1f", s.active) + "\t"
+						+ s.cadence_p50 + "\t" + s.cadence_p90 + "\t"
+						+ String.format("%.2f", s.sample_rate) + "\t" + s.gaps);
+			}
+		} finally {
+			if (output != null) {
+				out.close();
+			} else {
+				out.flush();
+			}
+		}
+		if (out.checkError()) {
+			throw new IOException("Summary not written");
+		}
+	}
+
+	/**
+	 * Time the batch with an increasing number of threads
+	 * 
+	 * @param sessions
+	 *            Sessions to replay
+	 * @param threads
+	 *            Most threads to use
+	 * @param lowpass
+	 *            Low pass filter enable
+	 * @param threshold
+	 *            Threshold percentage
+	 */
+	private static void scale(List<File> sessions, int threads,
+			boolean lowpass, int threshold) {
+		// A first run so the classes are compiled and the files cached
+		run(sessions, threads, lowpass, threshold);
+		System.out.println("threads\tseconds\tspeed up\tefficiency");
+		double single = 0.0;
+		int t = 1;
+		while (true) {
+			long start = System.nanoTime();
+			run(sessions, t, lowpass, threshold);
+			double seconds = (System.nanoTime() - start) / 1e9;
+			if (t == 1) {
+				single = seconds;
+			}
+			System.out.println(t + "\t" + String.format("%.2f", seconds) + "\t"
+					+ String.format("%.2f", single / seconds) + "\t"
+					+ String.format("%.2f", single / seconds / t));
+			if (t >= threads) {
+				break;
+			}
+			t = Math.min(t * 2, threads);
+		}
+	}
+
+	/**
+	 * Print the command line usage
+	 */
+	private static void usage() {
+		System.err.println("Usage: BatchAnalytics [-threads n] [-lowpass]"
+				+ " [-threshold percent] [-scaling] directory [summary file]");
+	}
+}
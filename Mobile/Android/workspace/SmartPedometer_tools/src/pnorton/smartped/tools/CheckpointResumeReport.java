@@ -0,0 +1,201 @@
+package pnorton.smartped.tools;
+
+import java.util.Arrays;
+
+import pnorton.smartped.IStepListener;
+import pnorton.smartped.PedometerConfig;
+import pnorton.smartped.PedometerManager;
+import pnorton.smartped.SyntheticGaitGenerator;
+
+/**
+ * Class CheckpointResumeReport
+ * 
+ * Responsibilities: Compares the step detection just after a resume when the
+ * PedometerManager starts cold with the detection when it carries on from a
+ * saved state. A synthetic walk is run through a PedometerManager up to the
+ * pause, the state is saved and the rest of the walk is run after a gap
+ * through a new PedometerManager started cold, a new one restored from the
+ * state and the first one carried on, the last being the reference. For each
+ * filter mode one tab separated line gives the saved state size, the steps
+ * found in the first WINDOW seconds after the resume by each, the steps the
+ * cadence gives for that time and the median time to save and to restore the
+ * state.
+ * 
+ * Usage: CheckpointResumeReport [gap seconds]
+ * 
+ * Dependencies: Depends on the SmartPedometer classes, no Android classes are
+ * required on the classpath.
+ * 
+ * Android Dependencies: No Android Dependencies
+ * 
+ * @author Peter B Norton
+ * @version 0.62
+ * 
+ *          Revision History
+ * 
+ *          0.49 Initial version of the checkpoint resume report
+ * 
+ *          0.62 Addition of onReset to the step listener for the IStepListener
+ *          interface
+ * 
+ */
+public class CheckpointResumeReport {
+
+	private static final float SAMPLE_RATE = 100.0f;
+	private static final int PAUSE = 60; /* Seconds walked before the pause */
+	private static final int RESUMED = 60; /* Seconds walked after */
+	private static final int WINDOW = 10; /* Seconds counted after resume */
+	private static final int DEFAULT_GAP = 30;
+	private static final int TIMED = 1001; /* Saves and restores timed */
+
+	/**
+	 * Listener which counts the steps before a time
+	 */
+	private static class StepCounter implements IStepListener {
+		private long end;
+		private int count;
+
+		@Override
+		public void onStep(long timestamp, float peak, int n) {
+			if (timestamp < end) {
+				count += n;
+			}
+		}
+
+		@Override
+		public void onReset() {
+			// A replay never resets the step count
+		}
+	}
+
+	/**
+	 * Entry point for the report
+	 * 
+	 * @param args
+	 *            Optional gap between the pause and the resume in seconds
+	 */
+	public static void main(String[] args) {
+		int gap = DEFAULT_GAP;
+		if (args.length > 0) {
+			gap = Integer.parseInt(args[0]);
+		}
+		System.out.println("filter\tstate bytes\tcold\twarm\treference"
+				+ "\texpected\tsave us\trestore us");
+		PedometerConfig.FilterMode[] modes = PedometerConfig.FilterMode
+				.values();
+		for (int m = 0; m < modes.length; m++) {
+			report(PedometerConfig.DEFAULT.withLowPass(true).withFilter(
+					modes[m], PedometerConfig.DEFAULT_BAND_LOW), gap);
+		}
+	}
+
+	/**
+	 * Report the resume of one configuration
+	 * 
+	 * @param config
+	 *            Configuration of every PedometerManager
+	 * @param gap
+	 *            Gap between the pause and the resume in seconds
+	 */
+	private static void report(PedometerConfig config, int gap) {
+		final int before = (int) (PAUSE * SAMPLE_RATE);
+		final int samples = before + (int) (RESUMED * SAMPLE_RATE);
+		float[] x = new float[samples];
+		float[] y = new float[samples];
+		float[] z = new float[samples];
+		long[] t = new long[samples];
+		SyntheticGaitGenerator gen = SyntheticGaitGenerator.walking(
+				SAMPLE_RATE, 1L);
+		gen.fill(x, y, z, t, 0, samples);
+		// The walk carries on after the gap
+		for (int i = before; i < samples; i++) {
+			t[i] += gap * 1000000000L;
+		}
+
+		PedometerManager reference = new PedometerManager(0L, 0.0f, 0, config);
+		run(reference, x, y, z, t, 0, before);
+		byte[] state = reference.saveState();
+
+		PedometerManager cold = new PedometerManager(0L, 0.0f, 0, config);
+		PedometerManager warm = new PedometerManager(0L, 0.0f, 0, config);
+		warm.restoreState(state);
+		final long end = t[before] + WINDOW * 1000000000L;
+		int cold_steps = run(cold, x, y, z, t, before, samples, end);
+		int warm_steps = run(warm, x, y, z, t, before, samples, end);
+		int reference_steps = run(reference, x, y, z, t, before, samples, end);
+
+		long[] save = new long[TIMED];
+		long[] restore = new long[TIMED];
+		for (int i = 0; i < TIMED; i++) {
+			long start = System.nanoTime();
+			state = reference.saveState();
+			save[i] = System.nanoTime() - start;
+			start = System.nanoTime();
+			warm.restoreState(state);
+			restore[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(save);
+		Arrays.sort(restore);
+		System.out.println(config.getFilterMode() + "\t" + state.length + "\t"
+				+ cold_steps + "\t" + warm_steps + "\t" + reference_steps
+				+ "\t" + Math.round(gen.getCadence() * WINDOW) + "\t"
+				+ (save[TIMED / 2] / 1000.0) + "\t"
+				+ (restore[TIMED / 2] / 1000.0));
+	}
+
+	/**
+	 * Run samples through a PedometerManager
+	 * 
+	 * @param manager
+	 *            PedometerManager to update
+	 * @param x
+	 *            X axis values
+	 * @param y
+	 *            Y axis values
+	 * @param z
+	 *            Z axis values
+	 * @param t
+	 *            Time stamps
+	 * @param from
+	 *            First sample
+	 * @param to
+	 *            Sample after the last
+	 */
+	private static void run(PedometerManager manager, float[] x, float[] y,
+			float[] z, long[] t, int from, int to) {
+		for (int i = from; i < to; i++) {
+			manager.update(x[i], y[i], z[i], t[i]);
+		}
+	}
+
+	/**
+	 * Run samples through a PedometerManager counting the steps before a time
+	 * 
+	 * @param manager
+	 *            PedometerManager to update
+	 * @param x
+	 *            X axis values
+	 * @param y
+	 *            Y axis values
+	 * @param z
+	 *            Z axis values
+	 * @param t
+	 *            Time stamps
+	 * @param from
+	 *            First sample
+	 * @param to
+	 *            Sample after the last
+	 * @param end
+	 *            Time stamp to count the steps up to
+	 * @return Steps found before the time
+	 */
+	private static int run(PedometerManager manager, float[] x, float[] y,
+			float[] z, long[] t, int from, int to, long end) {
+		StepCounter counter = new StepCounter();
+		counter.end = end;
+		manager.setStepListener(counter);
+		run(manager, x, y, z, t, from, to);
+		manager.setStepListener(null);
+		return counter.count;
+	}
+}
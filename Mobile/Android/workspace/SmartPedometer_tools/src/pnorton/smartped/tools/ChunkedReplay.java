@@ -0,0 +1,552 @@
+package pnorton.smartped.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import pnorton.smartped.ILogReader;
+import pnorton.smartped.IStepListener;
+import pnorton.smartped.LogRecord;
+import pnorton.smartped.PedometerManager;
+
+/**
+ * Class ChunkedReplay
+ * 
+ * Responsibilities: Replays one long data log on several cores by cutting it
+ * into chunks which are each replayed through their own PedometerManager. The
+ * filters, dynamic threshold and sample rate estimate are recurrences so a
+ * chunk cannot simply start cold, each chunk is first run through the last
+ * warm up samples of the chunk before it and only the steps found in the
+ * chunk itself are kept. The Low Pass filter is only retuned when the sample
+ * rate moves more than the retune band, so the tuned rate set at the start of
+ * the log would never be reached by a warm up. Before its warm up each chunk
+ * restores the state saved after the first warm up samples of the log, giving
+ * it the tuned rate and rate estimate of the serial replay. A step belongs to
+ * the chunk holding the sample it was found on, the steps of a chunk are
+ * those with a time stamp from its first sample up to the first sample of the
+ * next chunk, so the chunks are stitched together with each step counted
+ * once. The log is read on the calling thread while the chunks are replayed,
+ * at most two chunks for each thread are held at once so the memory used does
+ * not depend on the length of the log.
+ * 
+ * The warm up brings the filters and threshold to the state the serial replay
+ * would have, the state of the filters before it decaying away, a warm up of 0
+ * starts each chunk cold. Without the Low Pass filter a warm up of 100 samples
+ * gives the same steps at the same times as the serial replay. With the Low
+ * Pass filter a serial replay of a sensor with a jittery rate is retuned many
+ * times within the band, the tuned rate at the start of a chunk depends on the
+ * whole log before it and only a serial pass can find it. The chunks then keep
+ * the first tuned rate, which moves the steps by a sample or two and may add
+ * or lose a step in a chunk.
+ * 
+ * With -verify the log is also replayed serially and the step times compared,
+ * giving the steps found at the same time by both, the steps found by both
+ * within the tolerance and the largest shift between them, the steps found by
+ * only one of the two, the largest difference in the steps of any chunk and
+ * the longest time from the start of a chunk to a step which differs, which
+ * shows whether the differences are held within the warm up settling time.
+ * 
+ * Usage: ChunkedReplay [-threads n] [-chunk samples] [-warmup samples]
+ * [-lowpass] [-threshold percent] [-verify] [-tolerance ms] log
+ * 
+ * Dependencies: Depends on the LogFiles class and the SmartPedometer classes,
+ * no Android classes are required on the classpath.
+ * 
+ * Android Dependencies: No Android Dependencies
+ * 
+ * @author Peter B Norton
+ * @version 0.62
+ * 
+ *          Revision History
+ * 
+ *          0.52 Initial version of the chunked replay
+ * 
+ *          0.62 Addition of onReset to the step listener for the IStepListener
+ *          interface
+ * 
+ */
+public class ChunkedReplay {
+
+	/** Default samples in a chunk, an hour at 100 Hz */
+	public static final int DEFAULT_CHUNK = 360000;
+	/** Default warm up samples before a chunk, 30 s at 100 Hz */
+	public static final int DEFAULT_WARMUP = 3000;
+	/** Default largest shift of a step still taken as the same step in ms */
+	public static final long DEFAULT_TOLERANCE = 50L;
+	private static final int BLOCK_SIZE = 512; /* Samples per block */
+
+	/**
+	 * Step times found in a replay, grown as required
+	 */
+	private static class StepList implements IStepListener {
+		private long[] times = new long[1024];
+		private int count;
+		private long from; /* Steps before this time are not kept */
+
+		@Override
+		public void onStep(long timestamp, float peak, int n) {
+			if (timestamp < from) {
+				return;
+			}
+			for (int i = 0; i < n; i++) {
+				if (count == times.length) {
+					times = Arrays.copyOf(times, 2 * count);
+				}
+				times[count++] = timestamp;
+			}
+		}
+
+		@Override
+		public void onReset() {
+			// A replay never resets the step count
+		}
+	}
+
+	/**
+	 * Task replaying one chunk preceded by its warm up samples
+	 */
+	private static class Chunk implements Callable<StepList> {
+		private float[] values;
+		private long[] times;
+		private int length; /* Warm up and chunk samples */
+		private int warmup; /* Warm up samples at the start */
+		private byte[] seed; /* State restored before the warm up or null */
+		private boolean lowpass;
+		private int threshold;
+
+		@Override
+		public StepList call() {
+			PedometerManager manager = new PedometerManager();
+			manager.setLowPassEnable(lowpass);
+			manager.setThreshold(threshold);
+			if (seed != null) {
+				manager.restoreState(seed);
+			}
+			StepList steps = new StepList();
+			steps.from = times[warmup];
+			manager.setStepListener(steps);
+			run(manager, values, times, length);
+			return steps;
+		}
+	}
+
+	/**
+	 * Result of a replay
+	 */
+	private static class Result {
+		private long[] steps; /* Step times in order */
+		private int step_count;
+		private long[] starts; /* Time of the first sample of each chunk */
+		private int chunks;
+		private long samples;
+		private long elapsed; /* Replay time in ns */
+	}
+
+	/**
+	 * Entry point for the chunked replay
+	 * 
+	 * @param args
+	 *            Command line options followed by the log to replay
+	 */
+	public static void main(String[] args) {
+		int threads = Runtime.getRuntime().availableProcessors();
+		int chunk = DEFAULT_CHUNK;
+		int warmup = DEFAULT_WARMUP;
+		boolean lowpass = false;
+		boolean verify = false;
+		int threshold = 70;
+		long tolerance = DEFAULT_TOLERANCE;
+		int first = 0;
+		while (first < args.length && args[first].startsWith("-")) {
+			if (args[first].equals("-lowpass")) {
+				lowpass = true;
+			} else if (args[first].equals("-verify")) {
+				verify = true;
+			} else if (args[first].equals("-threads")
+					&& first + 1 < args.length) {
+				threads = Integer.parseInt(args[++first]);
+			} else if (args[first].equals("-chunk") && first + 1 < args.length) {
+				chunk = Integer.parseInt(args[++first]);
+			} else if (args[first].equals("-warmup")
+					&& first + 1 < args.length) {
+				warmup = Integer.parseInt(args[++first]);
+			} else if (args[first].equals("-threshold")
+					&& first + 1 < args.length) {
+				threshold = Integer.parseInt(args[++first]);
+			} else if (args[first].equals("-tolerance")
+					&& first + 1 < args.length) {
+				tolerance = Long.parseLong(args[++first]);
+			} else {
+				usage();
+				return;
+			}
+			first++;
+		}
+		if (args.length - first != 1 || chunk < 1 || warmup < 0) {
+			usage();
+			return;
+		}
+		File log = new File(args[first]);
+		try {
+			Result chunked = replay(log, chunk, warmup, threads, lowpass,
+					threshold);
+			System.out.println("samples\t" + chunked.samples);
+			System.out.println("chunks\t" + chunked.chunks + "\tthreads\t"
+					+ threads + "\twarm up\t" + warmup);
+			System.out.println("chunked steps\t" + chunked.step_count + "\t"
+					+ String.format("%.2f", chunked.elapsed / 1e9) + " s");
+			if (verify) {
+				Result serial = replay(log, lowpass, threshold);
+				System.out.println("serial steps\t" + serial.step_count + "\t"
+						+ String.format("%.2f", serial.elapsed / 1e9) + " s");
+				compare(serial, chunked, tolerance * 1000000L);
+			}
+		} catch (IOException e) {
+			System.err.println(args[first] + ": " + e.getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			System.err.println(args[first] + ": " + e.getCause());
+		}
+	}
+
+	/**
+	 * Replay a log in chunks
+	 * 
+	 * @param log
+	 *            Log to replay
+	 * @param chunk
+	 *            Samples in each chunk
+	 * @param warmup
+	 *            Warm up samples before each chunk but the first
+	 * @param threads
+	 *            Number of threads replaying the chunks
+	 * @param lowpass
+	 *            Low pass filter enable
+	 * @param threshold
+	 *            Threshold percentage
+	 * @return Steps found
+	 * @throws IOException
+	 *             If the log could not be read
+	 * @throws InterruptedException
+	 *             If interrupted while waiting for a chunk
+	 * @throws ExecutionException
+	 *             If a chunk failed
+	 */
+	private static Result replay(File log, int chunk, int warmup, int threads,
+			boolean lowpass, int threshold) throws IOException,
+			InterruptedException, ExecutionException {
+		final long start = System.nanoTime();
+		Result result = new Result();
+		result.steps = new long[1024];
+		result.starts = new long[16];
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<StepList>> waiting = new ArrayList<Future<StepList>>();
+		ILogReader reader = LogFiles.open(log);
+		try {
+			LogRecord record = new LogRecord();
+			Chunk previous = null;
+			byte[] seed = null;
+			boolean more = true;
+			while (more) {
+				Chunk c = new Chunk();
+				c.lowpass = lowpass;
+				c.threshold = threshold;
+				// The warm up is the end of the chunk before
+				c.warmup = (previous == null) ? 0 : Math.min(warmup,
+						previous.length);
+				c.seed = seed;
+				c.values = new float[c.warmup + chunk];
+				c.times = new long[c.warmup + chunk];
+				if (previous != null) {
+					System.arraycopy(previous.values, previous.length
+							- c.warmup, c.values, 0, c.warmup);
+					System.arraycopy(previous.times, previous.length
+							- c.warmup, c.times, 0, c.warmup);
+				}
+				c.length = c.warmup;
+				while (c.length - c.warmup < chunk) {
+					if (!reader.readRecord(record)) {
+						more = false;
+						break;
+					}
+					c.values[c.length] = record.getScalar();
+					c.times[c.length++] = record.getTimestamp();
+				}
+				if (c.length == c.warmup) {
+					break;
+				}
+				result.samples += c.length - c.warmup;
+				if (result.chunks == result.starts.length) {
+					result.starts = Arrays.copyOf(result.starts,
+							2 * result.chunks);
+				}
+				result.starts[result.chunks++] = c.times[c.warmup];
+				if (previous == null && warmup > 0) {
+					seed = seed(c, warmup, lowpass, threshold);
+				}
+				waiting.add(pool.submit(c));
+				// Hold at most two chunks for each thread
+				while (waiting.size() >= 2 * threads) {
+					add(result, waiting.remove(0).get());
+				}
+				previous = c;
+			}
+			while (!waiting.isEmpty()) {
+				add(result, waiting.remove(0).get());
+			}
+		} finally {
+			reader.close();
+			pool.shutdownNow();
+		}
+		result.elapsed = System.nanoTime() - start;
+		return result;
+	}
+
+	/**
+	 * Work out the state every chunk but the first starts from, the start of
+	 * the log is replayed so the Low Pass filter is tuned to the sample rate
+	 * the serial replay tunes it to
+	 * 
+	 * @param c
+	 *            First chunk
+	 * @param warmup
+	 *            Warm up samples before each chunk
+	 * @param lowpass
+	 *            Low pass filter enable
+	 * @param threshold
+	 *            Threshold percentage
+	 * @return Saved state of the PedometerManager
+	 */
+	private static byte[] seed(Chunk c, int warmup, boolean lowpass,
+			int threshold) {
+		PedometerManager manager = new PedometerManager();
+		manager.setLowPassEnable(lowpass);
+		manager.setThreshold(threshold);
+		run(manager, c.values, c.times, Math.min(warmup, c.length));
+		return manager.saveState();
+	}
+
+	/**
+	 * Replay a log serially through one PedometerManager
+	 * 
+	 * @param log
+	 *            Log to replay
+	 * @param lowpass
+	 *            Low pass filter enable
+	 * @param threshold
+	 *            Threshold percentage
+	 * @return Steps found, as a single chunk
+	 * @throws IOException
+	 *             If the log could not be read
+	 */
+	private static Result replay(File log, boolean lowpass, int threshold)
+			throws IOException {
+		final long start = System.nanoTime();
+		Result result = new Result();
+		result.steps = new long[0];
+		result.starts = new long[1];
+		PedometerManager manager = new PedometerManager();
+		manager.setLowPassEnable(lowpass);
+		manager.setThreshold(threshold);
+		StepList steps = new StepList();
+		steps.from = Long.MIN_VALUE;
+		manager.setStepListener(steps);
+		float[] values = new float[BLOCK_SIZE];
+		long[] times = new long[BLOCK_SIZE];
+		ILogReader reader = LogFiles.open(log);
+		try {
+			LogRecord record = new LogRecord();
+			int n = 0;
+			while (reader.readRecord(record)) {
+				if (result.samples++ == 0L) {
+					result.starts[result.chunks++] = record.getTimestamp();
+				}
+				values[n] = record.getScalar();
+				times[n] = record.getTimestamp();
+				if (++n == BLOCK_SIZE) {
+					run(manager, values, times, n);
+					n = 0;
+				}
+			}
+			run(manager, values, times, n);
+		} finally {
+			reader.close();
+		}
+		add(result, steps);
+		result.elapsed = System.nanoTime() - start;
+		return result;
+	}
+
+	/**
+	 * Add the steps of the next chunk to the result
+	 * 
+	 * @param result
+	 *            Result of the replay
+	 * @param steps
+	 *            Steps of the chunk
+	 */
+	private static void add(Result result, StepList steps) {
+		final int count = result.step_count + steps.count;
+		if (count > result.steps.length) {
+			result.steps = Arrays.copyOf(result.steps, Math.max(count,
+					2 * result.steps.length));
+		}
+		System.arraycopy(steps.times, 0, result.steps, result.step_count,
+				steps.count);
+		result.step_count = count;
+	}
+
+	/**
+	 * Run samples through a PedometerManager a block at a time
+	 * 
+	 * @param manager
+	 *            Manager to update
+	 * @param values
+	 *            Scalar values
+	 * @param times
+	 *            Time stamps
+	 * @param length
+	 *            Number of samples
+	 */
+	private static void run(PedometerManager manager, float[] values,
+			long[] times, int length) {
+		for (int i = 0; i < length; i += BLOCK_SIZE) {
+			manager.updateScalarBlock(values, times, i, Math.min(BLOCK_SIZE,
+					length - i));
+		}
+	}
+
+	/**
+	 * Compare the chunked steps with the serial steps, a step found by both
+	 * within the tolerance of each other is counted as shifted
+	 * 
+	 * @param serial
+	 *            Serial replay
+	 * @param chunked
+	 *            Chunked replay
+	 * @param tolerance
+	 *            Largest shift of a step in ns
+	 */
+	private static void compare(Result serial, Result chunked, long tolerance) {
+		int exact = 0;
+		int shifted = 0;
+		int missing = 0;
+		int extra = 0;
+		long largest = 0L; /* Largest shift of a step */
+		long latest = 0L; /* Longest time from a chunk start to a difference */
+		int i = 0;
+		int j = 0;
+		while (i < serial.step_count || j < chunked.step_count) {
+			long t;
+			if (i < serial.step_count && j < chunked.step_count
+					&& Math.abs(serial.steps[i] - chunked.steps[j]) <= tolerance) {
+				final long shift = Math.abs(serial.steps[i] - chunked.steps[j]);
+				if (shift == 0L) {
+					exact++;
+				} else {
+					shifted++;
+					largest = Math.max(largest, shift);
+				}
+				i++;
+				j++;
+				continue;
+			}
+			if (j == chunked.step_count
+					|| (i < serial.step_count && serial.steps[i] < chunked.steps[j])) {
+				t = serial.steps[i++];
+				missing++;
+			} else {
+				t = chunked.steps[j++];
+				extra++;
+			}
+			latest = Math.max(latest, t - chunk_start(chunked, t));
+		}
+		// Difference in the steps of each chunk
+		int worst = 0;
+		for (int k = 0; k < chunked.chunks; k++) {
+			final long from = chunked.starts[k];
+			final long to = (k + 1 < chunked.chunks) ? chunked.starts[k + 1]
+					: Long.MAX_VALUE;
+			worst = Math.max(worst, Math.abs(count(serial, from, to)
+					- count(chunked, from, to)));
+		}
+		System.out.println("exact\t" + exact + "\tshifted\t" + shifted
+				+ "\tlargest shift\t"
+				+ String.format("%.1f", largest / 1e6) + " ms");
+		System.out.println("missing\t" + missing + "\textra\t" + extra);
+		System.out.println("most steps different in a chunk\t" + worst);
+		System.out.println("latest difference after a chunk start\t"
+				+ String.format("%.2f", latest / 1e9) + " s");
+	}
+
+	/**
+	 * Find the start of the chunk holding a time
+	 * 
+	 * @param r
+	 *            Replay
+	 * @param t
+	 *            Time stamp
+	 * @return Time of the first sample of the chunk
+	 */
+	private static long chunk_start(Result r, long t) {
+		int k = Arrays.binarySearch(r.starts, 0, r.chunks, t);
+		if (k < 0) {
+			k = Math.max(0, -k - 2);
+		}
+		return r.starts[k];
+	}
+
+	/**
+	 * Count the steps in a range of time
+	 * 
+	 * @param r
+	 *            Replay
+	 * @param from
+	 *            First time of the range
+	 * @param to
+	 *            Time after the range
+	 * @return Number of steps
+	 */
+	private static int count(Result r, long from, long to) {
+		int a = Arrays.binarySearch(r.steps, 0, r.step_count, from);
+		int b = Arrays.binarySearch(r.steps, 0, r.step_count, to);
+		a = (a < 0) ? -a - 1 : first(r.steps, a, from);
+		b = (b < 0) ? -b - 1 : first(r.steps, b, to);
+		return b - a;
+	}
+
+	/**
+	 * Find the first of a run of equal times
+	 * 
+	 * @param times
+	 *            Sorted times
+	 * @param k
+	 *            Index of one of the run
+	 * @param t
+	 *            Time of the run
+	 * @return Index of the first of the run
+	 */
+	private static int first(long[] times, int k, long t) {
+		while (k > 0 && times[k - 1] == t) {
+			k--;
+		}
+		return k;
+	}
+
+	/**
+	 * Print the command line usage
+	 */
+	private static void usage() {
+		System.err.println("Usage: ChunkedReplay [-threads n] [-chunk samples]"
+				+ " [-warmup samples] [-lowpass] [-threshold percent]"
+				+ " [-verify] [-tolerance ms] log");
+	}
+}
@@ -0,0 +1,261 @@
+package pnorton.smartped.tools;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import pnorton.smartped.DecimatingFirFilter;
+import pnorton.smartped.IStepListener;
+import pnorton.smartped.ISampleLogger;
+import pnorton.smartped.PedometerConfig;
+import pnorton.smartped.PedometerManager;
+import pnorton.smartped.SyntheticGaitGenerator;
+
+/**
+ * Class DecimationAccuracyReport
+ * 
+ * Responsibilities: Compares the step detection at a decimated internal rate
+ * with the detection at the full sensor rate on the same input. Synthetic
+ * walking and running signals at sensor rates of 100 and 200 Hz are run
+ * through a PedometerManager at full rate and at each decimation factor. For
+ * each run one tab separated line gives the internal rate, the steps found,
+ * the steps expected from the cadence of the signal, the steps which match a
+ * full rate step within MATCH_WINDOW once the delay of the decimating filter
+ * is taken off, the mean time offset left on the matched steps, the log
+ * records written per second and the least CPU time per sensor sample of
+ * RUNS runs. Every factor is run WARM_UP_RUNS times untimed before
+ * the timed runs of a signal so the full rate is not timed before the code is
+ * compiled.
+ * 
+ * Usage: DecimationAccuracyReport [seconds]
+ * 
+ * Dependencies: Depends on the SmartPedometer classes, no Android classes are
+ * required on the classpath.
+ * 
+ * Android Dependencies: No Android Dependencies
+ * 
+ * @author Peter B Norton
+ * @version 0.63
+ * 
+ *          Revision History
+ * 
+ *          0.44 Initial version of the decimation accuracy report
+ * 
+ *          0.62 Addition of onReset to the step listener for the IStepListener
+ *          interface
+ * 
+ *          0.63 Every factor is run untimed before the timed runs and the
+ *          columns are formatted with String.format, the time per sample is the
+ *          CPU time of the thread so the compiler threads are left out
+ * 
+ */
+public class DecimationAccuracyReport {
+
+	private static final int DEFAULT_SECONDS = 600;
+	private static final int[] FACTORS = { 1, 2, 4, 8 };
+	private static final float[] SENSOR_RATES = { 100.0f, 200.0f };
+	private static final long MATCH_WINDOW = 100000000L; /* 100 ms in ns */
+	private static final int RUNS = 3; /* Runs timed for each factor */
+	private static final int WARM_UP_RUNS = 3; /* Untimed runs of each factor */
+	private static final ThreadMXBean THREADS = ManagementFactory
+			.getThreadMXBean();
+
+	/**
+	 * Listener which keeps the time of each step
+	 */
+	private static class StepTimes implements IStepListener {
+		private long[] times = new long[1024];
+		private int count;
+
+		@Override
+		public void onStep(long timestamp, float peak, int n) {
+			if (count == times.length) {
+				long[] grown = new long[2 * count];
+				System.arraycopy(times, 0, grown, 0, count);
+				times = grown;
+			}
+			times[count++] = timestamp;
+		}
+
+		@Override
+		public void onReset() {
+			// A replay never resets the step count
+		}
+	}
+
+	/**
+	 * Logger which only counts the records
+	 */
+	private static class CountingLogger implements ISampleLogger {
+		private long records;
+
+		@Override
+		public void writeRecord(float scalar, float filtered, float peak,
+				float threshold, long timestamp) {
+			records++;
+		}
+
+		@Override
+		public void setSampleRate(float sr) {
+		}
+
+		@Override
+		public String getFileName() {
+			return "count";
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	/**
+	 * Entry point for the report
+	 * 
+	 * @param args
+	 *            Optional length of each signal in seconds
+	 */
+	public static void main(String[] args) {
+		int seconds = DEFAULT_SECONDS;
+		if (args.length > 0) {
+			seconds = Integer.parseInt(args[0]);
+		}
+		System.out.println("signal\tsensor Hz\tinternal Hz\tsteps\texpected"
+				+ "\tmatched\tdelay ms\tmean offset ms\trecords/s\tns/sample");
+		for (int gait = 0; gait < 2; gait++) {
+			for (int r = 0; r < SENSOR_RATES.length; r++) {
+				report(gait == 0 ? "walking" : "running", SENSOR_RATES[r],
+						seconds);
+			}
+		}
+	}
+
+	/**
+	 * Create the generator of a signal
+	 * 
+	 * @param name
+	 *            walking or running
+	 * @param sr
+	 *            Sensor rate in Hz
+	 * @return Generator
+	 */
+	private static SyntheticGaitGenerator generator(String name, float sr) {
+		if (name.equals("walking")) {
+			return SyntheticGaitGenerator.walking(sr, 1L);
+		}
+		return SyntheticGaitGenerator.running(sr, 1L);
+	}
+
+	/**
+	 * Report one signal at every decimation factor
+	 * 
+	 * @param name
+	 *            walking or running
+	 * @param sr
+	 *            Sensor rate in Hz
+	 * @param seconds
+	 *            Length of the signal in seconds
+	 */
+	private static void report(String name, float sr, int seconds) {
+		int samples = (int) (sr * seconds);
+		float[] x = new float[samples];
+		float[] y = new float[samples];
+		float[] z = new float[samples];
+		long[] t = new long[samples];
+		SyntheticGaitGenerator gen = generator(name, sr);
+		gen.fill(x, y, z, t, 0, samples);
+		int expected = (int) (gen.getCadence() * t[samples - 1] / 1e9);
+		// Warm up every factor so none is timed before it is compiled
+		for (int run = 0; run < WARM_UP_RUNS; run++) {
+			for (int f = 0; f < FACTORS.length; f++) {
+				run(config(FACTORS[f]), x, y, z, t, new StepTimes(),
+						new CountingLogger());
+			}
+		}
+		StepTimes full = null;
+		for (int f = 0; f < FACTORS.length; f++) {
+			PedometerConfig config = config(FACTORS[f]);
+			StepTimes steps = null;
+			CountingLogger log = null;
+			long elapsed = Long.MAX_VALUE;
+			for (int run = 0; run < RUNS; run++) {
+				steps = new StepTimes();
+				log = new CountingLogger();
+				elapsed = Math.min(elapsed, run(config, x, y, z, t, steps, log));
+			}
+			if (full == null) {
+				full = steps;
+			}
+			long delay = (long) (new DecimatingFirFilter(FACTORS[f])
+					.getDelay() * 1e9 / sr);
+			int matched = 0;
+			double offset = 0.0;
+			int k = 0;
+			for (int i = 0; i < steps.count; i++) {
+				// Nearest full rate step, both lists are in time order
+				long time = steps.times[i] - delay;
+				while (k + 1 < full.count
+						&& Math.abs(full.times[k + 1] - time) <= Math
+								.abs(full.times[k] - time)) {
+					k++;
+				}
+				long d = time - full.times[k];
+				if (Math.abs(d) <= MATCH_WINDOW) {
+					matched++;
+					offset += d;
+				}
+			}
+			System.out.println(name + "\t" + String.format("%.1f", sr) + "\t"
+					+ String.format("%.1f", sr / FACTORS[f]) + "\t"
+					+ steps.count + "\t" + expected + "\t" + matched + "\t"
+					+ String.format("%.1f", delay / 1e6) + "\t"
+					+ String.format("%.2f",
+							matched > 0 ? offset / matched / 1e6 : 0.0) + "\t"
+					+ String.format("%.1f", log.records * 1e9 / t[samples - 1])
+					+ "\t" + String.format("%.1f", (double) elapsed / samples));
+		}
+	}
+
+	/**
+	 * Create the configuration for a decimation factor
+	 * 
+	 * @param factor
+	 *            Decimation factor
+	 * @return Configuration with the Low Pass filter enabled
+	 */
+	private static PedometerConfig config(int factor) {
+		return PedometerConfig.DEFAULT.withLowPass(true).withDecimation(factor);
+	}
+
+	/**
+	 * Run a signal through a new PedometerManager
+	 * 
+	 * @param config
+	 *            Configuration of the PedometerManager
+	 * @param x
+	 *            X axis values
+	 * @param y
+	 *            Y axis values
+	 * @param z
+	 *            Z axis values
+	 * @param t
+	 *            Time stamps
+	 * @param steps
+	 *            Listener keeping the step times
+	 * @param log
+	 *            Logger counting the records
+	 * @return CPU time taken by the updates in ns
+	 */
+	private static long run(PedometerConfig config, float[] x, float[] y,
+			float[] z, long[] t, StepTimes steps, CountingLogger log) {
+		PedometerManager manager = new PedometerManager(0L, 0.0f, 0, config);
+		manager.setStepListener(steps);
+		manager.openLog(log);
+		long start = THREADS.getCurrentThreadCpuTime();
+		for (int i = 0; i < x.length; i++) {
+			manager.update(x[i], y[i], z[i], t[i]);
+		}
+		long elapsed = THREADS.getCurrentThreadCpuTime() - start;
+		manager.closeLog();
+		return elapsed;
+	}
+}
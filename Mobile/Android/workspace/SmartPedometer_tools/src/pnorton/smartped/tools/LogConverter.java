@@ -0,0 +1,91 @@
+package pnorton.smartped.tools;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import pnorton.smartped.BinaryLogReader;
+import pnorton.smartped.LogRecord;
+
+/**
+ * Class LogConverter
+ * 
+ * Responsibilities: Command line tool to convert a binary log into the tab
+ * separated text format written by the DataLogger, so it can be loaded into a
+ * spreadsheet or plotting tool. The timestamp is written as a whole number of
+ * ns so no precision is lost.
+ * 
+ * Usage: LogConverter binary_log [text_log]
+ * 
+ * Dependencies: Depends on the BinaryLogReader of the SmartPedometer project
+ * 
+ * Android Dependencies: No Android Dependencies
+ * 
+ * @author Peter B Norton
+ * @version 0.33
+ * 
+ *          Revision History
+ * 
+ *          0.33 Initial version to support the binary log format
+ * 
+ */
+public class LogConverter {
+
+	/**
+	 * Entry point for the converter
+	 * 
+	 * @param args
+	 *            Binary log followed by an optional text log name, the default
+	 *            is the binary log name with a .txt extension
+	 */
+	public static void main(String[] args) {
+		if (args.length < 1 || args.length > 2) {
+			System.err.println("Usage: LogConverter binary_log [text_log]");
+			return;
+		}
+		File in = new File(args[0]);
+		File out = new File(args.length == 2 ? args[1] : args[0] + ".txt");
+		try {
+			long count = convert(in, out);
+			System.out.println(count + " records written to " + out);
+		} catch (IOException e) {
+			System.err.println(args[0] + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Convert a binary log to a text log
+	 * 
+	 * @param in
+	 *            Binary log to read
+	 * @param out
+	 *            Text log to write
+	 * @return Number of records converted
+	 * @throws IOException
+	 *             If either log could not be accessed
+	 */
+	public static long convert(File in, File out) throws IOException {
+		BinaryLogReader reader = new BinaryLogReader(in);
+		try {
+			BufferedWriter writer = new BufferedWriter(new FileWriter(out),
+					65536);
+			try {
+				LogRecord record = new LogRecord();
+				long count = 0L;
+				while (reader.readRecord(record)) {
+					writer.write(record.getScalar() + "\t"
+							+ record.getFiltered() + "\t" + record.getPeak()
+							+ "\t" + record.getThreshold() + "\t"
+							+ record.getTimestamp() + "\t\r\n");
+					count++;
+				}
+				return count;
+			} finally {
+				writer.close();
+			}
+		} finally {
+			reader.close();
+		}
+	}
+}
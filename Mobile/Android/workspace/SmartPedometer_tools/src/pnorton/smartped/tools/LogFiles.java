@@ -0,0 +1,82 @@
+package pnorton.smartped.tools;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import pnorton.smartped.BinaryDataLogger;
+import pnorton.smartped.BinaryLogReader;
+import pnorton.smartped.ILogReader;
+import pnorton.smartped.SegmentLogReader;
+import pnorton.smartped.TextLogReader;
+
+/**
+ * Class LogFiles
+ * 
+ * Responsibilities: Opens a data log with the correct reader, segment logs are
+ * recognised by the name of their first segment, binary logs by the magic
+ * number at the start of the file and anything else is read as a tab separated
+ * text log.
+ * 
+ * Dependencies: Depends on the log readers of the SmartPedometer project
+ * 
+ * Android Dependencies: No Android Dependencies
+ * 
+ * @author Peter B Norton
+ * @version 0.35
+ * 
+ *          Revision History
+ * 
+ *          0.33 Initial version to support the binary log format
+ * 
+ *          0.35 Addition of the memory mapped segment log
+ * 
+ */
+public class LogFiles {
+
+	/**
+	 * Open a data log with the reader for its format
+	 * 
+	 * @param file
+	 *            Log file to open
+	 * @return Reader for the log
+	 * @throws IOException
+	 *             If the log could not be opened
+	 */
+	public static ILogReader open(File file) throws IOException {
+		if (SegmentLogReader.isFirstSegment(file)) {
+			return new SegmentLogReader(file);
+		} else if (isBinary(file)) {
+			return new BinaryLogReader(file);
+		} else {
+			return new TextLogReader(file);
+		}
+	}
+
+	/**
+	 * Check if a file starts with the binary log magic number
+	 * 
+	 * @param file
+	 *            File to check
+	 * @return true - binary log false - any other file
+	 * @throws IOException
+	 *             If the file could not be read
+	 */
+	public static boolean isBinary(File file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			int magic = 0;
+			for (int i = 0; i < 4; i++) {
+				int b = in.read();
+				if (b < 0) {
+					return false;
+				}
+				// Magic number is little endian
+				magic |= b << (8 * i);
+			}
+			return magic == BinaryDataLogger.MAGIC;
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,184 @@
+package pnorton.smartped.tools;
+
+import java.io.IOException;
+
+import pnorton.smartped.ILogReader;
+import pnorton.smartped.ISignalFilter;
+import pnorton.smartped.LogRecord;
+import pnorton.smartped.PedometerManager;
+
+/**
+ * Class LogReplayEngine
+ * 
+ * Responsibilities: Streams a recorded data log back through either a
+ * PedometerManager or a chain of ISignalFilter objects so changes to the step
+ * detection can be checked against field recordings. The log is read one
+ * record at a time into a fixed size block which is then processed with the
+ * block methods, so memory use does not depend on the size of the log.
+ * 
+ * Dependencies: Depends on the PedometerManager, ISignalFilter and ILogReader
+ * classes from the SmartPedometer project. The PedometerManager only needs the
+ * Android classes when a log is opened so this runs on any Java VM.
+ * 
+ * Android Dependencies: No Android Dependencies
+ * 
+ * @author Peter B Norton
+ * @version 0.32
+ * 
+ *          Revision History
+ * 
+ *          0.32 Initial version of the log replay system
+ * 
+ */
+public class LogReplayEngine {
+
+	private static final int BLOCK_SIZE = 512; /* Samples per block */
+	private PedometerManager manager; /* Manager to replay through or null */
+	private ISignalFilter[] chain; /* Filter chain to replay through or null */
+	private float[] value_block;
+	private long[] time_block;
+	private LogRecord record;
+	private long samples; /* Samples replayed */
+	private long steps; /* Steps or non zero chain outputs */
+	private long elapsed; /* Total time spent replaying in ns */
+	private long process_time; /* Time spent in the filters in ns */
+
+	/**
+	 * Constructor to replay logs through a PedometerManager
+	 * 
+	 * @param pedometer
+	 *            Manager to replay through
+	 */
+	public LogReplayEngine(PedometerManager pedometer) {
+		this(pedometer, null);
+	}
+
+	/**
+	 * Constructor to replay logs through a chain of filters, each non zero
+	 * value from the last filter is counted as a step
+	 * 
+	 * @param filters
+	 *            Filters to replay through in order
+	 */
+	public LogReplayEngine(ISignalFilter[] filters) {
+		this(null, filters);
+	}
+
+	/**
+	 * Common Constructor only one of the targets should be set
+	 * 
+	 * @param pedometer
+	 *            Manager to replay through
+	 * @param filters
+	 *            Filters to replay through in order
+	 */
+	private LogReplayEngine(PedometerManager pedometer, ISignalFilter[] filters) {
+		manager = pedometer;
+		chain = filters;
+		value_block = new float[BLOCK_SIZE];
+		time_block = new long[BLOCK_SIZE];
+		record = new LogRecord();
+		samples = 0L;
+		steps = 0L;
+		elapsed = 0L;
+		process_time = 0L;
+	}
+
+	/**
+	 * Replay the scalar column of a log, the results add to any previous logs
+	 * replayed with this engine
+	 * 
+	 * @param reader
+	 *            Log to replay
+	 * @throws IOException
+	 *             If the log could not be read
+	 */
+	public void replay(ILogReader reader) throws IOException {
+		long start = System.nanoTime();
+		int n = 0;
+		while (reader.readRecord(record)) {
+			value_block[n] = record.getScalar();
+			time_block[n] = record.getTimestamp();
+			if (++n == BLOCK_SIZE) {
+				process(n);
+				n = 0;
+			}
+		}
+		if (n > 0) {
+			process(n);
+		}
+		elapsed += System.nanoTime() - start;
+	}
+
+	/**
+	 * Process a block of samples
+	 * 
+	 * @param length
+	 *            Number of samples in the block
+	 */
+	private void process(int length) {
+		long start = System.nanoTime();
+		if (manager != null) {
+			int before = manager.getSteps();
+			manager.updateScalarBlock(value_block, time_block, 0, length);
+			steps += manager.getSteps() - before;
+		} else {
+			for (int i = 0; i < chain.length; i++) {
+				chain[i].processBlock(value_block, value_block, time_block, 0,
+						length);
+			}
+			for (int i = 0; i < length; i++) {
+				if (value_block[i] != 0.0f) {
+					steps++;
+				}
+			}
+		}
+		samples += length;
+		process_time += System.nanoTime() - start;
+	}
+
+	/**
+	 * Get the number of samples replayed
+	 * 
+	 * @return Number of samples
+	 */
+	public long getSamples() {
+		return samples;
+	}
+
+	/**
+	 * Get the number of steps detected
+	 * 
+	 * @return Number of steps
+	 */
+	public long getSteps() {
+		return steps;
+	}
+
+	/**
+	 * Get the total time spent replaying including reading the logs
+	 * 
+	 * @return Elapsed time in ns
+	 */
+	public long getElapsedTime() {
+		return elapsed;
+	}
+
+	/**
+	 * Get the replay throughput including reading the logs
+	 * 
+	 * @return Samples per second
+	 */
+	public double getSamplesPerSecond() {
+		return (elapsed != 0) ? (samples * 1e9) / elapsed : 0.0;
+	}
+
+	/**
+	 * Get the throughput of the filters alone
+	 * 
+	 * @return Samples per second
+	 */
+	public double getProcessSamplesPerSecond() {
+		return (process_time != 0) ? (samples * 1e9) / process_time : 0.0;
+	}
+}
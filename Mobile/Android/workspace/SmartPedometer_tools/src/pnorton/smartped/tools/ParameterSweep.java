@@ -0,0 +1,761 @@
+package pnorton.smartped.tools;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import pnorton.smartped.ILogReader;
+import pnorton.smartped.ISampleLogger;
+import pnorton.smartped.LogRecord;
+import pnorton.smartped.PedometerConfig;
+import pnorton.smartped.PedometerManager;
+
+/**
+ * Class ParameterSweep
+ * 
+ * Responsibilities: Command line tool which tunes the step threshold, the Low
+ * Pass cut off and the number of Low Pass cascades against recordings with a
+ * known number of steps. Every combination of the given thresholds, cut offs
+ * and cascades is replayed over every recording and one tab separated line is
+ * written for each, giving the mean and worst error in the steps over the
+ * recordings, the overall bias and the CPU time taken per sample. The
+ * configurations on the Pareto front of the mean error against the CPU time,
+ * those which no other configuration beats on both, are then listed so the
+ * defaults for a class of device can be chosen from them.
+ * 
+ * The work which does not depend on a setting is done once and shared. Each
+ * recording is decoded once into arrays of the scalar values and time stamps
+ * which every replay reads. The threshold is only applied by the step detection
+ * after the filters, the zero crossing and the dynamic threshold, none of which
+ * depend on it, so each filter setting is replayed once with a logger capturing
+ * the peaks and the dynamic threshold at each peak. The steps for each
+ * threshold are then counted from the captured peaks, a step being a peak above
+ * the threshold percentage of the dynamic threshold as in the PedometerManager.
+ * Without the Low Pass filter the cut off and cascades do not change the steps
+ * so this is replayed once. The filter settings are replayed in parallel on a
+ * fork join pool with one task for each filter setting and recording. The whole
+ * set of replays is repeated a number of rounds and the least CPU time of each
+ * replay is kept, so the time taken to compile the code and any other work on
+ * the core is left out. The time includes the capture, which costs the same for
+ * each setting so the order of the settings is kept. Once done the most
+ * accurate configuration is replayed directly through a PedometerManager with
+ * its threshold set and the steps checked against the steps counted from the
+ * captured peaks.
+ * 
+ * The recordings are held in memory for the whole sweep, 12 bytes for each
+ * sample.
+ * 
+ * Usage: ParameterSweep [-threads n] [-thresholds first:last:step] [-cutoffs
+ * f,f,...] [-cascades n,n,...] [-repeats n] labels [report file]
+ * 
+ * The labels file has one line for each recording holding the path of the log
+ * and the true number of steps separated by white space, a path which is not
+ * absolute is taken from the directory of the labels file. Blank lines and
+ * lines starting with # are skipped.
+ * 
+ * Dependencies: Depends on the LogFiles class and the SmartPedometer classes,
+ * no Android classes are required on the classpath. The fork join pool needs
+ * Java 7.
+ * 
+ * Android Dependencies: No Android Dependencies
+ * 
+ * @author Peter B Norton
+ * @version 0.53
+ * 
+ *          Revision History
+ * 
+ *          0.53 Initial version of the parameter sweep
+ * 
+ */
+public class ParameterSweep {
+
+	private static final int BLOCK_SIZE = 512; /* Samples per block */
+	private static final int[] DEFAULT_THRESHOLDS = { 40, 95, 5 };
+	private static final float[] DEFAULT_CUTOFFS = { 2.0f, 3.0f, 4.0f, 5.0f,
+			6.0f, 8.0f };
+	private static final int[] DEFAULT_CASCADES = { 1, 2, 3, 4, 5, 6 };
+	private static final int DEFAULT_REPEATS = 3; /* Rounds of replays */
+	private static final String HEADER = "low pass\tcut off\tcascades"
+			+ "\tthreshold\tmean error %\tworst error %\tbias %\tcpu ns/sample";
+
+	/**
+	 * Recording decoded into memory with its true number of steps
+	 */
+	private static class Recording {
+		private File file;
+		private int truth; /* True number of steps */
+		private float[] scalar = new float[4096];
+		private long[] time = new long[4096];
+		private int length;
+		private String error; /* Why the recording failed or null */
+
+		/**
+		 * Decode the recording
+		 * 
+		 * @throws IOException
+		 *             If the recording could not be read
+		 */
+		private void load() throws IOException {
+			LogRecord record = new LogRecord();
+			ILogReader reader = LogFiles.open(file);
+			try {
+				while (reader.readRecord(record)) {
+					if (length == scalar.length) {
+						scalar = Arrays.copyOf(scalar, 2 * length);
+						time = Arrays.copyOf(time, 2 * length);
+					}
+					scalar[length] = record.getScalar();
+					time[length] = record.getTimestamp();
+					length++;
+				}
+			} finally {
+				reader.close();
+			}
+			scalar = Arrays.copyOf(scalar, length);
+			time = Arrays.copyOf(time, length);
+		}
+	}
+
+	/**
+	 * Logger keeping the value and dynamic threshold of each peak, grown as
+	 * required
+	 */
+	private static class PeakCapture implements ISampleLogger {
+		private float[] peaks = new float[1024];
+		private float[] thresholds = new float[1024];
+		private int count;
+
+		@Override
+		public void writeRecord(float scalar, float filtered, float peak,
+				float threshold, long timestamp) {
+			if (peak == 0.0f) {
+				// Never above the threshold, the peaks are not negative
+				return;
+			}
+			if (count == peaks.length) {
+				peaks = Arrays.copyOf(peaks, 2 * count);
+				thresholds = Arrays.copyOf(thresholds, 2 * count);
+			}
+			peaks[count] = peak;
+			thresholds[count] = threshold;
+			count++;
+		}
+
+		@Override
+		public void setSampleRate(float sr) {
+		}
+
+		@Override
+		public String getFileName() {
+			return "";
+		}
+
+		@Override
+		public void close() {
+		}
+
+		/**
+		 * Count the steps a threshold would give
+		 * 
+		 * @param threshold
+		 *            Threshold percentage
+		 * @return Peaks above the threshold percentage of the dynamic
+		 *         threshold
+		 */
+		private int countSteps(int threshold) {
+			// The same arithmetic as the PedometerManager step detection
+			final float fraction = (float) threshold / 100.0f;
+			int steps = 0;
+			for (int i = 0; i < count; i++) {
+				if (peaks[i] > fraction * thresholds[i]) {
+					steps++;
+				}
+			}
+			return steps;
+		}
+	}
+
+	/**
+	 * Filter setting with the peaks captured from each recording
+	 */
+	private static class FilterSetting {
+		private boolean low_pass;
+		private float cutoff; /* Low Pass cut off in Hz */
+		private int cascades;
+		private PeakCapture[] captures; /* Peaks of each recording */
+		private long[] cpu; /* Least CPU time of each replay in ns */
+
+		/**
+		 * Constructor
+		 * 
+		 * @param lp
+		 *            Low Pass filter enable
+		 * @param f
+		 *            Low Pass cut off in Hz
+		 * @param n
+		 *            Number of Low Pass cascades
+		 * @param recordings
+		 *            Number of recordings
+		 */
+		private FilterSetting(boolean lp, float f, int n, int recordings) {
+			low_pass = lp;
+			cutoff = f;
+			cascades = n;
+			captures = new PeakCapture[recordings];
+			cpu = new long[recordings];
+			Arrays.fill(cpu, Long.MAX_VALUE);
+		}
+
+		/**
+		 * Get the configuration of this setting
+		 * 
+		 * @param threshold
+		 *            Threshold percentage
+		 * @return Configuration
+		 */
+		private PedometerConfig config(int threshold) {
+			return PedometerConfig.DEFAULT.withThreshold(threshold)
+					.withLowPass(low_pass).withCutoff(cutoff)
+					.withCascades(cascades);
+		}
+	}
+
+	/**
+	 * Accuracy and cost of one configuration
+	 */
+	private static class Result {
+		private FilterSetting filter;
+		private int threshold;
+		private double mean_error; /* Mean of the absolute errors in % */
+		private double worst_error; /* Largest absolute error in % */
+		private double bias; /* Error of the total steps in % */
+		private double cost; /* CPU time in ns per sample */
+	}
+
+	/**
+	 * Task decoding one recording on a worker of the pool
+	 */
+	private static class LoadTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private Recording recording;
+
+		/**
+		 * Constructor
+		 * 
+		 * @param r
+		 *            Recording to decode
+		 */
+		private LoadTask(Recording r) {
+			recording = r;
+		}
+
+		@Override
+		protected void compute() {
+			try {
+				recording.load();
+			} catch (IOException e) {
+				recording.error = e.getMessage();
+			} catch (RuntimeException e) {
+				// A damaged recording must not stop the sweep
+				recording.error = e.toString();
+			}
+		}
+	}
+
+	/**
+	 * Task replaying one recording with one filter setting on a worker of the
+	 * pool
+	 */
+	private static class ReplayTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private static final ThreadMXBean THREADS = ManagementFactory
+				.getThreadMXBean();
+		private FilterSetting filter;
+		private Recording recording;
+		private int index; /* Index of the recording */
+
+		/**
+		 * Constructor
+		 * 
+		 * @param f
+		 *            Filter setting
+		 * @param r
+		 *            Recording to replay
+		 * @param i
+		 *            Index of the recording
+		 */
+		private ReplayTask(FilterSetting f, Recording r, int i) {
+			filter = f;
+			recording = r;
+			index = i;
+		}
+
+		@Override
+		protected void compute() {
+			final long start = THREADS.getCurrentThreadCpuTime();
+			PeakCapture capture = new PeakCapture();
+			PedometerManager manager = new PedometerManager(0L, 0.0f, 0,
+					filter.config(PedometerConfig.DEFAULT_THRESHOLD));
+			manager.openLog(capture);
+			replay(manager, recording);
+			final long cpu = THREADS.getCurrentThreadCpuTime() - start;
+			// Each round captures the same peaks
+			filter.captures[index] = capture;
+			filter.cpu[index] = Math.min(filter.cpu[index], cpu);
+		}
+	}
+
+	/**
+	 * Entry point for the parameter sweep
+	 * 
+	 * @param args
+	 *            Command line options followed by the labels file and an
+	 *            optional report file, the default is the standard output
+	 */
+	public static void main(String[] args) {
+		int threads = Runtime.getRuntime().availableProcessors();
+		int[] range = DEFAULT_THRESHOLDS;
+		float[] cutoffs = DEFAULT_CUTOFFS;
+		int[] cascades = DEFAULT_CASCADES;
+		int repeats = DEFAULT_REPEATS;
+		int first = 0;
+		try {
+			while (first < args.length && args[first].startsWith("-")) {
+				if (first + 1 == args.length) {
+					usage();
+					return;
+				} else if (args[first].equals("-threads")) {
+					threads = Integer.parseInt(args[++first]);
+				} else if (args[first].equals("-thresholds")) {
+					range = parse_ints(args[++first], ":");
+				} else if (args[first].equals("-cutoffs")) {
+					String[] parts = args[++first].split(",");
+					cutoffs = new float[parts.length];
+					for (int i = 0; i < parts.length; i++) {
+						cutoffs[i] = Float.parseFloat(parts[i]);
+					}
+				} else if (args[first].equals("-cascades")) {
+					cascades = parse_ints(args[++first], ",");
+				} else if (args[first].equals("-repeats")) {
+					repeats = Integer.parseInt(args[++first]);
+				} else {
+					usage();
+					return;
+				}
+				first++;
+			}
+		} catch (NumberFormatException e) {
+			usage();
+			return;
+		}
+		if (first == args.length || args.length - first > 2
+				|| range.length != 3 || range[2] <= 0 || repeats < 1) {
+			usage();
+			return;
+		}
+		List<Recording> list;
+		try {
+			list = read_labels(new File(args[first]));
+		} catch (IOException e) {
+			System.err.println(args[first] + ": " + e.getMessage());
+			return;
+		}
+		File output = (args.length - first == 2) ? new File(args[first + 1])
+				: null;
+
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			long start = System.nanoTime();
+			Recording[] recordings = load(pool, list);
+			long loaded = System.nanoTime();
+			if (recordings.length == 0) {
+				System.err.println("No recordings");
+				return;
+			}
+			List<FilterSetting> filters = new ArrayList<FilterSetting>();
+			filters.add(new FilterSetting(false,
+					PedometerConfig.DEFAULT_CUTOFF,
+					PedometerConfig.DEFAULT_CASCADES, recordings.length));
+			for (int i = 0; i < cutoffs.length; i++) {
+				for (int j = 0; j < cascades.length; j++) {
+					filters.add(new FilterSetting(true, cutoffs[i],
+							cascades[j], recordings.length));
+				}
+			}
+			run(pool, filters, recordings, repeats);
+			List<Result> results = new ArrayList<Result>();
+			for (FilterSetting f : filters) {
+				for (int t = range[0]; t <= range[1]; t += range[2]) {
+					results.add(score(f, t, recordings));
+				}
+			}
+			long elapsed = System.nanoTime() - start;
+			try {
+				write(results, output);
+			} catch (IOException e) {
+				System.err.println(output + ": " + e.getMessage());
+			}
+			long samples = 0L;
+			for (int i = 0; i < recordings.length; i++) {
+				samples += recordings[i].length;
+			}
+			System.err.println(recordings.length + " recordings, " + samples
+					+ " samples decoded in "
+					+ String.format("%.1f", (loaded - start) / 1e9) + " s, "
+					+ filters.size() + " filter settings replayed and "
+					+ results.size() + " configurations scored in "
+					+ String.format("%.1f", elapsed / 1e9) + " s on "
+					+ threads + " threads");
+			check(best(results), recordings);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Parse a list of integers
+	 * 
+	 * @param s
+	 *            Integers with separators
+	 * @param separator
+	 *            Regular expression of the separator
+	 * @return Integers
+	 */
+	private static int[] parse_ints(String s, String separator) {
+		String[] parts = s.split(separator);
+		int[] values = new int[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			values[i] = Integer.parseInt(parts[i]);
+		}
+		return values;
+	}
+
+	/**
+	 * Read the labels file
+	 * 
+	 * @param labels
+	 *            Labels file
+	 * @return Recordings named by the file, not yet decoded
+	 * @throws IOException
+	 *             If the file could not be read or a line is not understood
+	 */
+	private static List<Recording> read_labels(File labels) throws IOException {
+		List<Recording> list = new ArrayList<Recording>();
+		BufferedReader in = new BufferedReader(new FileReader(labels));
+		try {
+			String line;
+			int number = 0;
+			while ((line = in.readLine()) != null) {
+				number++;
+				line = line.trim();
+				if (line.length() == 0 || line.startsWith("#")) {
+					continue;
+				}
+				// The path may hold spaces so the count is the last field
+				int split = Math.max(line.lastIndexOf(' '),
+						line.lastIndexOf('\t'));
+				if (split < 0) {
+					throw new IOException("Line " + number
+							+ " has no step count");
+				}
+				Recording r = new Recording();
+				try {
+					r.truth = Integer.parseInt(line.substring(split + 1));
+				} catch (NumberFormatException e) {
+					throw new IOException("Line " + number
+							+ " has no step count");
+				}
+				r.file = new File(line.substring(0, split).trim());
+				if (!r.file.isAbsolute()) {
+					r.file = new File(labels.getAbsoluteFile().getParentFile(),
+							r.file.getPath());
+				}
+				list.add(r);
+			}
+		} finally {
+			in.close();
+		}
+		return list;
+	}
+
+	/**
+	 * Decode the recordings in parallel, the recordings which fail or have no
+	 * steps are reported and left out
+	 * 
+	 * @param pool
+	 *            Pool to decode on
+	 * @param list
+	 *            Recordings to decode
+	 * @return Recordings decoded
+	 */
+	private static Recording[] load(ForkJoinPool pool, final List<Recording> list) {
+		pool.invoke(new RecursiveAction() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void compute() {
+				List<LoadTask> tasks = new ArrayList<LoadTask>(list.size());
+				for (Recording r : list) {
+					tasks.add(new LoadTask(r));
+				}
+				ForkJoinTask.invokeAll(tasks);
+			}
+		});
+		List<Recording> good = new ArrayList<Recording>(list.size());
+		for (Recording r : list) {
+			if (r.error != null) {
+				System.err.println(r.file + ": " + r.error);
+			} else if (r.truth <= 0) {
+				System.err.println(r.file + ": no true steps");
+			} else {
+				good.add(r);
+			}
+		}
+		return good.toArray(new Recording[good.size()]);
+	}
+
+	/**
+	 * Replay every recording with every filter setting in parallel for a
+	 * number of rounds
+	 * 
+	 * @param pool
+	 *            Pool to replay on
+	 * @param filters
+	 *            Filter settings
+	 * @param recordings
+	 *            Recordings decoded
+	 * @param repeats
+	 *            Number of rounds of replays
+	 */
+	private static void run(ForkJoinPool pool,
+			final List<FilterSetting> filters, final Recording[] recordings,
+			final int repeats) {
+		for (int round = 0; round < repeats; round++) {
+			replay_round(pool, filters, recordings);
+		}
+	}
+
+	/**
+	 * Replay every recording with every filter setting once in parallel
+	 * 
+	 * @param pool
+	 *            Pool to replay on
+	 * @param filters
+	 *            Filter settings
+	 * @param recordings
+	 *            Recordings decoded
+	 */
+	private static void replay_round(ForkJoinPool pool,
+			final List<FilterSetting> filters, final Recording[] recordings) {
+		pool.invoke(new RecursiveAction() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void compute() {
+				List<ReplayTask> tasks = new ArrayList<ReplayTask>(
+						filters.size() * recordings.length);
+				for (FilterSetting f : filters) {
+					for (int i = 0; i < recordings.length; i++) {
+						tasks.add(new ReplayTask(f, recordings[i], i));
+					}
+				}
+				ForkJoinTask.invokeAll(tasks);
+			}
+		});
+	}
+
+	/**
+	 * Replay a recording through a PedometerManager in blocks
+	 * 
+	 * @param manager
+	 *            Manager to replay through
+	 * @param r
+	 *            Recording decoded
+	 */
+	private static void replay(PedometerManager manager, Recording r) {
+		for (int i = 0; i < r.length; i += BLOCK_SIZE) {
+			manager.updateScalarBlock(r.scalar, r.time, i,
+					Math.min(BLOCK_SIZE, r.length - i));
+		}
+	}
+
+	/**
+	 * Score one configuration from the captured peaks
+	 * 
+	 * @param f
+	 *            Filter setting
+	 * @param threshold
+	 *            Threshold percentage
+	 * @param recordings
+	 *            Recordings decoded
+	 * @return Accuracy and cost
+	 */
+	private static Result score(FilterSetting f, int threshold,
+			Recording[] recordings) {
+		Result result = new Result();
+		result.filter = f;
+		result.threshold = threshold;
+		long steps = 0L;
+		long truth = 0L;
+		long cpu = 0L;
+		long samples = 0L;
+		for (int i = 0; i < recordings.length; i++) {
+			final int counted = f.captures[i].countSteps(threshold);
+			final double error = 100.0
+					* Math.abs(counted - recordings[i].truth)
+					/ recordings[i].truth;
+			result.mean_error += error;
+			result.worst_error = Math.max(result.worst_error, error);
+			steps += counted;
+			truth += recordings[i].truth;
+			cpu += f.cpu[i];
+			samples += recordings[i].length;
+		}
+		result.mean_error /= recordings.length;
+		result.bias = 100.0 * (steps - truth) / truth;
+		result.cost = (samples > 0L) ? (double) cpu / samples : 0.0;
+		return result;
+	}
+
+	/**
+	 * Find the configurations on the Pareto front of the mean error against
+	 * the CPU time
+	 * 
+	 * @param results
+	 *            All the configurations
+	 * @return Configurations not beaten on both, cheapest first
+	 */
+	private static List<Result> pareto(List<Result> results) {
+		List<Result> sorted = new ArrayList<Result>(results);
+		Collections.sort(sorted, new Comparator<Result>() {
+			@Override
+			public int compare(Result a, Result b) {
+				int c = Double.compare(a.cost, b.cost);
+				return (c != 0) ? c : Double.compare(a.mean_error,
+						b.mean_error);
+			}
+		});
+		List<Result> front = new ArrayList<Result>();
+		double lowest = Double.MAX_VALUE;
+		for (Result r : sorted) {
+			if (r.mean_error < lowest) {
+				front.add(r);
+				lowest = r.mean_error;
+			}
+		}
+		return front;
+	}
+
+	/**
+	 * Find the most accurate configuration
+	 * 
+	 * @param results
+	 *            All the configurations
+	 * @return Configuration with the lowest mean error, the cheapest of any
+	 *         equal
+	 */
+	private static Result best(List<Result> results) {
+		List<Result> front = pareto(results);
+		return front.get(front.size() - 1);
+	}
+
+	/**
+	 * Write the report of all the configurations followed by the Pareto front
+	 * 
+	 * @param results
+	 *            All the configurations
+	 * @param output
+	 *            File to write or null for the standard output
+	 * @throws IOException
+	 *             If the file could not be written
+	 */
+	private static void write(List<Result> results, File output)
+			throws IOException {
+		PrintWriter out = (output != null) ? new PrintWriter(new FileWriter(
+				output)) : new PrintWriter(System.out);
+		try {
+			out.println(HEADER);
+			for (Result r : results) {
+				out.println(format(r));
+			}
+			out.println();
+			out.println("Pareto front");
+			out.println(HEADER);
+			for (Result r : pareto(results)) {
+				out.println(format(r));
+			}
+		} finally {
+			if (output != null) {
+				out.close();
+			} else {
+				out.flush();
+			}
+		}
+		if (out.checkError()) {
+			throw new IOException("Report not written");
+		}
+	}
+
+	/**
+	 * Format one line of the report
+	 * 
+	 * @param r
+	 *            Configuration
+	 * @return Tab separated line
+	 */
+	private static String format(Result r) {
+		return (r.filter.low_pass ? "on" : "off") + "\t"
+				+ (r.filter.low_pass ? r.filter.cutoff + "\t"
+						+ r.filter.cascades : "-\t-") + "\t" + r.threshold
+				+ "\t" + String.format("%.2f", r.mean_error) + "\t"
+				+ String.format("%.2f", r.worst_error) + "\t"
+				+ String.format("%.2f", r.bias) + "\t"
+				+ String.format("%.1f", r.cost);
+	}
+
+	/**
+	 * Replay a configuration directly and check the steps match those counted
+	 * from the captured peaks
+	 * 
+	 * @param r
+	 *            Configuration to check
+	 * @param recordings
+	 *            Recordings decoded
+	 */
+	private static void check(Result r, Recording[] recordings) {
+		int mismatches = 0;
+		for (int i = 0; i < recordings.length; i++) {
+			PedometerManager manager = new PedometerManager(0L, 0.0f, 0,
+					r.filter.config(r.threshold));
+			replay(manager, recordings[i]);
+			if (manager.getSteps() != r.filter.captures[i]
+					.countSteps(r.threshold)) {
+				mismatches++;
+			}
+		}
+		System.err.println("Best " + format(r).replace('\t', ' ')
+				+ ", direct replay mismatches " + mismatches);
+	}
+
+	/**
+	 * Print the command line usage
+	 */
+	private static void usage() {
+		System.err.println("Usage: ParameterSweep [-threads n]"
+				+ " [-thresholds first:last:step] [-cutoffs f,f,...]"
+				+ " [-cascades n,n,...] [-repeats n] labels [report file]");
+	}
+}
@@ -0,0 +1,111 @@
+package pnorton.smartped.tools;
+
+import java.io.File;
+import java.io.IOException;
+
+import pnorton.smartped.IIRCascadeLowPassFilter;
+import pnorton.smartped.ILogReader;
+import pnorton.smartped.ISignalFilter;
+import pnorton.smartped.PedometerManager;
+import pnorton.smartped.ZeroCrossingFilter;
+
+/**
+ * Class ReplayTool
+ * 
+ * Responsibilities: Command line front end for the LogReplayEngine, each log
+ * named on the command line is replayed through a new PedometerManager (or the
+ * low pass and zero crossing filters alone) and one tab separated line is
+ * printed per log with the sample count, step count and throughput.
+ * 
+ * Usage: ReplayTool [-lowpass] [-threshold percent] [-chain] log...
+ * 
+ * Dependencies: Depends on the LogReplayEngine and the SmartPedometer classes,
+ * no Android classes are required on the classpath.
+ * 
+ * Android Dependencies: No Android Dependencies
+ * 
+ * @author Peter B Norton
+ * @version 0.33
+ * 
+ *          Revision History
+ * 
+ *          0.32 Initial version of the log replay system
+ * 
+ *          0.33 Binary logs are now accepted as well as text logs
+ * 
+ */
+public class ReplayTool {
+
+	/**
+	 * Entry point for the replay tool
+	 * 
+	 * @param args
+	 *            Command line options followed by the logs to replay
+	 */
+	public static void main(String[] args) {
+		boolean low_pass = false;
+		boolean chain = false;
+		int threshold = 70;
+		int first = 0;
+		while (first < args.length && args[first].startsWith("-")) {
+			if (args[first].equals("-lowpass")) {
+				low_pass = true;
+			} else if (args[first].equals("-chain")) {
+				chain = true;
+			} else if (args[first].equals("-threshold")
+					&& first + 1 < args.length) {
+				threshold = Integer.parseInt(args[++first]);
+			} else {
+				usage();
+				return;
+			}
+			first++;
+		}
+		if (first == args.length) {
+			usage();
+			return;
+		}
+		System.out.println("log\tsamples\tsteps\tsamples/s\tfilter samples/s");
+		long total_samples = 0L;
+		long total_steps = 0L;
+		for (int i = first; i < args.length; i++) {
+			LogReplayEngine engine;
+			if (chain) {
+				engine = new LogReplayEngine(new ISignalFilter[] {
+						new IIRCascadeLowPassFilter(0.0625f, 4),
+						new ZeroCrossingFilter() });
+			} else {
+				PedometerManager manager = new PedometerManager();
+				manager.setLowPassEnable(low_pass);
+				manager.setThreshold(threshold);
+				engine = new LogReplayEngine(manager);
+			}
+			try {
+				ILogReader reader = LogFiles.open(new File(args[i]));
+				try {
+					engine.replay(reader);
+				} finally {
+					reader.close();
+				}
+			} catch (IOException e) {
+				System.err.println(args[i] + ": " + e.getMessage());
+				continue;
+			}
+			total_samples += engine.getSamples();
+			total_steps += engine.getSteps();
+			System.out.println(args[i] + "\t" + engine.getSamples() + "\t"
+					+ engine.getSteps() + "\t"
+					+ (long) engine.getSamplesPerSecond() + "\t"
+					+ (long) engine.getProcessSamplesPerSecond());
+		}
+		System.out.println("total\t" + total_samples + "\t" + total_steps);
+	}
+
+	/**
+	 * Print the command line usage
+	 */
+	private static void usage() {
+		System.err
+				.println("Usage: ReplayTool [-lowpass] [-threshold percent] [-chain] log...");
+	}
+}
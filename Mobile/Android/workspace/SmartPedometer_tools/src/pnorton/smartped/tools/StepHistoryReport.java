@@ -0,0 +1,197 @@
+package pnorton.smartped.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import pnorton.smartped.HistoryBucket;
+import pnorton.smartped.StepHistoryStore;
+
+/**
+ * Class StepHistoryReport
+ * 
+ * Responsibilities: Fills a StepHistoryStore with a synthetic step history
+ * and reports its size and query times. Each day has a few walks of steady
+ * cadence making up the given number of active minutes. The store is closed
+ * and opened again so the index and tiers are rebuilt from the file, then
+ * the hour, day and week rollups are checked against the sum of the stored
+ * minutes. The time of a one day minute query and of hour, day and week
+ * queries over a month and the whole history is given as the median of
+ * QUERIES random queries.
+ * 
+ * Usage: StepHistoryReport [days] [active minutes per day]
+ * 
+ * Dependencies: Depends on the SmartPedometer classes, no Android classes are
+ * required on the classpath.
+ * 
+ * Android Dependencies: No Android Dependencies
+ * 
+ * @author Peter B Norton
+ * @version 0.48
+ * 
+ *          Revision History
+ * 
+ *          0.48 Initial version of the step history report
+ * 
+ */
+public class StepHistoryReport {
+
+	private static final int DEFAULT_DAYS = 365;
+	private static final int DEFAULT_ACTIVE = 120;
+	private static final int WALKS = 4; /* Walks each day */
+	private static final int QUERIES = 1001; /* Queries timed for each type */
+	private static final long FIRST_DAY = 20454L; /* 2026-01-01 */
+
+	/**
+	 * Entry point for the report
+	 * 
+	 * @param args
+	 *            Optional number of days and active minutes per day
+	 * @throws IOException
+	 *             If the history file could not be written
+	 */
+	public static void main(String[] args) throws IOException {
+		int days = DEFAULT_DAYS;
+		int active = DEFAULT_ACTIVE;
+		if (args.length > 0) {
+			days = Integer.parseInt(args[0]);
+		}
+		if (args.length > 1) {
+			active = Integer.parseInt(args[1]);
+		}
+		File f = File.createTempFile("history", ".dat");
+		f.deleteOnExit();
+		StepHistoryStore store = new StepHistoryStore(f, 0);
+		long steps = fill(store, days, active);
+		store.close();
+		store = new StepHistoryStore(f, 0);
+		final long from = FIRST_DAY * StepHistoryStore.MINUTES_PER_DAY;
+		final long to = from + (long) days * StepHistoryStore.MINUTES_PER_DAY;
+		HistoryBucket[] out = new HistoryBucket[days * active + 1];
+
+		int minutes = store.query(StepHistoryStore.Resolution.MINUTE, from,
+				to, out);
+		System.out.println("days\t" + days);
+		System.out.println("minutes stored\t" + minutes);
+		System.out.println("file bytes\t" + f.length());
+		System.out.println("bytes/minute\t"
+				+ String.format("%.2f", (double) f.length() / minutes));
+		System.out.println("blocks\t" + store.getBlockCount());
+		System.out.println("steps\t" + steps + "\t" + sum(out, minutes));
+		StepHistoryStore.Resolution[] tiers = { StepHistoryStore.Resolution.HOUR,
+				StepHistoryStore.Resolution.DAY,
+				StepHistoryStore.Resolution.WEEK };
+		for (int i = 0; i < tiers.length; i++) {
+			// Weeks may start before the first day
+			int n = store.query(tiers[i], from
+					- StepHistoryStore.MINUTES_PER_WEEK, to, out);
+			System.out.println(tiers[i] + " periods\t" + n + "\tsteps "
+					+ sum(out, n));
+		}
+
+		System.out.println("query\tperiods\tmedian us");
+		Random random = new Random(7);
+		time(store, random, StepHistoryStore.Resolution.MINUTE, days,
+				StepHistoryStore.MINUTES_PER_DAY, out);
+		for (int i = 0; i < tiers.length; i++) {
+			time(store, random, tiers[i], days,
+					30 * StepHistoryStore.MINUTES_PER_DAY, out);
+			time(store, random, tiers[i], days, (long) days
+					* StepHistoryStore.MINUTES_PER_DAY, out);
+		}
+		store.close();
+	}
+
+	/**
+	 * Append the synthetic history
+	 * 
+	 * @param store
+	 *            Store to fill
+	 * @param days
+	 *            Number of days
+	 * @param active
+	 *            Active minutes each day
+	 * @return Steps appended
+	 * @throws IOException
+	 *             If the store could not be written
+	 */
+	private static long fill(StepHistoryStore store, int days, int active)
+			throws IOException {
+		Random random = new Random(1);
+		long steps = 0L;
+		for (int d = 0; d < days; d++) {
+			long minute = (FIRST_DAY + d) * StepHistoryStore.MINUTES_PER_DAY
+					+ 7 * 60;
+			for (int w = 0; w < WALKS; w++) {
+				float cadence = 95.0f + 30.0f * random.nextFloat();
+				float peak = 11.0f + 3.0f * random.nextFloat();
+				for (int m = 0; m < active / WALKS; m++) {
+					float c = cadence + (float) random.nextGaussian() * 2.0f;
+					int a = 50 + random.nextInt(11);
+					int st = Math.round(c * a / 60.0f);
+					store.append(minute++, st, a, c, peak
+							+ (float) random.nextGaussian() * 0.3f);
+					steps += st;
+				}
+				minute += 60 + random.nextInt(180);
+			}
+		}
+		return steps;
+	}
+
+	/**
+	 * Add up the steps of some buckets
+	 * 
+	 * @param b
+	 *            Buckets
+	 * @param n
+	 *            Number of buckets
+	 * @return Total steps
+	 */
+	private static long sum(HistoryBucket[] b, int n) {
+		long total = 0L;
+		for (int i = 0; i < n; i++) {
+			total += b[i].getSteps();
+		}
+		return total;
+	}
+
+	/**
+	 * Time queries of a range at random points of the history
+	 * 
+	 * @param store
+	 *            Store to query
+	 * @param random
+	 *            Chooses the start of each range
+	 * @param r
+	 *            Resolution of the queries
+	 * @param days
+	 *            Days in the history
+	 * @param length
+	 *            Length of each range in minutes
+	 * @param out
+	 *            Buckets to fill
+	 * @throws IOException
+	 *             If the store could not be read
+	 */
+	private static void time(StepHistoryStore store, Random random,
+			StepHistoryStore.Resolution r, int days, long length,
+			HistoryBucket[] out) throws IOException {
+		final long first = FIRST_DAY * StepHistoryStore.MINUTES_PER_DAY;
+		final long span = Math.max(1L, (long) days
+				* StepHistoryStore.MINUTES_PER_DAY - length);
+		long[] times = new long[QUERIES];
+		long periods = 0L;
+		for (int i = 0; i < QUERIES; i++) {
+			long from = first + (long) (random.nextDouble() * span);
+			long start = System.nanoTime();
+			periods += store.query(r, from, from + length, out);
+			times[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(times);
+		System.out.println(r + " " + (length / StepHistoryStore.MINUTES_PER_DAY)
+				+ " d\t" + (periods / QUERIES) + "\t"
+				+ String.format("%.1f", times[QUERIES / 2] / 1000.0));
+	}
+}
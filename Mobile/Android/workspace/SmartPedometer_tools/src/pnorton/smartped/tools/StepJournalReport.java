@@ -0,0 +1,290 @@
+package pnorton.smartped.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+import pnorton.smartped.StepJournal;
+
+/**
+ * Class StepJournalReport
+ * 
+ * Responsibilities: Reports the durability cost of the StepJournal and checks
+ * its recovery. For each step rate the steps of a simulated walk are appended
+ * to a journal with a simulated clock, the commits being made as the commit
+ * thread of the StepJournalRecorder would make them. One tab separated line
+ * gives the appends, the commits, the most commits in any minimum gap, the
+ * most steps which would have been lost by a kill, the file size and the
+ * median time of a commit including the fsync. The journal is then opened
+ * again without being closed, as after a kill, and the steps recovered are
+ * compared with the steps committed.
+ * 
+ * The recovery is then checked on damaged copies of a journal, cut at random
+ * points or with a random byte of the records changed, the steps recovered
+ * must be the checkpoint steps plus the steps of the whole records before the
+ * damage. A checkpoint is also interrupted after writing its header, none of
+ * the records before it may be counted.
+ * 
+ * Usage: StepJournalReport [minutes walked]
+ * 
+ * Dependencies: Depends on the SmartPedometer classes, no Android classes are
+ * required on the classpath.
+ * 
+ * Android Dependencies: No Android Dependencies
+ * 
+ * @author Peter B Norton
+ * @version 0.50
+ * 
+ *          Revision History
+ * 
+ *          0.50 Initial version of the step journal report
+ * 
+ */
+public class StepJournalReport {
+
+	private static final int DEFAULT_MINUTES = 10;
+	/* Step events per minute, the last far faster than walking */
+	private static final float[] RATES = { 60.0f, 120.0f, 180.0f, 3000.0f };
+	private static final long TICK = 100000000L; /* Commit thread check in ns */
+	private static final long NS_PER_MS = 1000000L;
+	private static final int DAMAGED = 500; /* Damaged copies checked */
+	private static final int BASE = 1234; /* Steps at the checkpoint */
+
+	/**
+	 * Entry point for the report
+	 * 
+	 * @param args
+	 *            Optional minutes walked for each step rate
+	 * @throws IOException
+	 *             If a journal file could not be written
+	 */
+	public static void main(String[] args) throws IOException {
+		int minutes = DEFAULT_MINUTES;
+		if (args.length > 0) {
+			minutes = Integer.parseInt(args[0]);
+		}
+		System.out.println("interval ms\t" + StepJournal.DEFAULT_INTERVAL
+				+ "\trecords\t" + StepJournal.DEFAULT_RECORDS
+				+ "\tmin gap ms\t" + StepJournal.DEFAULT_MIN_GAP);
+		System.out.println("steps/min\tappends\tcommits\tmost in gap"
+				+ "\tmost at risk\tfile bytes\tcommit us\trecovered");
+		for (int i = 0; i < RATES.length; i++) {
+			walk(RATES[i], minutes);
+		}
+		damage();
+		interrupted_checkpoint();
+	}
+
+	/**
+	 * Append a walk at a steady step rate and report the commits
+	 * 
+	 * @param rate
+	 *            Step events per minute
+	 * @param minutes
+	 *            Minutes walked
+	 * @throws IOException
+	 *             If the journal could not be written
+	 */
+	private static void walk(float rate, int minutes) throws IOException {
+		File f = File.createTempFile("journal", ".dat");
+		f.deleteOnExit();
+		StepJournal journal = new StepJournal(f);
+		journal.checkpoint(BASE);
+		final long step = (long) (60000000000.0 / rate);
+		final long stop = minutes * 60000000000L;
+		final long gap = StepJournal.DEFAULT_MIN_GAP * NS_PER_MS;
+		long[] commit_times = new long[(int) (stop / gap) + 2];
+		long[] durations = new long[commit_times.length];
+		int commits = 0;
+		int appends = 0;
+		int at_risk = 0;
+		long next_step = step;
+		long next_tick = TICK;
+		while (true) {
+			final long now = Math.min(next_step, next_tick);
+			if (now > stop) {
+				break;
+			}
+			if (now == next_step) {
+				journal.append(now / NS_PER_MS, now / NS_PER_MS, 1, now);
+				appends++;
+				next_step += step;
+			}
+			if (now == next_tick) {
+				next_tick += TICK;
+			}
+			at_risk = Math.max(at_risk, journal.getSteps()
+					- journal.getCommittedSteps());
+			final long start = System.nanoTime();
+			if (journal.commitIfDue(now)) {
+				durations[commits] = System.nanoTime() - start;
+				commit_times[commits++] = now;
+			}
+		}
+		// The most commits in any window of the minimum gap
+		int most = commits > 0 ? 1 : 0;
+		for (int i = 0, j = 0; j < commits; j++) {
+			while (commit_times[j] - commit_times[i] >= gap) {
+				i++;
+			}
+			most = Math.max(most, j - i + 1);
+		}
+		// Open the journal again as after a kill
+		StepJournal reopened = new StepJournal(f);
+		final boolean good = reopened.getSteps() == journal
+				.getCommittedSteps();
+		reopened.close();
+		long[] sorted = Arrays.copyOf(durations, commits);
+		Arrays.sort(sorted);
+		System.out.println(rate + "\t" + appends + "\t" + commits + "\t"
+				+ most + "\t" + at_risk + "\t" + f.length() + "\t"
+				+ (commits > 0 ? sorted[commits / 2] / 1000.0 : 0.0) + "\t"
+				+ (good ? "ok" : "MISMATCH " + reopened.getSteps() + " "
+						+ journal.getCommittedSteps()));
+		journal.close();
+		f.delete();
+	}
+
+	/**
+	 * Check the recovery of damaged copies of a journal
+	 * 
+	 * @throws IOException
+	 *             If a journal file could not be written
+	 */
+	private static void damage() throws IOException {
+		Random random = new Random(3);
+		File f = File.createTempFile("journal", ".dat");
+		f.deleteOnExit();
+		StepJournal journal = new StepJournal(f, 0L, 1, 0L);
+		journal.checkpoint(BASE);
+		final int records = 200;
+		int[] steps = new int[records];
+		for (int i = 0; i < records; i++) {
+			steps[i] = 1 + random.nextInt(6);
+			journal.append(i * 1000L, i * 1000L + 500L, steps[i], i);
+			journal.commit(i);
+		}
+		journal.close();
+		byte[] good = read(f);
+
+		File copy = File.createTempFile("damaged", ".dat");
+		copy.deleteOnExit();
+		int mismatches = 0;
+		for (int n = 0; n < DAMAGED; n++) {
+			byte[] bytes = good.clone();
+			int length = bytes.length;
+			int first_bad; // First record which is damaged
+			if (random.nextBoolean()) {
+				length = StepJournal.HEADER_SIZE
+						+ random.nextInt(bytes.length - StepJournal.HEADER_SIZE);
+				first_bad = (length - StepJournal.HEADER_SIZE)
+						/ StepJournal.RECORD_SIZE;
+			} else {
+				int p = StepJournal.HEADER_SIZE
+						+ random.nextInt(bytes.length - StepJournal.HEADER_SIZE);
+				bytes[p] ^= (byte) (1 + random.nextInt(255));
+				first_bad = (p - StepJournal.HEADER_SIZE)
+						/ StepJournal.RECORD_SIZE;
+			}
+			write(copy, bytes, length);
+			int expected = BASE;
+			for (int i = 0; i < first_bad; i++) {
+				expected += steps[i];
+			}
+			StepJournal recovered = new StepJournal(copy);
+			if (recovered.getSteps() != expected
+					|| recovered.getRecoveredRecords() != first_bad) {
+				mismatches++;
+			}
+			// The steps appended after recovery must follow the good records
+			recovered.append(0L, 0L, 1, 0L);
+			recovered.close();
+			recovered = new StepJournal(copy);
+			if (recovered.getSteps() != expected + 1) {
+				mismatches++;
+			}
+			recovered.close();
+		}
+		System.out.println("damaged copies\t" + DAMAGED + "\tmismatches\t"
+				+ mismatches);
+		copy.delete();
+		f.delete();
+	}
+
+	/**
+	 * Check a checkpoint interrupted once its header has been written
+	 * 
+	 * @throws IOException
+	 *             If a journal file could not be written
+	 */
+	private static void interrupted_checkpoint() throws IOException {
+		File f = File.createTempFile("journal", ".dat");
+		f.deleteOnExit();
+		StepJournal journal = new StepJournal(f, 0L, 1, 0L);
+		journal.checkpoint(BASE);
+		for (int i = 0; i < 50; i++) {
+			journal.append(i, i, 3, i);
+			journal.commit(i);
+		}
+		journal.close();
+		byte[] before = read(f);
+		journal = new StepJournal(f);
+		journal.checkpoint(BASE + 150);
+		journal.close();
+		byte[] after = read(f);
+		// The new header over the old records, the file not yet cut back
+		System.arraycopy(after, 0, before, 0, StepJournal.HEADER_SIZE);
+		write(f, before, before.length);
+		journal = new StepJournal(f);
+		System.out.println("interrupted checkpoint\t" + journal.getSteps()
+				+ "\texpected\t" + (BASE + 150) + "\tdiscarded bytes\t"
+				+ journal.getDiscardedBytes());
+		journal.close();
+		f.delete();
+	}
+
+	/**
+	 * Read a whole file
+	 * 
+	 * @param f
+	 *            File to read
+	 * @return Bytes of the file
+	 * @throws IOException
+	 *             If the file could not be read
+	 */
+	private static byte[] read(File f) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(f, "r");
+		try {
+			byte[] bytes = new byte[(int) in.length()];
+			in.readFully(bytes);
+			return bytes;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Replace the contents of a file
+	 * 
+	 * @param f
+	 *            File to write
+	 * @param bytes
+	 *            Bytes to write
+	 * @param length
+	 *            Number of bytes to write
+	 * @throws IOException
+	 *             If the file could not be written
+	 */
+	private static void write(File f, byte[] bytes, int length)
+			throws IOException {
+		RandomAccessFile out = new RandomAccessFile(f, "rw");
+		try {
+			out.setLength(0L);
+			out.write(bytes, 0, length);
+		} finally {
+			out.close();
+		}
+	}
+}